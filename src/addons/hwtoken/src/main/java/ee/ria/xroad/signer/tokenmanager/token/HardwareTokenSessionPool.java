@@ -0,0 +1,317 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.signer.tokenmanager.token;
+
+import ee.ria.xroad.common.CodedException;
+
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.State;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.objects.RSAPrivateKey;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static ee.ria.xroad.common.ErrorCodes.X_INTERNAL_ERROR;
+import static ee.ria.xroad.common.ErrorCodes.X_KEY_NOT_FOUND;
+import static ee.ria.xroad.signer.tokenmanager.token.HardwareTokenUtil.findPrivateKey;
+import static iaik.pkcs.pkcs11.Token.SessionType.SERIAL_SESSION;
+
+/**
+ * Pool of sessions for calculating signatures concurrently on a hardware token.
+ *
+ * The login state is shared by all sessions of the token, so the pool is
+ * opened after the user has logged in. Each session caches the private key
+ * handles it has used. The sessions are checked by the token worker, outside
+ * of the signing path.
+ */
+@Slf4j
+class HardwareTokenSessionPool {
+
+    private static final long SESSION_WAIT_SECONDS = 30;
+
+    private final String workerId;
+
+    private final Token token;
+
+    private final int size;
+
+    private final Set<Long> allowedMechanisms;
+
+    private final ExecutorService executor;
+
+    private final BlockingQueue<PooledSession> idleSessions = new LinkedBlockingQueue<>();
+
+    // the number of open sessions, including the sessions in use
+    private final AtomicInteger sessionCount = new AtomicInteger();
+
+    // incremented when the cached private key handles become invalid
+    private final AtomicInteger keysVersion = new AtomicInteger();
+
+    private volatile boolean open;
+
+    HardwareTokenSessionPool(String workerId, Token token, int size, Set<Long> allowedMechanisms) {
+        this.workerId = workerId;
+        this.token = token;
+        this.size = size;
+        this.allowedMechanisms = allowedMechanisms;
+
+        AtomicInteger threadNumber = new AtomicInteger();
+
+        this.executor = Executors.newFixedThreadPool(size, r -> {
+            Thread thread = new Thread(r, "hwtoken-signer-" + workerId + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+
+            return thread;
+        });
+    }
+
+    ExecutorService getExecutor() {
+        return executor;
+    }
+
+    boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Opens the sessions of the pool. Must be called after the user has
+     * logged in to the token.
+     * @throws Exception if a session cannot be opened
+     */
+    synchronized void open() throws Exception {
+        if (open) {
+            return;
+        }
+
+        try {
+            openMissingSessions();
+        } catch (Exception e) {
+            closeIdleSessions();
+
+            throw e;
+        }
+
+        open = true;
+
+        log.info("Opened {} signing sessions on token '{}'", size, workerId);
+    }
+
+    /**
+     * Closes the sessions of the pool. The sessions in use are closed when
+     * the signing is finished.
+     */
+    synchronized void close() {
+        open = false;
+
+        closeIdleSessions();
+    }
+
+    /**
+     * Closes the pool and stops the signing threads.
+     */
+    void shutdown() {
+        close();
+
+        executor.shutdownNow();
+    }
+
+    /**
+     * Invalidates the cached private key handles, e.g. after a key has
+     * been deleted.
+     */
+    void invalidateKeys() {
+        keysVersion.incrementAndGet();
+    }
+
+    /**
+     * Replaces the idle sessions that are no longer usable.
+     * @return false if the sessions are no longer logged in
+     * @throws Exception if a new session cannot be opened
+     */
+    synchronized boolean checkSessions() throws Exception {
+        if (!open) {
+            return true;
+        }
+
+        List<PooledSession> sessions = new ArrayList<>();
+        idleSessions.drainTo(sessions);
+
+        boolean loggedIn = true;
+
+        for (PooledSession session : sessions) {
+            State state = getState(session);
+
+            if (state == null) {
+                log.warn("Replacing broken signing session on token '{}'", workerId);
+
+                closeSession(session);
+            } else {
+                loggedIn &= State.RW_USER_FUNCTIONS.equals(state) || State.RO_USER_FUNCTIONS.equals(state);
+
+                idleSessions.add(session);
+            }
+        }
+
+        openMissingSessions();
+
+        return loggedIn;
+    }
+
+    /**
+     * Calculates the signature in a session of the pool.
+     * @param keyId the key id
+     * @param mechanism the signing mechanism
+     * @param data the data to be signed
+     * @return the signature
+     * @throws Exception if an error occurs
+     */
+    byte[] sign(String keyId, Mechanism mechanism, byte[] data) throws Exception {
+        PooledSession session = borrowSession();
+        boolean failed = true;
+
+        try {
+            RSAPrivateKey key = session.getPrivateKey(keyId);
+
+            if (key == null) {
+                failed = false;
+
+                throw CodedException.tr(X_KEY_NOT_FOUND, "key_not_found_on_token",
+                        "Key '%s' not found on token '%s'", keyId, workerId);
+            }
+
+            session.getSession().signInit(mechanism, key);
+
+            byte[] signature = session.getSession().sign(data);
+            failed = false;
+
+            return signature;
+        } finally {
+            releaseSession(session, failed);
+        }
+    }
+
+    private PooledSession borrowSession() throws InterruptedException {
+        PooledSession session = open ? idleSessions.poll(SESSION_WAIT_SECONDS, TimeUnit.SECONDS) : null;
+
+        if (session == null) {
+            throw new CodedException(X_INTERNAL_ERROR, "No signing session available on token %s", workerId);
+        }
+
+        return session;
+    }
+
+    private void releaseSession(PooledSession session, boolean failed) {
+        if (!open || (failed && getState(session) == null)) {
+            closeSession(session);
+        } else {
+            idleSessions.add(session);
+        }
+    }
+
+    private void openMissingSessions() throws Exception {
+        while (sessionCount.get() < size) {
+            idleSessions.add(new PooledSession(token.openSession(SERIAL_SESSION, true, null, null)));
+            sessionCount.incrementAndGet();
+        }
+    }
+
+    private void closeIdleSessions() {
+        List<PooledSession> sessions = new ArrayList<>();
+        idleSessions.drainTo(sessions);
+
+        sessions.forEach(this::closeSession);
+    }
+
+    private void closeSession(PooledSession session) {
+        sessionCount.decrementAndGet();
+
+        try {
+            session.getSession().closeSession();
+        } catch (Exception e) {
+            log.warn("Failed to close signing session on token '{}'", workerId, e);
+        }
+    }
+
+    private static State getState(PooledSession session) {
+        try {
+            return session.getSession().getSessionInfo().getState();
+        } catch (Exception e) {
+            log.debug("Failed to get session info", e);
+
+            return null;
+        }
+    }
+
+    private final class PooledSession {
+
+        private final Session session;
+
+        // maps key id (hex) to RSAPrivateKey found using this session, used by one thread at a time
+        private final Map<String, RSAPrivateKey> privateKeys = new HashMap<>();
+
+        private int privateKeysVersion = keysVersion.get();
+
+        PooledSession(Session session) {
+            this.session = session;
+        }
+
+        Session getSession() {
+            return session;
+        }
+
+        RSAPrivateKey getPrivateKey(String keyId) throws Exception {
+            int currentKeysVersion = keysVersion.get();
+
+            if (privateKeysVersion != currentKeysVersion) {
+                privateKeys.clear();
+                privateKeysVersion = currentKeysVersion;
+            }
+
+            RSAPrivateKey key = privateKeys.get(keyId);
+
+            if (key == null) {
+                key = findPrivateKey(session, keyId, allowedMechanisms);
+
+                if (key != null) {
+                    privateKeys.put(keyId, key);
+                }
+            }
+
+            return key;
+        }
+    }
+}
@@ -57,6 +57,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 import static ee.ria.xroad.common.ErrorCodes.X_INTERNAL_ERROR;
 import static ee.ria.xroad.common.ErrorCodes.X_KEY_NOT_FOUND;
@@ -110,6 +111,9 @@ public class HardwareTokenWorker extends AbstractTokenWorker {
 
     private Session activeSession;
 
+    // sessions for concurrent signing, null if signing is done in the active session
+    private final HardwareTokenSessionPool sessionPool;
+
     /**
      * @param tokenInfo the token info
      * @param tokenType the token type
@@ -119,6 +123,17 @@ public class HardwareTokenWorker extends AbstractTokenWorker {
 
         this.tokenType = tokenType;
         this.signMechanisms = createSignMechanisms(tokenType.getSignMechanismName());
+        this.sessionPool = createSessionPool(tokenType, getWorkerId());
+    }
+
+    private static HardwareTokenSessionPool createSessionPool(HardwareTokenType tokenType, String workerId) {
+        // With PIN verification per signing, every signature logs the user in and out of the whole token
+        if (tokenType.getSignSessionPoolSize() < 2 || tokenType.isPinVerificationPerSigning()) {
+            return null;
+        }
+
+        return new HardwareTokenSessionPool(workerId, tokenType.getToken(), tokenType.getSignSessionPoolSize(),
+                tokenType.getPrivKeyAttributes().getAllowedMechanisms());
     }
 
     private static Map<String, Mechanism> createSignMechanisms(String signMechanismName) {
@@ -199,6 +214,10 @@ public class HardwareTokenWorker extends AbstractTokenWorker {
         } catch (Exception e) {
             log.warn("Failed to close active session", e);
         }
+
+        if (sessionPool != null) {
+            sessionPool.shutdown();
+        }
     }
 
     @Override
@@ -209,6 +228,7 @@ public class HardwareTokenWorker extends AbstractTokenWorker {
             findKeysNotInConf();
             findPublicKeysForPrivateKeys();
             findCertificatesNotInConf();
+            checkSessionPool();
         }
     }
 
@@ -221,6 +241,11 @@ public class HardwareTokenWorker extends AbstractTokenWorker {
         }
     }
 
+    @Override
+    protected Executor getSignExecutor() {
+        return sessionPool != null && sessionPool.isOpen() ? sessionPool.getExecutor() : null;
+    }
+
     @Override
     protected Exception customizeException(Exception e) {
         if (e instanceof PKCS11Exception) {
@@ -325,6 +350,10 @@ public class HardwareTokenWorker extends AbstractTokenWorker {
             try {
                 activeSession.destroyObject(privateKey);
                 privateKeys.remove(keyId);
+
+                if (sessionPool != null) {
+                    sessionPool.invalidateKeys();
+                }
             } catch (Exception e) {
                 throw new CodedException(X_INTERNAL_ERROR, "Failed to delete private key '%s' on token '%s': %s",
                         keyId, getWorkerId(), e);
@@ -397,6 +426,10 @@ public class HardwareTokenWorker extends AbstractTokenWorker {
     protected byte[] sign(String keyId, String signatureAlgorithmId, byte[] data) throws Exception {
         log.trace("sign({}, {})", keyId, signatureAlgorithmId);
 
+        if (sessionPool != null && sessionPool.isOpen()) {
+            return signInSessionPool(keyId, signatureAlgorithmId, data);
+        }
+
         assertActiveSession();
 
         if (tokenType.isPinVerificationPerSigning()) {
@@ -423,12 +456,7 @@ public class HardwareTokenWorker extends AbstractTokenWorker {
         log.debug("Signing with key '{}' and signature algorithm '{}'", keyId, signatureAlgorithmId);
 
         try {
-            Mechanism signMechanism = signMechanisms.get(signatureAlgorithmId);
-
-            if (signMechanism == null) {
-                throw CodedException.tr(X_UNSUPPORTED_SIGN_ALGORITHM, "unsupported_sign_algorithm",
-                        "Unsupported signature algorithm '%s'", signatureAlgorithmId);
-            }
+            Mechanism signMechanism = getSignMechanism(signatureAlgorithmId);
 
             activeSession.signInit(signMechanism, key);
 
@@ -444,6 +472,27 @@ public class HardwareTokenWorker extends AbstractTokenWorker {
         }
     }
 
+    private byte[] signInSessionPool(String keyId, String signatureAlgorithmId, byte[] data) throws Exception {
+        if (!isKeyAvailable(keyId)) {
+            throw keyNotAvailable(keyId);
+        }
+
+        log.debug("Signing with key '{}' and signature algorithm '{}'", keyId, signatureAlgorithmId);
+
+        return sessionPool.sign(keyId, getSignMechanism(signatureAlgorithmId), data);
+    }
+
+    private Mechanism getSignMechanism(String signatureAlgorithmId) {
+        Mechanism signMechanism = signMechanisms.get(signatureAlgorithmId);
+
+        if (signMechanism == null) {
+            throw CodedException.tr(X_UNSUPPORTED_SIGN_ALGORITHM, "unsupported_sign_algorithm",
+                    "Unsupported signature algorithm '%s'", signatureAlgorithmId);
+        }
+
+        return signMechanism;
+    }
+
     // ------------------------------------------------------------------------
 
     private void findKeysNotInConf() throws Exception {
@@ -596,6 +645,8 @@ public class HardwareTokenWorker extends AbstractTokenWorker {
 
             throw e;
         }
+
+        openSessionPool();
     }
 
     private void logout() throws Exception {
@@ -605,6 +656,10 @@ public class HardwareTokenWorker extends AbstractTokenWorker {
 
         privateKeys.clear();
 
+        if (sessionPool != null) {
+            sessionPool.close();
+        }
+
         log.trace("logout()");
 
         try {
@@ -622,6 +677,37 @@ public class HardwareTokenWorker extends AbstractTokenWorker {
         }
     }
 
+    private void openSessionPool() {
+        if (sessionPool == null) {
+            return;
+        }
+
+        try {
+            // The key handles may have changed while logged out
+            sessionPool.invalidateKeys();
+            sessionPool.open();
+        } catch (Exception e) {
+            // Signing falls back to the active session
+            log.error("Failed to open signing sessions on token '{}'", getWorkerId(), e);
+        }
+    }
+
+    private void checkSessionPool() {
+        if (sessionPool == null || !sessionPool.isOpen()) {
+            return;
+        }
+
+        try {
+            if (!sessionPool.checkSessions()) {
+                log.warn("Signing sessions on token '{}' are not logged in, logging in again", getWorkerId());
+
+                login();
+            }
+        } catch (Exception e) {
+            log.error("Failed to check signing sessions on token '{}'", getWorkerId(), e);
+        }
+    }
+
     private void createSession() throws Exception {
         closeActiveSession();
 
@@ -0,0 +1,219 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.signer.tokenmanager.token;
+
+import ee.ria.xroad.common.CodedException;
+
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Notify;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.SessionInfo;
+import iaik.pkcs.pkcs11.State;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.RSAPrivateKey;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the signing session pool of a hardware token with mocked PKCS#11 sessions.
+ */
+public class HardwareTokenSessionPoolTest {
+
+    private static final String KEY_ID = "0a0b";
+    private static final byte[] DATA = {1, 2, 3};
+    private static final byte[] SIGNATURE = {4, 5, 6};
+    private static final Mechanism MECHANISM = Mechanism.get(PKCS11Constants.CKM_RSA_PKCS);
+
+    private final List<Session> sessions = new ArrayList<>();
+
+    private Token token;
+    private State state;
+    private HardwareTokenSessionPool pool;
+
+    /**
+     * Creates a token that opens a new mocked session for every request.
+     * @throws Exception if an error occurs
+     */
+    @Before
+    public void setUp() throws Exception {
+        state = State.RW_USER_FUNCTIONS;
+        token = mock(Token.class);
+
+        when(token.openSession(anyBoolean(), anyBoolean(), any(), any(Notify.class))).thenAnswer(invocation -> {
+            Session session = mock(Session.class);
+            SessionInfo sessionInfo = mock(SessionInfo.class);
+
+            when(session.getSessionInfo()).thenReturn(sessionInfo);
+            when(sessionInfo.getState()).thenAnswer(info -> state);
+            when(session.findObjects(anyInt())).thenReturn(new RSAPrivateKey[] {new RSAPrivateKey()});
+            when(session.sign(DATA)).thenReturn(SIGNATURE);
+
+            sessions.add(session);
+
+            return session;
+        });
+    }
+
+    /**
+     * Stops the signing threads.
+     */
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Tests that the sessions are opened, reused for signing and closed.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void signsInPooledSessions() throws Exception {
+        pool = createPool(2);
+
+        assertEquals(2, sessions.size());
+        assertTrue(pool.isOpen());
+
+        for (int i = 0; i < 4; i++) {
+            assertArrayEquals(SIGNATURE, pool.sign(KEY_ID, MECHANISM, DATA));
+        }
+
+        assertEquals(2, sessions.size());
+
+        pool.close();
+
+        assertFalse(pool.isOpen());
+        for (Session session : sessions) {
+            verify(session).closeSession();
+        }
+
+        try {
+            pool.sign(KEY_ID, MECHANISM, DATA);
+            fail("Signing in a closed pool must fail");
+        } catch (CodedException expected) {
+            // expected
+        }
+    }
+
+    /**
+     * Tests that a session that fails while signing is closed and replaced by the next check.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void replacesBrokenSession() throws Exception {
+        pool = createPool(1);
+
+        Session broken = sessions.get(0);
+        when(broken.sign(DATA)).thenThrow(new TokenException("broken"));
+        when(broken.getSessionInfo()).thenThrow(new TokenException("broken"));
+
+        try {
+            pool.sign(KEY_ID, MECHANISM, DATA);
+            fail("Signing in a broken session must fail");
+        } catch (TokenException expected) {
+            // expected
+        }
+
+        verify(broken).closeSession();
+
+        assertTrue(pool.checkSessions());
+        assertEquals(2, sessions.size());
+        assertArrayEquals(SIGNATURE, pool.sign(KEY_ID, MECHANISM, DATA));
+    }
+
+    /**
+     * Tests that the private key handles are looked up once per session until they are invalidated.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void cachesKeyHandlesUntilInvalidated() throws Exception {
+        pool = createPool(1);
+
+        Session session = sessions.get(0);
+
+        pool.sign(KEY_ID, MECHANISM, DATA);
+        pool.sign(KEY_ID, MECHANISM, DATA);
+
+        verify(session, times(1)).findObjectsInit(any(RSAPrivateKey.class));
+
+        pool.invalidateKeys();
+        pool.sign(KEY_ID, MECHANISM, DATA);
+
+        verify(session, times(2)).findObjectsInit(any(RSAPrivateKey.class));
+    }
+
+    /**
+     * Tests that the check reports sessions that are no longer logged in, so that the token worker logs in
+     * again, and that the sessions are kept since the login state is shared by all sessions of the token.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void checkReportsLoggedOutSessions() throws Exception {
+        pool = createPool(2);
+
+        state = State.RW_PUBLIC_SESSION;
+
+        assertFalse(pool.checkSessions());
+
+        // the token worker logs the user in again
+        state = State.RW_USER_FUNCTIONS;
+
+        assertTrue(pool.checkSessions());
+        assertEquals(2, sessions.size());
+        for (Session session : sessions) {
+            verify(session, never()).closeSession();
+        }
+    }
+
+    private HardwareTokenSessionPool createPool(int size) throws Exception {
+        HardwareTokenSessionPool sessionPool =
+                new HardwareTokenSessionPool("test", token, size, Collections.emptySet());
+        sessionPool.open();
+
+        return sessionPool;
+    }
+}
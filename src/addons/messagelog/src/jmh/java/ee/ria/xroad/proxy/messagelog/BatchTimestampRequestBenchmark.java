@@ -0,0 +1,106 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.messagelog;
+
+import ee.ria.xroad.common.messagelog.MessageLogProperties;
+
+import ch.qos.logback.classic.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static ee.ria.xroad.common.util.CryptoUtils.encodeBase64;
+
+/**
+ * Builds the hash chain result and the hash chains of a batch time-stamp request.
+ * Run with {@code -prof gc} to see the allocation rate per batch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class BatchTimestampRequestBenchmark {
+
+    @Param({"100", "10000"})
+    public int leafCount;
+
+    @Param({"SHA-512"})
+    public String hashAlgorithm;
+
+    private Long[] logRecords;
+    private String[] signatureHashes;
+
+    /**
+     * Creates the signature hashes of the batch.
+     * @throws Exception in case of any errors
+     */
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        ((Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(ch.qos.logback.classic.Level.WARN);
+        ((Logger) LoggerFactory.getLogger("ee.ria.xroad")).setLevel(ch.qos.logback.classic.Level.WARN);
+
+        System.setProperty(MessageLogProperties.HASH_ALGO_ID, hashAlgorithm);
+
+        Random random = new Random(leafCount);
+        byte[] hash = new byte[64];
+
+        logRecords = new Long[leafCount];
+        signatureHashes = new String[leafCount];
+
+        for (int i = 0; i < leafCount; i++) {
+            random.nextBytes(hash);
+            logRecords[i] = (long) i;
+            signatureHashes[i] = encodeBase64(hash);
+        }
+    }
+
+    /**
+     * @return the request data and the hash chains
+     * @throws Exception in case of any errors
+     */
+    @Benchmark
+    public Object buildHashChains() throws Exception {
+        BatchTimestampRequest request = new BatchTimestampRequest(logRecords, signatureHashes);
+
+        request.getRequestData();
+
+        return request;
+    }
+}
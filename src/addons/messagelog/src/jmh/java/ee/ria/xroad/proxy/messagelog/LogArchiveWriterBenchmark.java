@@ -0,0 +1,158 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.messagelog;
+
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.messagelog.LogRecord;
+import ee.ria.xroad.common.messagelog.MessageLogProperties;
+import ee.ria.xroad.common.messagelog.MessageRecord;
+import ee.ria.xroad.common.messagelog.TimestampRecord;
+import ee.ria.xroad.common.messagelog.archive.DigestEntry;
+import ee.ria.xroad.common.messagelog.archive.LogArchiveBase;
+import ee.ria.xroad.common.messagelog.archive.LogArchiveWriter;
+
+import ch.qos.logback.classic.Logger;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Archives message records to log archive files, as the log archiver does. The records are generated on the fly,
+ * so the time includes creating the ASiC containers. The archive directory is on the default temporary file system.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1, batchSize = 1)
+@Measurement(iterations = 3, batchSize = 1)
+@Fork(1)
+public class LogArchiveWriterBenchmark {
+
+    private static final int RECORDS_PER_TIMESTAMP = 100;
+
+    private static final ClientId CLIENT = ClientId.create("EE", "memberClass", "memberCode", "subsystemCode");
+
+    @Param({"1000000"})
+    public int recordCount;
+
+    private Path archiveDir;
+
+    /**
+     * Lowers the logging level.
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+        ((Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(ch.qos.logback.classic.Level.WARN);
+        ((Logger) LoggerFactory.getLogger("ee.ria.xroad")).setLevel(ch.qos.logback.classic.Level.WARN);
+    }
+
+    /**
+     * Creates an empty archive directory.
+     * @throws Exception in case of any errors
+     */
+    @Setup(Level.Iteration)
+    public void createDirectory() throws Exception {
+        archiveDir = Files.createTempDirectory("mlog-archive");
+
+        System.setProperty(MessageLogProperties.ARCHIVE_PATH, archiveDir.toString());
+    }
+
+    /**
+     * Deletes the created archives.
+     */
+    @TearDown(Level.Iteration)
+    public void deleteDirectory() {
+        FileUtils.deleteQuietly(archiveDir.toFile());
+    }
+
+    /**
+     * @return number of rotated archive files
+     * @throws Exception in case of any errors
+     */
+    @Benchmark
+    public int archive() throws Exception {
+        int rotations = 0;
+
+        try (LogArchiveWriter writer = new LogArchiveWriter(archiveDir, new NoopLogArchiveBase())) {
+            TimestampRecord timestamp = null;
+
+            for (long i = 0; i < recordCount; i++) {
+                if (i % RECORDS_PER_TIMESTAMP == 0) {
+                    timestamp = new TimestampRecord();
+                    timestamp.setId(-i);
+                    timestamp.setTimestamp("ts");
+                    timestamp.setHashChainResult("hashChainResult");
+                    timestamp.setTime(i);
+                }
+
+                MessageRecord record = new MessageRecord("qid" + i, "<message>" + i + "</message>", "signature",
+                        i % 2 == 1, CLIENT, "92060130-3ba8-4e35-89e2-41b90aac074b");
+                record.setId(i);
+                record.setTime(i);
+                record.setTimestampRecord(timestamp);
+                record.setTimestampHashChain("hashChain");
+
+                if (writer.write(record)) {
+                    rotations++;
+                }
+            }
+        }
+
+        return rotations;
+    }
+
+    private static final class NoopLogArchiveBase implements LogArchiveBase {
+        @Override
+        public void markArchiveCreated(DigestEntry lastArchive) {
+            // Not stored.
+        }
+
+        @Override
+        public void markRecordArchived(LogRecord logRecord) {
+            // Not stored.
+        }
+
+        @Override
+        public DigestEntry loadLastArchive() {
+            return DigestEntry.empty();
+        }
+    }
+}
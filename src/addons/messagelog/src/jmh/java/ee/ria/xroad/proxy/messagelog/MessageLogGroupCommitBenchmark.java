@@ -0,0 +1,173 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.messagelog;
+
+import ee.ria.xroad.common.message.SoapMessageImpl;
+import ee.ria.xroad.common.messagelog.MessageLogProperties;
+import ee.ria.xroad.common.messagelog.SoapLogMessage;
+import ee.ria.xroad.common.signature.SignatureData;
+import ee.ria.xroad.common.util.JobManager;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.pattern.Patterns;
+import akka.util.Timeout;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigValueFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.concurrent.TimeUnit;
+
+import static ee.ria.xroad.proxy.messagelog.TestUtil.createMessage;
+import static ee.ria.xroad.proxy.messagelog.TestUtil.createSignature;
+
+/**
+ * Message log throughput with one transaction per message ({@code groupCommitMaxBatchSize = 1}) and with
+ * group commit. Every benchmark thread plays a proxy request thread that waits until its message is logged.
+ *
+ * Uses a local PostgreSQL database by default (database, user and password {@code messagelog}); the connection
+ * can be changed with the {@code messagelog.hibernate.*} system properties, e.g.
+ * {@code -jvmArgsAppend -Dmessagelog.hibernate.connection.url=jdbc:postgresql://db:5432/messagelog}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+@Threads(32)
+public class MessageLogGroupCommitBenchmark {
+
+    private static final Timeout TIMEOUT = new Timeout(Duration.create(30, TimeUnit.SECONDS));
+
+    @Param({"1", "50"})
+    public int groupCommitMaxBatchSize;
+
+    @Param({"0"})
+    public int groupCommitWindow;
+
+    private JobManager jobManager;
+    private ActorSystem actorSystem;
+    private ActorRef logManager;
+    private SoapMessageImpl message;
+    private SignatureData signature;
+
+    /**
+     * Starts the log manager against the benchmark database.
+     * @throws Exception in case of any errors
+     */
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        TestUtil.initForTest();
+
+        setDefault("messagelog.hibernate.dialect", "org.hibernate.dialect.PostgreSQL95Dialect");
+        setDefault("messagelog.hibernate.connection.driver_class", "org.postgresql.Driver");
+        setDefault("messagelog.hibernate.connection.url", "jdbc:postgresql://127.0.0.1:5432/messagelog");
+        setDefault("messagelog.hibernate.connection.username", "messagelog");
+        setDefault("messagelog.hibernate.connection.password", "messagelog");
+
+        System.setProperty(MessageLogProperties.TIMESTAMP_IMMEDIATELY, "false");
+        System.setProperty(MessageLogProperties.ARCHIVE_INTERVAL, "0 0 0 1 1 ? 2099");
+        System.setProperty(MessageLogProperties.CLEAN_INTERVAL, "0 0 0 1 1 ? 2099");
+        System.setProperty(MessageLogProperties.GROUP_COMMIT_MAX_BATCH_SIZE,
+                String.valueOf(groupCommitMaxBatchSize));
+        System.setProperty(MessageLogProperties.GROUP_COMMIT_WINDOW, String.valueOf(groupCommitWindow));
+
+        message = createMessage("benchmark");
+        signature = createSignature();
+
+        jobManager = new JobManager();
+        actorSystem = ActorSystem.create("Proxy", ConfigFactory.load()
+                .getConfig("proxy")
+                .withValue("akka.actor.provider", ConfigValueFactory.fromAnyRef("local")));
+        logManager = actorSystem.actorOf(Props.create(BenchmarkLogManager.class, jobManager),
+                MessageLog.LOG_MANAGER);
+    }
+
+    /**
+     * Stops the log manager.
+     * @throws Exception in case of any errors
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        jobManager.stop();
+        Await.ready(actorSystem.terminate(), Duration.Inf());
+    }
+
+    /**
+     * Logs one message and waits for the acknowledgement.
+     * @return the reply of the log manager
+     * @throws Exception if logging fails
+     */
+    @Benchmark
+    public Object log() throws Exception {
+        Object result = Await.result(Patterns.ask(logManager, new SoapLogMessage(message, signature, true),
+                TIMEOUT), TIMEOUT.duration());
+
+        if (result instanceof Exception) {
+            throw (Exception) result;
+        }
+
+        return result;
+    }
+
+    private static void setDefault(String key, String value) {
+        if (System.getProperty(key) == null) {
+            System.setProperty(key, value);
+        }
+    }
+
+    /**
+     * Log manager that does not start periodical time-stamping during the benchmark.
+     */
+    public static class BenchmarkLogManager extends LogManager {
+
+        BenchmarkLogManager(JobManager jobManager) throws Exception {
+            super(jobManager);
+        }
+
+        @Override
+        protected FiniteDuration getTimestamperJobInitialDelay() {
+            return Duration.create(1, TimeUnit.HOURS);
+        }
+    }
+}
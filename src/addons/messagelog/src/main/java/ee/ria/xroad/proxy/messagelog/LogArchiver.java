@@ -47,13 +47,21 @@ import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Root;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static ee.ria.xroad.common.messagelog.MessageLogProperties.getArchiveTransferCommand;
 import static ee.ria.xroad.proxy.messagelog.MessageLogDatabaseCtx.doInTransaction;
@@ -63,6 +71,11 @@ import static org.apache.commons.lang3.StringUtils.isBlank;
 /**
  * Reads all non-archived time-stamped records from the database, writes them
  * to archive file and marks the records as archived.
+ *
+ * In keyset paginated mode the message records are read in the order of their
+ * ids a page at a time, their ASiC containers are created in parallel by the
+ * archive workers of the actor and the records are marked archived with
+ * set-based updates.
  */
 @Slf4j
 @RequiredArgsConstructor
@@ -71,12 +84,15 @@ public class LogArchiver extends UntypedActor {
     private static final int MAX_RECORDS_IN_ARCHIVE = 10;
     private static final int MAX_RECORDS_IN_BATCH = 360;
     private static final String PROPERTY_NAME_ARCHIVED = "archived";
+    private static final Future<byte[]> NOT_SUBMITTED = CompletableFuture.completedFuture(null);
 
     public static final String START_ARCHIVING = "doArchive";
 
     private final Path archivePath;
-    private final Path workingPath;
     private boolean safeTransactionBatch;
+    private long lastArchivedId;
+    private ExecutorService executor;
+    private int workerCount;
 
     @Override
     public void onReceive(Object message) {
@@ -86,6 +102,8 @@ public class LogArchiver extends UntypedActor {
             try {
                 Long maxTimestampId = doInTransaction(session -> getMaxTimestampId(session));
                 if (maxTimestampId != null) {
+                    lastArchivedId = 0;
+
                     while (handleArchive(maxTimestampId)) {
                     }
                 }
@@ -97,7 +115,18 @@ public class LogArchiver extends UntypedActor {
         }
     }
 
+    @Override
+    public void postStop() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
     private boolean handleArchive(long maxTimestampId) throws Exception {
+        if (MessageLogProperties.isArchiveKeysetPaginationEnabled()) {
+            return handleKeysetArchive(maxTimestampId);
+        }
+
         return doInTransaction(session -> {
             List<LogRecord> records = getRecordsToBeArchived(session, maxTimestampId);
             if (records == null || records.isEmpty()) {
@@ -110,7 +139,7 @@ public class LogArchiver extends UntypedActor {
             long start = System.currentTimeMillis();
             int recordsArchived = 0;
 
-            try (LogArchiveWriter archiveWriter = createLogArchiveWriter(session)) {
+            try (LogArchiveWriter archiveWriter = createLogArchiveWriter(session, false)) {
                 while (!records.isEmpty()) {
                     if (archive(archiveWriter, records)) {
                         runTransferCommand(getArchiveTransferCommand());
@@ -144,6 +173,119 @@ public class LogArchiver extends UntypedActor {
         });
     }
 
+    private boolean handleKeysetArchive(long maxTimestampId) throws Exception {
+        return doInTransaction(session -> {
+            int pageSize = MessageLogProperties.getArchivePageSize();
+
+            List<MessageRecord> records = getTimestampedMessageRecords(session, lastArchivedId, maxTimestampId,
+                    pageSize);
+            if (records.isEmpty()) {
+                markTimestampRecordsArchived(session, maxTimestampId);
+                log.info("No records to be archived at this time");
+                return false;
+            }
+
+            log.info("Archiving log records...");
+
+            long start = System.currentTimeMillis();
+            int recordsArchived = 0;
+
+            try (LogArchiveWriter archiveWriter = createLogArchiveWriter(session, true)) {
+                while (!records.isEmpty()) {
+                    if (archiveMessages(archiveWriter, records)) {
+                        runTransferCommand(getArchiveTransferCommand());
+                    }
+
+                    long firstId = records.get(0).getId();
+                    lastArchivedId = records.get(records.size() - 1).getId();
+                    recordsArchived += markMessageRecordsArchived(session, firstId, lastArchivedId, maxTimestampId);
+
+                    // flush the pending changes (e.g. the digest of a rotated archive) before discarding them
+                    session.flush();
+                    session.clear();
+
+                    if (recordsArchived >= MessageLogProperties.getArchiveTransactionBatchSize()) {
+                        recordsArchived += markTimestampRecordsArchived(session, maxTimestampId);
+                        log.info("Archived {} log records in {} ms", recordsArchived,
+                                System.currentTimeMillis() - start);
+                        return true;
+                    }
+
+                    records = getTimestampedMessageRecords(session, lastArchivedId, maxTimestampId, pageSize);
+                }
+
+                recordsArchived += markTimestampRecordsArchived(session, maxTimestampId);
+            } catch (Exception e) {
+                throw new CodedException(ErrorCodes.X_INTERNAL_ERROR, e);
+            } finally {
+                runTransferCommand(getArchiveTransferCommand());
+            }
+
+            log.info("Archived {} log records in {} ms", recordsArchived,
+                    System.currentTimeMillis() - start);
+
+            return false;
+        });
+    }
+
+    /**
+     * Creates the ASiC containers of the records in parallel and writes them to the archive in the order of
+     * the records, so that the archives do not depend on the scheduling of the workers. At most one record per
+     * worker is in flight, the next one is submitted after the oldest has been written.
+     */
+    private boolean archiveMessages(LogArchiveWriter archiveWriter, List<MessageRecord> records) throws Exception {
+        if (executor == null) {
+            workerCount = MessageLogProperties.getArchiveWorkerCount();
+            executor = Executors.newFixedThreadPool(workerCount);
+        }
+
+        Deque<Future<byte[]>> containers = new ArrayDeque<>(workerCount);
+        boolean producedArchiveFile = false;
+        int written = 0;
+        try {
+            for (MessageRecord record : records) {
+                if (containers.size() == workerCount) {
+                    producedArchiveFile |= write(archiveWriter, records.get(written++), containers.poll());
+                }
+
+                // The attachment is read through the database connection of the session, which must not be used
+                // concurrently, so these containers are created while writing.
+                containers.add(record.getAttachment() == null
+                        ? executor.submit(() -> createAsicContainer(record)) : NOT_SUBMITTED);
+            }
+
+            while (!containers.isEmpty()) {
+                producedArchiveFile |= write(archiveWriter, records.get(written++), containers.poll());
+            }
+        } finally {
+            containers.forEach(container -> container.cancel(true));
+        }
+
+        return producedArchiveFile;
+    }
+
+    private static boolean write(LogArchiveWriter archiveWriter, MessageRecord record, Future<byte[]> container)
+            throws Exception {
+        return container == NOT_SUBMITTED
+                ? archiveWriter.write(record)
+                : archiveWriter.write(record, getAsicContainer(container));
+    }
+
+    private static byte[] createAsicContainer(MessageRecord record) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        record.toAsicContainer().write(out);
+
+        return out.toByteArray();
+    }
+
+    private static byte[] getAsicContainer(Future<byte[]> container) throws Exception {
+        try {
+            return container.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
     private boolean archive(LogArchiveWriter archiveWriter, List<LogRecord> records) throws Exception {
 
         boolean producedArchiveFile = false;
@@ -154,11 +296,10 @@ public class LogArchiver extends UntypedActor {
         return producedArchiveFile;
     }
 
-    private LogArchiveWriter createLogArchiveWriter(Session session) {
+    private LogArchiveWriter createLogArchiveWriter(Session session, boolean recordsMarkedInBulk) {
         return new LogArchiveWriter(
                 getArchivePath(),
-                getWorkingPath(),
-                this.new HibernateLogArchiveBase(session)
+                this.new HibernateLogArchiveBase(session, recordsMarkedInBulk)
         );
     }
 
@@ -174,18 +315,6 @@ public class LogArchiver extends UntypedActor {
         return archivePath;
     }
 
-    private Path getWorkingPath() {
-        if (!Files.isDirectory(workingPath)) {
-            throw new RuntimeException("Log working path (" + workingPath + ") must be directory");
-        }
-
-        if (!Files.isWritable(workingPath)) {
-            throw new RuntimeException("Log working path (" + workingPath + ") must be writable");
-        }
-
-        return workingPath;
-    }
-
     protected List<LogRecord> getRecordsToBeArchived(Session session, long maxTimestampId) {
         /* Implementation note. Log cleaning assumes that the records are archived starting from the oldest
           (smallest id). If this is changed, log cleaning must be changed accordingly. */
@@ -262,12 +391,50 @@ public class LogArchiver extends UntypedActor {
         return session.createQuery(query).getSingleResult() == 0;
     }
 
+    protected List<MessageRecord> getTimestampedMessageRecords(Session session, long afterId, long maxTimestampId,
+            int maxRecordsToGet) {
+        final CriteriaBuilder cb = session.getCriteriaBuilder();
+        final CriteriaQuery<MessageRecord> query = cb.createQuery(MessageRecord.class);
+        final Root<MessageRecord> m = query.from(MessageRecord.class);
+
+        query.select(m).where(cb.and(
+                cb.gt(m.get("id"), afterId),
+                cb.isFalse(m.get(PROPERTY_NAME_ARCHIVED)),
+                cb.le(m.get("timestampRecord").get("id"), maxTimestampId)
+        )).orderBy(cb.asc(m.get("id")));
+
+        return session.createQuery(query).setReadOnly(true).setMaxResults(maxRecordsToGet).getResultList();
+    }
+
+    protected int markMessageRecordsArchived(Session session, long firstId, long lastId, long maxTimestampId) {
+        log.trace("Setting message records #{}..#{} archived", firstId, lastId);
+
+        return session.createQuery("update " + MessageRecord.class.getName() + " m set m.archived = true"
+                + " where m.id between :firstId and :lastId and m.archived = false"
+                + " and m.timestampRecord.id <= :maxTimestampId")
+                .setParameter("firstId", firstId)
+                .setParameter("lastId", lastId)
+                .setParameter("maxTimestampId", maxTimestampId)
+                .executeUpdate();
+    }
+
+    protected int markTimestampRecordsArchived(Session session, long maxTimestampId) {
+        return session.createQuery("update " + TimestampRecord.class.getName() + " set archived = true"
+                + " where archived = false and id <= :maxTimestampId and id not in ("
+                + "select m.timestampRecord.id from " + MessageRecord.class.getName() + " m"
+                + " where m.archived = false and m.timestampRecord.id <= :maxTimestampId)")
+                .setParameter("maxTimestampId", maxTimestampId)
+                .executeUpdate();
+    }
+
     protected void markArchiveCreated(final DigestEntry lastArchive,
             final Session session) throws Exception {
         if (lastArchive != null) {
             log.debug("Digest entry will be saved here...");
             session.createQuery("delete from " + DigestEntry.class.getName()).executeUpdate();
             session.save(lastArchive);
+            // with sequence generated ids the insert is only queued, make sure a session.clear() can't drop it
+            session.flush();
         }
     }
 
@@ -316,6 +483,7 @@ public class LogArchiver extends UntypedActor {
     private class HibernateLogArchiveBase implements LogArchiveBase {
 
         private Session session;
+        private boolean recordsMarkedInBulk;
 
         @Override
         public void markArchiveCreated(DigestEntry lastArchive)
@@ -325,6 +493,10 @@ public class LogArchiver extends UntypedActor {
 
         @Override
         public void markRecordArchived(LogRecord logRecord) {
+            if (recordsMarkedInBulk) {
+                return;
+            }
+
             log.trace("Setting {} #{} archived",
                     logRecord.getClass().getName(), logRecord.getId());
 
@@ -29,7 +29,6 @@ import ee.ria.xroad.common.CommonMessages;
 import ee.ria.xroad.common.DiagnosticsErrorCodes;
 import ee.ria.xroad.common.DiagnosticsStatus;
 import ee.ria.xroad.common.DiagnosticsUtils;
-import ee.ria.xroad.common.SystemProperties;
 import ee.ria.xroad.common.conf.globalconf.GlobalConf;
 import ee.ria.xroad.common.conf.serverconf.ServerConf;
 import ee.ria.xroad.common.messagelog.AbstractLogManager;
@@ -50,6 +49,7 @@ import akka.actor.Props;
 import akka.actor.UntypedActor;
 import akka.pattern.Patterns;
 import akka.util.Timeout;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.input.BoundedInputStream;
 import org.joda.time.DateTime;
@@ -61,14 +61,19 @@ import scala.concurrent.duration.FiniteDuration;
 
 import java.nio.file.Paths;
 import java.time.LocalTime;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static ee.ria.xroad.common.ErrorCodes.X_LOGGING_FAILED_X;
 import static ee.ria.xroad.common.ErrorCodes.X_MLOG_TIMESTAMPER_FAILED;
 import static ee.ria.xroad.common.messagelog.MessageLogProperties.getAcceptableTimestampFailurePeriodSeconds;
 import static ee.ria.xroad.common.messagelog.MessageLogProperties.getArchiveInterval;
 import static ee.ria.xroad.common.messagelog.MessageLogProperties.getCleanInterval;
+import static ee.ria.xroad.common.messagelog.MessageLogProperties.getGroupCommitMaxBatchSize;
+import static ee.ria.xroad.common.messagelog.MessageLogProperties.getGroupCommitWindow;
 import static ee.ria.xroad.common.messagelog.MessageLogProperties.getHashAlg;
 import static ee.ria.xroad.common.messagelog.MessageLogProperties.getTimestampRetryDelay;
 import static ee.ria.xroad.common.messagelog.MessageLogProperties.shouldTimestampImmediately;
@@ -83,6 +88,10 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 /**
  * Message log manager. Sets up the whole logging system components.
  * The logging system consists of a task queue, timestamper, archiver and log cleaner.
+ *
+ * When group commit is enabled (and messages are not time-stamped immediately), concurrently
+ * received log messages are collected and saved to the database in one transaction. The senders
+ * are answered only after the transaction has been committed.
  */
 @Slf4j
 public class LogManager extends AbstractLogManager {
@@ -97,6 +106,9 @@ public class LogManager extends AbstractLogManager {
     static final String ARCHIVER_NAME = "RequestLogArchiver";
     static final String CLEANER_NAME = "RequestLogCleaner";
 
+    // Message for saving the collected group commit records
+    static final String SAVE_PENDING_RECORDS = "SavePendingRecords";
+
     static final long MAX_LOGGABLE_BODY_SIZE = MessageLogProperties.getMaxLoggableBodySize();
     static final boolean TRUNCATED_BODY_ALLOWED = MessageLogProperties.isTruncatedBodyAllowed();
 
@@ -106,6 +118,13 @@ public class LogManager extends AbstractLogManager {
     private final ActorRef timestamper;
     private final ActorRef timestamperJob;
 
+    private final int groupCommitMaxBatchSize = getGroupCommitMaxBatchSize();
+    private final FiniteDuration groupCommitWindow = Duration.create(getGroupCommitWindow(), TimeUnit.MILLISECONDS);
+
+    // Message records waiting for the next group commit
+    private final List<PendingRecord> pendingRecords = new ArrayList<>();
+    private Cancellable saveTick;
+
     // package private for testing
     final ActorRef taskQueueRef;
     final ActorRef logArchiver;
@@ -164,13 +183,7 @@ public class LogManager extends AbstractLogManager {
 
         verifyCanLogMessage(shouldTimestampImmediately);
 
-        MessageRecord logRecord;
-        if (message instanceof SoapLogMessage) {
-            logRecord = createMessageRecord((SoapLogMessage) message);
-        } else {
-            logRecord = createMessageRecord((RestLogMessage) message);
-        }
-        logRecord = saveMessageRecord(logRecord);
+        MessageRecord logRecord = saveMessageRecord(createMessageRecord(message));
 
         if (shouldTimestampImmediately) {
             timestampImmediately(logRecord);
@@ -212,6 +225,10 @@ public class LogManager extends AbstractLogManager {
                 getSender().tell(statusMap, getSelf());
             } else if (message instanceof SetTimestampingStatusMessage) {
                 setTimestampingStatus((SetTimestampingStatusMessage) message);
+            } else if (message instanceof LogMessage && isGroupCommitEnabled()) {
+                addPendingRecord((LogMessage) message);
+            } else if (SAVE_PENDING_RECORDS.equals(message)) {
+                savePendingRecords();
             } else {
                 super.onReceive(message);
             }
@@ -220,8 +237,78 @@ public class LogManager extends AbstractLogManager {
         }
     }
 
+    @Override
+    public void postStop() {
+        cancelSaveTick();
+
+        for (PendingRecord pending : pendingRecords) {
+            pending.getSender().tell(new CodedException(X_LOGGING_FAILED_X, "Message log manager stopped"),
+                    getSelf());
+        }
+
+        pendingRecords.clear();
+    }
+
     // ------------------------------------------------------------------------
 
+    private boolean isGroupCommitEnabled() {
+        return groupCommitMaxBatchSize > 1 && !shouldTimestampImmediately();
+    }
+
+    private void addPendingRecord(LogMessage message) throws Exception {
+        verifyCanLogMessage(false);
+
+        pendingRecords.add(new PendingRecord(createMessageRecord(message), getSender()));
+
+        if (pendingRecords.size() >= groupCommitMaxBatchSize) {
+            savePendingRecords();
+        } else if (pendingRecords.size() == 1) {
+            scheduleSave();
+        }
+    }
+
+    private void scheduleSave() {
+        if (groupCommitWindow.length() == 0) {
+            // Log requests that are already queued in the mailbox are handled before this message
+            getSelf().tell(SAVE_PENDING_RECORDS, getSelf());
+        } else {
+            saveTick = getContext().system().scheduler().scheduleOnce(groupCommitWindow, getSelf(),
+                    SAVE_PENDING_RECORDS, getContext().dispatcher(), ActorRef.noSender());
+        }
+    }
+
+    private void cancelSaveTick() {
+        if (saveTick != null) {
+            saveTick.cancel();
+            saveTick = null;
+        }
+    }
+
+    private void savePendingRecords() {
+        cancelSaveTick();
+
+        if (pendingRecords.isEmpty()) {
+            return;
+        }
+
+        List<PendingRecord> records = new ArrayList<>(pendingRecords);
+        pendingRecords.clear();
+
+        Object reply;
+
+        try {
+            saveMessageRecords(records.stream().map(PendingRecord::getRecord).collect(Collectors.toList()));
+            reply = new Object();
+        } catch (Exception e) {
+            log.error("Saving {} message records failed", records.size(), e);
+            reply = e;
+        }
+
+        for (PendingRecord pending : records) {
+            pending.getSender().tell(reply, getSelf());
+        }
+    }
+
     protected Props getTaskQueueImpl() {
         return Props.create(TaskQueue.class);
     }
@@ -231,8 +318,7 @@ public class LogManager extends AbstractLogManager {
     }
 
     protected Props getArchiverImpl() {
-        return Props.create(LogArchiver.class, Paths.get(MessageLogProperties.getArchivePath()),
-                Paths.get(SystemProperties.getTempFilesPath()));
+        return Props.create(LogArchiver.class, Paths.get(MessageLogProperties.getArchivePath()));
     }
 
     protected Props getCleanerImpl() {
@@ -262,6 +348,14 @@ public class LogManager extends AbstractLogManager {
         }
     }
 
+    private static MessageRecord createMessageRecord(LogMessage message) throws Exception {
+        if (message instanceof SoapLogMessage) {
+            return createMessageRecord((SoapLogMessage) message);
+        } else {
+            return createMessageRecord((RestLogMessage) message);
+        }
+    }
+
     private static MessageRecord createMessageRecord(SoapLogMessage message) throws Exception {
         log.trace("createMessageRecord()");
 
@@ -326,6 +420,10 @@ public class LogManager extends AbstractLogManager {
         return messageRecord;
     }
 
+    protected void saveMessageRecords(List<MessageRecord> messageRecords) throws Exception {
+        LogRecordManager.saveMessageRecords(messageRecords);
+    }
+
     static TimestampRecord saveTimestampRecord(Timestamper.TimestampSucceeded message) throws Exception {
         log.trace("saveTimestampRecord()");
 
@@ -415,6 +513,12 @@ public class LogManager extends AbstractLogManager {
         return calculateDigest(getHashAlg(), str.getBytes(UTF_8));
     }
 
+    @Value
+    private static final class PendingRecord {
+        private final MessageRecord record;
+        private final ActorRef sender;
+    }
+
     /**
      * Timestamper job is responsible for firing up the timestamping periodically.
      */
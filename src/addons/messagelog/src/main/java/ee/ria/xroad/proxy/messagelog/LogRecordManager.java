@@ -137,17 +137,41 @@ public final class LogRecordManager {
      */
     static void saveMessageRecord(MessageRecord messageRecord) throws Exception {
         doInTransaction(session -> {
-            //the blob must be created within hibernate session
-            final InputStream is = messageRecord.getAttachmentStream();
-            if (is != null) {
-                messageRecord.setAttachment(session.getLobHelper().createBlob(is,
-                        messageRecord.getAttachmentStreamSize()));
-            }
+            createAttachment(session, messageRecord);
             save(session, messageRecord);
             return null;
         });
     }
 
+    /**
+     * Saves the message records to database in one transaction. The inserts are sent to the database in JDBC
+     * batches of the configured batch size.
+     * @param messageRecords the message records to be saved.
+     * @throws Exception if an error occurs while communicating with database.
+     */
+    static void saveMessageRecords(List<MessageRecord> messageRecords) throws Exception {
+        log.trace("saveMessageRecords({})", messageRecords.size());
+
+        doInTransaction(session -> {
+            int batchSize = getConfiguredBatchSize(session);
+            int storedCount = 0;
+
+            session.setJdbcBatchSize(batchSize);
+
+            for (MessageRecord messageRecord : messageRecords) {
+                createAttachment(session, messageRecord);
+                save(session, messageRecord);
+
+                if (++storedCount % batchSize == 0) {
+                    session.flush();
+                    session.clear();
+                }
+            }
+
+            return null;
+        });
+    }
+
     /**
      * Saves the message record in the database.
      * @param messageRecord the message record to be updated.
@@ -254,6 +278,15 @@ public final class LogRecordManager {
         }
     }
 
+    private static void createAttachment(Session session, MessageRecord messageRecord) {
+        //the blob must be created within hibernate session
+        final InputStream is = messageRecord.getAttachmentStream();
+        if (is != null) {
+            messageRecord.setAttachment(session.getLobHelper().createBlob(is,
+                    messageRecord.getAttachmentStreamSize()));
+        }
+    }
+
     private static LogRecord getLogRecord(Session session, Long number) {
         return session.get(AbstractLogRecord.class, number);
     }
@@ -33,6 +33,7 @@ import ee.ria.xroad.common.messagelog.AbstractLogRecord;
 import ee.ria.xroad.common.messagelog.LogRecord;
 import ee.ria.xroad.common.messagelog.MessageLogProperties;
 import ee.ria.xroad.common.messagelog.MessageRecord;
+import ee.ria.xroad.common.messagelog.SoapLogMessage;
 import ee.ria.xroad.common.messagelog.TimestampRecord;
 import ee.ria.xroad.common.messagelog.archive.DigestEntry;
 import ee.ria.xroad.common.signature.SignatureData;
@@ -40,7 +41,10 @@ import ee.ria.xroad.common.util.JobManager;
 import ee.ria.xroad.proxy.messagelog.Timestamper.TimestampFailed;
 import ee.ria.xroad.proxy.messagelog.Timestamper.TimestampSucceeded;
 
+import akka.actor.ActorRef;
 import akka.actor.Props;
+import akka.pattern.Patterns;
+import akka.util.Timeout;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.filefilter.RegexFileFilter;
@@ -50,6 +54,8 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import scala.concurrent.Await;
+import scala.concurrent.Future;
 import scala.concurrent.duration.Duration;
 import scala.concurrent.duration.FiniteDuration;
 
@@ -61,7 +67,10 @@ import java.io.File;
 import java.io.FileFilter;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -74,6 +83,8 @@ import static ee.ria.xroad.proxy.messagelog.TestUtil.createMessage;
 import static ee.ria.xroad.proxy.messagelog.TestUtil.createSignature;
 import static ee.ria.xroad.proxy.messagelog.TestUtil.initForTest;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -284,6 +295,77 @@ public class MessageLogTest extends AbstractMessageLogTest {
         assertArchiveHashChain();
     }
 
+    /**
+     * Logs messages, time-stamps some of them and archives the time-stamped records in keyset paginated mode.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void logTimestampArchiveKeysetPaginated() throws Exception {
+        log.trace("logTimestampArchiveKeysetPaginated()");
+
+        System.setProperty(MessageLogProperties.ARCHIVE_KEYSET_PAGINATION_ENABLED, "true");
+        System.setProperty(MessageLogProperties.ARCHIVE_PAGE_SIZE, "2");
+        System.setProperty(MessageLogProperties.ARCHIVE_WORKER_COUNT, "2");
+
+        try {
+            log(createMessage(), createSignature());
+            log(createMessage(), createSignature());
+            log(createMessage(), createSignature());
+            assertTaskQueueSize(3);
+
+            startTimestamping();
+            waitForTimestampSuccessful();
+            assertTrue(TestTaskQueue.waitForTimestampSaved());
+
+            log(createMessage(), createSignature());
+            assertTaskQueueSize(1);
+
+            startArchiving();
+            TestLogArchiver.waitForArchiveSuccessful();
+
+            assertEquals(4, getNumberOfRecords(true));
+            assertEquals(1, getNumberOfRecords(false));
+        } finally {
+            System.clearProperty(MessageLogProperties.ARCHIVE_KEYSET_PAGINATION_ENABLED);
+            System.clearProperty(MessageLogProperties.ARCHIVE_PAGE_SIZE);
+            System.clearProperty(MessageLogProperties.ARCHIVE_WORKER_COUNT);
+        }
+    }
+
+    /**
+     * Archives in keyset paginated mode with an archive file rotation after every page and checks that the digest
+     * of the last archive file is saved.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void keysetArchiveSavesLastDigestAfterRotation() throws Exception {
+        System.setProperty(MessageLogProperties.ARCHIVE_KEYSET_PAGINATION_ENABLED, "true");
+        System.setProperty(MessageLogProperties.ARCHIVE_PAGE_SIZE, "1");
+        System.setProperty(MessageLogProperties.ARCHIVE_MAX_FILESIZE, "1");
+
+        try {
+            log(createMessage(), createSignature());
+            log(createMessage(), createSignature());
+            assertTaskQueueSize(2);
+
+            startTimestamping();
+            waitForTimestampSuccessful();
+            assertTrue(TestTaskQueue.waitForTimestampSaved());
+
+            startArchiving();
+            TestLogArchiver.waitForArchiveSuccessful();
+
+            assertEquals(3, getNumberOfRecords(true));
+            assertEquals(1L, (long) doInTransaction(session -> session
+                    .createQuery("select count(*) from " + DigestEntry.class.getName()).uniqueResult()));
+            assertNotEquals(LAST_DIGEST, getLastHashStepInDatabase());
+        } finally {
+            System.clearProperty(MessageLogProperties.ARCHIVE_KEYSET_PAGINATION_ENABLED);
+            System.clearProperty(MessageLogProperties.ARCHIVE_PAGE_SIZE);
+            System.clearProperty(MessageLogProperties.ARCHIVE_MAX_FILESIZE);
+        }
+    }
+
     /**
      * Logs 3 messages, time-stamping fails. Task queue must have 3 tasks. Logs 1 more message, task queue must
      * have 4 tasks.
@@ -414,6 +496,44 @@ public class MessageLogTest extends AbstractMessageLogTest {
         log(createMessage(), createSignature());
     }
 
+    /**
+     * Logs messages concurrently with group commit enabled. Every sender must get a successful reply, the records
+     * must be saved in batches of at most the configured size and all of them must be in the task queue.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void groupCommit() throws Exception {
+        log.trace("groupCommit()");
+
+        System.setProperty(MessageLogProperties.GROUP_COMMIT_MAX_BATCH_SIZE, "10");
+        System.setProperty(MessageLogProperties.GROUP_COMMIT_WINDOW, "1000");
+
+        try {
+            ActorRef groupCommitLogManager = actorSystem.actorOf(Props.create(TestLogManager.class, jobManager),
+                    "GroupCommitLogManager");
+
+            Timeout timeout = new Timeout(Duration.create(30, TimeUnit.SECONDS));
+            List<Future<Object>> replies = new ArrayList<>();
+
+            for (int i = 0; i < 25; i++) {
+                replies.add(Patterns.ask(groupCommitLogManager,
+                        new SoapLogMessage(createMessage(), createSignature(), true), timeout));
+            }
+
+            for (Future<Object> reply : replies) {
+                Object result = Await.result(reply, timeout.duration());
+                assertFalse("Got " + result, result instanceof Exception);
+            }
+
+            assertEquals(25, TestLogManager.savedBatchSizes.stream().mapToInt(Integer::intValue).sum());
+            assertTrue(TestLogManager.savedBatchSizes.stream().allMatch(size -> size <= 10));
+            assertTaskQueueSize(25);
+        } finally {
+            System.clearProperty(MessageLogProperties.GROUP_COMMIT_MAX_BATCH_SIZE);
+            System.clearProperty(MessageLogProperties.GROUP_COMMIT_WINDOW);
+        }
+    }
+
     // ------------------------------------------------------------------------
 
     /**
@@ -441,6 +561,7 @@ public class MessageLogTest extends AbstractMessageLogTest {
         TestTaskQueue.initTimestampSavedLatch();
 
         logRecordTime = null;
+        TestLogManager.savedBatchSizes.clear();
         TestTaskQueue.throwWhenSavingTimestamp = null;
 
         TestTimestamperWorker.failNextTimestamping(false);
@@ -600,6 +721,9 @@ public class MessageLogTest extends AbstractMessageLogTest {
         // Countdownlatch for waiting for next timestamp record save.
         private static CountDownLatch setTimestampingStatusLatch = new CountDownLatch(1);
 
+        // Sizes of the batches saved in group commit mode.
+        static final List<Integer> savedBatchSizes = Collections.synchronizedList(new ArrayList<>());
+
         TestLogManager(JobManager jobManager) throws Exception {
             super(jobManager);
         }
@@ -652,7 +776,7 @@ public class MessageLogTest extends AbstractMessageLogTest {
 
         @Override
         protected Props getArchiverImpl() {
-            return Props.create(TestLogArchiver.class, Paths.get("build"), Paths.get("build/tmp"));
+            return Props.create(TestLogArchiver.class, Paths.get("build"));
         }
 
         @Override
@@ -671,6 +795,13 @@ public class MessageLogTest extends AbstractMessageLogTest {
             return super.saveMessageRecord(messageRecord);
         }
 
+        @Override
+        protected void saveMessageRecords(List<MessageRecord> messageRecords) throws Exception {
+            savedBatchSizes.add(messageRecords.size());
+
+            super.saveMessageRecords(messageRecords);
+        }
+
         @Override
         void setTimestampingStatus(SetTimestampingStatusMessage statusMessage) {
             super.setTimestampingStatus(statusMessage);
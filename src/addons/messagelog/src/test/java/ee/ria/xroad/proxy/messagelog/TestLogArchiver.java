@@ -36,8 +36,8 @@ class TestLogArchiver extends LogArchiver {
 
     private static CountDownLatch gate = new CountDownLatch(1);
 
-    TestLogArchiver(Path arhivePath, Path workingPath) {
-        super(arhivePath, workingPath);
+    TestLogArchiver(Path arhivePath) {
+        super(arhivePath);
     }
 
     public static void waitForArchiveSuccessful() throws Exception {
@@ -32,22 +32,39 @@ import ee.ria.xroad.common.opmonitoring.OpMonitoringSystemProperties;
 import ee.ria.xroad.common.opmonitoring.StoreOpMonitoringDataRequest;
 import ee.ria.xroad.common.util.JsonUtils;
 import ee.ria.xroad.common.util.TimeUtils;
+import ee.ria.xroad.proxy.opmonitoring.OpMonitoringDaemonSender.StoreRequest;
+import ee.ria.xroad.proxy.opmonitoring.OpMonitoringDaemonSender.StoreResult;
+import ee.ria.xroad.proxy.util.ProxyMetrics;
 
 import akka.actor.ActorRef;
 import akka.actor.Cancellable;
 import akka.actor.Props;
+import akka.routing.SmallestMailboxPool;
+import com.codahale.metrics.Counter;
 import com.google.gson.Gson;
 import lombok.SneakyThrows;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.http.impl.client.CloseableHttpClient;
 import scala.concurrent.duration.FiniteDuration;
 
+import java.io.IOException;
 import java.net.NetworkInterface;
-import java.util.HashSet;
-import java.util.LinkedHashMap;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import static java.net.NetworkInterface.getNetworkInterfaces;
@@ -57,6 +74,12 @@ import static java.util.Collections.list;
  * Operational monitoring buffer. This buffer is used for gathering
  * operational data and for periodically sending the data to the operational
  * monitoring daemon (using OpMonitoringDaemonSender).
+ *
+ * The records are kept in a ring buffer. Several messages can be sent
+ * concurrently by a pool of senders. When the buffer is full, the eldest
+ * records are spilled to disk if a spill directory is configured, otherwise
+ * they are discarded. After a failed sending, the messages are resent at the
+ * next sending interval.
  */
 @Slf4j
 public class OpMonitoringBuffer extends AbstractOpMonitoringBuffer {
@@ -65,10 +88,12 @@ public class OpMonitoringBuffer extends AbstractOpMonitoringBuffer {
     private static final String NO_ADDRESS_FOUND = "No suitable IP address is bound to the network interface ";
     private static final String NO_INTERFACE_FOUND = "No non-loopback network interface found";
 
-    private static final long MAX_BUFFER_SIZE = OpMonitoringSystemProperties.getOpMonitorBufferSize();
+    private static final String SPILL_FILE_PREFIX = "opmonitoring-";
+    private static final String SPILL_FILE_SUFFIX = ".json";
+    private static final int SPILL_FILE_NAME_CREATED = 1;
+    private static final int SPILL_FILE_NAME_SEQUENCE = 2;
+    private static final int SPILL_FILE_NAME_RECORDS = 3;
 
-    private static final int MAX_RECORDS_IN_MESSAGE =
-            OpMonitoringSystemProperties.getOpMonitorBufferMaxRecordsInMessage();
     private static final long SENDING_INTERVAL_SECONDS =
             OpMonitoringSystemProperties.getOpMonitorBufferSendingIntervalSeconds();
 
@@ -80,25 +105,39 @@ public class OpMonitoringBuffer extends AbstractOpMonitoringBuffer {
 
     private static final Gson GSON = JsonUtils.getSerializer();
 
+    static final Counter DROPPED_RECORDS = ProxyMetrics.getRegistry().counter("opMonitoringBuffer.dropped");
+    static final Counter QUEUED_RECORDS = ProxyMetrics.getRegistry().counter("opMonitoringBuffer.queued");
+    static final Counter SHIPPED_RECORDS = ProxyMetrics.getRegistry().counter("opMonitoringBuffer.shipped");
+
+    private final int maxBufferSize = OpMonitoringSystemProperties.getOpMonitorBufferSize();
+
+    private final int maxRecordsInMessage = OpMonitoringSystemProperties.getOpMonitorBufferMaxRecordsInMessage();
+
+    private final int maxInFlightMessages = OpMonitoringSystemProperties.getOpMonitorBufferMaxInFlightMessages();
+
+    private final Path spillPath = getSpillPath();
+
+    private final int spillMaxRecords = OpMonitoringSystemProperties.getOpMonitorBufferSpillMaxRecords();
+
     private Cancellable tick;
 
-    final Map<Long, OpMonitoringData> buffer =
-            new LinkedHashMap<Long, OpMonitoringData>() {
-                @Override
-                protected boolean removeEldestEntry(Map.Entry eldest) {
-                    boolean overflow = size() > MAX_BUFFER_SIZE;
+    // The records waiting to be sent, the eldest first.
+    final Deque<OpMonitoringData> buffer = new ArrayDeque<>();
 
-                    if (overflow) {
-                        log.warn("Operational monitoring buffer overflow, removing eldest record: {}", eldest.getKey());
-                    }
+    // The records spilled to disk, the eldest first.
+    final Deque<SpillFile> spilled = new ArrayDeque<>();
 
-                    return overflow;
-                }
-            };
+    private int spilledRecords;
 
-    private long bufferIndex = 0;
+    private long spillSequence;
 
-    private final Set<Long> processedBufferIndices = new HashSet<>();
+    final Map<Long, Message> inFlight = new HashMap<>();
+
+    private long messageId;
+
+    // Set when sending has failed, the sending is retried at the next
+    // sending interval.
+    private boolean waitingForRetry;
 
     private final CloseableHttpClient httpClient;
 
@@ -117,19 +156,36 @@ public class OpMonitoringBuffer extends AbstractOpMonitoringBuffer {
             httpClient = null;
             sender = null;
         } else {
+            loadSpillFiles();
+
             httpClient = createHttpClient();
             sender = createSender();
         }
     }
 
     CloseableHttpClient createHttpClient() throws Exception {
-        return OpMonitoringDaemonHttpClient.createHttpClient(ServerConf.getSSLKey(), 1, 1,
-                CLIENT_CONNECTION_TIMEOUT_MILLISECONDS, CLIENT_SOCKET_TIMEOUT_MILLISECONDS);
+        return OpMonitoringDaemonHttpClient.createHttpClient(ServerConf.getSSLKey(), maxInFlightMessages,
+                maxInFlightMessages, CLIENT_CONNECTION_TIMEOUT_MILLISECONDS, CLIENT_SOCKET_TIMEOUT_MILLISECONDS);
     }
 
     ActorRef createSender() {
-        return getContext().system().actorOf(Props.create(OpMonitoringDaemonSender.class, httpClient),
-                OP_MONITORING_DAEMON_SENDER);
+        return getContext().system().actorOf(new SmallestMailboxPool(maxInFlightMessages)
+                .props(Props.create(OpMonitoringDaemonSender.class, httpClient)), OP_MONITORING_DAEMON_SENDER);
+    }
+
+    @Override
+    public void onReceive(Object message) throws Exception {
+        if (message instanceof StoreResult) {
+            log.trace("onReceive: {}", message);
+
+            try {
+                sendingCompleted((StoreResult) message);
+            } catch (Exception e) {
+                log.error("Operational monitoring buffer failed", e);
+            }
+        } else {
+            super.onReceive(message);
+        }
     }
 
     @Override
@@ -140,64 +196,222 @@ public class OpMonitoringBuffer extends AbstractOpMonitoringBuffer {
 
         data.setSecurityServerInternalIp(getIpAddress());
 
-        buffer.put(getNextBufferIndex(), data);
+        buffer.addLast(data);
+        QUEUED_RECORDS.inc();
 
-        send();
+        ensureBufferSize();
+
+        if (!waitingForRetry) {
+            sendMessages();
+        }
     }
 
     @Override
     protected void send() throws Exception {
-        if (!canSend()) {
+        waitingForRetry = false;
+
+        sendMessages();
+    }
+
+    private void sendingCompleted(StoreResult result) throws Exception {
+        Message message = inFlight.remove(result.getId());
+
+        if (message == null) {
             return;
         }
 
-        String json = prepareMonitoringMessage();
+        if (result.isSuccess()) {
+            SHIPPED_RECORDS.inc(message.size());
+            QUEUED_RECORDS.dec(message.size());
 
-        sender.tell(json, getSelf());
+            if (message.getSpillFile() != null) {
+                deleteSpillFile(message.getSpillFile());
+            }
+
+            if (!waitingForRetry) {
+                sendMessages();
+            }
+        } else {
+            // Do not worry, scheduled sending retries..
+            waitingForRetry = true;
+
+            requeue(message);
+        }
     }
 
-    private boolean canSend() {
-        return !buffer.isEmpty() && processedBufferIndices.isEmpty();
+    private void sendMessages() {
+        while (inFlight.size() < maxInFlightMessages) {
+            if (!spilled.isEmpty()) {
+                sendSpillFile(spilled.pollFirst());
+            } else if (buffer.size() >= maxRecordsInMessage || (inFlight.isEmpty() && !buffer.isEmpty())) {
+                // Additional concurrent messages are sent only if there are
+                // enough records to fill them.
+                sendBufferedRecords();
+            } else {
+                break;
+            }
+        }
+
+        log.debug("Op monitoring buffer records count: {}, spilled records: {}, messages in flight: {}",
+                buffer.size(), spilledRecords, inFlight.size());
     }
 
-    private String prepareMonitoringMessage() {
-        StoreOpMonitoringDataRequest request = new StoreOpMonitoringDataRequest();
+    private void sendBufferedRecords() {
+        List<OpMonitoringData> records = new ArrayList<>(Math.min(buffer.size(), maxRecordsInMessage));
 
-        for (Map.Entry<Long, OpMonitoringData> entry : buffer.entrySet()) {
-            processedBufferIndices.add(entry.getKey());
-            request.addRecord(entry.getValue().getData());
+        while (records.size() < maxRecordsInMessage && !buffer.isEmpty()) {
+            records.add(buffer.pollFirst());
+        }
 
-            if (request.getRecords().size() == MAX_RECORDS_IN_MESSAGE) {
-                break;
+        tell(new Message(records, null), toJson(records));
+    }
+
+    private void sendSpillFile(SpillFile spillFile) {
+        String json;
+
+        try {
+            json = new String(Files.readAllBytes(spillFile.getPath()), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            log.error("Failed to read spilled operational monitoring data, discarding {} records",
+                    spillFile.getRecords(), e);
+
+            DROPPED_RECORDS.inc(spillFile.getRecords());
+            QUEUED_RECORDS.dec(spillFile.getRecords());
+            deleteSpillFile(spillFile);
+
+            return;
+        }
+
+        tell(new Message(null, spillFile), json);
+    }
+
+    private void tell(Message message, String json) {
+        messageId++;
+
+        inFlight.put(messageId, message);
+        sender.tell(new StoreRequest(messageId, json), getSelf());
+    }
+
+    private void requeue(Message message) {
+        if (message.getSpillFile() != null) {
+            spilled.addFirst(message.getSpillFile());
+        } else {
+            List<OpMonitoringData> records = message.getRecords();
+
+            for (int i = records.size() - 1; i >= 0; i--) {
+                buffer.addFirst(records.get(i));
             }
+
+            ensureBufferSize();
         }
+    }
 
-        log.debug("Op monitoring buffer records count: {}", buffer.size());
+    private void ensureBufferSize() {
+        while (buffer.size() > maxBufferSize) {
+            if (!spillEldestRecords()) {
+                log.warn("Operational monitoring buffer overflow, removing eldest record");
 
-        return GSON.toJson(request);
+                buffer.pollFirst();
+
+                DROPPED_RECORDS.inc();
+                QUEUED_RECORDS.dec();
+            }
+        }
     }
 
-    @Override
-    protected void sendingSuccess() throws Exception {
-        processedBufferIndices.forEach(buffer::remove);
-        processedBufferIndices.clear();
+    private boolean spillEldestRecords() {
+        int count = Math.min(buffer.size(), maxRecordsInMessage);
 
-        if (canSend()) {
-            send();
+        if (spillPath == null || spilledRecords + count > spillMaxRecords) {
+            return false;
         }
+
+        List<OpMonitoringData> records = new ArrayList<>(count);
+        Iterator<OpMonitoringData> it = buffer.iterator();
+
+        while (records.size() < count) {
+            records.add(it.next());
+        }
+
+        Path path = spillPath.resolve(SPILL_FILE_PREFIX + System.currentTimeMillis() + "-" + spillSequence++
+                + "-" + count + SPILL_FILE_SUFFIX);
+
+        try {
+            Files.write(path, toJson(records).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            log.error("Failed to spill operational monitoring data to {}", path, e);
+
+            return false;
+        }
+
+        for (int i = 0; i < count; i++) {
+            buffer.pollFirst();
+        }
+
+        spilled.addLast(new SpillFile(path, count));
+        spilledRecords += count;
+
+        log.debug("Spilled {} operational monitoring records to {}", count, path);
+
+        return true;
     }
 
-    @Override
-    protected void sendingFailure() throws Exception {
-        processedBufferIndices.clear();
+    private void deleteSpillFile(SpillFile spillFile) {
+        spilledRecords -= spillFile.getRecords();
 
-        // Do not worry, scheduled sending retries..
+        try {
+            Files.deleteIfExists(spillFile.getPath());
+        } catch (IOException e) {
+            log.error("Failed to delete spilled operational monitoring data {}", spillFile.getPath(), e);
+        }
     }
 
-    long getNextBufferIndex() {
-        bufferIndex = bufferIndex == Long.MAX_VALUE ? 0 : bufferIndex + 1;
+    private void loadSpillFiles() throws IOException {
+        if (spillPath == null) {
+            return;
+        }
+
+        Files.createDirectories(spillPath);
 
-        return bufferIndex;
+        List<SpillFile> files = new ArrayList<>();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(spillPath,
+                SPILL_FILE_PREFIX + "*" + SPILL_FILE_SUFFIX)) {
+            for (Path path : stream) {
+                SpillFile spillFile = SpillFile.parse(path);
+
+                if (spillFile != null) {
+                    files.add(spillFile);
+                }
+            }
+        }
+
+        // Spilled in the order of the creation time and sequence number
+        files.sort(Comparator.comparing(SpillFile::getCreated).thenComparing(SpillFile::getSequence));
+
+        for (SpillFile spillFile : files) {
+            spilled.addLast(spillFile);
+            spilledRecords += spillFile.getRecords();
+            QUEUED_RECORDS.inc(spillFile.getRecords());
+        }
+
+        if (!files.isEmpty()) {
+            log.info("Found {} spilled operational monitoring records", spilledRecords);
+        }
+    }
+
+    private static String toJson(List<OpMonitoringData> records) {
+        StoreOpMonitoringDataRequest request = new StoreOpMonitoringDataRequest();
+
+        records.forEach(record -> request.addRecord(record.getData()));
+
+        return GSON.toJson(request);
+    }
+
+    private static Path getSpillPath() {
+        String path = OpMonitoringSystemProperties.getOpMonitorBufferSpillPath();
+
+        return StringUtils.isBlank(path) ? null : Paths.get(path);
     }
 
     private void scheduleSendMonitoringData() {
@@ -228,7 +442,7 @@ public class OpMonitoringBuffer extends AbstractOpMonitoringBuffer {
     }
 
     private boolean ignoreOpMonitoringData() {
-        return MAX_BUFFER_SIZE < 1;
+        return maxBufferSize < 1;
     }
 
     private static String getIpAddress() {
@@ -264,4 +478,51 @@ public class OpMonitoringBuffer extends AbstractOpMonitoringBuffer {
     private static boolean isNonLoopback(NetworkInterface ni) {
         return !ni.isLoopback() && ni.isUp();
     }
+
+    /**
+     * Records of a message being sent, either from the buffer or from a spill file.
+     */
+    @Value
+    static class Message {
+        private final List<OpMonitoringData> records;
+        private final SpillFile spillFile;
+
+        int size() {
+            return spillFile != null ? spillFile.getRecords() : records.size();
+        }
+    }
+
+    /**
+     * Records spilled to disk. The file name contains the creation time, the
+     * sequence number and the number of records.
+     */
+    @Value
+    static class SpillFile {
+        private final Path path;
+        private final int records;
+
+        long getCreated() {
+            return Long.parseLong(getNameParts(path)[SPILL_FILE_NAME_CREATED]);
+        }
+
+        long getSequence() {
+            return Long.parseLong(getNameParts(path)[SPILL_FILE_NAME_SEQUENCE]);
+        }
+
+        static SpillFile parse(Path path) {
+            try {
+                return new SpillFile(path, Integer.parseInt(getNameParts(path)[SPILL_FILE_NAME_RECORDS]));
+            } catch (RuntimeException e) {
+                log.warn("Ignoring unknown file {} in operational monitoring spill directory", path);
+
+                return null;
+            }
+        }
+
+        private static String[] getNameParts(Path path) {
+            String name = path.getFileName().toString();
+
+            return name.substring(0, name.length() - SPILL_FILE_SUFFIX.length()).split("-");
+        }
+    }
 }
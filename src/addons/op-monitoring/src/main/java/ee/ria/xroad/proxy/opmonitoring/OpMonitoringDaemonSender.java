@@ -24,7 +24,6 @@
  */
 package ee.ria.xroad.proxy.opmonitoring;
 
-import ee.ria.xroad.common.opmonitoring.AbstractOpMonitoringBuffer;
 import ee.ria.xroad.common.opmonitoring.OpMonitoringDaemonEndpoints;
 import ee.ria.xroad.common.opmonitoring.OpMonitoringSystemProperties;
 import ee.ria.xroad.common.opmonitoring.StoreOpMonitoringDataResponse;
@@ -37,20 +36,27 @@ import ee.ria.xroad.common.util.TimeUtils;
 import akka.actor.ActorRef;
 import akka.actor.UntypedActor;
 import com.google.gson.Gson;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.impl.client.CloseableHttpClient;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
 
 import static ee.ria.xroad.common.opmonitoring.StoreOpMonitoringDataResponse.STATUS_ERROR;
 import static ee.ria.xroad.common.opmonitoring.StoreOpMonitoringDataResponse.STATUS_OK;
 
 /**
  * Actor for sending operational data to the operational monitoring daemon. This actor is used by the
- * OpMonitoringBuffer class for periodically forwarding operational data gathered in the buffer.
+ * OpMonitoringBuffer class for periodically forwarding operational data gathered in the buffer. The buffer uses
+ * a pool of these actors for sending several messages concurrently.
  */
 @Slf4j
 public class OpMonitoringDaemonSender extends UntypedActor {
@@ -63,38 +69,54 @@ public class OpMonitoringDaemonSender extends UntypedActor {
     private static final int SOCKET_TIMEOUT_MILLISECONDS = TimeUtils.secondsToMillis(
             OpMonitoringSystemProperties.getOpMonitorBufferSocketTimeoutSeconds());
 
+    private static final boolean COMPRESS_MESSAGES = OpMonitoringSystemProperties.isOpMonitorBufferCompressMessages();
+
     private CloseableHttpClient httpClient;
 
+    /**
+     * Message to be sent to the operational monitoring daemon.
+     */
+    @Value
+    static class StoreRequest {
+        private final long id;
+        private final String json;
+    }
+
+    /**
+     * Result of sending the message with the given id, replied to the sender of the message.
+     */
+    @Value
+    static class StoreResult {
+        private final long id;
+        private final boolean success;
+    }
+
     OpMonitoringDaemonSender(CloseableHttpClient httpClient) {
         this.httpClient = httpClient;
     }
 
     @Override
     public void onReceive(Object message) throws Exception {
-        if (message instanceof String) {
-            String json = (String) message;
+        if (message instanceof StoreRequest) {
+            StoreRequest request = (StoreRequest) message;
 
-            log.trace("onReceive: {}", json);
+            log.trace("onReceive: {}", request.getJson());
 
             try {
-                send(json);
-                success();
+                send(request.getJson());
+                reply(request, true);
             } catch (Exception e) {
                 log.error("Sending operational monitoring data failed", e);
 
-                failure();
+                reply(request, false);
             }
         } else {
             unhandled(message);
         }
     }
 
-    private void success() {
-        getSender().tell(AbstractOpMonitoringBuffer.SENDING_SUCCESS, ActorRef.noSender());
-    }
-
-    private void failure() {
-        getSender().tell(AbstractOpMonitoringBuffer.SENDING_FAILURE, ActorRef.noSender());
+    private void reply(StoreRequest request, boolean success) {
+        getSender().tell(new StoreResult(request.getId(), success), ActorRef.noSender());
     }
 
     private void send(String json) throws Exception {
@@ -102,7 +124,14 @@ public class OpMonitoringDaemonSender extends UntypedActor {
             sender.setConnectionTimeout(CONNECTION_TIMEOUT_MILLISECONDS);
             sender.setSocketTimeout(SOCKET_TIMEOUT_MILLISECONDS);
 
-            sender.doPost(getAddress(), json, MimeTypes.JSON);
+            if (COMPRESS_MESSAGES) {
+                byte[] compressed = compress(json);
+
+                sender.addHeader(MimeUtils.HEADER_CONTENT_ENCODING, "gzip");
+                sender.doPost(getAddress(), new ByteArrayInputStream(compressed), compressed.length, MimeTypes.JSON);
+            } else {
+                sender.doPost(getAddress(), json, MimeTypes.JSON);
+            }
 
             String responseJson = IOUtils.toString(sender.getResponseContent(), MimeUtils.UTF8);
             StoreOpMonitoringDataResponse response;
@@ -128,6 +157,16 @@ public class OpMonitoringDaemonSender extends UntypedActor {
         }
     }
 
+    private static byte[] compress(String json) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bos)) {
+            gzip.write(json.getBytes(StandardCharsets.UTF_8));
+        }
+
+        return bos.toByteArray();
+    }
+
     private URI getAddress() throws URISyntaxException {
         return new URI(OpMonitoringSystemProperties.getOpMonitorDaemonScheme(), null,
                 OpMonitoringSystemProperties.getOpMonitorHost(), OpMonitoringSystemProperties.getOpMonitorPort(),
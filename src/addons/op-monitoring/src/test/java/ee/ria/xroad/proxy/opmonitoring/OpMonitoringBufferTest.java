@@ -25,15 +25,29 @@
 package ee.ria.xroad.proxy.opmonitoring;
 
 import ee.ria.xroad.common.opmonitoring.OpMonitoringData;
+import ee.ria.xroad.proxy.opmonitoring.OpMonitoringDaemonSender.StoreRequest;
+import ee.ria.xroad.proxy.opmonitoring.OpMonitoringDaemonSender.StoreResult;
 
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
 import akka.actor.Props;
+import akka.testkit.JavaTestKit;
 import akka.testkit.TestActorRef;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Tests operational monitoring buffer.
@@ -41,6 +55,13 @@ import static org.junit.Assert.assertEquals;
 public class OpMonitoringBufferTest {
     private static final ActorSystem ACTOR_SYSTEM = ActorSystem.create();
 
+    private static ActorRef sender;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private JavaTestKit senderProbe;
+
     private static class TestOpMonitoringBuffer extends OpMonitoringBuffer {
         TestOpMonitoringBuffer() throws Exception {
             super();
@@ -53,35 +74,169 @@ public class OpMonitoringBufferTest {
 
         @Override
         ActorRef createSender() {
-            return null;
+            return sender;
         }
 
         @Override
-        protected void store(OpMonitoringData data) throws Exception {
-            buffer.put(getNextBufferIndex(), data);
+        public void preStart() throws Exception {
+            // Sending is triggered by the tests
         }
     }
 
+    /**
+     * Initializes the sender probe and the buffer configuration.
+     */
+    @Before
+    public void setUp() {
+        senderProbe = new JavaTestKit(ACTOR_SYSTEM);
+        sender = senderProbe.getRef();
+
+        System.setProperty("xroad.op-monitor-buffer.size", "2");
+        System.setProperty("xroad.op-monitor-buffer.max-records-in-message", "2");
+        System.setProperty("xroad.op-monitor-buffer.max-in-flight-messages", "1");
+        System.clearProperty("xroad.op-monitor-buffer.spill-path");
+    }
+
+    /**
+     * Stops the sender probe.
+     */
+    @After
+    public void tearDown() {
+        ACTOR_SYSTEM.stop(senderProbe.getRef());
+    }
+
     @Test
     public void bufferOverflow() throws Exception {
-        System.setProperty("xroad.op-monitor-buffer.size", "2");
+        TestActorRef<TestOpMonitoringBuffer> testActorRef = createBuffer();
+        TestOpMonitoringBuffer opMonitoringBuffer = testActorRef.underlyingActor();
+
+        long dropped = OpMonitoringBuffer.DROPPED_RECORDS.getCount();
+
+        OpMonitoringData first = createData();
+        OpMonitoringData second = createData();
+        OpMonitoringData third = createData();
+
+        // The first record is sent immediately
+        opMonitoringBuffer.store(createData());
+        senderProbe.expectMsgClass(StoreRequest.class);
 
-        final Props props = Props.create(TestOpMonitoringBuffer.class);
-        final TestActorRef<TestOpMonitoringBuffer> testActorRef =
-                TestActorRef.create(ACTOR_SYSTEM, props, "testActorRef");
+        opMonitoringBuffer.store(first);
+        opMonitoringBuffer.store(second);
+        opMonitoringBuffer.store(third);
 
-        TestOpMonitoringBuffer opMonitoringBuffer =
-                testActorRef.underlyingActor();
+        assertEquals(2, opMonitoringBuffer.buffer.size());
+        assertSame(second, opMonitoringBuffer.buffer.peekFirst());
+        assertSame(third, opMonitoringBuffer.buffer.peekLast());
+        assertEquals(dropped + 1, OpMonitoringBuffer.DROPPED_RECORDS.getCount());
+    }
+
+    @Test
+    public void multipleMessagesInFlight() throws Exception {
+        System.setProperty("xroad.op-monitor-buffer.size", "10");
+        System.setProperty("xroad.op-monitor-buffer.max-in-flight-messages", "2");
 
-        OpMonitoringData opMonitoringData = new OpMonitoringData(
-                OpMonitoringData.SecurityServerType.CLIENT, 100);
+        TestActorRef<TestOpMonitoringBuffer> testActorRef = createBuffer();
+        TestOpMonitoringBuffer opMonitoringBuffer = testActorRef.underlyingActor();
 
-        opMonitoringBuffer.store(opMonitoringData);
-        opMonitoringBuffer.store(opMonitoringData);
-        opMonitoringBuffer.store(opMonitoringData);
+        long shipped = OpMonitoringBuffer.SHIPPED_RECORDS.getCount();
 
+        for (int i = 0; i < 5; i++) {
+            opMonitoringBuffer.store(createData());
+        }
+
+        // The first record is sent alone, the next message waits until it is full
+        StoreRequest first = senderProbe.expectMsgClass(StoreRequest.class);
+        StoreRequest second = senderProbe.expectMsgClass(StoreRequest.class);
+        senderProbe.expectNoMsg();
+
+        assertEquals(2, opMonitoringBuffer.inFlight.size());
         assertEquals(2, opMonitoringBuffer.buffer.size());
-        assertEquals(true, opMonitoringBuffer.buffer.containsKey(2L));
-        assertEquals(true, opMonitoringBuffer.buffer.containsKey(3L));
+
+        testActorRef.tell(new StoreResult(first.getId(), true), ActorRef.noSender());
+
+        senderProbe.expectMsgClass(StoreRequest.class);
+
+        assertEquals(2, opMonitoringBuffer.inFlight.size());
+        assertTrue(opMonitoringBuffer.buffer.isEmpty());
+
+        testActorRef.tell(new StoreResult(second.getId(), true), ActorRef.noSender());
+
+        assertEquals(shipped + 3, OpMonitoringBuffer.SHIPPED_RECORDS.getCount());
+    }
+
+    @Test
+    public void failedMessageIsResent() throws Exception {
+        TestActorRef<TestOpMonitoringBuffer> testActorRef = createBuffer();
+        TestOpMonitoringBuffer opMonitoringBuffer = testActorRef.underlyingActor();
+
+        OpMonitoringData data = createData();
+
+        opMonitoringBuffer.store(data);
+        StoreRequest request = senderProbe.expectMsgClass(StoreRequest.class);
+
+        testActorRef.tell(new StoreResult(request.getId(), false), ActorRef.noSender());
+
+        assertSame(data, opMonitoringBuffer.buffer.peekFirst());
+
+        // Sending is retried at the next sending interval only
+        opMonitoringBuffer.store(createData());
+        senderProbe.expectNoMsg();
+
+        opMonitoringBuffer.send();
+
+        StoreRequest resent = senderProbe.expectMsgClass(StoreRequest.class);
+
+        assertEquals(2, StringUtils.countMatches(resent.getJson(), "securityServerType"));
+        assertTrue(opMonitoringBuffer.buffer.isEmpty());
+    }
+
+    @Test
+    public void bufferOverflowIsSpilledToDisk() throws Exception {
+        Path spillPath = tempFolder.getRoot().toPath();
+
+        System.setProperty("xroad.op-monitor-buffer.spill-path", spillPath.toString());
+
+        TestActorRef<TestOpMonitoringBuffer> testActorRef = createBuffer();
+        TestOpMonitoringBuffer opMonitoringBuffer = testActorRef.underlyingActor();
+
+        long dropped = OpMonitoringBuffer.DROPPED_RECORDS.getCount();
+
+        opMonitoringBuffer.store(createData());
+        StoreRequest request = senderProbe.expectMsgClass(StoreRequest.class);
+
+        for (int i = 0; i < 3; i++) {
+            opMonitoringBuffer.store(createData());
+        }
+
+        assertEquals(1, opMonitoringBuffer.buffer.size());
+        assertEquals(1, opMonitoringBuffer.spilled.size());
+        assertEquals(2, opMonitoringBuffer.spilled.peekFirst().getRecords());
+        assertEquals(dropped, OpMonitoringBuffer.DROPPED_RECORDS.getCount());
+
+        Path spillFile = opMonitoringBuffer.spilled.peekFirst().getPath();
+
+        assertTrue(Files.exists(spillFile));
+
+        // The spilled records are sent first
+        testActorRef.tell(new StoreResult(request.getId(), true), ActorRef.noSender());
+
+        StoreRequest spilled = senderProbe.expectMsgClass(StoreRequest.class);
+
+        assertEquals(new String(Files.readAllBytes(spillFile), "UTF-8"), spilled.getJson());
+
+        testActorRef.tell(new StoreResult(spilled.getId(), true), ActorRef.noSender());
+
+        assertFalse(Files.exists(spillFile));
+        assertTrue(opMonitoringBuffer.spilled.isEmpty());
+
+        senderProbe.expectMsgClass(StoreRequest.class);
+    }
+
+    private static TestActorRef<TestOpMonitoringBuffer> createBuffer() {
+        return TestActorRef.create(ACTOR_SYSTEM, Props.create(TestOpMonitoringBuffer.class));
+    }
+
+    private static OpMonitoringData createData() {
+        return new OpMonitoringData(OpMonitoringData.SecurityServerType.CLIENT, 100);
     }
 }
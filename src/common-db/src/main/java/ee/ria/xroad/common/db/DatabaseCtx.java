@@ -103,6 +103,15 @@ public class DatabaseCtx {
                 .getCurrentSession();
     }
 
+    /**
+     * Opens a new session, which is not bound to the current thread. The
+     * caller is responsible for closing the session.
+     * @return the new session
+     */
+    public Session openSession() {
+        return getSessionFactory(sessionFactoryName, interceptor).openSession();
+    }
+
     /**
      * Starts a new transaction.
      * @return the current session
@@ -55,6 +55,10 @@ public final class MessageLogProperties {
 
     private static final int DEFAULT_ARCHIVE_TRANSACTION_BATCH_SIZE = 10000;
     private static final int DEFAULT_CLEAN_TRANSACTION_BATCH_SIZE = 10000;
+    private static final int DEFAULT_ARCHIVE_PAGE_SIZE = 500;
+
+    private static final int DEFAULT_GROUP_COMMIT_MAX_BATCH_SIZE = 1;
+    private static final int DEFAULT_GROUP_COMMIT_WINDOW = 0;
 
     private static final long DEFAULT_MAX_LOGGABLE_MESSAGE_BODY_SIZE = 10 * 1024 * 1024;
     private static final long MAX_LOGGABLE_MESSAGE_BODY_SIZE_LIMIT = 1024 * 1024 * 1024;
@@ -86,8 +90,23 @@ public final class MessageLogProperties {
 
     public static final String ARCHIVE_TRANSACTION_BATCH = PREFIX + "archive-transaction-batch";
 
+    /** Property name for toggling keyset paginated archiving of the log records. */
+    public static final String ARCHIVE_KEYSET_PAGINATION_ENABLED = PREFIX + "archive-keyset-pagination-enabled";
+
+    /** Property name of the number of message records read from the database at a time in keyset paginated mode. */
+    public static final String ARCHIVE_PAGE_SIZE = PREFIX + "archive-page-size";
+
+    /** Property name of the number of threads creating ASiC containers in keyset paginated mode. */
+    public static final String ARCHIVE_WORKER_COUNT = PREFIX + "archive-worker-count";
+
     public static final String CLEAN_INTERVAL = PREFIX + "clean-interval";
 
+    /** Property name of the maximum number of message records saved in one group commit transaction. */
+    public static final String GROUP_COMMIT_MAX_BATCH_SIZE = PREFIX + "group-commit-max-batch-size";
+
+    /** Property name of the time window (milliseconds) for collecting message records into one group commit. */
+    public static final String GROUP_COMMIT_WINDOW = PREFIX + "group-commit-window";
+
     private static final String CLEAN_TRANSACTION_BATCH = "clean-transaction-batch";
 
     public static final String HASH_ALGO_ID = PREFIX + "hash-algo-id";
@@ -195,6 +214,31 @@ public final class MessageLogProperties {
         return getInt(System.getProperty(ARCHIVE_TRANSACTION_BATCH), DEFAULT_ARCHIVE_TRANSACTION_BATCH_SIZE);
     }
 
+    /**
+     * @return true if the time-stamped records are archived in the order of their ids, reading the message records
+     * page by page and marking them archived with set-based updates. 'false' by default.
+     */
+    public static boolean isArchiveKeysetPaginationEnabled() {
+        return "true".equalsIgnoreCase(System.getProperty(ARCHIVE_KEYSET_PAGINATION_ENABLED, "false"));
+    }
+
+    /**
+     * @return the number of message records read from the database at a time when keyset paginated archiving is
+     * enabled. '500' by default.
+     */
+    public static int getArchivePageSize() {
+        return Math.max(1, getInt(System.getProperty(ARCHIVE_PAGE_SIZE), DEFAULT_ARCHIVE_PAGE_SIZE));
+    }
+
+    /**
+     * @return the number of threads creating ASiC containers in parallel when keyset paginated archiving is
+     * enabled. Defaults to the number of available processors.
+     */
+    public static int getArchiveWorkerCount() {
+        return Math.max(1, getInt(System.getProperty(ARCHIVE_WORKER_COUNT),
+                Runtime.getRuntime().availableProcessors()));
+    }
+
     /**
      * @return the time interval as Cron expression for cleaning archived records from online database.
      */
@@ -237,6 +281,25 @@ public final class MessageLogProperties {
         return System.getProperty(ARCHIVE_TRANSFER_COMMAND, null);
     }
 
+    /**
+     * @return the maximum number of concurrently logged message records that are saved to the database in one
+     * transaction. A value of '1' (the default) disables group commit and every message is saved in its own
+     * transaction.
+     */
+    public static int getGroupCommitMaxBatchSize() {
+        return Math.max(1, getInt(System.getProperty(GROUP_COMMIT_MAX_BATCH_SIZE),
+                DEFAULT_GROUP_COMMIT_MAX_BATCH_SIZE));
+    }
+
+    /**
+     * @return the time in milliseconds the first message record of a group commit waits for more records before
+     * the group is saved. A window of zero (the default) saves the group as soon as the already queued log
+     * requests have been collected.
+     */
+    public static int getGroupCommitWindow() {
+        return Math.max(0, getInt(System.getProperty(GROUP_COMMIT_WINDOW), DEFAULT_GROUP_COMMIT_WINDOW));
+    }
+
     private static int getInt(String value, int defaultValue) {
         try {
             return Integer.parseInt(value);
@@ -24,7 +24,6 @@
  */
 package ee.ria.xroad.common.messagelog.archive;
 
-import ee.ria.xroad.common.CodedException;
 import ee.ria.xroad.common.asic.AsicContainerNameGenerator;
 import ee.ria.xroad.common.messagelog.MessageLogProperties;
 import ee.ria.xroad.common.messagelog.MessageRecord;
@@ -32,25 +31,19 @@ import ee.ria.xroad.common.messagelog.MessageRecord;
 import com.google.common.io.CountingOutputStream;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.ProxyOutputStream;
 
 import java.io.BufferedOutputStream;
 import java.io.Closeable;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.file.Files;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
-import java.util.ArrayList;
 import java.util.Date;
-import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.function.Supplier;
@@ -58,16 +51,25 @@ import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
-import static ee.ria.xroad.common.ErrorCodes.X_IO_ERROR;
+import static ee.ria.xroad.common.DefaultFilepaths.createTempFile;
 import static ee.ria.xroad.common.messagelog.MessageLogProperties.getArchiveMaxFilesize;
 import static ee.ria.xroad.common.messagelog.archive.LogArchiveWriter.MAX_RANDOM_GEN_ATTEMPTS;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.apache.commons.io.FileUtils.deleteQuietly;
 
 /**
  * Encapsulates logic of creating log archive from ASiC containers.
+ *
+ * The ASiC containers are streamed directly into the entries of the archive
+ * zip file, and the digests for the linking info are computed in the same
+ * pass. The archive is written to a temporary file in the archive directory,
+ * which is handed over to the caller when the archive is finished.
  */
 @Slf4j
 class LogArchiveCache implements Closeable {
 
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     private enum State {
         NEW,
         ADDING,
@@ -76,50 +78,93 @@ class LogArchiveCache implements Closeable {
 
     private final Supplier<String> randomGenerator;
     private final LinkingInfoBuilder linkingInfoBuilder;
-    private final Path workingDir;
+    private final Path archiveDir;
+    private final MessageDigest digest;
 
     private AsicContainerNameGenerator nameGenerator;
     private State state = State.NEW;
 
-    private File archiveContentDir;
-    private File tempArchive;
+    private Path tempArchive;
+    private FileChannel archiveChannel;
+    private ZipOutputStream archiveOut;
 
-    private List<String> archiveFileNames;
     private Set<Date> creationTimes;
     private long archivesTotalSize;
 
+    /**
+     * @param archiveDir directory of the archives, the archive being created
+     * is written to a temporary file there, so that it can be moved in place
+     * atomically
+     */
+    @SneakyThrows
     LogArchiveCache(Supplier<String> randomGenerator,
             LinkingInfoBuilder linkingInfoBuilder,
-            Path workingDir) {
+            Path archiveDir) {
         this.randomGenerator = randomGenerator;
         this.linkingInfoBuilder = linkingInfoBuilder;
-        this.workingDir = workingDir;
+        this.archiveDir = archiveDir;
+        this.digest = MessageDigest.getInstance(MessageLogProperties.getHashAlg());
         reset();
     }
 
     void add(MessageRecord messageRecord) throws Exception {
+        add(messageRecord, out -> messageRecord.toAsicContainer().write(out));
+    }
+
+    /**
+     * Adds a message record whose ASiC container has already been created,
+     * e.g. by a worker thread.
+     * @param messageRecord the message record
+     * @param asicContainer the serialized ASiC container of the record
+     * @throws Exception if the container cannot be added to the archive
+     */
+    void add(MessageRecord messageRecord, byte[] asicContainer) throws Exception {
+        add(messageRecord, out -> out.write(asicContainer));
+    }
+
+    private void add(MessageRecord messageRecord, ContainerWriter containerWriter) throws Exception {
         try {
             validateMessageRecord(messageRecord);
             handleRotation();
-            cacheRecord(messageRecord);
+            cacheRecord(messageRecord, containerWriter);
             updateState();
         } catch (Exception e) {
             handleCacheError(e);
         }
     }
 
-    InputStream getArchiveFile() throws IOException {
-        tempArchive = File.createTempFile(
-                "xroad-log-archive-zip", ".tmp", workingDir.toFile());
-        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(tempArchive))) {
-            out.setLevel(Deflater.NO_COMPRESSION); //Asic containers are already compressed
-            addAsicContainersToArchive(out);
-            addLinkingInfoToArchive(out);
+    /**
+     * Adds the linking info to the archive and closes it. The cache starts
+     * a new archive when the next record is added.
+     * @return the temporary file containing the finished archive, to be moved
+     * or deleted by the caller, or null if no records have been added
+     * @throws IOException if the archive cannot be written
+     */
+    Path finishArchive() throws IOException {
+        if (archiveOut == null) {
+            return null;
+        }
+
+        try {
+            addLinkingInfoToArchive(archiveOut);
+
+            archiveOut.finish();
+            archiveOut.flush();
+            // The archive is moved in place by the caller, make sure that
+            // the contents are on the disk before that.
+            archiveChannel.force(true);
+            archiveOut.close();
         } catch (Exception e) {
             handleCacheError(e);
         }
 
-        return new FileInputStream(tempArchive);
+        Path finished = tempArchive;
+
+        archiveOut = null;
+        archiveChannel = null;
+        tempArchive = null;
+
+        return finished;
     }
 
     @SneakyThrows
@@ -129,22 +174,6 @@ class LogArchiveCache implements Closeable {
         throw e;
     }
 
-    private void addAsicContainersToArchive(ZipOutputStream zipOut)
-            throws IOException {
-        for (String eachName : archiveFileNames) {
-            ZipEntry entry = new ZipEntry(eachName);
-
-            zipOut.putNextEntry(entry);
-
-            try (InputStream archiveInput =
-                         Files.newInputStream(createTempAsicPath(eachName))) {
-                IOUtils.copy(archiveInput, zipOut);
-            }
-
-            zipOut.closeEntry();
-        }
-    }
-
     private void addLinkingInfoToArchive(ZipOutputStream zipOut)
             throws IOException {
         ZipEntry linkingInfoEntry = new ZipEntry("linkinginfo");
@@ -182,17 +211,19 @@ class LogArchiveCache implements Closeable {
     }
 
     private void handleRotation() throws IOException {
-        if (state != State.ROTATING) {
+        // A finished archive is not added to anymore, even if it has not
+        // reached the rotation size.
+        if (state == State.ADDING && archiveOut != null) {
             return;
         }
 
         reset();
     }
 
-    private void cacheRecord(MessageRecord messageRecord) throws Exception {
+    private void cacheRecord(MessageRecord messageRecord, ContainerWriter containerWriter) throws Exception {
         creationTimes.add(new Date(messageRecord.getTime()));
 
-        addContainerToArchive(messageRecord);
+        addContainerToArchive(messageRecord, containerWriter);
     }
 
     private void updateState() {
@@ -203,62 +234,86 @@ class LogArchiveCache implements Closeable {
         return archivesTotalSize > getArchiveMaxFilesize();
     }
 
-    private void addContainerToArchive(MessageRecord record) throws Exception {
+    private void addContainerToArchive(MessageRecord record, ContainerWriter containerWriter) throws Exception {
         String archiveFilename =
                 nameGenerator.getArchiveFilename(record.getQueryId(),
                         record.isResponse() ? AsicContainerNameGenerator.TYPE_RESPONSE
                                 : AsicContainerNameGenerator.TYPE_REQUEST);
 
-        archiveFileNames.add(archiveFilename);
+        if (archiveOut == null) {
+            openArchive();
+        }
+
+        archiveOut.putNextEntry(new ZipEntry(archiveFilename));
+
+        digest.reset();
+        CountingOutputStream cos = new CountingOutputStream(
+                new DigestOutputStream(new EntryOutputStream(archiveOut), digest));
 
-        final MessageDigest digest = MessageDigest.getInstance(MessageLogProperties.getHashAlg());
-        try (CountingOutputStream cos = new CountingOutputStream(
-                new DigestOutputStream(Files.newOutputStream(createTempAsicPath(archiveFilename)), digest));
-             OutputStream bos = new BufferedOutputStream(cos)) {
+        try (OutputStream bos = new BufferedOutputStream(cos)) {
             // ZipOutputStream writing directly to a DigestOutputStream is extremely inefficient, hence the additional
-            // buffering. Digesting a stream instead of an in-memory buffer because the archive can be
+            // buffering. The container is digested while it is written to the archive, the archive can be
             // large (over 1GiB)
-            record.toAsicContainer().write(bos);
+            containerWriter.write(bos);
             archivesTotalSize += cos.getCount();
         }
+
+        archiveOut.closeEntry();
         linkingInfoBuilder.addNextFile(archiveFilename, digest.digest());
     }
 
-    private Path createTempAsicPath(String archiveFilename) {
-        return Paths.get(archiveContentDir.getAbsolutePath(), archiveFilename);
+    private void openArchive() throws IOException {
+        tempArchive = createTempFile(archiveDir, "mlogtmp", null);
+        archiveChannel = FileChannel.open(tempArchive, WRITE);
+        archiveOut = new ZipOutputStream(new BufferedOutputStream(
+                Channels.newOutputStream(archiveChannel), BUFFER_SIZE));
+        archiveOut.setLevel(Deflater.NO_COMPRESSION); //Asic containers are already compressed
     }
 
     private void reset() {
-        try {
-            resetArchive();
-            resetCacheState();
-        } catch (IOException e) {
-            log.error("Resetting log archive cache failed, cause:", e);
-            throw new CodedException(X_IO_ERROR,
-                    "Failed to reset log archive cache");
-        }
-    }
-
-    private void resetArchive() throws IOException {
         deleteArchiveArtifacts();
-
-        archiveContentDir = Files.createTempDirectory(
-                workingDir,
-                "xroad-log-archive"
-        ).toFile();
+        resetCacheState();
     }
 
     private void deleteArchiveArtifacts() {
-        FileUtils.deleteQuietly(archiveContentDir);
-        FileUtils.deleteQuietly(tempArchive);
+        IOUtils.closeQuietly(archiveOut);
+        IOUtils.closeQuietly(archiveChannel);
+        archiveOut = null;
+        archiveChannel = null;
+
+        if (tempArchive != null) {
+            deleteQuietly(tempArchive.toFile());
+            tempArchive = null;
+        }
     }
 
     private void resetCacheState() {
-        archiveFileNames = new ArrayList<>();
         creationTimes = new TreeSet<>();
         archivesTotalSize = 0;
 
         nameGenerator = new AsicContainerNameGenerator(randomGenerator,
                 MAX_RANDOM_GEN_ATTEMPTS);
     }
+
+    /**
+     * Output to the current archive entry, closing it leaves the archive open.
+     * Closing may happen more than once, since the ASiC container closes
+     * its output.
+     */
+    private static final class EntryOutputStream extends ProxyOutputStream {
+
+        EntryOutputStream(OutputStream archiveOut) {
+            super(archiveOut);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    @FunctionalInterface
+    private interface ContainerWriter {
+        void write(OutputStream out) throws Exception;
+    }
 }
@@ -29,27 +29,18 @@ import ee.ria.xroad.common.messagelog.MessageLogProperties;
 import ee.ria.xroad.common.messagelog.MessageRecord;
 
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.ArrayUtils;
 
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.nio.channels.Channels;
-import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.SimpleDateFormat;
 
-import static ee.ria.xroad.common.DefaultFilepaths.createTempFile;
 import static ee.ria.xroad.common.messagelog.MessageLogProperties.getArchivePath;
 import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
-import static java.nio.file.StandardOpenOption.CREATE;
-import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
-import static java.nio.file.StandardOpenOption.WRITE;
 import static org.apache.commons.io.FileUtils.deleteQuietly;
 import static org.apache.commons.lang3.RandomStringUtils.randomAlphanumeric;
 
@@ -72,17 +63,13 @@ public class LogArchiveWriter implements Closeable {
     private final LinkingInfoBuilder linkingInfoBuilder;
     private final LogArchiveCache logArchiveCache;
 
-    private WritableByteChannel archiveOut;
-    private Path archiveTmp;
     /**
      * Creates new LogArchiveWriter
      *
      * @param outputPath  directory where the log archive is created.
-     * @param workingPath directory where the temporary files are stored
      * @param archiveBase interface to archive database.
      */
-    public LogArchiveWriter(Path outputPath, Path workingPath,
-                            LogArchiveBase archiveBase) {
+    public LogArchiveWriter(Path outputPath, LogArchiveBase archiveBase) {
         this.outputPath = outputPath;
         this.archiveBase = archiveBase;
 
@@ -91,10 +78,12 @@ public class LogArchiveWriter implements Closeable {
                 archiveBase
         );
 
+        // The container names only need to be unique within the archive,
+        // which is taken care of by the cache.
         this.logArchiveCache = new LogArchiveCache(
-                LogArchiveWriter::generateRandom,
+                () -> randomAlphanumeric(RANDOM_LENGTH),
                 linkingInfoBuilder,
-                workingPath
+                outputPath
         );
     }
 
@@ -110,16 +99,38 @@ public class LogArchiveWriter implements Closeable {
             throw new IllegalArgumentException("log record must not be null");
         }
 
-        if (archiveOut == null) {
-            initOutput();
-        }
-
         log.trace("write({})", logRecord.getId());
 
         if (logRecord instanceof MessageRecord) {
             logArchiveCache.add((MessageRecord) logRecord);
         }
 
+        return recordWritten(logRecord);
+    }
+
+    /**
+     * Write a message log record whose ASiC container has already been
+     * created. Allows creating the containers in parallel while the archive
+     * itself is written sequentially in the order of the records.
+     *
+     * @param messageRecord the message log record
+     * @param asicContainer the serialized ASiC container of the record
+     * @return true if the a archive file was rotated
+     * @throws Exception in case of any errors
+     */
+    public boolean write(MessageRecord messageRecord, byte[] asicContainer) throws Exception {
+        if (messageRecord == null || asicContainer == null) {
+            throw new IllegalArgumentException("message record and its container must not be null");
+        }
+
+        log.trace("write({})", messageRecord.getId());
+
+        logArchiveCache.add(messageRecord, asicContainer);
+
+        return recordWritten(messageRecord);
+    }
+
+    private boolean recordWritten(LogRecord logRecord) throws Exception {
         archiveBase.markRecordArchived(logRecord);
 
         if (logArchiveCache.isRotating()) {
@@ -134,26 +145,10 @@ public class LogArchiveWriter implements Closeable {
         log.trace("Closing log archive writer ...");
 
         try {
-            if (archiveAsicContainers()) {
-                closeOutputs();
-                saveArchive();
-            }
+            saveArchive();
         } finally {
             logArchiveCache.close();
-            clearTempArchive();
-        }
-    }
-
-    private void clearTempArchive() {
-        if (archiveTmp != null) {
-            deleteQuietly(archiveTmp.toFile());
         }
-        archiveTmp = null;
-    }
-
-    protected WritableByteChannel createArchiveOutput() throws Exception {
-        archiveTmp = createTempFile(outputPath, "mlogtmp", null);
-        return createOutputToTempFile(archiveTmp);
     }
 
     protected String getArchiveFilename(String random) {
@@ -165,66 +160,32 @@ public class LogArchiveWriter implements Closeable {
 
     protected void rotate() throws Exception {
         log.trace("rotate()");
-        archiveAsicContainers();
-
-        closeOutputs();
-        archiveOut = null;
 
         saveArchive();
-        archiveTmp = null;
-
-    }
-
-    private boolean archiveAsicContainers() {
-        if (archiveOut == null) {
-            return false;
-        }
-
-        try (InputStream input = logArchiveCache.getArchiveFile();
-                OutputStream output = Channels.newOutputStream(archiveOut)) {
-            IOUtils.copy(input, output);
-        } catch (IOException e) {
-            log.error("Failed to archive ASiC containers due to IO error", e);
-            return false;
-        }
-
-        return true;
-    }
-
-    private void closeOutputs() throws IOException {
-        if (archiveOut != null) {
-            archiveOut.close();
-        }
-    }
-
-    private void initOutput() throws Exception {
-        log.trace("initOutput()");
-
-        try {
-            closeOutputs();
-        } catch (Exception e) {
-            log.trace("Failed to close output files", e);
-        }
-
-        archiveOut = createArchiveOutput();
     }
 
     private void saveArchive() throws IOException {
+        Path archiveTmp = logArchiveCache.finishArchive();
+
         if (archiveTmp == null) {
             return;
         }
 
-        String archiveFilename = getArchiveFilename(generateRandom());
+        try {
+            String archiveFilename = getArchiveFilename(generateRandom());
 
-        Path archiveFile = outputPath.resolve(archiveFilename);
+            Path archiveFile = outputPath.resolve(archiveFilename);
 
-        atomicMove(archiveTmp, archiveFile);
+            atomicMove(archiveTmp, archiveFile);
 
-        setArchivedInDatabase(archiveFilename);
+            setArchivedInDatabase(archiveFilename);
 
-        linkingInfoBuilder.afterArchiveSaved();
+            linkingInfoBuilder.afterArchiveSaved();
 
-        log.info("Created archive file {}", archiveFile);
+            log.info("Created archive file {}", archiveFile);
+        } finally {
+            deleteQuietly(archiveTmp.toFile());
+        }
     }
 
     private void setArchivedInDatabase(String archiveFilename)
@@ -269,11 +230,6 @@ public class LogArchiveWriter implements Closeable {
         return ArrayUtils.isEmpty(fileNamesWithSameRandom);
     }
 
-    private static WritableByteChannel createOutputToTempFile(Path tmp)
-            throws Exception {
-        return Files.newByteChannel(tmp, CREATE, WRITE, TRUNCATE_EXISTING);
-    }
-
     private static void atomicMove(Path source, Path destination)
             throws IOException {
         Files.move(source, destination, REPLACE_EXISTING, ATOMIC_MOVE);
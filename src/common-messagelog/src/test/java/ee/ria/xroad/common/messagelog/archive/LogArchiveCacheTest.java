@@ -45,7 +45,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
@@ -53,6 +56,7 @@ import java.util.function.Supplier;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -63,6 +67,7 @@ import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -171,22 +176,21 @@ public class LogArchiveCacheTest {
         // First record
         cache.add(createRequestRecordNormal());
 
-        assertZip(expectedNormalSizeRequestEntryName(), getArchiveBytes());
         assertFalse("Step 1: no need to rotate yet.", cache.isRotating());
 
         // Second record
         cache.add(createRequestRecordTooLarge());
 
-        assertZip(expectedNormalAndLargeRequestEntryNames(), getArchiveBytes());
         assertTrue("Step 2: should be rotated.", cache.isRotating());
+        assertZip(expectedNormalAndLargeRequestEntryNames(), getArchiveBytes());
         assertEquals(largeRequestCreationTime(), cache.getStartTime());
         assertEquals(normalRequestCreationTime(), cache.getEndTime());
 
         // Third record
         cache.add(createResponseRecordNormal());
 
-        assertZip(expectedNormalSizeResponseEntryName(), getArchiveBytes());
         assertFalse("Step 3: new rotation.", cache.isRotating());
+        assertZip(expectedNormalSizeResponseEntryName(), getArchiveBytes());
         assertEquals(normalResponseCreationTime(), cache.getStartTime());
         assertEquals(normalResponseCreationTime(), cache.getEndTime());
     }
@@ -206,15 +210,49 @@ public class LogArchiveCacheTest {
 
         // First record
         cache.add(createRequestRecordNormal());
-        assertZip(expectedNormalSizeRequestEntryName(), getArchiveBytes());
 
         // Record with conflicting name
         cache.add(createRequestRecordNormal());
         assertZip(expectedConflictingEntryNames(), getArchiveBytes());
     }
 
+    /**
+     * Test to ensure the linking info digests are computed from the
+     * containers as they are written to the archive.
+     *
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void digestContainersWhileArchiving() throws Exception {
+        setMaxArchiveSizeDefault();
+
+        LinkingInfoBuilder linkingInfoBuilder = mockLinkingInfoBuilder();
+        cache = new LogArchiveCache(
+                getMockRandomGenerator(), linkingInfoBuilder, Paths.get("build/tmp/"));
+
+        cache.add(createRequestRecordTooLarge());
+
+        MessageDigest digest = MessageDigest.getInstance(MessageLogProperties.getHashAlg());
+        verify(linkingInfoBuilder).addNextFile(
+                ENTRY_NAME_REQUEST_LARGE, digest.digest(containerTooLarge()));
+
+        byte[] archiveBytes = getArchiveBytes();
+        verify(linkingInfoBuilder).afterArchiveCreated();
+
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(archiveBytes))) {
+            assertEquals(ENTRY_NAME_REQUEST_LARGE, zip.getNextEntry().getName());
+            assertArrayEquals(containerTooLarge(), IOUtils.toByteArray(zip));
+        }
+    }
+
     private byte[] getArchiveBytes() throws IOException {
-        return IOUtils.toByteArray(cache.getArchiveFile());
+        Path archive = cache.finishArchive();
+
+        try {
+            return Files.readAllBytes(archive);
+        } finally {
+            Files.delete(archive);
+        }
     }
 
     private void setMaxArchiveSizeSmall() {
@@ -120,7 +120,6 @@ public class LogArchiveTest {
     private LogArchiveWriter getWriter() {
         return new LogArchiveWriter(
                 Paths.get("build/slog"),
-                Paths.get("build/tmp"),
                 dummyLogArchiveBase()) {
 
             @Override
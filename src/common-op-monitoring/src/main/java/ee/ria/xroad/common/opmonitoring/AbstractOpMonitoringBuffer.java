@@ -34,8 +34,6 @@ import lombok.extern.slf4j.Slf4j;
 public abstract class AbstractOpMonitoringBuffer extends UntypedActor {
 
     public static final String SEND_MONITORING_DATA = "sendMonitoringData";
-    public static final String SENDING_SUCCESS = "sendingSuccess";
-    public static final String SENDING_FAILURE = "sendingFailure";
 
     private static final String LOGGING_FORMAT = "onReceive: {}";
 
@@ -52,14 +50,6 @@ public abstract class AbstractOpMonitoringBuffer extends UntypedActor {
                 log.trace(LOGGING_FORMAT, SEND_MONITORING_DATA);
 
                 send();
-            } else if (message.equals(SENDING_SUCCESS)) {
-                log.trace(LOGGING_FORMAT, SENDING_SUCCESS);
-
-                sendingSuccess();
-            } else if (message.equals(SENDING_FAILURE)) {
-                log.trace(LOGGING_FORMAT, SENDING_FAILURE);
-
-                sendingFailure();
             } else {
                 unhandled(message);
             }
@@ -72,8 +62,4 @@ public abstract class AbstractOpMonitoringBuffer extends UntypedActor {
 
     protected abstract void send() throws Exception;
 
-    protected abstract void sendingSuccess() throws Exception;
-
-    protected abstract void sendingFailure() throws Exception;
-
 }
@@ -73,6 +73,31 @@ public final class OpMonitoringSystemProperties {
     private static final String OP_MONITOR_BUFFER_CONNECTION_TIMEOUT_SECONDS =
             PREFIX + "op-monitor-buffer.connection-timeout-seconds";
 
+    /**
+     * Property name of the maximum number of messages the operational monitoring buffer sends to the operational
+     * monitoring daemon concurrently.
+     */
+    private static final String OP_MONITOR_BUFFER_MAX_IN_FLIGHT_MESSAGES =
+            PREFIX + "op-monitor-buffer.max-in-flight-messages";
+
+    /**
+     * Property name for toggling gzip compression of the messages sent to the operational monitoring daemon.
+     */
+    private static final String OP_MONITOR_BUFFER_COMPRESS_MESSAGES =
+            PREFIX + "op-monitor-buffer.compress-messages";
+
+    /**
+     * Property name of the directory where the operational monitoring buffer spills records when the buffer is full.
+     */
+    private static final String OP_MONITOR_BUFFER_SPILL_PATH =
+            PREFIX + "op-monitor-buffer.spill-path";
+
+    /**
+     * Property name of the maximum number of records the operational monitoring buffer spills to disk.
+     */
+    private static final String OP_MONITOR_BUFFER_SPILL_MAX_RECORDS =
+            PREFIX + "op-monitor-buffer.spill-max-records";
+
     // Operational monitoring service ---------------------------------------//
 
     /**
@@ -192,6 +217,37 @@ public final class OpMonitoringSystemProperties {
         return Integer.parseInt(System.getProperty(OP_MONITOR_BUFFER_CONNECTION_TIMEOUT_SECONDS, "30"));
     }
 
+    /**
+     * @return the maximum number of messages the operational monitoring buffer sends to the operational monitoring
+     * daemon concurrently, '4' by default.
+     */
+    public static int getOpMonitorBufferMaxInFlightMessages() {
+        return Math.max(1, Integer.parseInt(System.getProperty(OP_MONITOR_BUFFER_MAX_IN_FLIGHT_MESSAGES, "4")));
+    }
+
+    /**
+     * @return true if the messages sent to the operational monitoring daemon are compressed with gzip, 'false' by
+     * default. Requires an operational monitoring daemon accepting compressed messages.
+     */
+    public static boolean isOpMonitorBufferCompressMessages() {
+        return Boolean.parseBoolean(System.getProperty(OP_MONITOR_BUFFER_COMPRESS_MESSAGES, "false"));
+    }
+
+    /**
+     * @return the directory where the operational monitoring buffer spills the oldest records when the buffer is
+     * full, instead of discarding them. Not set by default, spilling to disk is disabled.
+     */
+    public static String getOpMonitorBufferSpillPath() {
+        return System.getProperty(OP_MONITOR_BUFFER_SPILL_PATH);
+    }
+
+    /**
+     * @return the maximum number of records the operational monitoring buffer spills to disk, '200000' by default.
+     */
+    public static int getOpMonitorBufferSpillMaxRecords() {
+        return Integer.parseInt(System.getProperty(OP_MONITOR_BUFFER_SPILL_MAX_RECORDS, "200000"));
+    }
+
     /**
      * @return the operational monitoring service HTTP client SO_TIMEOUT in seconds, '60' by default.
      */
@@ -0,0 +1,132 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.message;
+
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.util.MimeTypes;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing a SOAP request and getting its hash with {@link SaxSoapParserImpl}, with and without
+ * reused XML readers and pooled message buffers ({@code xroad.common.soap-parser-pooled}), for a small and
+ * a 5 MB envelope, both as is and when the parser re-encodes the message.
+ *
+ * Run with {@code -prof gc} to see the bytes allocated per message ({@code gc.alloc.rate.norm}).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SoapParserBenchmark {
+
+    private static final String ENVELOPE_START = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\""
+            + " xmlns:id=\"http://x-road.eu/xsd/identifiers\" xmlns:xrd=\"http://x-road.eu/xsd/xroad.xsd\">\n"
+            + "  <SOAP-ENV:Header>\n"
+            + "    <xrd:client id:objectType=\"SUBSYSTEM\">\n"
+            + "      <id:xRoadInstance>EE</id:xRoadInstance>\n"
+            + "      <id:memberClass>BUSINESS</id:memberClass>\n"
+            + "      <id:memberCode>consumer</id:memberCode>\n"
+            + "      <id:subsystemCode>sub</id:subsystemCode>\n"
+            + "    </xrd:client>\n"
+            + "    <xrd:service id:objectType=\"SERVICE\">\n"
+            + "      <id:xRoadInstance>EE</id:xRoadInstance>\n"
+            + "      <id:memberClass>BUSINESS</id:memberClass>\n"
+            + "      <id:memberCode>producer</id:memberCode>\n"
+            + "      <id:serviceCode>testQuery</id:serviceCode>\n"
+            + "    </xrd:service>\n"
+            + "    <xrd:userId>EE37702211234</xrd:userId>\n"
+            + "    <xrd:id>1234567890</xrd:id>\n"
+            + "    <xrd:protocolVersion>4.0</xrd:protocolVersion>\n"
+            + "  </SOAP-ENV:Header>\n"
+            + "  <SOAP-ENV:Body>\n"
+            + "    <ns1:testQuery xmlns:ns1=\"http://producer.x-road.eu\">\n";
+    private static final String ENVELOPE_END = "    </ns1:testQuery>\n"
+            + "  </SOAP-ENV:Body>\n"
+            + "</SOAP-ENV:Envelope>\n";
+    private static final String ITEM = "      <ns1:item>Lorem ipsum dolor sit amet &amp; consectetur</ns1:item>\n";
+
+    @Param({"1024", "5242880"})
+    public int bodySize;
+
+    @Param({"true", "false"})
+    public boolean pooled;
+
+    @Param({"false", "true"})
+    public boolean processed;
+
+    private byte[] message;
+
+    private SaxSoapParserImpl parser;
+
+    /**
+     * Builds the message and the parser.
+     */
+    @Setup
+    public void setUp() {
+        int items = Math.max(1, bodySize / ITEM.length());
+        message = (ENVELOPE_START + StringUtils.repeat(ITEM, items) + ENVELOPE_END)
+                .getBytes(StandardCharsets.UTF_8);
+
+        System.setProperty(SystemProperties.SOAP_PARSER_POOLED, String.valueOf(pooled));
+        parser = processed ? new ProcessingSoapParser() : new SaxSoapParserImpl();
+    }
+
+    /**
+     * Parses the message and gets its hash.
+     * @return the message hash
+     */
+    @Benchmark
+    public byte[] parse() {
+        SoapMessageImpl soap = (SoapMessageImpl) parser.parse(MimeTypes.TEXT_XML_UTF8,
+                new ByteArrayInputStream(message));
+        return soap.getHash();
+    }
+
+    private static final class ProcessingSoapParser extends SaxSoapParserImpl {
+        @Override
+        protected boolean isProcessedXmlRequired() {
+            return true;
+        }
+    }
+}
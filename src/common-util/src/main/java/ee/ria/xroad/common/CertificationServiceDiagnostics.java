@@ -41,4 +41,14 @@ public class CertificationServiceDiagnostics implements Serializable {
     public CertificationServiceDiagnostics() {
         certificationServiceStatusMap = new HashMap<>();
     }
+
+    /**
+     * Creates a copy of the diagnostics that does not change with the original.
+     * @param other the diagnostics to copy
+     */
+    public CertificationServiceDiagnostics(CertificationServiceDiagnostics other) {
+        certificationServiceStatusMap = new HashMap<>();
+        other.certificationServiceStatusMap.forEach((key, status) ->
+                certificationServiceStatusMap.put(key, new CertificationServiceStatus(status)));
+    }
 }
@@ -44,4 +44,13 @@ public class CertificationServiceStatus implements Serializable {
         this.name = name;
         ocspResponderStatusMap = new HashMap<>();
     }
+
+    /**
+     * Creates a copy of the status, the responder statuses are immutable and shared with the original.
+     * @param other the status to copy
+     */
+    public CertificationServiceStatus(CertificationServiceStatus other) {
+        this.name = other.name;
+        ocspResponderStatusMap = new HashMap<>(other.ocspResponderStatusMap);
+    }
 }
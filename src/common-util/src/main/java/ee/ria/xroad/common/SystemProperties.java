@@ -47,10 +47,47 @@ public final class SystemProperties {
     public static final String TEMP_FILES_PATH =
             PREFIX + "common.temp-files-path";
 
+    /**
+     * Property name of the size threshold in bytes below which message attachments and REST bodies are cached
+     * in memory instead of a temporary file. Zero disables in-memory caching.
+     */
+    public static final String ATTACHMENT_MEMORY_THRESHOLD =
+            PREFIX + "common.attachment-memory-threshold";
+
+    /** Property name of the maximum number of idle attachment cache buffers kept for reuse. */
+    public static final String ATTACHMENT_BUFFER_POOL_SIZE =
+            PREFIX + "common.attachment-buffer-pool-size";
+
+    /** Property name of the switch for allocating attachment cache buffers outside of the heap. */
+    public static final String ATTACHMENT_BUFFER_DIRECT =
+            PREFIX + "common.attachment-buffer-direct";
+
+    /**
+     * Property name of the switch for parsing SOAP messages with per-thread reused XML readers and pooled
+     * message buffers, and computing the message hash while parsing.
+     */
+    public static final String SOAP_PARSER_POOLED =
+            PREFIX + "common.soap-parser-pooled";
+
+    /** Property name of the maximum number of idle SOAP message buffers kept for reuse. */
+    public static final String SOAP_PARSER_BUFFER_POOL_SIZE =
+            PREFIX + "common.soap-parser-buffer-pool-size";
+
     /** Property name of the downloaded global configuration directory. */
     public static final String CONFIGURATION_PATH =
             PREFIX + "common.configuration-path";
 
+    /**
+     * Property name of the global configuration change watch switch. When enabled, global configuration changes
+     * are detected by watching the configuration directory and by comparing file stamps instead of checksums.
+     */
+    public static final String GLOBAL_CONF_WATCH_ENABLED =
+            PREFIX + "common.global-conf-watch-enabled";
+
+    /** Property name of the maximum number of remembered certificate chain verifications, 0 disables the cache */
+    public static final String CERT_CHAIN_VERIFICATION_CACHE_SIZE =
+            PREFIX + "common.cert-chain-verification-cache-size";
+
     /** Current version number of the global configuration **/
     public static final int CURRENT_GLOBAL_CONFIGURATION_VERSION = 2;
 
@@ -174,6 +211,21 @@ public final class SystemProperties {
     public static final String SERVER_CONF_CACHE_PERIOD =
             PREFIX + "proxy.server-conf-cache-period";
 
+    /** Property name of the maximum number of entries in the server conf cache */
+    public static final String SERVER_CONF_CACHE_SIZE =
+            PREFIX + "proxy.server-conf-cache-size";
+
+    /**
+     * Property name of the switch for serving the server conf from an in-memory replica that is refreshed on
+     * database change notifications instead of from the cache.
+     */
+    public static final String SERVER_CONF_REPLICA_ENABLED =
+            PREFIX + "proxy.server-conf-replica-enabled";
+
+    /** Property name of the interval of full server conf replica reloads in seconds, 0 disables them */
+    public static final String SERVER_CONF_REPLICA_RELOAD_PERIOD =
+            PREFIX + "proxy.server-conf-replica-reload-period";
+
     /** Property name of the idle time that connections to the ServerProxy Connector are allowed, in milliseconds */
     private static final String SERVERPROXY_CONNECTOR_MAX_IDLE_TIME =
             PREFIX + "proxy.server-connector-max-idle-time";
@@ -218,6 +270,31 @@ public final class SystemProperties {
     private static final String CLIENTPROXY_HTTPCLIENT_SO_LINGER =
             PREFIX + "proxy.client-httpclient-so-linger";
 
+    /**
+     * Property name of the switch for reading, signing and encoding the whole SOAP request on the request thread
+     * before sending it to the server proxy, instead of streaming it through a separate handler thread
+     */
+    public static final String CLIENTPROXY_SOAP_REQUEST_BUFFERED =
+            PREFIX + "proxy.client-soap-request-buffered";
+
+    /** Property name of the maximum number of requests signed in one batch, 0 means unlimited */
+    public static final String PROXY_BATCH_SIGNING_MAX_SIZE =
+            PREFIX + "proxy.batch-signing-max-size";
+
+    /**
+     * Property name of the time window in milliseconds for collecting requests into a batch when the signer
+     * is idle, 0 means that a request is signed immediately
+     */
+    public static final String PROXY_BATCH_SIGNING_WINDOW =
+            PREFIX + "proxy.batch-signing-window";
+
+    /**
+     * Property name of the maximum number of successful service provider TLS authentication verifications
+     * remembered by the client proxy, 0 disables the cache
+     */
+    public static final String CLIENTPROXY_VERIFIED_PEER_CACHE_SIZE =
+            PREFIX + "proxy.client-verified-peer-cache-size";
+
     private static final String CLIENTPROXY_POOL_IDLE_MONITOR_INTERVAL =
             PREFIX + "proxy.client-idle-connection-monitor-interval";
 
@@ -239,6 +316,18 @@ public final class SystemProperties {
     public static final String CLIENTPROXY_FASTEST_CONNECTING_SSL_URI_CACHE_PERIOD =
             PREFIX + "proxy.client-fastest-connecting-ssl-uri-cache-period";
 
+    /** Property name of the flag that spreads requests over healthy provider security servers */
+    public static final String CLIENTPROXY_PROVIDER_LOAD_BALANCING_ENABLED =
+            PREFIX + "proxy.client-provider-load-balancing-enabled";
+
+    /** Property name of the number of consecutive failures after which a provider address is not used */
+    public static final String CLIENTPROXY_PROVIDER_FAILURE_THRESHOLD =
+            PREFIX + "proxy.client-provider-failure-threshold";
+
+    /** Property name of the interval in seconds at which failed provider addresses are probed */
+    public static final String CLIENTPROXY_PROVIDER_PROBE_INTERVAL =
+            PREFIX + "proxy.client-provider-probe-interval";
+
     private static final String CLIENTPROXY_POOL_VALIDATE_CONNECTIONS_AFTER_INACTIVITY_OF_MS =
             PREFIX + "proxy.pool-validate-connections-after-inactivity-of-millis";
 
@@ -316,6 +405,10 @@ public final class SystemProperties {
 
     private static final int OCSP_VERIFIER_CACHE_PERIOD_MAX = 180;
 
+    /** Property name of the maximum number of verified OCSP responses kept in memory */
+    public static final String OCSP_VERIFIER_CACHE_SIZE =
+            PREFIX + "proxy.ocsp-verifier-cache-size";
+
     public static final String ALLOW_GET_WSDL_REQUEST = PREFIX + "proxy.allow-get-wsdl-request";
 
 
@@ -363,11 +456,29 @@ public final class SystemProperties {
 
     private static final String DEFAULT_SIGNER_OCSP_RETRY_DELAY = "60";
 
+    public static final String SIGNER_OCSP_FETCH_THREADS =
+            PREFIX + "signer.ocsp-fetch-threads";
+
+    private static final String DEFAULT_SIGNER_OCSP_FETCH_THREADS = "8";
+
+    public static final String SIGNER_OCSP_RESPONDER_MAX_CONCURRENT_REQUESTS =
+            PREFIX + "signer.ocsp-responder-max-concurrent-requests";
+
+    private static final String DEFAULT_SIGNER_OCSP_RESPONDER_MAX_CONCURRENT_REQUESTS = "2";
+
     public static final String SIGNER_MODULE_MANAGER_UPDATE_INTERVAL =
             PREFIX + "signer.module-manager-update-interval";
 
     public static final String DEFAULT_SIGNER_MODULE_MANAGER_UPDATE_INTERVAL = "60";
 
+    public static final String SIGNER_SOFT_TOKEN_SIGNING_THREADS =
+            PREFIX + "signer.soft-token-signing-threads";
+
+    public static final String SIGNER_SOFT_TOKEN_SIGNING_QUEUE_SIZE =
+            PREFIX + "signer.soft-token-signing-queue-size";
+
+    private static final String DEFAULT_SIGNER_SOFT_TOKEN_SIGNING_QUEUE_SIZE = "1000";
+
     // AntiDos ----------------------------------------------------------------
 
     /** Property name of the AntiDos on/off switch */
@@ -878,6 +989,22 @@ public final class SystemProperties {
                 DEFAULT_SIGNER_OCSP_RETRY_DELAY));
     }
 
+    /**
+     * @return the number of threads fetching OCSP responses in signer, 8 by default
+     */
+    public static int getOcspFetchThreads() {
+        return Math.max(1, Integer.parseInt(System.getProperty(SIGNER_OCSP_FETCH_THREADS,
+                DEFAULT_SIGNER_OCSP_FETCH_THREADS)));
+    }
+
+    /**
+     * @return the maximum number of concurrent OCSP requests sent by signer to one OCSP responder, 2 by default
+     */
+    public static int getOcspResponderMaxConcurrentRequests() {
+        return Math.max(1, Integer.parseInt(System.getProperty(SIGNER_OCSP_RESPONDER_MAX_CONCURRENT_REQUESTS,
+                DEFAULT_SIGNER_OCSP_RESPONDER_MAX_CONCURRENT_REQUESTS)));
+    }
+
     /**
      * @return the module manager update interval in seconds that should be set for signer, 60 by default
      */
@@ -886,6 +1013,24 @@ public final class SystemProperties {
                 DEFAULT_SIGNER_MODULE_MANAGER_UPDATE_INTERVAL));
     }
 
+    /**
+     * @return the number of threads calculating software token signatures, the number of available processors
+     * by default. If 1, the signatures are calculated by the token worker.
+     */
+    public static int getSignerSoftTokenSigningThreads() {
+        return Math.max(1, Integer.getInteger(SIGNER_SOFT_TOKEN_SIGNING_THREADS,
+                Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @return the maximum number of software token signing requests waiting for a signing thread, 1000 by
+     * default. When the queue is full, the token worker calculates the signatures itself.
+     */
+    public static int getSignerSoftTokenSigningQueueSize() {
+        return Math.max(1, Integer.parseInt(System.getProperty(SIGNER_SOFT_TOKEN_SIGNING_QUEUE_SIZE,
+                DEFAULT_SIGNER_SOFT_TOKEN_SIGNING_QUEUE_SIZE)));
+    }
+
     /**
      * @return the HTTP port on which the configuration client is listening, '5665' by default.
      */
@@ -1280,6 +1425,27 @@ public final class SystemProperties {
         return Integer.parseInt(System.getProperty(SERVER_CONF_CACHE_PERIOD, "60"));
     }
 
+    /**
+     * @return the maximum number of entries in the server conf cache, '10000' by default
+     */
+    public static long getServerConfCacheSize() {
+        return Long.parseLong(System.getProperty(SERVER_CONF_CACHE_SIZE, "10000"));
+    }
+
+    /**
+     * @return whether the server conf is served from an in-memory replica, 'false' by default.
+     */
+    public static boolean isServerConfReplicaEnabled() {
+        return "true".equalsIgnoreCase(System.getProperty(SERVER_CONF_REPLICA_ENABLED, "false"));
+    }
+
+    /**
+     * @return interval of full server conf replica reloads in seconds, '3600' by default.
+     */
+    public static int getServerConfReplicaReloadPeriod() {
+        return Integer.parseInt(System.getProperty(SERVER_CONF_REPLICA_RELOAD_PERIOD, "3600"));
+    }
+
     /**
      * @return the interval in seconds at which verifier caches results.
      * Max value is 180 seconds and cannot be exceeded in configuration.
@@ -1290,6 +1456,13 @@ public final class SystemProperties {
         return period < OCSP_VERIFIER_CACHE_PERIOD_MAX ? period : OCSP_VERIFIER_CACHE_PERIOD_MAX;
     }
 
+    /**
+     * @return maximum number of verified OCSP responses kept in memory, 1000 by default
+     */
+    public static int getOcspVerifierCacheSize() {
+        return Integer.parseInt(System.getProperty(OCSP_VERIFIER_CACHE_SIZE, "1000"));
+    }
+
     /**
      * @return serverproxy initial idle time (used until the request processing starts)
      */
@@ -1421,6 +1594,30 @@ public final class SystemProperties {
                 DEFAULT_CLIENTPROXY_FASTEST_CONNECTING_SSL_URI_CACHE_PERIOD));
     }
 
+    /**
+     * @return true if new connections to provider security servers should be spread over the healthy addresses by
+     * their latency and load instead of using the fastest connecting address, false by default
+     */
+    public static boolean isClientProxyProviderLoadBalancingEnabled() {
+        return Boolean.parseBoolean(System.getProperty(CLIENTPROXY_PROVIDER_LOAD_BALANCING_ENABLED, "false"));
+    }
+
+    /**
+     * @return number of consecutive failures after which a provider address is only probed in the background,
+     * 3 by default
+     */
+    public static int getClientProxyProviderFailureThreshold() {
+        return Integer.parseInt(System.getProperty(CLIENTPROXY_PROVIDER_FAILURE_THRESHOLD, "3"));
+    }
+
+    /**
+     * @return interval in seconds at which failed provider addresses are probed, 10 by default. If not positive,
+     * failed provider addresses are not probed nor taken out of use
+     */
+    public static int getClientProxyProviderProbeInterval() {
+        return Integer.parseInt(System.getProperty(CLIENTPROXY_PROVIDER_PROBE_INTERVAL, "10"));
+    }
+
     /**
      * @return the time in milliseconds, after which connections in a pool should be check for validity, ie.
      * after this time, check if pooled connections are still alive, don't just assume they are.
@@ -1493,6 +1690,89 @@ public final class SystemProperties {
         return "true".equalsIgnoreCase(System.getProperty(ALLOW_GET_WSDL_REQUEST, DEFAULT_ALLOW_GET_WSDL_REQUEST));
     }
 
+    /**
+     * @return whether global configuration changes are detected by watching the configuration directory,
+     * 'false' by default.
+     */
+    public static boolean isGlobalConfWatchEnabled() {
+        return "true".equalsIgnoreCase(System.getProperty(GLOBAL_CONF_WATCH_ENABLED, "false"));
+    }
+
+    /**
+     * @return maximum number of remembered successful certificate chain verifications, '1000' by default.
+     * '0' disables the cache.
+     */
+    public static int getCertChainVerificationCacheSize() {
+        return Integer.parseInt(System.getProperty(CERT_CHAIN_VERIFICATION_CACHE_SIZE, "1000"));
+    }
+
+    /**
+     * @return size threshold in bytes below which attachments are cached in memory, '65536' by default.
+     */
+    public static int getAttachmentMemoryThreshold() {
+        return Integer.parseInt(System.getProperty(ATTACHMENT_MEMORY_THRESHOLD, "65536"));
+    }
+
+    /**
+     * @return maximum number of idle attachment cache buffers kept for reuse, '256' by default.
+     */
+    public static int getAttachmentBufferPoolSize() {
+        return Integer.parseInt(System.getProperty(ATTACHMENT_BUFFER_POOL_SIZE, "256"));
+    }
+
+    /**
+     * @return whether attachment cache buffers are allocated outside of the heap, 'false' by default.
+     */
+    public static boolean isAttachmentBufferDirect() {
+        return "true".equalsIgnoreCase(System.getProperty(ATTACHMENT_BUFFER_DIRECT, "false"));
+    }
+
+    /**
+     * @return whether SOAP messages are parsed with reused XML readers and pooled message buffers,
+     * 'true' by default.
+     */
+    public static boolean isSoapParserPooled() {
+        return "true".equalsIgnoreCase(System.getProperty(SOAP_PARSER_POOLED, "true"));
+    }
+
+    /**
+     * @return maximum number of idle SOAP message buffers kept for reuse, '256' by default.
+     */
+    public static int getSoapParserBufferPoolSize() {
+        return Integer.parseInt(System.getProperty(SOAP_PARSER_BUFFER_POOL_SIZE, "256"));
+    }
+
+    /**
+     * @return whether the client proxy reads the whole SOAP request on the request thread before sending it,
+     * 'false' by default.
+     */
+    public static boolean isClientProxySoapRequestBuffered() {
+        return "true".equalsIgnoreCase(System.getProperty(CLIENTPROXY_SOAP_REQUEST_BUFFERED, "false"));
+    }
+
+    /**
+     * @return maximum number of requests signed in one batch, '0' (unlimited) by default.
+     */
+    public static int getBatchSigningMaxSize() {
+        return Integer.parseInt(System.getProperty(PROXY_BATCH_SIGNING_MAX_SIZE, "0"));
+    }
+
+    /**
+     * @return time window in milliseconds for collecting requests into a batch when the signer is idle,
+     * '0' (disabled) by default.
+     */
+    public static int getBatchSigningWindow() {
+        return Integer.parseInt(System.getProperty(PROXY_BATCH_SIGNING_WINDOW, "0"));
+    }
+
+    /**
+     * @return maximum number of successful service provider TLS authentication verifications remembered by the
+     * client proxy, '1000' by default. '0' disables the cache.
+     */
+    public static int getClientProxyVerifiedPeerCacheSize() {
+        return Integer.parseInt(System.getProperty(CLIENTPROXY_VERIFIED_PEER_CACHE_SIZE, "1000"));
+    }
+
     private static void checkVersionValidity(int version, int current, String defaultVersion) {
         if (version > current || version < 1) {
             throw new IllegalArgumentException("Illegal minimum global configuration version in system parameters");
@@ -131,7 +131,7 @@ public abstract class AbstractXmlConf<T> implements ConfProvider {
         }
 
         confFileName = fileName;
-        confFileChecker = new FileContentChangeChecker(confFileName);
+        confFileChecker = createChangeChecker(confFileName);
 
         doValidateConfFile();
 
@@ -140,6 +140,16 @@ public abstract class AbstractXmlConf<T> implements ConfProvider {
         confType = result.getConfType();
     }
 
+    /**
+     * Creates the checker that is used to detect changes of the configuration file.
+     * @param fileName the configuration file name
+     * @return the change checker, checksum based by default
+     * @throws Exception if the checker cannot be created
+     */
+    protected FileContentChangeChecker createChangeChecker(String fileName) throws Exception {
+        return new FileContentChangeChecker(fileName);
+    }
+
     /**
      * Load the xml configuration to a {@link LoadResult} that can be manipulated further.
      * @return
@@ -210,6 +210,20 @@ public class ConfigurationDirectoryV2 implements ConfigurationDirectory {
         return new ArrayList<>(sharedParameters.values());
     }
 
+    /**
+     * @return copy of the loaded private parameters, keyed by instance directory name
+     */
+    protected synchronized Map<String, PrivateParametersV2> getPrivateParametersByDirectory() {
+        return new HashMap<>(privateParameters);
+    }
+
+    /**
+     * @return copy of the loaded shared parameters, keyed by instance directory name
+     */
+    protected synchronized Map<String, SharedParametersV2> getSharedParametersByDirectory() {
+        return new HashMap<>(sharedParameters);
+    }
+
     /**
      * Applies the given function to all files belonging to the configuration directory.
      *
@@ -373,9 +387,16 @@ public class ConfigurationDirectoryV2 implements ConfigurationDirectory {
         }
     }
 
-    // Loads the parameters from file if the file has changed.
-    // Returns the parameters or null if the file does not exist.
-    private static <T extends ConfProvider> T loadParameters(Path path, Class<T> clazz, T existingInstance)
+    /**
+     * Loads the parameters from file if the file has changed.
+     *
+     * @param path the parameters file
+     * @param clazz the parameters class
+     * @param existingInstance previously loaded parameters or null
+     * @return the parameters
+     * @throws Exception if loading the parameters fails
+     */
+    protected <T extends ConfProvider> T loadParameters(Path path, Class<T> clazz, T existingInstance)
             throws Exception {
         T params = existingInstance != null ? existingInstance : (T) clazz.newInstance();
 
@@ -24,10 +24,13 @@
  */
 package ee.ria.xroad.common.conf.globalconf;
 
+import ee.ria.xroad.common.SystemProperties;
 import ee.ria.xroad.common.conf.AbstractXmlConf;
 import ee.ria.xroad.common.conf.globalconf.privateparameters.v2.ManagementServiceType;
 import ee.ria.xroad.common.conf.globalconf.privateparameters.v2.ObjectFactory;
 import ee.ria.xroad.common.conf.globalconf.privateparameters.v2.PrivateParametersType;
+import ee.ria.xroad.common.util.FileContentChangeChecker;
+import ee.ria.xroad.common.util.FileStampChangeChecker;
 
 import java.math.BigInteger;
 import java.util.List;
@@ -42,6 +45,12 @@ public class PrivateParametersV2 extends AbstractXmlConf<PrivateParametersType>
         super(ObjectFactory.class, PrivateParametersSchemaValidatorV2.class);
     }
 
+    @Override
+    protected FileContentChangeChecker createChangeChecker(String fileName) throws Exception {
+        return SystemProperties.isGlobalConfWatchEnabled()
+                ? new FileStampChangeChecker(fileName) : super.createChangeChecker(fileName);
+    }
+
     String getInstanceIdentifier() {
         return confType.getInstanceIdentifier();
     }
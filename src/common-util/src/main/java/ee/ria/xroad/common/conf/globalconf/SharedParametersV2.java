@@ -24,6 +24,7 @@
  */
 package ee.ria.xroad.common.conf.globalconf;
 
+import ee.ria.xroad.common.SystemProperties;
 import ee.ria.xroad.common.conf.AbstractXmlConf;
 import ee.ria.xroad.common.conf.globalconf.sharedparameters.v2.ApprovedCATypeV2;
 import ee.ria.xroad.common.conf.globalconf.sharedparameters.v2.ApprovedTSAType;
@@ -40,9 +41,12 @@ import ee.ria.xroad.common.conf.globalconf.sharedparameters.v2.SubsystemType;
 import ee.ria.xroad.common.identifier.ClientId;
 import ee.ria.xroad.common.identifier.GlobalGroupId;
 import ee.ria.xroad.common.identifier.SecurityServerId;
+import ee.ria.xroad.common.util.FileContentChangeChecker;
+import ee.ria.xroad.common.util.FileStampChangeChecker;
 
 import lombok.AccessLevel;
 import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.bouncycastle.asn1.x500.X500Name;
 import org.bouncycastle.cert.X509CertificateHolder;
@@ -69,6 +73,7 @@ import static org.apache.commons.lang3.StringUtils.isNotBlank;
 /**
  * Contains shared parameters of a configuration instance.
  */
+@Slf4j
 @Getter(AccessLevel.PACKAGE)
 public class SharedParametersV2 extends AbstractXmlConf<SharedParametersTypeV2> {
 
@@ -79,15 +84,26 @@ public class SharedParametersV2 extends AbstractXmlConf<SharedParametersTypeV2>
             new HashMap<>();
     private final Map<X509Certificate, List<OcspInfoType>> caCertsAndOcspData =
             new HashMap<>();
+    private final Map<X509Certificate, List<String>> caCertsAndOcspUrls =
+            new HashMap<>();
+    private final Map<X509Certificate, List<X509Certificate>> caCertsAndOcspCerts =
+            new HashMap<>();
     private final Map<ClientId, Set<String>> memberAddresses = new HashMap<>();
-    private final Map<ClientId, Set<byte[]>> memberAuthCerts = new HashMap<>();
+    // Base64-encoded authentication certificate hashes of the member
+    private final Map<ClientId, Set<String>> memberAuthCerts = new HashMap<>();
+    private final Map<ClientId, String> memberNames = new HashMap<>();
     private final Map<String, SecurityServerType> serverByAuthCert =
             new HashMap<>();
+    private final Map<String, SecurityServerId> serverIdByAuthCert =
+            new HashMap<>();
+    private final Map<SecurityServerId, ClientId> serverOwners = new HashMap<>();
     private final Map<SecurityServerId, Set<ClientId>> securityServerClients =
             new HashMap<>();
     private final List<X509Certificate> verificationCaCerts = new ArrayList<>();
     private final Set<String> knownAddresses = new HashSet<>();
     private final Map<SecurityServerId, SecurityServerType> securityServersById = new HashMap<>();
+    private final Map<GlobalGroupId, GlobalGroupType> globalGroupsById = new HashMap<>();
+    private final Map<GlobalGroupId, Set<ClientId>> globalGroupMembers = new HashMap<>();
 
     SharedParametersV2() {
         super(ObjectFactory.class, SharedParametersSchemaValidatorV2.class);
@@ -142,14 +158,18 @@ public class SharedParametersV2 extends AbstractXmlConf<SharedParametersTypeV2>
     }
 
     GlobalGroupType findGlobalGroup(GlobalGroupId groupId) {
-        if (!groupId.getXRoadInstance().equals(
-                confType.getInstanceIdentifier())) {
-            return null;
-        }
+        return globalGroupsById.get(groupId);
+    }
 
-        return confType.getGlobalGroup().stream()
-                .filter(g -> g.getGroupCode().equals(groupId.getGroupCode()))
-                .findFirst().orElse(null);
+    boolean isGlobalGroupMember(GlobalGroupId groupId, ClientId subjectId) {
+        Set<ClientId> members = globalGroupMembers.get(groupId);
+
+        return members != null && members.contains(subjectId);
+    }
+
+    String getMemberName(ClientId clientId) {
+        return memberNames.get(ClientId.create(clientId.getXRoadInstance(),
+                clientId.getMemberClass(), clientId.getMemberCode()));
     }
 
     X509Certificate getCaCertForSubject(X509Certificate subject)
@@ -175,12 +195,20 @@ public class SharedParametersV2 extends AbstractXmlConf<SharedParametersTypeV2>
             clearCache();
             cacheCaCerts();
             cacheKnownAddresses();
+            cacheMembers();
             cacheSecurityServers();
+            cacheGlobalGroups();
         } catch (Exception e) {
             throw translateException(e);
         }
     }
 
+    @Override
+    protected FileContentChangeChecker createChangeChecker(String fileName) throws Exception {
+        return SystemProperties.isGlobalConfWatchEnabled()
+                ? new FileStampChangeChecker(fileName) : super.createChangeChecker(fileName);
+    }
+
     static MemberType getOwner(SecurityServerType serverType) {
         if (!(serverType.getOwner() instanceof MemberType)) {
             throw new RuntimeException("Server owner must be member");
@@ -195,13 +223,20 @@ public class SharedParametersV2 extends AbstractXmlConf<SharedParametersTypeV2>
         subjectsAndCaCerts.clear();
         caCertsAndCertProfiles.clear();
         caCertsAndOcspData.clear();
+        caCertsAndOcspUrls.clear();
+        caCertsAndOcspCerts.clear();
         memberAddresses.clear();
         memberAuthCerts.clear();
+        memberNames.clear();
         serverByAuthCert.clear();
+        serverIdByAuthCert.clear();
+        serverOwners.clear();
         securityServerClients.clear();
         verificationCaCerts.clear();
         knownAddresses.clear();
         securityServersById.clear();
+        globalGroupsById.clear();
+        globalGroupMembers.clear();
     }
 
     private void cacheCaCerts() throws CertificateException, IOException {
@@ -244,20 +279,30 @@ public class SharedParametersV2 extends AbstractXmlConf<SharedParametersTypeV2>
             .forEach(knownAddresses::add);
     }
 
+    private void cacheMembers() {
+        for (MemberType member : confType.getMember()) {
+            memberNames.putIfAbsent(createMemberId(member), member.getName());
+        }
+    }
+
+    private void cacheGlobalGroups() {
+        for (GlobalGroupType globalGroup : confType.getGlobalGroup()) {
+            GlobalGroupId groupId = createGlobalGroupId(globalGroup);
+
+            // The first group with the code is used, as when the groups were searched in order
+            if (globalGroupsById.putIfAbsent(groupId, globalGroup) == null) {
+                globalGroupMembers.put(groupId, new HashSet<>(globalGroup.getGroupMember()));
+            }
+        }
+    }
+
     private void cacheSecurityServers() {
         // Map of XML ID fields mapped to client IDs
         Map<String, ClientId> clientIds = getClientIds();
 
         for (SecurityServerType securityServer : confType.getSecurityServer()) {
-            // Cache the server.
-            for (byte[] certHash: securityServer.getAuthCertHash()) {
-                serverByAuthCert.put(encodeBase64(certHash),
-                        securityServer);
-            }
-
-            // Add owner of the security server.
             MemberType owner = (MemberType) securityServer.getOwner();
-            addServerClient(createMemberId(owner), securityServer);
+            ClientId ownerId = createMemberId(owner);
 
             // cache security server information by serverId
             SecurityServerId securityServerId = SecurityServerId.create(
@@ -265,6 +310,18 @@ public class SharedParametersV2 extends AbstractXmlConf<SharedParametersTypeV2>
                     owner.getMemberClass().getCode(),
                     owner.getMemberCode(), securityServer.getServerCode());
             securityServersById.put(securityServerId, securityServer);
+            serverOwners.put(securityServerId, ownerId);
+
+            // Cache the server.
+            for (byte[] certHash: securityServer.getAuthCertHash()) {
+                String encodedCertHash = encodeBase64(certHash);
+
+                serverByAuthCert.put(encodedCertHash, securityServer);
+                serverIdByAuthCert.put(encodedCertHash, securityServerId);
+            }
+
+            // Add owner of the security server.
+            addServerClient(ownerId, securityServer);
 
             // Add clients of the security server.
             for (JAXBElement<?> client : securityServer.getClient()) {
@@ -290,7 +347,7 @@ public class SharedParametersV2 extends AbstractXmlConf<SharedParametersTypeV2>
 
         // Add the mapping from client to authentication certificate.
         for (byte[] authCert : server.getAuthCertHash()) {
-            addToMap(memberAuthCerts, client, authCert);
+            addToMap(memberAuthCerts, client, encodeBase64(authCert));
         }
 
         MemberType owner = getOwner(server);
@@ -323,7 +380,32 @@ public class SharedParametersV2 extends AbstractXmlConf<SharedParametersTypeV2>
             X509Certificate cert = readCertificate(caType.getCert());
             List<OcspInfoType> caOcspTypes = caType.getOcsp();
             caCertsAndOcspData.put(cert, caOcspTypes);
+
+            caCertsAndOcspUrls.put(cert, caOcspTypes.stream()
+                    .map(OcspInfoType::getUrl)
+                    .filter(StringUtils::isNotBlank)
+                    .map(String::trim)
+                    .collect(Collectors.toList()));
+            caCertsAndOcspCerts.put(cert, readOcspResponderCerts(caOcspTypes));
+        }
+    }
+
+    private static List<X509Certificate> readOcspResponderCerts(List<OcspInfoType> caOcspTypes) {
+        List<X509Certificate> ocspCerts = new ArrayList<>();
+
+        for (OcspInfoType caOcspType : caOcspTypes) {
+            if (caOcspType.getCert() == null) {
+                continue;
+            }
+
+            try {
+                ocspCerts.add(readCertificate(caOcspType.getCert()));
+            } catch (Exception e) {
+                log.error("Skipping invalid OCSP responder certificate ({})", caOcspType.getUrl(), e);
+            }
         }
+
+        return ocspCerts;
     }
 
     private static <K, V> void addToMap(Map<K, Set<V>> map, K key, V value) {
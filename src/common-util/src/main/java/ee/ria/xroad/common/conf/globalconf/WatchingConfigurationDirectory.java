@@ -0,0 +1,206 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.conf.globalconf;
+
+import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.conf.ConfProvider;
+import ee.ria.xroad.common.util.filewatcher.FileWatcherRunner;
+
+import lombok.extern.slf4j.Slf4j;
+import org.joda.time.DateTime;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static ee.ria.xroad.common.ErrorCodes.X_OUTDATED_GLOBALCONF;
+import static ee.ria.xroad.common.conf.globalconf.ConfigurationUtils.escapeInstanceIdentifier;
+
+/**
+ * Configuration directory that is reloaded when the configuration client has finished writing a new
+ * configuration (the list of downloaded files is rewritten at the end of every download).
+ *
+ * The parameters are served from an immutable snapshot that is replaced atomically on reload, so the
+ * queries do not perform any file I/O nor locking. Changed parameter files are detected by file stamps
+ * (modification time, size and inode), and are loaded into new parameter instances instead of reloading
+ * the instances that might be in use. Explicit {@link #reload()} calls (e.g. the periodic global
+ * configuration update job) act as a fallback in case the file system events are not available.
+ */
+@Slf4j
+public class WatchingConfigurationDirectory extends ConfigurationDirectoryV2 {
+
+    // Assigned by reload(), which is first called from the super constructor.
+    private volatile Snapshot snapshot;
+
+    private final FileWatcherRunner filesWatcher;
+
+    /**
+     * Constructs new watching directory from the given path and starts watching it for changes.
+     *
+     * @param directoryPath the path to the directory.
+     * @throws Exception if loading configuration fails
+     */
+    public WatchingConfigurationDirectory(String directoryPath) throws Exception {
+        super(directoryPath, false);
+
+        filesWatcher = FileWatcherRunner.create()
+                .watchForChangesIn(Paths.get(directoryPath, FILES))
+                .listenToCreate().listenToModify()
+                .andOnChangeNotify(this::reloadQuietly)
+                .buildAndStartWatcher();
+    }
+
+    /**
+     * Stops watching the directory for changes.
+     */
+    public void stopWatching() {
+        filesWatcher.stop();
+    }
+
+    @Override
+    public String getInstanceIdentifier() {
+        String instanceIdentifier = snapshot.instanceIdentifier;
+
+        return instanceIdentifier != null ? instanceIdentifier : super.getInstanceIdentifier();
+    }
+
+    @Override
+    public PrivateParametersV2 getPrivate(String instanceId) {
+        return snapshot.privateParameters.get(escapeInstanceIdentifier(instanceId));
+    }
+
+    @Override
+    public SharedParametersV2 getShared(String instanceId) {
+        return snapshot.sharedParameters.get(escapeInstanceIdentifier(instanceId));
+    }
+
+    @Override
+    public List<SharedParametersV2> getShared() {
+        return snapshot.allSharedParameters;
+    }
+
+    @Override
+    public void verifyUpToDate() throws Exception {
+        Snapshot current = snapshot;
+
+        if (!current.expirationResolved) {
+            super.verifyUpToDate();
+        } else if (current.expiresOn != null && current.expiresOn.isBeforeNow()) {
+            log.info("{} expired on {}", current.earliestExpiringFile, current.expiresOn);
+
+            throw new CodedException(X_OUTDATED_GLOBALCONF, "%s is too old", current.earliestExpiringFile);
+        }
+    }
+
+    /**
+     * Reloads the changed parameter files and replaces the current snapshot.
+     *
+     * @throws Exception if an error occurs during reload
+     */
+    @Override
+    public synchronized void reload() throws Exception {
+        super.reload();
+
+        Snapshot next = new Snapshot(readInstanceIdentifier(), getPrivateParametersByDirectory(),
+                getSharedParametersByDirectory());
+        resolveExpiration(next);
+
+        snapshot = next;
+    }
+
+    @Override
+    protected <T extends ConfProvider> T loadParameters(Path path, Class<T> clazz, T existingInstance)
+            throws Exception {
+        if (existingInstance != null && !existingInstance.hasChanged()) {
+            return existingInstance;
+        }
+
+        // Never reload an instance that is part of the published snapshot.
+        return super.loadParameters(path, clazz, null);
+    }
+
+    // ------------------------------------------------------------------------
+
+    private void reloadQuietly() {
+        try {
+            reload();
+        } catch (Exception e) {
+            log.error("Failed to reload configuration from {}", getPath(), e);
+        }
+    }
+
+    private String readInstanceIdentifier() {
+        try {
+            return super.getInstanceIdentifier();
+        } catch (CodedException e) {
+            // Resolved again (and reported) on the first query.
+            return null;
+        }
+    }
+
+    private void resolveExpiration(Snapshot next) {
+        try {
+            eachFile(file -> {
+                try {
+                    DateTime expiresOn = getMetadata(file).getExpirationDate();
+
+                    if (next.expiresOn == null || expiresOn.isBefore(next.expiresOn)) {
+                        next.expiresOn = expiresOn;
+                        next.earliestExpiringFile = file;
+                    }
+                } catch (Exception e) {
+                    log.error("Failed to get expiration date of file " + file, e);
+                }
+            });
+
+            next.expirationResolved = true;
+        } catch (Exception e) {
+            log.warn("Could not resolve configuration expiration date: {}", e.getMessage());
+        }
+    }
+
+    private static final class Snapshot {
+        private final String instanceIdentifier;
+        private final Map<String, PrivateParametersV2> privateParameters;
+        private final Map<String, SharedParametersV2> sharedParameters;
+        private final List<SharedParametersV2> allSharedParameters;
+
+        // Filled in before the snapshot is published.
+        private boolean expirationResolved;
+        private DateTime expiresOn;
+        private Path earliestExpiringFile;
+
+        Snapshot(String instanceIdentifier, Map<String, PrivateParametersV2> privateParameters,
+                Map<String, SharedParametersV2> sharedParameters) {
+            this.instanceIdentifier = instanceIdentifier;
+            this.privateParameters = Collections.unmodifiableMap(privateParameters);
+            this.sharedParameters = Collections.unmodifiableMap(sharedParameters);
+            this.allSharedParameters = Collections.unmodifiableList(new ArrayList<>(sharedParameters.values()));
+        }
+    }
+}
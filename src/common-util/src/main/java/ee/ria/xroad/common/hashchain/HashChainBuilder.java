@@ -27,20 +27,18 @@ package ee.ria.xroad.common.hashchain;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBElement;
-import javax.xml.bind.Marshaller;
-
-import java.io.StringWriter;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import static ee.ria.xroad.common.hashchain.DigestList.digestHashStep;
 import static ee.ria.xroad.common.util.CryptoUtils.getDigestAlgorithmURI;
 import static ee.ria.xroad.common.util.MessageFileNames.attachment;
 import static java.lang.Integer.numberOfLeadingZeros;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
  * Builds Merkle tree from a set of hashes. Then constructs hash chains
@@ -48,23 +46,28 @@ import static java.lang.Integer.numberOfLeadingZeros;
  *
  * First, call the add method to add inputs to the tree. Then call
  * finishBuilding to compute the tree.
- * After computing, three methods are available to get the results.
+ * After computing, these methods are available to get the results.
  * - getTreeTop -- returns topmost hash of the Merkle tree that can be
  *   signed/time-stamped.
  * - getHashChainResult -- returns XML-encoded form of the hash chain result.
  * - getHashChains -- returns array of XML-encoded hash chains, one for
  *   each input data item.
+ * - writeHashChain -- writes XML-encoded hash chain of one input data item.
  *
  * Implementation: the binary Merkle tree is stored as an array.
  * This representation does not use pointers to child nodes, the indexes of
  * children can be calculated from the parent.
  * See http://en.wikipedia.org/wiki/Binary_tree#Arrays for details.
  *
- * Physically, the tree is stored in two separate arrays: inputs (leaf nodes)
- * and nodes (non-leaf nodes). In terms of index calculations these are
- * treated as a single array consisting of nodes+inputs.
+ * Physically, the tree is stored in two separate flat buffers: inputs
+ * (leaf nodes) and nodes (non-leaf nodes). In terms of index calculations
+ * these are treated as a single array consisting of nodes+inputs.
+ * The hash steps are DER-encoded into a reused buffer and digested directly
+ * into the nodes buffer, and the hash chains are written as XML without
+ * building JAXB objects, so that large batches do not create garbage
+ * proportional to the number of tree nodes.
  *
- * For incomplete binary trees, some inputs and nodes can be null.
+ * For incomplete binary trees, some inputs and nodes can be missing.
  */
 public final class HashChainBuilder {
 
@@ -73,24 +76,52 @@ public final class HashChainBuilder {
     private static final Logger LOG =
             LoggerFactory.getLogger(HashChainBuilder.class);
 
-    /** For accessing JAXB functionality. Shared between all the builders. */
-    private static JAXBContext jaxbCtx;
-
     /**
      * Index of the root of the tree.
      */
     private static final int ROOT_IDX = 0;
 
+    /** Marks a missing tree node. */
+    private static final int NO_NODE = -1;
+
     private static final String STEP = "STEP";
 
+    private static final int INITIAL_INPUT_COUNT = 16;
+    private static final int INITIAL_INPUT_BYTES = 1024;
+
+    /** Expected size of a single XML-encoded hash step. */
+    private static final int HASH_STEP_CHARS = 256;
+
+    private static final int DER_SEQUENCE = 0x30;
+    private static final int DER_OCTET_STRING = 0x04;
+    private static final int DER_UTF8_STRING = 0x0c;
+    private static final int DER_MAX_SHORT_LENGTH = 0x7f;
+    private static final int DER_LONG_LENGTH = 0x80;
+    private static final int BYTE_BITS = 8;
+
     /** Hash algorithm used to hash tree nodes and inputs. */
     private final String hashAlgorithm;
 
     /** Hash algorithm URI used in XML. */
     private final String hashAlgorithmUri;
 
-    /** Array of input hashes. */
-    private final List<byte[]> inputs = new ArrayList<>();
+    /** Hash algorithm URI as encoded in the DER hash steps. */
+    private final byte[] hashAlgorithmUriBytes;
+
+    /** Digest used for computing the tree nodes. */
+    private final MessageDigest digest;
+
+    /** Length of the tree nodes. */
+    private final int digestLength;
+
+    /** Concatenated input hashes. */
+    private byte[] inputData = new byte[INITIAL_INPUT_BYTES];
+
+    /** Offsets of the inputs in inputData, followed by the end offset. */
+    private int[] inputOffsets = new int[INITIAL_INPUT_COUNT + 1];
+
+    /** Number of input hashes. */
+    private int inputCount;
 
     /**
      * If an input consisted of multipart (message + attachments),
@@ -101,17 +132,23 @@ public final class HashChainBuilder {
     /** The file name to be used for data refs. */
     private String dataRefFileName;
 
-    /** Array of intermediate Merkle tree nodes. */
-    private byte[][] nodes;
+    /** Concatenated intermediate Merkle tree nodes. */
+    private byte[] nodeData;
+
+    /** Indicates which intermediate nodes have been computed. */
+    private boolean[] nodePresent;
+
+    /** Number of intermediate nodes. */
+    private int nodeCount;
 
     /** Maximum index a tree node can have. */
     private int maxIndex;
 
-    /** Used for serializing XML objects. */
-    private Marshaller marshaller;
+    /** Buffer for the DER-encoded hash step being digested. */
+    private byte[] stepData = new byte[0];
 
-    /** Factory for creating XML objects. */
-    private ObjectFactory objectFactory = new ObjectFactory();
+    /** Write position in stepData. */
+    private int stepLength;
 
     /**
      * Constructs a hash chain builder.
@@ -124,10 +161,10 @@ public final class HashChainBuilder {
     public HashChainBuilder(String hashAlgorithm) throws Exception {
         this.hashAlgorithm = hashAlgorithm;
         hashAlgorithmUri = getDigestAlgorithmURI(hashAlgorithm);
+        hashAlgorithmUriBytes = hashAlgorithmUri.getBytes(UTF_8);
 
-        marshaller = jaxbCtx.createMarshaller();
-        // Format the XML, good for debugging.
-        marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
+        digest = MessageDigest.getInstance(hashAlgorithm);
+        digestLength = digest.getDigestLength();
     }
 
     /**
@@ -135,11 +172,24 @@ public final class HashChainBuilder {
      * @param hash input hash to add
      */
     public void addInputHash(byte[] hash) {
-        if (nodes != null) {
+        if (nodePresent != null) {
             throw new IllegalStateException(
                     "Cannot add inputs to finished tree");
         }
-        inputs.add(hash);
+
+        int offset = inputOffsets[inputCount];
+
+        if (inputCount + 1 == inputOffsets.length) {
+            inputOffsets = Arrays.copyOf(inputOffsets, inputOffsets.length * 2);
+        }
+
+        if (offset + hash.length > inputData.length) {
+            inputData = Arrays.copyOf(inputData,
+                    Math.max(inputData.length * 2, offset + hash.length));
+        }
+
+        System.arraycopy(hash, 0, inputData, offset, hash.length);
+        inputOffsets[++inputCount] = offset + hash.length;
     }
 
     /**
@@ -150,18 +200,18 @@ public final class HashChainBuilder {
      * @throws Exception in case of errors
      */
     public void addInputHash(byte[][] hashes) throws Exception {
-        if (nodes != null) {
+        if (nodePresent != null) {
             throw new IllegalStateException(
                     "Cannot add inputs to finished tree");
         }
 
         if (hashes.length == 1) {
-            inputs.add(hashes[0]);
+            addInputHash(hashes[0]);
         } else {
             // Digest the attachments and add a single input.
-            inputs.add(digestHashStep(hashAlgorithm, hashes));
+            addInputHash(digestHashStep(hashAlgorithm, hashes));
             // Record the original inputs in separate map.
-            multiparts.put(inputs.size() - 1, hashes);
+            multiparts.put(inputCount - 1, hashes);
         }
     }
 
@@ -170,15 +220,17 @@ public final class HashChainBuilder {
      * @throws Exception in case of errors
      */
     public void finishBuilding() throws Exception {
-        // Create array for intermediate nodes.
-        nodes = new byte[getNodesCount()][];
+        // Create buffers for intermediate nodes.
+        nodeCount = getNodesCount();
+        nodeData = new byte[nodeCount * digestLength];
+        nodePresent = new boolean[nodeCount];
 
         // For special cases of 0 or 1 inputs, we behave differently.
-        if (inputs.size() < 2) {
+        if (inputCount < 2) {
             return;
         }
 
-        maxIndex = nodes.length + inputs.size();
+        maxIndex = nodeCount + inputCount;
 
         // Hash input data items to produce lowest level of non-leaf nodes.
         hashInputs();
@@ -201,28 +253,24 @@ public final class HashChainBuilder {
      */
     public String getHashChainResult(String hashChainFileName)
             throws Exception {
-        if (nodes == null) {
+        if (nodePresent == null) {
             throw new IllegalStateException("Tree must be finished");
         }
 
-        if (inputs.isEmpty()) {
+        if (inputCount == 0) {
             // Nothing to do for empty tree.
             return null;
         }
 
-        if (inputs.size() == 1 && multiparts.isEmpty()) {
-            throw new IllegalStateException(
-                    "Hash chains cannot be constructed for single input "
-                            + "without attachments.");
-        }
+        checkHashChainsPossible();
 
-        HashChainResultType result = new HashChainResultType();
+        StringBuilder result = new StringBuilder(HASH_STEP_CHARS);
 
-        result.setDigestValue(getTreeTop());
-        result.setDigestMethod(digestMethod());
-        result.setURI(hashChainFileName + "#" + STEP + "0");
+        new HashChainWriter(result).hashChainResult(
+                hashChainFileName + "#" + STEP + "0", hashAlgorithmUri,
+                getTreeTop());
 
-        return elementToString(objectFactory.createHashChainResult(result));
+        return result.toString();
     }
 
     /**
@@ -232,38 +280,72 @@ public final class HashChainBuilder {
      * @throws Exception in case of any errors
      */
     public String[] getHashChains(String dataFileName) throws Exception {
-        if (nodes == null) {
+        if (nodePresent == null) {
             throw new IllegalStateException("Tree must be finished");
         }
 
-        if (inputs.isEmpty()) {
+        if (inputCount == 0) {
             return null;
         }
 
-        if (inputs.size() == 1 && multiparts.isEmpty()) {
-            throw new IllegalStateException(
-                    "Hash chains cannot be constructed for single input "
-                            + "without attachments.");
+        String[] ret = new String[inputCount];
+
+        // The builder is reused, the steps of all the chains are
+        // of similar size.
+        StringBuilder chain = new StringBuilder(
+                HASH_STEP_CHARS * (ceilingLog2(inputCount) + 2));
+
+        for (int i = 0; i < inputCount; ++i) {
+            chain.setLength(0);
+            writeHashChain(i, dataFileName, chain);
+            ret[i] = chain.toString();
+        }
+
+        return ret;
+    }
+
+    /**
+     * Writes XML-encoded hash chain of a single input data item.
+     * @param itemIndex index of the input data item, in the order of adding
+     * @param dataFileName name of the file containing data input items
+     * @param out where to write the hash chain
+     * @throws Exception in case of any errors
+     */
+    public void writeHashChain(int itemIndex, String dataFileName,
+            Appendable out) throws Exception {
+        if (nodePresent == null) {
+            throw new IllegalStateException("Tree must be finished");
         }
 
+        if (itemIndex < 0 || itemIndex >= inputCount) {
+            throw new IndexOutOfBoundsException(
+                    "No input with index " + itemIndex);
+        }
+
+        checkHashChainsPossible();
+
         this.dataRefFileName = dataFileName;
         if (dataFileName == null) {
             throw new IllegalArgumentException(
                     "dataRefFileName must not be null");
         }
 
-        String[] ret = new String[inputs.size()];
+        HashChainWriter writer = new HashChainWriter(out);
 
-        if (inputs.size() > 1) {
-            for (int i = 0; i < inputs.size(); ++i) {
-                ret[i] = makeHashChain(i);
-            }
+        if (inputCount > 1) {
+            makeHashChain(itemIndex, writer);
         } else {
             // Special case for one input.
-            ret[0] = makeSingleInputHashChain();
+            makeSingleInputHashChain(writer);
         }
+    }
 
-        return ret;
+    private void checkHashChainsPossible() {
+        if (inputCount == 1 && multiparts.isEmpty()) {
+            throw new IllegalStateException(
+                    "Hash chains cannot be constructed for single input "
+                            + "without attachments.");
+        }
     }
 
     /**
@@ -271,24 +353,18 @@ public final class HashChainBuilder {
      */
     private void hashNodes() throws Exception {
         // levelStart -- index of first node for this level (depth)
-        for (int levelStart = nodes.length / 2; levelStart > 0;
+        for (int levelStart = nodeCount / 2; levelStart > 0;
                 levelStart /= 2) {
             // End of nodes for this level.
             int levelEnd = levelStart * 2;
 
             LOG.trace("Combining: {}-{}", levelStart, levelEnd);
-            // Walk through the pairs in this level.
+            // Walk through the pairs in this level and store the digest
+            // of nodes i and i + 1 as their parent.
             for (int i = levelStart;
-                    i < levelEnd && nodes[i] != null && nodes[i + 1] != null;
+                    i < levelEnd && nodePresent[i] && nodePresent[i + 1];
                     i += 2) {
-                // Combine nodes[i] and nodes[i + 1]
-                LOG.trace("Nodes: Combining {} and {}", i, i + 1);
-                byte[] stepDigest = digestHashStep(hashAlgorithm,
-                        nodes[i], nodes[i + 1]);
-
-                // Store the digest as parent of two inputs.
-                LOG.trace("Storing at {}", parentIdx(i));
-                nodes[parentIdx(i)] = stepDigest;
+                hashStep(i, i + 1, parentIdx(i));
             }
         }
     }
@@ -298,18 +374,12 @@ public final class HashChainBuilder {
      * level of non-leaf nodes.
      */
     private void hashInputs() throws Exception {
-        for (int i = 0; i < inputs.size() - 1; i += 2) {
+        for (int i = 0; i < inputCount - 1; i += 2) {
             // Compute the index for nodes.
-            int itemIdx = nodes.length + i;
-
-            // Combine inputs[i] and inputs[i + 1]
-            LOG.trace("Inputs: Combining {} and {}", i, i + 1);
-            byte[] stepDigest = digestHashStep(hashAlgorithm,
-                    inputs.get(i), inputs.get(i + 1));
+            int itemIdx = nodeCount + i;
 
             // Store the digest as parent of two inputs.
-            LOG.trace("Storing at {}", parentIdx(itemIdx));
-            nodes[parentIdx(itemIdx)] = stepDigest;
+            hashStep(itemIdx, itemIdx + 1, parentIdx(itemIdx));
         }
     }
 
@@ -317,102 +387,218 @@ public final class HashChainBuilder {
      * Returns the topmost hash of the Merkle tree.
      */
     byte[] getTreeTop() {
-        if (inputs.size() == 1) {
-            // For single input, we do not build the nodes array
-            // and directly return the input.
-            return inputs.get(0);
-        } else {
-            return nodes[ROOT_IDX];
-        }
+        // For single input, we do not build the nodes
+        // and directly return the input.
+        int topIdx = inputCount == 1 ? nodeCount : ROOT_IDX;
+
+        return Arrays.copyOfRange(data(topIdx), offset(topIdx),
+                offset(topIdx) + length(topIdx));
     }
 
     /**
      * For incomplete trees, the hashInputs and hashNodes methods did not
      * create the necessary intermediate nodes. This method walks the tree,
      * discovers the missing nodes and, if necessary, creates them.
-     * @return the hash of the fixed tree node.
+     * @return the index of the node holding the hash of the fixed tree node
+     * or NO_NODE.
      */
-    private byte[] fixTree(int nodeIdx) throws Exception {
+    private int fixTree(int nodeIdx) throws Exception {
         LOG.trace("fixTree({})", nodeIdx);
 
         if (nodeIdx >= maxIndex) {
             // Let's not go infinitely deep.
-            return null;
+            return NO_NODE;
         }
 
-        if (get(nodeIdx) != null) {
+        if (has(nodeIdx)) {
             // There's nothing to fix, just return the node.
-            return get(nodeIdx);
+            return nodeIdx;
         }
 
         // Value of the left subtree.
-        byte[] leftValue = get(leftIdx(nodeIdx));
+        int leftIdx = leftIdx(nodeIdx);
 
-        if (leftValue == null) {
+        if (!has(leftIdx)) {
             // No left child. In this case, we'll just go down to the
             // left subtree until we find something.
-            return fixTree(leftIdx(nodeIdx));
+            return fixTree(leftIdx);
         }
 
         // To get value of the right subtree, we call fixTree recursively.
         // This handles situations where there are nodes missing on some
         // levels.
-        byte[] rightValue = fixTree(rightIdx(nodeIdx));
-        if (rightValue == null) {
+        int rightValueIdx = fixTree(rightIdx(nodeIdx));
+        if (rightValueIdx == NO_NODE) {
             // We fould nothing on the right subtree. Just return value
             // of the left subtree.
-            LOG.trace("{} -> left({})", nodeIdx, leftIdx(nodeIdx));
-            return leftValue;
+            LOG.trace("{} -> left({})", nodeIdx, leftIdx);
+            return leftIdx;
         }
 
         // We have values from both left and right subtrees.
         // Combine them and store in the current node.
-        byte[] stepDigest = digestHashStep(hashAlgorithm,
-                leftValue, rightValue);
-        LOG.trace("Fixing: {} + {} -> {}", new Object[] {
-                leftIdx(nodeIdx), rightIdx(nodeIdx), nodeIdx });
-        nodes[nodeIdx] = stepDigest;
-        return stepDigest;
+        LOG.trace("Fixing: {} + {} -> {}", leftIdx, rightValueIdx, nodeIdx);
+        hashStep(leftIdx, rightValueIdx, nodeIdx);
+        return nodeIdx;
     }
 
     /**
-     * Treats nodes+inputs as a single large array and returns data
-     * at a given index.
+     * Treats nodes+inputs as a single large array and tells whether
+     * there is data at a given index.
      */
-    private byte[] get(int index) {
-        if (index < nodes.length) {
-            return nodes[index];
-        } else if (index < maxIndex) {
-            return inputs.get(index - nodes.length);
+    private boolean has(int index) {
+        if (index < nodeCount) {
+            return nodePresent[index];
         } else {
-            return null;
+            return index < maxIndex;
         }
     }
 
     /**
-     * Similar to get(index), but if the data is null then goes down the tree
-     * until data is found.
+     * Returns the buffer holding the data at a given index.
+     */
+    private byte[] data(int index) {
+        return index < nodeCount ? nodeData : inputData;
+    }
+
+    /**
+     * Returns the offset of the data at a given index in its buffer.
      */
-    private byte[] getDeep(int index) {
-        byte[] ret = get(index);
+    private int offset(int index) {
+        return index < nodeCount
+                ? index * digestLength : inputOffsets[index - nodeCount];
+    }
+
+    /**
+     * Returns the length of the data at a given index.
+     */
+    private int length(int index) {
+        if (index < nodeCount) {
+            return digestLength;
+        }
+
+        int inputIdx = index - nodeCount;
+        return inputOffsets[inputIdx + 1] - inputOffsets[inputIdx];
+    }
 
-        while (ret == null && index < maxIndex) {
+    /**
+     * If there is no data at the index, goes down the tree until data
+     * is found.
+     */
+    private int getDeep(int index) {
+        while (!has(index) && index < maxIndex) {
             index = leftIdx(index);
             LOG.trace("getDeep() -> {}", index);
-            ret = get(index);
         }
 
-        return ret;
+        return index;
+    }
+
+    /**
+     * Combines the data at the two indexes using DigestList data structure
+     * and stores the digest of the structure in the given node.
+     */
+    private void hashStep(int leftIdx, int rightIdx, int nodeIdx)
+            throws DigestException {
+        int leftLength = singleDigestLength(length(leftIdx));
+        int rightLength = singleDigestLength(length(rightIdx));
+        int contentLength = leftLength + rightLength;
+        int totalLength = derLength(contentLength);
+
+        if (stepData.length < totalLength) {
+            stepData = new byte[totalLength];
+        }
+
+        stepLength = 0;
+        derHeader(DER_SEQUENCE, contentLength);
+        singleDigest(leftIdx);
+        singleDigest(rightIdx);
+
+        digest.update(stepData, 0, stepLength);
+        digest.digest(nodeData, nodeIdx * digestLength, digestLength);
+        nodePresent[nodeIdx] = true;
+    }
+
+    /**
+     * Encodes the data at the given index as SingleDigest data structure.
+     * The encoding must match {@link DigestList#concatDigests}.
+     */
+    private void singleDigest(int index) {
+        int length = length(index);
+
+        derHeader(DER_SEQUENCE, singleDigestContentLength(length));
+        derHeader(DER_OCTET_STRING, length);
+        System.arraycopy(data(index), offset(index), stepData, stepLength,
+                length);
+        stepLength += length;
+
+        derHeader(DER_UTF8_STRING, hashAlgorithmUriBytes.length);
+        System.arraycopy(hashAlgorithmUriBytes, 0, stepData, stepLength,
+                hashAlgorithmUriBytes.length);
+        stepLength += hashAlgorithmUriBytes.length;
+
+        // Empty sequence of transforms.
+        derHeader(DER_SEQUENCE, 0);
+    }
+
+    /**
+     * Returns the length of the encoded SingleDigest data structure
+     * for a digest of the given length.
+     */
+    private int singleDigestLength(int digestValueLength) {
+        return derLength(singleDigestContentLength(digestValueLength));
+    }
+
+    private int singleDigestContentLength(int digestValueLength) {
+        return derLength(digestValueLength)
+                + derLength(hashAlgorithmUriBytes.length) + derLength(0);
+    }
+
+    /**
+     * Returns the length of DER encoding with the given content length.
+     */
+    private static int derLength(int contentLength) {
+        return 1 + derLengthOfLength(contentLength) + contentLength;
+    }
+
+    private static int derLengthOfLength(int contentLength) {
+        if (contentLength <= DER_MAX_SHORT_LENGTH) {
+            return 1;
+        }
+
+        return 1 + (INTEGER_BITS - numberOfLeadingZeros(contentLength)
+                + BYTE_BITS - 1) / BYTE_BITS;
+    }
+
+    /**
+     * Writes the tag and the definite length of a DER encoding.
+     */
+    private void derHeader(int tag, int contentLength) {
+        stepData[stepLength++] = (byte) tag;
+
+        if (contentLength <= DER_MAX_SHORT_LENGTH) {
+            stepData[stepLength++] = (byte) contentLength;
+            return;
+        }
+
+        int lengthBytes = derLengthOfLength(contentLength) - 1;
+        stepData[stepLength++] = (byte) (DER_LONG_LENGTH | lengthBytes);
+
+        for (int i = lengthBytes - 1; i >= 0; --i) {
+            stepData[stepLength++] = (byte) (contentLength >>> (i * BYTE_BITS));
+        }
     }
 
     /**
-     * Returns XML-encoded hash chain for a n-th input data item.
+     * Writes hash chain for a n-th input data item.
      */
-    private String makeHashChain(int itemIndex) throws Exception {
+    private void makeHashChain(int itemIndex, HashChainWriter writer)
+            throws Exception {
         LOG.trace("makeHashChain({})", itemIndex);
 
-        HashChainType hashChain = new HashChainType();
-        hashChain.setDefaultDigestMethod(digestMethod());
+        writer.startHashChain(hashAlgorithmUri);
+
+        byte[][] parts = multiparts.isEmpty() ? null : multiparts.get(itemIndex);
 
         // Hash step count is used to generate references.
         int stepCount = 0;
@@ -420,56 +606,38 @@ public final class HashChainBuilder {
         // Start with root node
         int currentNodeIdx = ROOT_IDX;
         // current level will be height of non-leaf part of the tree.
-        int currentLevel = ceilingLog2(inputs.size()) - 1;
+        int currentLevel = ceilingLog2(inputCount) - 1;
 
         // Walk the tree downwards from the root node.
-        while (currentNodeIdx < nodes.length) {
+        while (currentNodeIdx < nodeCount) {
             // Indicates whether we are interested in
             // left (0) or right (1) child.
             int myDirection = (itemIndex & (1 << currentLevel)) >> currentLevel;
-            LOG.trace("Level {}, direction {}", currentLevel, myDirection);
 
             int myChildIdx = childIdx(currentNodeIdx, myDirection);
             int otherChildIdx = childIdx(currentNodeIdx, 1 - myDirection);
 
             // Ignore the missing nodes and walk down the tree until we
             // find some data.
-            while (get(myChildIdx) == null) {
+            while (!has(myChildIdx)) {
                 // For missing nodes, always take the left child.
                 myChildIdx = leftIdx(myChildIdx);
-                LOG.trace("Skipping down, new index = {}", myChildIdx);
                 --currentLevel;
             }
 
-            // For the other node, we always use hash value.
-            AbstractValueType otherData = hashValue(getDeep(otherChildIdx));
-            AbstractValueType myData;
+            // Construct the hash step, the data items are written in
+            // the order of the children.
+            writer.startHashStep(STEP, stepCount);
 
-            // If the child is leaf node and there are no attachments,
-            // use the data ref. Otherwise use the StepRef.
-            if (isLeaf(myChildIdx) && !multiparts.containsKey(itemIndex)) {
-                // Plain data ref.
-                myData = dataRef(get(myChildIdx));
+            if (myDirection == 0) {
+                writeMyData(writer, myChildIdx, parts, stepCount);
+                writeOtherData(writer, otherChildIdx);
             } else {
-                // Non-leaf nodes refer to other hash steps.
-                myData = stepRef(stepCount + 1);
+                writeOtherData(writer, otherChildIdx);
+                writeMyData(writer, myChildIdx, parts, stepCount);
             }
 
-            // Construct the hash step.
-            HashStepType hashStep = new HashStepType();
-            hashStep.setId(STEP + stepCount);
-            // Create two elements.
-            hashStep.getHashValueOrStepRefOrDataRef().add(null);
-            hashStep.getHashValueOrStepRefOrDataRef().add(null);
-
-            // Set the data items.
-            hashStep.getHashValueOrStepRefOrDataRef().set(
-                    myDirection, myData);
-            hashStep.getHashValueOrStepRefOrDataRef().set(
-                    1 - myDirection, otherData);
-
-            // Add to chain
-            hashChain.getHashStep().add(hashStep);
+            writer.endHashStep();
 
             // Update state variables.
             ++stepCount;
@@ -479,101 +647,68 @@ public final class HashChainBuilder {
 
         // If the input was a multipart, we need to add final hash
         // step that references all the individual parts.
-        if (multiparts.containsKey(itemIndex)) {
+        if (parts != null) {
             LOG.trace("Adding attachments");
-            hashChain.getHashStep().add(
-                    multipartStep(multiparts.get(itemIndex), stepCount));
+            multipartStep(writer, parts, stepCount);
         }
 
-        return elementToString(objectFactory.createHashChain(hashChain));
+        writer.endHashChain();
     }
 
     /**
-     * Creates reference to input data.
+     * If the child is leaf node and there are no attachments,
+     * writes the data ref. Otherwise writes the StepRef.
      */
-    private DataRefType dataRef(byte[] digest) {
-        return dataRef(dataRefFileName, digest);
-    }
-
-    /**
-     * Creates reference to input data with given file name.
-     */
-    private static DataRefType dataRef(String fileName, byte[] digest) {
-        DataRefType dataRef = new DataRefType();
-        dataRef.setURI(fileName);
-        dataRef.setDigestValue(digest);
-        return dataRef;
+    private void writeMyData(HashChainWriter writer, int myChildIdx,
+            byte[][] parts, int stepCount) throws IOException {
+        if (isLeaf(myChildIdx) && parts == null) {
+            // Plain data ref.
+            writer.dataRef(dataRefFileName, data(myChildIdx),
+                    offset(myChildIdx), length(myChildIdx));
+        } else {
+            // Non-leaf nodes refer to other hash steps.
+            writer.stepRef(STEP, stepCount + 1);
+        }
     }
 
     /**
-     * Creates reference to another hash step.
+     * For the other node, we always use hash value.
      */
-    private static StepRefType stepRef(int stepCount) {
-        StepRefType stepRef = new StepRefType();
-        stepRef.setURI("#" + STEP + stepCount);
-        return stepRef;
-    }
+    private void writeOtherData(HashChainWriter writer, int otherChildIdx)
+            throws IOException {
+        int otherIdx = getDeep(otherChildIdx);
 
-    /**
-     * Creates a concrete hash value.
-     */
-    private static HashValueType hashValue(byte[] data) {
-        HashValueType hashValue = new HashValueType();
-        hashValue.setDigestValue(data);
-        return hashValue;
+        writer.hashValue(data(otherIdx), offset(otherIdx), length(otherIdx));
     }
 
     /**
-     * Makes hash chain for special case of inputs.size() == 1.
+     * Writes hash chain for special case of a single input.
      */
-    private String makeSingleInputHashChain() throws Exception {
+    private void makeSingleInputHashChain(HashChainWriter writer)
+            throws Exception {
         LOG.trace("makeSingleInputHashChain()");
 
-        HashChainType hashChain = new HashChainType();
-        hashChain.setDefaultDigestMethod(digestMethod());
+        writer.startHashChain(hashAlgorithmUri);
 
         // This is a multipart input. Add single step for all
         // the input parts
-        hashChain.getHashStep().add(multipartStep(multiparts.get(0), 0));
+        multipartStep(writer, multiparts.get(0), 0);
 
-        return elementToString(objectFactory.createHashChain(hashChain));
+        writer.endHashChain();
     }
 
-    private HashStepType multipartStep(byte[][] inputSet, int stepCount) {
-        HashStepType ret = new HashStepType();
-        ret.setId(STEP + stepCount);
+    private void multipartStep(HashChainWriter writer, byte[][] inputSet,
+            int stepCount) throws IOException {
+        writer.startHashStep(STEP, stepCount);
 
         for (int i = 0; i < inputSet.length; ++i) {
-            if (i == 0) {
-                // The first input is message
-                ret.getHashValueOrStepRefOrDataRef().add(dataRef(inputSet[i]));
-            } else {
-                // All the other inputs are attachments, starting from 1.
-                ret.getHashValueOrStepRefOrDataRef().add(
-                        dataRef(attachment(i), inputSet[i]));
-            }
+            // The first input is message, all the other inputs are
+            // attachments, starting from 1.
+            writer.dataRef(i == 0 ? dataRefFileName : attachment(i),
+                    inputSet[i], 0, inputSet[i].length);
         }
 
-        return ret;
-    }
-
-    /**
-     * Creates a DigestMethod element, based on the current hash algorithm.
-     */
-    private DigestMethodType digestMethod() {
-        DigestMethodType digestMethod = new DigestMethodType();
-        digestMethod.setAlgorithm(hashAlgorithmUri);
-        return digestMethod;
-    }
-
-    /**
-     * Serializes the given XML element to a string.
-     */
-    private <T> String elementToString(JAXBElement<T> element)
-            throws Exception {
-        StringWriter writer = new StringWriter();
-        marshaller.marshal(element, writer);
-        return writer.toString();
+        writer.endHashStep();
     }
 
     /**
@@ -608,15 +743,14 @@ public final class HashChainBuilder {
      * Returns true, if node identified by nodeIdx is a leaf node.
      */
     private boolean isLeaf(int nodeIdx) {
-        return nodeIdx >= nodes.length;
+        return nodeIdx >= nodeCount;
     }
 
     /**
-     * Returns size of the array that will hold the non-leaf nodes
-     * of the tree.
+     * Returns number of the non-leaf nodes of the tree.
      */
     private int getNodesCount() {
-        return pow2(ceilingLog2(inputs.size())) - 1;
+        return pow2(ceilingLog2(inputCount)) - 1;
     }
 
     private static int ceilingLog2(int n) {
@@ -626,12 +760,4 @@ public final class HashChainBuilder {
     private static int pow2(int n) {
         return 1 << n;
     }
-
-    static {
-        try {
-            jaxbCtx = JAXBContext.newInstance(ObjectFactory.class);
-        } catch (Exception ex) {
-            LOG.error("Failed to initialize JAXB context", ex);
-        }
-    }
 }
@@ -0,0 +1,167 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.hashchain;
+
+import java.io.IOException;
+
+/**
+ * Writes the HashChain and HashChainResult XML elements directly to an
+ * {@link Appendable}, without building the JAXB object graph first.
+ *
+ * The produced XML uses the same namespaces and prefixes as the JAXB
+ * marshaller (see {@link ObjectFactory}), but is not formatted.
+ * Digest values are given as array slices, so that the values stored in
+ * the flat buffers of {@link HashChainBuilder} need not be copied.
+ */
+final class HashChainWriter {
+
+    private static final String XML_DECLARATION =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>";
+
+    private static final String NAMESPACES =
+            " xmlns=\"http://www.w3.org/2000/09/xmldsig#\""
+                    + " xmlns:ns2=\"http://cyber.ee/hashchain\"";
+
+    private static final char[] BASE64 =
+            ("ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz"
+                    + "0123456789+/").toCharArray();
+
+    private static final int BYTE_BITS = 8;
+    private static final int SEXTET_BITS = 6;
+    private static final int SEXTET_MASK = 0x3f;
+    private static final int BYTE_MASK = 0xff;
+
+    private final Appendable out;
+
+    HashChainWriter(Appendable out) {
+        this.out = out;
+    }
+
+    void hashChainResult(String uri, String digestMethodUri, byte[] digest)
+            throws IOException {
+        out.append(XML_DECLARATION);
+        out.append("<ns2:HashChainResult URI=\"");
+        escaped(uri);
+        out.append('"').append(NAMESPACES).append('>');
+        out.append("<DigestMethod Algorithm=\"");
+        escaped(digestMethodUri);
+        out.append("\"/>");
+        digestValue(digest, 0, digest.length);
+        out.append("</ns2:HashChainResult>");
+    }
+
+    void startHashChain(String defaultDigestMethodUri) throws IOException {
+        out.append(XML_DECLARATION);
+        out.append("<ns2:HashChain").append(NAMESPACES).append('>');
+        out.append("<ns2:DefaultDigestMethod Algorithm=\"");
+        escaped(defaultDigestMethodUri);
+        out.append("\"/>");
+    }
+
+    void endHashChain() throws IOException {
+        out.append("</ns2:HashChain>");
+    }
+
+    void startHashStep(String id, int stepNumber) throws IOException {
+        out.append("<ns2:HashStep id=\"").append(id).append(
+                Integer.toString(stepNumber)).append("\">");
+    }
+
+    void endHashStep() throws IOException {
+        out.append("</ns2:HashStep>");
+    }
+
+    void hashValue(byte[] data, int offset, int length) throws IOException {
+        out.append("<ns2:HashValue>");
+        digestValue(data, offset, length);
+        out.append("</ns2:HashValue>");
+    }
+
+    void stepRef(String id, int stepNumber) throws IOException {
+        out.append("<ns2:StepRef URI=\"#").append(id).append(
+                Integer.toString(stepNumber)).append("\"/>");
+    }
+
+    void dataRef(String uri, byte[] data, int offset, int length)
+            throws IOException {
+        out.append("<ns2:DataRef URI=\"");
+        escaped(uri);
+        out.append("\">");
+        digestValue(data, offset, length);
+        out.append("</ns2:DataRef>");
+    }
+
+    private void digestValue(byte[] data, int offset, int length)
+            throws IOException {
+        out.append("<DigestValue>");
+        base64(data, offset, length);
+        out.append("</DigestValue>");
+    }
+
+    private void base64(byte[] data, int offset, int length)
+            throws IOException {
+        int bits = 0;
+        int bitCount = 0;
+
+        for (int i = offset; i < offset + length; ++i) {
+            bits = bits << BYTE_BITS | (data[i] & BYTE_MASK);
+            bitCount += BYTE_BITS;
+
+            while (bitCount >= SEXTET_BITS) {
+                bitCount -= SEXTET_BITS;
+                out.append(BASE64[bits >>> bitCount & SEXTET_MASK]);
+            }
+        }
+
+        if (bitCount > 0) {
+            // One (2 bits left) or two (4 bits left) bytes in the last group.
+            out.append(BASE64[bits << (SEXTET_BITS - bitCount) & SEXTET_MASK]);
+            out.append(bitCount == 2 ? "==" : "=");
+        }
+    }
+
+    private void escaped(String value) throws IOException {
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+
+            switch (c) {
+                case '&':
+                    out.append("&amp;");
+                    break;
+                case '<':
+                    out.append("&lt;");
+                    break;
+                case '>':
+                    out.append("&gt;");
+                    break;
+                case '"':
+                    out.append("&quot;");
+                    break;
+                default:
+                    out.append(c);
+            }
+        }
+    }
+}
@@ -25,12 +25,14 @@
 package ee.ria.xroad.common.message;
 
 import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.SystemProperties;
 import ee.ria.xroad.common.identifier.CentralServiceId;
 import ee.ria.xroad.common.identifier.ClientId;
 import ee.ria.xroad.common.identifier.SecurityServerId;
 import ee.ria.xroad.common.identifier.ServiceId;
 import ee.ria.xroad.common.identifier.XRoadObjectType;
 import ee.ria.xroad.common.util.MimeUtils;
+import ee.ria.xroad.common.util.PooledOutputStream;
 import ee.ria.xroad.common.util.XmlUtils;
 
 import lombok.Getter;
@@ -42,19 +44,21 @@ import org.apache.commons.io.input.BOMInputStream;
 import org.apache.commons.io.input.TeeInputStream;
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.bouncycastle.operator.DigestCalculator;
 import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 import org.xml.sax.XMLReader;
 import org.xml.sax.ext.DefaultHandler2;
 
 import javax.xml.namespace.QName;
-import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 import javax.xml.soap.SOAPException;
 
 import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
@@ -75,6 +79,7 @@ import static ee.ria.xroad.common.ErrorCodes.X_MISSING_HEADER;
 import static ee.ria.xroad.common.ErrorCodes.X_MISSING_HEADER_FIELD;
 import static ee.ria.xroad.common.ErrorCodes.translateException;
 import static ee.ria.xroad.common.message.SoapUtils.validateMimeType;
+import static ee.ria.xroad.common.util.CryptoUtils.createDigestCalculator;
 import static ee.ria.xroad.common.util.MimeUtils.UTF8;
 import static ee.ria.xroad.common.util.MimeUtils.hasUtf8Charset;
 
@@ -170,6 +175,10 @@ public class SaxSoapParserImpl implements SoapParser {
 
     private static final SAXParserFactory PARSER_FACTORY = createSaxParserFactory();
 
+    private static final ThreadLocal<ParserContext> PARSER_CONTEXT = ThreadLocal.withInitial(ParserContext::new);
+
+    private final boolean pooled = SystemProperties.isSoapParserPooled();
+
     @Override
     public Soap parse(String contentType, InputStream is) {
         String mimeType = MimeUtils.getBaseContentType(contentType);
@@ -193,52 +202,105 @@ public class SaxSoapParserImpl implements SoapParser {
     private Soap parseMessage(InputStream is, String mimeType, String contentType, String charset) throws Exception {
         log.trace("parseMessage({}, {})", mimeType, charset);
 
+        if (pooled) {
+            return parseMessagePooled(is, contentType, charset);
+        }
+
         ByteArrayOutputStream rawXml = new ByteArrayOutputStream();
         ByteArrayOutputStream processedXml = new ByteArrayOutputStream();
 
         InputStream proxyStream = excludeUtf8Bom(contentType, new TeeInputStream(is, rawXml));
         Writer outputWriter = new OutputStreamWriter(processedXml, charset);
-        XRoadSoapHandler handler = handleSoap(outputWriter, proxyStream);
+        XRoadSoapHandler handler = handleSoap(outputWriter, proxyStream, createXmlReader());
 
         CodedException fault = handler.getFault();
         if (fault != null) {
-            return createSoapFault(charset, rawXml, fault);
+            return createSoapFault(charset, rawXml.toByteArray(), fault);
         }
 
         byte[] xmlBytes = isProcessedXmlRequired() ? processedXml.toByteArray() : rawXml.toByteArray();
 
-        return createSoapMessage(contentType, charset, handler, xmlBytes);
+        return createSoapMessage(contentType, charset, handler, xmlBytes, null);
     }
 
-    private XRoadSoapHandler handleSoap(Writer writer, InputStream inputStream)
+    /**
+     * Parses the message with the XML reader and buffers of the current thread. Only the copy of the XML that is
+     * used by the message is copied out of the pooled buffers. The hash of the raw XML is calculated as it is read,
+     * the hash of the processed XML is calculated from the pooled buffers.
+     */
+    private Soap parseMessagePooled(InputStream is, String contentType, String charset) throws Exception {
+        ParserContext context = PARSER_CONTEXT.get();
+        if (context.inUse) {
+            // a message parsed while parsing another one on the same thread
+            context = new ParserContext();
+        }
+        context.inUse = true;
+
+        PooledOutputStream rawXml = context.rawXml;
+        PooledOutputStream processedXml = context.processedXml;
+        try {
+            rawXml.setDigestCalculator(createDigestCalculator(SoapUtils.getHashAlgoId()));
+
+            InputStream proxyStream = excludeUtf8Bom(contentType, new TeeInputStream(is, rawXml));
+            Writer outputWriter = new OutputStreamWriter(processedXml, charset);
+            XRoadSoapHandler handler = handleSoap(outputWriter, proxyStream, context.getXmlReader());
+
+            CodedException fault = handler.getFault();
+            if (fault != null) {
+                return createSoapFault(charset, rawXml.toByteArray(), fault);
+            }
+
+            if (isProcessedXmlRequired()) {
+                DigestCalculator dc = createDigestCalculator(SoapUtils.getHashAlgoId());
+                processedXml.writeTo(dc.getOutputStream());
+                dc.getOutputStream().close();
+
+                return createSoapMessage(contentType, charset, handler, processedXml.toByteArray(), dc.getDigest());
+            }
+
+            return createSoapMessage(contentType, charset, handler, rawXml.toByteArray(), rawXml.getDigest());
+        } finally {
+            rawXml.release();
+            processedXml.release();
+            context.release();
+        }
+    }
+
+    private XRoadSoapHandler handleSoap(Writer writer, InputStream inputStream, XMLReader xmlReader)
             throws Exception {
         try (BufferedWriter out = new BufferedWriter(writer)) {
             XRoadSoapHandler handler = new XRoadSoapHandler(out);
-            SAXParser saxParser = PARSER_FACTORY.newSAXParser();
-            XMLReader xmlReader = saxParser.getXMLReader();
+            xmlReader.setContentHandler(handler);
+            xmlReader.setEntityResolver(handler);
+            xmlReader.setErrorHandler(handler);
+            xmlReader.setDTDHandler(handler);
             xmlReader.setProperty(LEXICAL_HANDLER_PROPERTY, handler);
-            // ensure both builtin entities and character entities are reported to the parser
-            xmlReader.setFeature("http://apache.org/xml/features/scanner/notify-char-refs", true);
-            xmlReader.setFeature("http://apache.org/xml/features/scanner/notify-builtin-refs", true);
 
-            saxParser.parse(inputStream, handler);
+            xmlReader.parse(new InputSource(inputStream));
             return handler;
         } catch (SAXException ex) {
             throw new SOAPException(ex);
         }
     }
 
+    private static XMLReader createXmlReader() throws Exception {
+        XMLReader xmlReader = PARSER_FACTORY.newSAXParser().getXMLReader();
+        // ensure both builtin entities and character entities are reported to the parser
+        xmlReader.setFeature("http://apache.org/xml/features/scanner/notify-char-refs", true);
+        xmlReader.setFeature("http://apache.org/xml/features/scanner/notify-builtin-refs", true);
+        return xmlReader;
+    }
+
     private static Soap createSoapMessage(String contentType, String charset,
-            XRoadSoapHandler handler, byte[] xmlBytes) throws Exception {
+            XRoadSoapHandler handler, byte[] xmlBytes, byte[] hash) throws Exception {
         return new SoapMessageImpl(xmlBytes, charset, handler.getHeader(),
-                null, handler.getServiceName(), handler.isRpc(), contentType);
+                null, handler.getServiceName(), handler.isRpc(), contentType, hash);
     }
 
-    private static Soap createSoapFault(String charset,
-            ByteArrayOutputStream rawXml, CodedException fault) {
+    private static Soap createSoapFault(String charset, byte[] rawXml, CodedException fault) {
         return new SoapFault(fault.getFaultCode(), fault.getFaultString(),
                 fault.getFaultActor(), fault.getFaultDetail(),
-                rawXml.toByteArray(), charset);
+                rawXml, charset);
     }
 
     @SneakyThrows
@@ -270,12 +332,10 @@ public class SaxSoapParserImpl implements SoapParser {
     @SneakyThrows
     protected void writeStartElementXml(String prefix, QName element, Attributes attributes, Writer writer) {
         writer.append('<');
-        String localName = element.getLocalPart();
-        String tag = StringUtils.isEmpty(prefix) ? localName : prefix + ":" + localName;
-        writer.append(tag);
+        writeTag(prefix, element, writer);
         for (int i = 0; i < attributes.getLength(); i++) {
             String escapedAttrValue = StringEscapeUtils.escapeXml11(attributes.getValue(i));
-            writer.append(String.format(" %s=\"%s\"", attributes.getQName(i), escapedAttrValue));
+            writer.append(' ').append(attributes.getQName(i)).append("=\"").append(escapedAttrValue).append('"');
         }
         writer.append('>');
     }
@@ -283,12 +343,17 @@ public class SaxSoapParserImpl implements SoapParser {
     @SneakyThrows
     protected void writeEndElementXml(String prefix, QName element, Attributes attributes, Writer writer) {
         writer.append("</");
-        String localName = element.getLocalPart();
-        String tag = StringUtils.isEmpty(prefix) ? localName : prefix + ":" + localName;
-        writer.append(tag);
+        writeTag(prefix, element, writer);
         writer.append('>');
     }
 
+    private static void writeTag(String prefix, QName element, Writer writer) throws IOException {
+        if (!StringUtils.isEmpty(prefix)) {
+            writer.append(prefix).append(':');
+        }
+        writer.append(element.getLocalPart());
+    }
+
     @SneakyThrows
     protected void writeCharactersXml(char[] characters, int start, int length, Writer writer) {
         writer.write(characters, start, length);
@@ -1123,4 +1188,36 @@ public class SaxSoapParserImpl implements SoapParser {
         }
 
     }
+
+    /**
+     * XML reader and message buffers reused by the parses on one thread.
+     */
+    private static final class ParserContext {
+        private final PooledOutputStream rawXml = new PooledOutputStream();
+        private final PooledOutputStream processedXml = new PooledOutputStream();
+
+        private XMLReader xmlReader;
+        private boolean inUse;
+
+        XMLReader getXmlReader() throws Exception {
+            if (xmlReader == null) {
+                xmlReader = createXmlReader();
+            }
+            return xmlReader;
+        }
+
+        @SneakyThrows
+        void release() {
+            inUse = false;
+
+            // do not keep the last message handler reachable from the thread
+            if (xmlReader != null) {
+                xmlReader.setContentHandler(null);
+                xmlReader.setEntityResolver(null);
+                xmlReader.setErrorHandler(null);
+                xmlReader.setDTDHandler(null);
+                xmlReader.setProperty(LEXICAL_HANDLER_PROPERTY, null);
+            }
+        }
+    }
 }
@@ -26,6 +26,7 @@ package ee.ria.xroad.common.util;
 
 import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.channels.Channels;
 import java.nio.channels.SeekableByteChannel;
 
@@ -34,10 +35,19 @@ import java.nio.channels.SeekableByteChannel;
  */
 public final class CacheInputStream extends FilterInputStream {
     private final long size;
+    private final Runnable onClose;
 
     CacheInputStream(SeekableByteChannel ch) throws IOException {
         super(Channels.newInputStream(ch.position(0)));
         size = ch.size();
+        // the channel is shared by all readers and closed by CachingStream.consume()
+        onClose = null;
+    }
+
+    CacheInputStream(InputStream in, long size, Runnable onClose) {
+        super(in);
+        this.size = size;
+        this.onClose = onClose;
     }
 
     public long size() {
@@ -46,7 +56,9 @@ public final class CacheInputStream extends FilterInputStream {
 
     @Override
     public void close() {
-        //NOP
+        if (onClose != null) {
+            onClose.run();
+        }
     }
 
     @Override
@@ -26,42 +26,87 @@ package ee.ria.xroad.common.util;
 
 import ee.ria.xroad.common.DefaultFilepaths;
 import ee.ria.xroad.common.ErrorCodes;
+import ee.ria.xroad.common.SystemProperties;
 
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Caches stuff in a temporary file.
+ * Caches stuff in memory and, once the cached data exceeds the configured threshold, in a temporary file.
+ *
+ * In-memory data is kept in buffers taken from a shared pool. The buffers are reference counted: the stream and
+ * each reader returned by {@link #getCachedContents()} hold a reference, and the buffers are returned to the pool
+ * only when {@link #consume()} has been called and every reader has been read to the end or closed. Buffers whose
+ * references are never released are returned to the pool once they are no longer reachable.
+ * @see SystemProperties#getAttachmentMemoryThreshold()
  */
 @Slf4j
 public class CachingStream extends FilterOutputStream {
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final ByteBufferPool POOL = new ByteBufferPool(BUFFER_SIZE,
+            SystemProperties.getAttachmentBufferPoolSize(), SystemProperties.isAttachmentBufferDirect());
+
+    private static final AtomicLong STREAM_COUNT = new AtomicLong();
+    private static final AtomicLong SPILL_COUNT = new AtomicLong();
+
+    private final long memoryThreshold;
+    private MemoryBuffers buffers;
+    private long memorySize;
+
     private SeekableByteChannel channel;
     private Path tempFile;
+    private final AtomicBoolean consumed = new AtomicBoolean();
 
     /**
-     * Constructs a new caching stream that caches data in a temporary file.
+     * Constructs a new caching stream that caches data in memory up to the configured threshold and
+     * in a temporary file after that.
      *
      * @throws IOException if I/O errors occurred
      */
     public CachingStream() throws IOException {
+        this(SystemProperties.getAttachmentMemoryThreshold());
+    }
+
+    /**
+     * Constructs a new caching stream that caches data in memory up to the given threshold and
+     * in a temporary file after that.
+     *
+     * @param memoryThreshold maximum number of bytes cached in memory, zero to always use a temporary file
+     * @throws IOException if I/O errors occurred
+     */
+    public CachingStream(long memoryThreshold) throws IOException {
         // Construct the parent class with null stream and replace it later.
         super(null);
 
-        tempFile = DefaultFilepaths.createTempFile("tmpattach", null);
-        channel = Files.newByteChannel(tempFile, StandardOpenOption.CREATE,
-                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING,
-                StandardOpenOption.READ, StandardOpenOption.DELETE_ON_CLOSE);
+        this.memoryThreshold = memoryThreshold;
+        STREAM_COUNT.incrementAndGet();
 
-        // Now that we are set up, we can set the output stream in the
-        // parent class.
-        out = Channels.newOutputStream(channel);
+        if (memoryThreshold > 0) {
+            buffers = new MemoryBuffers();
+            out = new MemoryOutputStream();
+        } else {
+            createTempFile();
+        }
     }
 
     @Override
@@ -78,10 +123,16 @@ public class CachingStream extends FilterOutputStream {
 
     /**
      * @return input stream that contains the encoded attachment contents.
-     * The returned stream does not support mark, and closing the stream has no effect.
+     * The returned stream does not support mark. Closing the stream releases the in-memory contents held by it,
+     * the contents of a temporary file are released by {@link #consume()} only.
      * @see #consume() to free resources used by the cache.
      */
     public CacheInputStream getCachedContents() {
+        if (channel == null) {
+            MemoryInputStream reader = new MemoryInputStream(buffers);
+            return new CacheInputStream(reader, memorySize, reader::close);
+        }
+
         try {
             return new CacheInputStream(channel);
         } catch (IOException ex) { // the position shouldn't really throw
@@ -90,14 +141,282 @@ public class CachingStream extends FilterOutputStream {
     }
 
     /**
-     * Finalize caching stream. Use to avoid file handle leaks.
+     * Finalize caching stream. Use to avoid file handle leaks. In-memory contents that are still being read
+     * remain available to their readers.
      */
     public void consume() {
-        try {
-            channel.close();
-        } catch (IOException e) {
-            log.warn("Error closing channel of the temporary file '{}'", tempFile.toString(), e);
+        if (!consumed.compareAndSet(false, true)) {
+            return;
+        }
+
+        if (buffers != null) {
+            buffers.release();
+        }
+
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("Error closing channel of the temporary file '{}'", tempFile.toString(), e);
+            }
+        }
+    }
+
+    /**
+     * @return number of caching streams created
+     */
+    public static long getStreamCount() {
+        return STREAM_COUNT.get();
+    }
+
+    /**
+     * @return number of caching streams that exceeded the memory threshold and were moved to a temporary file
+     */
+    public static long getSpillCount() {
+        return SPILL_COUNT.get();
+    }
+
+    /**
+     * @return number of memory buffers currently holding cached data
+     */
+    public static int getBuffersInUse() {
+        MemoryBuffers.reclaimUnreachable();
+        return POOL.getBuffersInUse();
+    }
+
+    /**
+     * @return number of idle memory buffers available for reuse
+     */
+    public static int getPooledBuffers() {
+        return POOL.getPooledBuffers();
+    }
+
+    private void createTempFile() throws IOException {
+        tempFile = DefaultFilepaths.createTempFile("tmpattach", null);
+        channel = Files.newByteChannel(tempFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.DELETE_ON_CLOSE);
+
+        // Now that we are set up, we can set the output stream in the
+        // parent class.
+        out = Channels.newOutputStream(channel);
+    }
+
+    private void spill() throws IOException {
+        SPILL_COUNT.incrementAndGet();
+        log.trace("Cached data exceeds {} bytes, moving it to a temporary file", memoryThreshold);
+
+        createTempFile();
+
+        for (ByteBuffer buffer : buffers.list) {
+            ByteBuffer contents = (ByteBuffer)buffer.duplicate().flip();
+            while (contents.hasRemaining()) {
+                channel.write(contents);
+            }
+        }
+
+        buffers.release();
+        buffers = null;
+        memorySize = 0;
+    }
+
+    private final class MemoryOutputStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            if (memorySize + 1 > memoryThreshold) {
+                spill();
+                out.write(b);
+                return;
+            }
+
+            writableBuffer().put((byte)b);
+            memorySize++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (memorySize + len > memoryThreshold) {
+                spill();
+                out.write(b, off, len);
+                return;
+            }
+
+            int offset = off;
+            int remaining = len;
+            while (remaining > 0) {
+                ByteBuffer current = writableBuffer();
+                int count = Math.min(remaining, current.remaining());
+                current.put(b, offset, count);
+                offset += count;
+                remaining -= count;
+                memorySize += count;
+            }
+        }
+
+        private ByteBuffer writableBuffer() {
+            List<ByteBuffer> list = buffers.list;
+            ByteBuffer current = list.isEmpty() ? null : list.get(list.size() - 1);
+            if (current == null || !current.hasRemaining()) {
+                current = POOL.acquire();
+                list.add(current);
+            }
+            return current;
         }
     }
 
+    /**
+     * Reader of the in-memory contents, holds a reference to the buffers until the end of the contents has been
+     * reached or the reader is closed.
+     */
+    private static final class MemoryInputStream extends InputStream {
+        private final ByteBuffer[] contents;
+        private final boolean consumed;
+        private MemoryBuffers buffers;
+        private int index;
+
+        MemoryInputStream(MemoryBuffers buffers) {
+            if (buffers.retain()) {
+                this.buffers = buffers;
+                contents = new ByteBuffer[buffers.list.size()];
+                for (int i = 0; i < contents.length; i++) {
+                    contents[i] = (ByteBuffer)buffers.list.get(i).duplicate().flip();
+                }
+                consumed = false;
+            } else {
+                contents = new ByteBuffer[0];
+                consumed = true;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            ByteBuffer current = readableBuffer();
+            return current == null ? -1 : Byte.toUnsignedInt(current.get());
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0 && buffers != null) {
+                return 0;
+            }
+
+            ByteBuffer current = readableBuffer();
+            if (current == null) {
+                return -1;
+            }
+
+            int count = Math.min(len, current.remaining());
+            current.get(b, off, count);
+            return count;
+        }
+
+        /**
+         * @return the buffer holding the next unread byte, or null at the end of the contents
+         */
+        private ByteBuffer readableBuffer() throws IOException {
+            if (buffers == null) {
+                // the buffers may already hold the contents of another stream
+                if (consumed || index < contents.length) {
+                    throw new IOException(consumed ? "Cached contents have been consumed" : "Reader has been closed");
+                }
+                return null;
+            }
+
+            while (index < contents.length && !contents[index].hasRemaining()) {
+                index++;
+            }
+            if (index == contents.length) {
+                close();
+                return null;
+            }
+
+            return contents[index];
+        }
+
+        @Override
+        public int available() {
+            if (buffers == null) {
+                return 0;
+            }
+
+            int available = 0;
+            for (int i = index; i < contents.length; i++) {
+                available += contents[i].remaining();
+            }
+            return available;
+        }
+
+        @Override
+        public void close() {
+            if (buffers != null) {
+                buffers.release();
+                buffers = null;
+            }
+        }
+    }
+
+    /**
+     * Pooled buffers of one stream. The stream holds the first reference, each reader another one. The buffers
+     * are returned to the pool when the last reference is released, or when no stream nor reader can reach them
+     * anymore.
+     */
+    private static final class MemoryBuffers {
+        private static final ReferenceQueue<MemoryBuffers> UNREACHABLE = new ReferenceQueue<>();
+        private static final Set<Lease> LEASES = ConcurrentHashMap.newKeySet();
+
+        private final List<ByteBuffer> list = new ArrayList<>();
+        private final AtomicInteger references = new AtomicInteger(1);
+        private final Lease lease;
+
+        MemoryBuffers() {
+            reclaimUnreachable();
+
+            lease = new Lease(this);
+            LEASES.add(lease);
+        }
+
+        boolean retain() {
+            int count;
+            do {
+                count = references.get();
+                if (count == 0) {
+                    return false;
+                }
+            } while (!references.compareAndSet(count, count + 1));
+
+            return true;
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0 && LEASES.remove(lease)) {
+                lease.clear();
+                lease.returnToPool();
+            }
+        }
+
+        static void reclaimUnreachable() {
+            for (Lease lease = (Lease)UNREACHABLE.poll(); lease != null; lease = (Lease)UNREACHABLE.poll()) {
+                if (LEASES.remove(lease)) {
+                    log.debug("Returning {} buffers of an unconsumed caching stream to the pool", lease.list.size());
+                    lease.returnToPool();
+                }
+            }
+        }
+
+        private static final class Lease extends PhantomReference<MemoryBuffers> {
+            private final List<ByteBuffer> list;
+
+            Lease(MemoryBuffers buffers) {
+                super(buffers, UNREACHABLE);
+                list = buffers.list;
+            }
+
+            void returnToPool() {
+                for (ByteBuffer buffer : list) {
+                    POOL.release(buffer);
+                }
+                list.clear();
+            }
+        }
+    }
 }
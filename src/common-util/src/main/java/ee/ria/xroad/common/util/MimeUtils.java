@@ -49,6 +49,7 @@ public final class MimeUtils {
     public static final String HEADER_HASH_ALGO_ID = "x-hash-algorithm";
     public static final String HEADER_PROXY_VERSION = "x-proxy-version";
     public static final String HEADER_CONTENT_TRANSFER_ENCODING = "content-transfer-encoding";
+    public static final String HEADER_CONTENT_ENCODING = "content-encoding";
     public static final String HEADER_VERIFICATION_CERT_HASH = "verification-certificate-hash";
     public static final String HEADER_CONTENT_IDENTIFIER = "content-identifier";
     public static final String HEADER_CONTENT_LOCATION = "content-location";
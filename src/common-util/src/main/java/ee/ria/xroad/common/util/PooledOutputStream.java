@@ -0,0 +1,166 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.util;
+
+import ee.ria.xroad.common.SystemProperties;
+
+import org.bouncycastle.operator.DigestCalculator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Growable in-memory output stream that keeps its contents in fixed size buffers taken from a shared pool,
+ * so growing it never reallocates and copies the data written so far. Optionally feeds the written data
+ * to a digest calculator as it arrives.
+ *
+ * {@link #release()} returns the buffers to the pool, after which the stream can be written again.
+ * @see SystemProperties#getSoapParserBufferPoolSize()
+ */
+public final class PooledOutputStream extends OutputStream {
+    private static final int BUFFER_SIZE = 16384;
+
+    private static final ByteBufferPool POOL = new ByteBufferPool(BUFFER_SIZE,
+            SystemProperties.getSoapParserBufferPoolSize(), false);
+
+    private final List<ByteBuffer> buffers = new ArrayList<>();
+    private int size;
+
+    private DigestCalculator digestCalculator;
+    private OutputStream digestStream;
+
+    /**
+     * Feeds all data written from now on to the given digest calculator, until the stream is released.
+     * @param calculator the digest calculator
+     */
+    public void setDigestCalculator(DigestCalculator calculator) {
+        digestCalculator = calculator;
+        digestStream = calculator.getOutputStream();
+    }
+
+    /**
+     * @return digest of the data written after {@link #setDigestCalculator(DigestCalculator)},
+     * or null if no digest calculator is set
+     * @throws IOException if the digest cannot be calculated
+     */
+    public byte[] getDigest() throws IOException {
+        if (digestCalculator == null) {
+            return null;
+        }
+
+        digestStream.close();
+        return digestCalculator.getDigest();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte)b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (digestStream != null) {
+            digestStream.write(b, off, len);
+        }
+
+        int offset = off;
+        int remaining = len;
+        while (remaining > 0) {
+            ByteBuffer current = buffers.isEmpty() ? null : buffers.get(buffers.size() - 1);
+            if (current == null || !current.hasRemaining()) {
+                current = POOL.acquire();
+                buffers.add(current);
+            }
+
+            int count = Math.min(remaining, current.remaining());
+            current.put(b, offset, count);
+            offset += count;
+            remaining -= count;
+            size += count;
+        }
+    }
+
+    /**
+     * @return number of bytes written
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Writes the contents to the given stream without copying them.
+     * @param out the output stream
+     * @throws IOException if an I/O error occurred
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        for (ByteBuffer buffer : buffers) {
+            out.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+        }
+    }
+
+    /**
+     * @return a copy of the contents, sized exactly
+     */
+    public byte[] toByteArray() {
+        byte[] result = new byte[size];
+        int offset = 0;
+        for (ByteBuffer buffer : buffers) {
+            System.arraycopy(buffer.array(), buffer.arrayOffset(), result, offset, buffer.position());
+            offset += buffer.position();
+        }
+        return result;
+    }
+
+    /**
+     * Returns the buffers to the pool and discards the contents and the digest calculator.
+     */
+    public void release() {
+        for (ByteBuffer buffer : buffers) {
+            POOL.release(buffer);
+        }
+        buffers.clear();
+        size = 0;
+
+        digestCalculator = null;
+        digestStream = null;
+    }
+
+    /**
+     * @return number of buffers currently holding data of pooled output streams
+     */
+    public static int getBuffersInUse() {
+        return POOL.getBuffersInUse();
+    }
+
+    /**
+     * @return number of idle buffers available for reuse
+     */
+    public static int getPooledBuffers() {
+        return POOL.getPooledBuffers();
+    }
+}
@@ -35,6 +35,7 @@ import static ee.ria.xroad.common.ErrorCodes.X_OUTDATED_GLOBALCONF;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
 /**
  * Tests to verify configuration directories are read correctly.
@@ -72,6 +73,44 @@ public class ConfigurationDirectoryTest {
         assertNull(dir.getShared("xxx"));
     }
 
+    /**
+     * Test to ensure a correct configuration directory is read properly from a watched snapshot and
+     * that unchanged parameters are not reloaded.
+     *
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void readWatchingDirectoryV2() throws Exception {
+        WatchingConfigurationDirectory dir =
+                new WatchingConfigurationDirectory("src/test/resources/globalconf_good_v2");
+
+        try {
+            assertEquals("EE", dir.getInstanceIdentifier());
+
+            PrivateParametersV2 p = dir.getPrivate("foo");
+
+            assertNotNull(p);
+            assertEquals("foo", p.getInstanceIdentifier());
+
+            SharedParametersV2 s = dir.getShared("foo");
+
+            assertNotNull(s);
+            assertEquals("foo", s.getInstanceIdentifier());
+            assertEquals(3, dir.getShared().size());
+
+            dir.reload();
+
+            assertSame(p, dir.getPrivate("foo"));
+            assertSame(s, dir.getShared("foo"));
+
+            assertNull(dir.getPrivate("bar"));
+            assertNotNull(dir.getShared("bar"));
+            assertNull(dir.getShared("xxx"));
+        } finally {
+            dir.stopWatching();
+        }
+    }
+
     /**
      * Test to ensure an empty configuration directory is read properly.
      *
@@ -0,0 +1,113 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.conf.globalconf;
+
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.identifier.GlobalGroupId;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the lookups cached when shared parameters are loaded.
+ */
+public class SharedParametersV2Test {
+
+    private static final Path SHARED_PARAMS = Paths.get("src/test/resources/globalconf_good_v2/EE/shared-params.xml");
+
+    private static final GlobalGroupId GROUP = GlobalGroupId.create("EE", "Test group");
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    /**
+     * Test to ensure that only the first of the global groups with the same code is used.
+     *
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void firstDuplicateGlobalGroupIsUsed() throws Exception {
+        String duplicateGroup = "</globalGroup>\n"
+                + "    <globalGroup>\n"
+                + "        <groupCode>Test group</groupCode>\n"
+                + "        <description>Duplicate</description>\n"
+                + "        <groupMember id:objectType=\"MEMBER\">\n"
+                + "            <id:xRoadInstance>EE</id:xRoadInstance>\n"
+                + "            <id:memberClass>BUSINESS</id:memberClass>\n"
+                + "            <id:memberCode>member5</id:memberCode>\n"
+                + "        </groupMember>\n"
+                + "    </globalGroup>";
+
+        SharedParametersV2 p = load(read().replaceFirst("</globalGroup>", duplicateGroup));
+
+        assertEquals("Description", p.findGlobalGroup(GROUP).getDescription());
+        assertTrue(p.isGlobalGroupMember(GROUP, ClientId.create("EE", "BUSINESS", "member2")));
+        assertFalse(p.isGlobalGroupMember(GROUP, ClientId.create("EE", "BUSINESS", "member5")));
+    }
+
+    /**
+     * Test to ensure that an invalid OCSP responder certificate is skipped and the others are loaded.
+     *
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void invalidOcspResponderCertIsSkipped() throws Exception {
+        SharedParametersV2 valid = load(read());
+        SharedParametersV2 invalid = load(read().replaceFirst(
+                "(<ocsp>\\s*<url>[^<]*</url>\\s*(<!--[^>]*-->\\s*)?<cert>)[^<]*(</cert>)", "$1AAAA$3"));
+
+        assertEquals(countOcspCerts(valid) - 1, countOcspCerts(invalid));
+    }
+
+    private static String read() throws Exception {
+        return new String(Files.readAllBytes(SHARED_PARAMS), StandardCharsets.UTF_8);
+    }
+
+    private SharedParametersV2 load(String content) throws Exception {
+        File file = tempFolder.newFile();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+
+        SharedParametersV2 p = new SharedParametersV2();
+        p.load(file.getAbsolutePath());
+
+        return p;
+    }
+
+    private static int countOcspCerts(SharedParametersV2 p) {
+        return p.getCaCertsAndOcspCerts().values().stream().mapToInt(List::size).sum();
+    }
+}
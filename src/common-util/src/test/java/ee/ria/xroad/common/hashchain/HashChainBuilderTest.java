@@ -28,12 +28,21 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.xml.crypto.dsig.DigestMethod;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
 
 import static ee.ria.xroad.common.util.CryptoUtils.SHA256_ID;
 import static ee.ria.xroad.common.util.CryptoUtils.calculateDigest;
 import static ee.ria.xroad.common.util.CryptoUtils.encodeBase64;
 import static ee.ria.xroad.common.util.CryptoUtils.encodeHex;
+import static ee.ria.xroad.common.util.MessageFileNames.MESSAGE;
+import static ee.ria.xroad.common.util.MessageFileNames.attachment;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNull;
@@ -45,6 +54,8 @@ public class HashChainBuilderTest {
     private static final Logger LOG = LoggerFactory.getLogger(
             HashChainBuilderTest.class);
 
+    private static final String HASH_CHAIN = "/hashchain.xml";
+
     /**
      * Test to ensure hash chain builder works with varying input sizes.
      * @throws Exception in case of unexpected errors
@@ -212,4 +223,81 @@ public class HashChainBuilderTest {
         LOG.debug("Hash chain result:\n{}", builder.getHashChainResult("foo"));
         printChains(builder);
     }
+
+    /**
+     * Test that ensures the generated hash chains are accepted by
+     * the hash chain verifier.
+     * @throws Exception in case of unexpected errors
+     */
+    @Test
+    public void hashChainsVerifiable() throws Exception {
+        for (int treeSize = 1; treeSize < 40; ++treeSize) {
+            HashChainBuilder builder = new HashChainBuilder(SHA256_ID);
+            byte[][][] inputs = new byte[treeSize][][];
+
+            for (int i = 0; i < treeSize; ++i) {
+                // Every third input has attachments.
+                inputs[i] = new byte[i % 3 == 0 ? 3 : 1][];
+
+                for (int j = 0; j < inputs[i].length; ++j) {
+                    inputs[i][j] = calculateDigest(SHA256_ID,
+                            (i + "/" + j).getBytes(StandardCharsets.UTF_8));
+                }
+
+                builder.addInputHash(inputs[i]);
+            }
+
+            builder.finishBuilding();
+
+            String hashChainResult = builder.getHashChainResult(HASH_CHAIN);
+            String[] hashChains = builder.getHashChains(MESSAGE);
+
+            for (int i = 0; i < treeSize; ++i) {
+                StringBuilder written = new StringBuilder();
+                builder.writeHashChain(i, MESSAGE, written);
+                assertEquals(hashChains[i], written.toString());
+
+                Map<String, DigestValue> verifierInputs = new HashMap<>();
+                verifierInputs.put(MESSAGE,
+                        new DigestValue(DigestMethod.SHA256, inputs[i][0]));
+
+                for (int j = 1; j < inputs[i].length; ++j) {
+                    verifierInputs.put(attachment(j),
+                            new DigestValue(DigestMethod.SHA256, inputs[i][j]));
+                }
+
+                HashChainVerifier.verify(
+                        toStream(hashChainResult),
+                        new ChainResolver(hashChains[i]), verifierInputs);
+            }
+        }
+    }
+
+    private static InputStream toStream(String xml) {
+        return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static final class ChainResolver
+            implements HashChainReferenceResolver {
+
+        private final String hashChain;
+
+        ChainResolver(String hashChain) {
+            this.hashChain = hashChain;
+        }
+
+        @Override
+        public InputStream resolve(String uri) throws IOException {
+            if (HASH_CHAIN.equals(uri)) {
+                return toStream(hashChain);
+            }
+
+            throw new IOException("Unexpected reference " + uri);
+        }
+
+        @Override
+        public boolean shouldResolve(String uri, byte[] digestValue) {
+            return true;
+        }
+    }
 }
@@ -59,6 +59,8 @@ import static ee.ria.xroad.common.message.SoapMessageTestUtil.createSoapMessage;
 import static ee.ria.xroad.common.message.SoapMessageTestUtil.fileToBytes;
 import static ee.ria.xroad.common.message.SoapMessageTestUtil.messageToBytes;
 import static ee.ria.xroad.common.message.SoapUtils.getChildElements;
+import static ee.ria.xroad.common.util.CryptoUtils.calculateDigest;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
@@ -424,4 +426,41 @@ public class SoapMessageTest {
         thrown.expectError(X_INVALID_PROTOCOL_VERSION);
         createRequest("wrong-version.query");
     }
+
+    /**
+     * Test that the message hash calculated while parsing matches the hash of the message bytes, also when
+     * the parser buffers are reused for the next message.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void hashCalculatedWhileParsing() throws Exception {
+        for (String fileName : new String[] {"simple.query", "getstate.answer", "simple.query"}) {
+            byte[] xml = fileToBytes(fileName);
+            SoapMessageImpl message = (SoapMessageImpl) new SaxSoapParserImpl().parse(MimeTypes.TEXT_XML_UTF8,
+                    new ByteArrayInputStream(xml));
+
+            assertArrayEquals(xml, message.getBytes());
+            assertArrayEquals(calculateDigest(SoapUtils.getHashAlgoId(), xml), message.getHash());
+        }
+    }
+
+    /**
+     * Test that the message hash matches the processed XML when the parser re-encodes the message.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void hashOfProcessedXml() throws Exception {
+        SaxSoapParserImpl parser = new SaxSoapParserImpl() {
+            @Override
+            protected boolean isProcessedXmlRequired() {
+                return true;
+            }
+        };
+
+        SoapMessageImpl message = (SoapMessageImpl) parser.parse(MimeTypes.TEXT_XML_UTF8,
+                new ByteArrayInputStream(fileToBytes("simple.query")));
+
+        assertEquals("1234567890", message.getQueryId());
+        assertArrayEquals(calculateDigest(SoapUtils.getHashAlgoId(), message.getBytes()), message.getHash());
+    }
 }
@@ -0,0 +1,290 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.util;
+
+import ee.ria.xroad.common.SystemProperties;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for CachingStream.
+ */
+public class CachingStreamTest {
+
+    private static final int THRESHOLD = 20000;
+
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+
+    /**
+     * Sets the temporary files path.
+     */
+    @Before
+    public void setUp() {
+        System.setProperty(SystemProperties.TEMP_FILES_PATH, tempDir.getRoot().getAbsolutePath());
+    }
+
+    /**
+     * Tests that contents below the threshold are cached in memory.
+     * @throws Exception if error occurs
+     */
+    @Test
+    public void cachesSmallContentsInMemory() throws Exception {
+        byte[] data = randomBytes(THRESHOLD);
+        long spills = CachingStream.getSpillCount();
+
+        CachingStream stream = new CachingStream(THRESHOLD);
+        stream.write(data, 0, 100);
+        stream.write(data[100]);
+        stream.write(data, 101, data.length - 101);
+        stream.close();
+
+        assertEquals(spills, CachingStream.getSpillCount());
+        assertContents(data, stream.getCachedContents());
+        // contents can be read more than once
+        assertContents(data, stream.getCachedContents());
+
+        stream.consume();
+    }
+
+    /**
+     * Tests that contents above the threshold are moved to a temporary file.
+     * @throws Exception if error occurs
+     */
+    @Test
+    public void spillsLargeContentsToFile() throws Exception {
+        byte[] data = randomBytes(THRESHOLD * 3);
+        long spills = CachingStream.getSpillCount();
+
+        CachingStream stream = new CachingStream(THRESHOLD);
+        for (int i = 0; i < data.length; i += 1000) {
+            stream.write(data, i, 1000);
+        }
+        stream.close();
+
+        assertEquals(spills + 1, CachingStream.getSpillCount());
+        assertContents(data, stream.getCachedContents());
+
+        stream.consume();
+    }
+
+    /**
+     * Tests that contents written and read a byte at a time match, also across the threshold.
+     * @throws Exception if error occurs
+     */
+    @Test
+    public void writesAndReadsSingleBytes() throws Exception {
+        for (int size : new int[] {THRESHOLD, THRESHOLD + 1}) {
+            byte[] data = randomBytes(size);
+
+            CachingStream stream = new CachingStream(THRESHOLD);
+            for (byte b : data) {
+                stream.write(b);
+            }
+            stream.close();
+
+            try (InputStream contents = stream.getCachedContents()) {
+                byte[] read = new byte[size];
+                for (int i = 0; i < size; i++) {
+                    int b = contents.read();
+                    assertTrue(b >= 0);
+                    read[i] = (byte)b;
+                }
+                assertEquals(-1, contents.read());
+                assertArrayEquals(data, read);
+            }
+
+            stream.consume();
+        }
+    }
+
+    /**
+     * Tests that a zero threshold always uses a temporary file.
+     * @throws Exception if error occurs
+     */
+    @Test
+    public void zeroThresholdUsesFile() throws Exception {
+        byte[] data = randomBytes(10);
+
+        CachingStream stream = new CachingStream(0);
+        stream.write(data);
+        stream.close();
+
+        assertContents(data, stream.getCachedContents());
+
+        stream.consume();
+    }
+
+    /**
+     * Tests that in-memory contents can not be read through a reader created after the stream has been consumed.
+     * @throws Exception if error occurs
+     */
+    @Test(expected = IOException.class)
+    public void readAfterConsumeFails() throws Exception {
+        CachingStream stream = new CachingStream(THRESHOLD);
+        stream.write(randomBytes(10));
+        stream.close();
+        stream.consume();
+
+        stream.getCachedContents().read();
+    }
+
+    /**
+     * Tests that a reader that is still reading when the stream is consumed keeps its contents, even when
+     * other streams acquire buffers from the pool in the meantime.
+     * @throws Exception if error occurs
+     */
+    @Test
+    public void readerKeepsContentsWhileConsumed() throws Exception {
+        byte[] data = randomBytes(THRESHOLD);
+        int buffersInUse = CachingStream.getBuffersInUse();
+
+        CachingStream stream = new CachingStream(THRESHOLD);
+        stream.write(data);
+        stream.close();
+
+        CacheInputStream contents = stream.getCachedContents();
+        byte[] head = new byte[data.length / 2];
+        IOUtils.readFully(contents, head);
+
+        stream.consume();
+
+        // would reuse the buffers of the first stream if they had been returned to the pool
+        CachingStream other = new CachingStream(THRESHOLD);
+        other.write(randomBytes(THRESHOLD));
+        other.close();
+        other.consume();
+
+        byte[] tail = IOUtils.toByteArray(contents);
+        byte[] read = new byte[head.length + tail.length];
+        System.arraycopy(head, 0, read, 0, head.length);
+        System.arraycopy(tail, 0, read, head.length, tail.length);
+
+        assertArrayEquals(data, read);
+        // the reader released the buffers at the end of the contents
+        assertEquals(buffersInUse, CachingStream.getBuffersInUse());
+    }
+
+    /**
+     * Tests that a reader reading concurrently with consume() reads the contents of its own stream.
+     * @throws Exception if error occurs
+     */
+    @Test
+    public void concurrentReadAndConsume() throws Exception {
+        byte[] data = randomBytes(THRESHOLD);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            for (int i = 0; i < 100; i++) {
+                CachingStream stream = new CachingStream(THRESHOLD);
+                stream.write(data);
+                stream.close();
+
+                CacheInputStream contents = stream.getCachedContents();
+                Future<byte[]> read = executor.submit(() -> IOUtils.toByteArray(contents));
+
+                stream.consume();
+
+                CachingStream other = new CachingStream(THRESHOLD);
+                other.write(new byte[THRESHOLD]);
+                other.close();
+
+                assertArrayEquals(data, read.get());
+                other.consume();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Tests that closing a reader before the end of the contents releases its buffers.
+     * @throws Exception if error occurs
+     */
+    @Test
+    public void closingReaderReleasesBuffers() throws Exception {
+        int buffersInUse = CachingStream.getBuffersInUse();
+
+        CachingStream stream = new CachingStream(THRESHOLD);
+        stream.write(randomBytes(THRESHOLD));
+        stream.close();
+
+        CacheInputStream contents = stream.getCachedContents();
+        contents.read();
+        stream.consume();
+        assertTrue(CachingStream.getBuffersInUse() > buffersInUse);
+
+        contents.close();
+        assertEquals(buffersInUse, CachingStream.getBuffersInUse());
+    }
+
+    /**
+     * Tests that the buffers of a stream that is never consumed are returned to the pool once the stream is
+     * no longer reachable.
+     * @throws Exception if error occurs
+     */
+    @Test
+    public void unconsumedBuffersAreReclaimed() throws Exception {
+        int buffersInUse = CachingStream.getBuffersInUse();
+
+        CachingStream stream = new CachingStream(THRESHOLD);
+        stream.write(randomBytes(THRESHOLD));
+        stream.close();
+        assertTrue(CachingStream.getBuffersInUse() > buffersInUse);
+
+        stream = null;
+        for (int i = 0; i < 50 && CachingStream.getBuffersInUse() > buffersInUse; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+
+        assertEquals(buffersInUse, CachingStream.getBuffersInUse());
+    }
+
+    private static void assertContents(byte[] expected, CacheInputStream contents) throws IOException {
+        assertEquals(expected.length, contents.size());
+        assertArrayEquals(expected, IOUtils.toByteArray(contents));
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+}
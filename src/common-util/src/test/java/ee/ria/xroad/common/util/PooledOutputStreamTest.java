@@ -0,0 +1,93 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.util;
+
+import org.bouncycastle.operator.DigestCalculator;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import static ee.ria.xroad.common.util.CryptoUtils.DEFAULT_DIGEST_ALGORITHM_ID;
+import static ee.ria.xroad.common.util.CryptoUtils.calculateDigest;
+import static ee.ria.xroad.common.util.CryptoUtils.createDigestCalculator;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit test for PooledOutputStream.
+ */
+public class PooledOutputStreamTest {
+
+    private static final int SIZE = 100000;
+
+    /**
+     * Tests that contents spanning several buffers are kept and digested as written.
+     * @throws Exception if error occurs
+     */
+    @Test
+    public void keepsAndDigestsContents() throws Exception {
+        byte[] data = new byte[SIZE];
+        new Random().nextBytes(data);
+
+        PooledOutputStream stream = new PooledOutputStream();
+        DigestCalculator dc = createDigestCalculator(DEFAULT_DIGEST_ALGORITHM_ID);
+        stream.setDigestCalculator(dc);
+        stream.write(data, 0, 100);
+        stream.write(data[100]);
+        stream.write(data, 101, data.length - 101);
+
+        assertEquals(SIZE, stream.size());
+        assertArrayEquals(data, stream.toByteArray());
+        assertArrayEquals(calculateDigest(DEFAULT_DIGEST_ALGORITHM_ID, data), stream.getDigest());
+
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        stream.writeTo(copy);
+        assertArrayEquals(data, copy.toByteArray());
+
+        stream.release();
+    }
+
+    /**
+     * Tests that a released stream can be written again.
+     * @throws Exception if error occurs
+     */
+    @Test
+    public void reusesReleasedStream() throws Exception {
+        PooledOutputStream stream = new PooledOutputStream();
+        stream.write(new byte[SIZE], 0, SIZE);
+        stream.release();
+
+        assertEquals(0, stream.size());
+        assertNull(stream.getDigest());
+
+        byte[] data = {1, 2, 3};
+        stream.write(data, 0, data.length);
+        assertArrayEquals(data, stream.toByteArray());
+
+        stream.release();
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.conf.globalconf;
+
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.identifier.GlobalGroupId;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Measures the per-request cost of global configuration lookups, as done by the proxy message processors:
+ * {@link GlobalConf#initForCurrentThread()} followed by a few queries. Compares the checksum based change
+ * detection with the watching configuration directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class GlobalConfLookupBenchmark {
+
+    private static final String SOURCE_CONF_DIR = "../common-util/src/test/resources/globalconf_good_v2";
+    private static final List<String> CONF_FILES = Arrays.asList("bar/shared-params.xml",
+            "EE/private-params.xml", "EE/shared-params.xml", "foo/private-params.xml", "foo/shared-params.xml");
+
+    private static final ClientId MEMBER = ClientId.create("EE", "BUSINESS", "member2");
+    private static final GlobalGroupId GROUP = GlobalGroupId.create("EE", "Test group");
+    private static final ClientId PRODUCER = ClientId.create("EE", "BUSINESS", "producer");
+
+    @Param({"false", "true"})
+    public String watchEnabled;
+
+    @Param({"60", "0"})
+    public String updateIntervalSeconds;
+
+    private Path confDir;
+
+    /**
+     * Copies the test configuration to a temporary directory and loads it.
+     * @throws Exception if the configuration cannot be prepared
+     */
+    @Setup
+    public void setUp() throws Exception {
+        confDir = Files.createTempDirectory("globalconf-benchmark");
+        FileUtils.copyDirectory(new File(SOURCE_CONF_DIR), confDir.toFile());
+
+        List<String> files = CONF_FILES.stream()
+                .map(f -> confDir.resolve(f).toAbsolutePath().normalize().toString())
+                .collect(Collectors.toList());
+        FileUtils.writeLines(Paths.get(confDir.toString(), ConfigurationDirectory.FILES).toFile(),
+                StandardCharsets.UTF_8.name(), files);
+
+        System.setProperty(SystemProperties.CONFIGURATION_PATH, confDir.toString());
+        System.setProperty(SystemProperties.GLOBAL_CONF_WATCH_ENABLED, watchEnabled);
+        System.setProperty(SystemProperties.CONFIGURATION_CLIENT_UPDATE_INTERVAL_SECONDS, updateIntervalSeconds);
+
+        GlobalConf.reload();
+    }
+
+    /**
+     * Removes the temporary configuration directory.
+     * @throws Exception if the directory cannot be removed
+     */
+    @TearDown
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(confDir.toFile());
+    }
+
+    /**
+     * A typical per-message sequence of global configuration queries.
+     * @param blackhole consumes the results
+     */
+    @Benchmark
+    public void perRequestLookup(Blackhole blackhole) {
+        GlobalConf.initForCurrentThread();
+
+        blackhole.consume(GlobalConf.getInstanceIdentifier());
+        blackhole.consume(GlobalConf.isSubjectInGlobalGroup(MEMBER, GROUP));
+        blackhole.consume(GlobalConf.getMemberName(PRODUCER));
+        blackhole.consume(GlobalConf.getProviderAddress(PRODUCER));
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.ocsp;
+
+import ee.ria.xroad.common.OcspTestUtils;
+import ee.ria.xroad.common.TestCertUtil;
+import ee.ria.xroad.common.TestSecurityUtil;
+import ee.ria.xroad.common.conf.globalconf.EmptyGlobalConf;
+import ee.ria.xroad.common.conf.globalconf.GlobalConf;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Contention benchmark for the OCSP verification done for every signed message: verifying a cached OCSP
+ * response with {@link OcspVerifier} and reading responses from an {@link OcspCache}. Runs 64 threads over
+ * either a single response or a set of responses for different certificates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(64)
+public class OcspVerifierBenchmark {
+
+    private static final String[] SUBJECTS = {"user_0.p12", "user_1.p12", "user_2.p12", "user_3.p12"};
+
+    @Param({"1", "4"})
+    public int responseCount;
+
+    private X509Certificate issuer;
+    private X509Certificate[] subjects;
+    private OCSPResp[] responses;
+    private OcspCache ocspCache;
+
+    /**
+     * Creates the OCSP responses and fills the OCSP cache.
+     * @throws Exception in case of an error
+     */
+    @Setup
+    public void setup() throws Exception {
+        // The test logging configuration logs everything, which would dominate the measurement
+        ((Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+        ((Logger) LoggerFactory.getLogger("ee.ria.xroad")).setLevel(Level.WARN);
+
+        TestSecurityUtil.initSecurity();
+
+        issuer = TestCertUtil.getCertChainCert("root_ca.p12");
+        PrivateKey issuerKey = TestCertUtil.getCertChainKey("root_ca.p12");
+
+        GlobalConf.reload(new BenchmarkGlobalConf(issuer));
+
+        subjects = new X509Certificate[responseCount];
+        responses = new OCSPResp[responseCount];
+        ocspCache = new OcspCache();
+
+        for (int i = 0; i < responseCount; i++) {
+            subjects[i] = TestCertUtil.getCertChainCert(SUBJECTS[i]);
+            responses[i] = OcspTestUtils.createOCSPResponse(subjects[i], issuer, issuer, issuerKey,
+                    CertificateStatus.GOOD, new Date(), null);
+            ocspCache.put(String.valueOf(i), responses[i]);
+        }
+    }
+
+    /**
+     * Verifies an OCSP response like the certificate chain verifier does.
+     * @return the verifier
+     * @throws Exception in case of an error
+     */
+    @Benchmark
+    public OcspVerifier verifyValidityAndStatus() throws Exception {
+        int i = ThreadLocalRandom.current().nextInt(responseCount);
+
+        OcspVerifier verifier = OcspVerifierSettings.getCurrent().createVerifier(false);
+        verifier.verifyValidityAndStatus(responses[i], subjects[i], issuer);
+
+        return verifier;
+    }
+
+    /**
+     * Reads a response from the OCSP cache, which checks its freshness.
+     * @return the response
+     */
+    @Benchmark
+    public OCSPResp ocspCacheGet() {
+        return ocspCache.get(String.valueOf(ThreadLocalRandom.current().nextInt(responseCount)));
+    }
+
+    private static final class BenchmarkGlobalConf extends EmptyGlobalConf {
+        private final X509Certificate caCert;
+
+        BenchmarkGlobalConf(X509Certificate caCert) {
+            this.caCert = caCert;
+        }
+
+        @Override
+        public String getInstanceIdentifier() {
+            return "EE";
+        }
+
+        @Override
+        public X509Certificate getCaCert(String instanceIdentifier, X509Certificate orgCert) {
+            return caCert;
+        }
+
+        @Override
+        public List<X509Certificate> getAllCaCerts() {
+            return Collections.singletonList(caCert);
+        }
+    }
+}
@@ -25,10 +25,10 @@
 package ee.ria.xroad.common.cert;
 
 import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.SystemProperties;
 import ee.ria.xroad.common.conf.globalconf.GlobalConf;
-import ee.ria.xroad.common.conf.globalconfextension.GlobalConfExtensions;
 import ee.ria.xroad.common.ocsp.OcspVerifier;
-import ee.ria.xroad.common.ocsp.OcspVerifierOptions;
+import ee.ria.xroad.common.ocsp.OcspVerifierSettings;
 
 import org.bouncycastle.cert.ocsp.OCSPResp;
 
@@ -64,11 +64,15 @@ public class CertChainVerifier {
     /** Default validation algorithm type is PKIX. */
     private static final String VALIDATION_ALGORITHM = "PKIX";
 
+    /** Remembers successfully verified chains and their OCSP responses. */
+    private static final VerifiedCertChainCache VERIFIED_CHAINS =
+            new VerifiedCertChainCache(SystemProperties.getCertChainVerificationCacheSize());
+
     /** Holds the PKIX algorithm parameters. */
     private final PKIXBuilderParameters pkixParams;
 
-    /** Holds the constructed certificate path. */
-    private CertPath certPath;
+    /** Holds the certificates of the constructed certificate path. */
+    private List<X509Certificate> certs;
 
     /** Holds the cert chain to be verified. */
     private CertChain certChain;
@@ -108,11 +112,8 @@ public class CertChainVerifier {
      * @return certificates in the chain, starting from the target certificate
      * and ending with the certificate issued by the trust anchor.
      */
-    @SuppressWarnings("unchecked")
     public List<X509Certificate> getCerts() {
-        // By using the validation algorithm PKIX,
-        // we get a list of x509 certificates
-        return (List<X509Certificate>) certPath.getCertificates();
+        return certs;
     }
 
     /**
@@ -131,6 +132,9 @@ public class CertChainVerifier {
      * OCSP response is found and verified.
      * If verification fails, throws CodedException with error code
      * InvalidCertPath...
+     * Successful verifications are cached until the earliest expiry of the
+     * certificates and the OCSP responses, or until the CA certificates of
+     * the global configuration change.
      * @param ocspResponses list of OCSP responses that are used to
      *                      validate the certificates.
      * @param atDate The date at which the verification is performed.
@@ -141,13 +145,55 @@ public class CertChainVerifier {
                     "List of OCSP responses cannot be null or empty");
         }
 
+        if (!VERIFIED_CHAINS.isEnabled()) {
+            verifyImpl(ocspResponses, atDate);
+
+            return;
+        }
+
+        long generation = VERIFIED_CHAINS.getGeneration();
+        VerifiedCertChainCache.Key key = createCacheKey(ocspResponses);
+
+        List<X509Certificate> cachedCerts =
+                VERIFIED_CHAINS.get(key, atDate, generation);
+
+        if (cachedCerts != null) {
+            certs = cachedCerts;
+
+            return;
+        }
+
         verifyImpl(ocspResponses, atDate);
+
+        try {
+            VERIFIED_CHAINS.put(key, certs, ocspResponses, generation);
+        } catch (Exception ex) {
+            throw translateWithPrefix(X_INVALID_CERT_PATH_X, ex);
+        }
+    }
+
+    private VerifiedCertChainCache.Key createCacheKey(
+            List<OCSPResp> ocspResponses) {
+        try {
+            OcspVerifierSettings settings = OcspVerifierSettings.getCurrent();
+
+            return VerifiedCertChainCache.createKey(certChain, ocspResponses,
+                    settings.getOcspFreshnessSeconds(),
+                    settings.getOptions().isVerifyNextUpdate());
+        } catch (Exception ex) {
+            throw translateWithPrefix(X_INVALID_CERT_PATH_X, ex);
+        }
     }
 
+    @SuppressWarnings("unchecked")
     private void verifyImpl(List<OCSPResp> ocspResponses, Date atDate) {
         pkixParams.setDate(atDate);
         try {
-            certPath = buildCertPath(pkixParams);
+            CertPath certPath = buildCertPath(pkixParams);
+
+            // By using the validation algorithm PKIX,
+            // we get a list of x509 certificates
+            certs = (List<X509Certificate>) certPath.getCertificates();
 
             PKIXCertPathValidatorResult pkixResult =
                     verifyCertPath(certPath, pkixParams);
@@ -166,6 +212,9 @@ public class CertChainVerifier {
     private void verifyOcspResponses(List<X509Certificate> certs,
             List<OCSPResp> ocspResponses, PKIXCertPathValidatorResult result,
             Date atDate) throws Exception {
+        OcspVerifier verifier =
+                OcspVerifierSettings.getCurrent().createVerifier(false);
+
         for (X509Certificate subject : certs) {
             X509Certificate issuer =
                     GlobalConf.getCaCert(certChain.getInstanceIdentifier(),
@@ -178,8 +227,6 @@ public class CertChainVerifier {
                         + subject.getSubjectX500Principal().getName());
             }
 
-            OcspVerifier verifier = new OcspVerifier(GlobalConf.getOcspFreshnessSeconds(false),
-                    new OcspVerifierOptions(GlobalConfExtensions.getInstance().shouldVerifyOcspNextUpdate()));
             verifier.verifyValidityAndStatus(response, subject, issuer,
                     atDate);
         }
@@ -0,0 +1,186 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.cert;
+
+import ee.ria.xroad.common.conf.globalconf.GlobalConf;
+import ee.ria.xroad.common.ocsp.OcspVerifier;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+
+import static ee.ria.xroad.common.util.CryptoUtils.SHA256_ID;
+import static ee.ria.xroad.common.util.CryptoUtils.hexDigest;
+
+/**
+ * Bounded cache of successful certificate chain verifications.
+ *
+ * An entry is keyed by the hashes of the end entity certificate, the trust anchor, the additional
+ * certificates and the OCSP responses, together with the OCSP validation settings. It applies to
+ * verification dates between the latest notBefore and the earliest notAfter of the certificate path
+ * and the earliest OCSP freshness limit (and nextUpdate, when verified). All entries are discarded
+ * when the CA or OCSP responder certificates of the global configuration change.
+ */
+@Slf4j
+final class VerifiedCertChainCache {
+
+    private final Cache<Key, Entry> verified;
+
+    private volatile List<X509Certificate> caCerts = Collections.emptyList();
+    private volatile List<X509Certificate> ocspResponderCerts = Collections.emptyList();
+    private volatile long generation;
+
+    /**
+     * @param maximumSize maximum number of remembered verifications, 0 disables the cache
+     */
+    VerifiedCertChainCache(int maximumSize) {
+        verified = maximumSize > 0 ? CacheBuilder.newBuilder().maximumSize(maximumSize).build() : null;
+    }
+
+    boolean isEnabled() {
+        return verified != null;
+    }
+
+    /**
+     * Checks the global configuration for changed CA or OCSP responder certificates. Entries are only
+     * used and stored for the returned generation, so a verification that overlaps a change is not kept.
+     * @return the current cache generation
+     */
+    long getGeneration() {
+        return getGeneration(GlobalConf.getAllCaCerts(), GlobalConf.getOcspResponderCertificates());
+    }
+
+    long getGeneration(Collection<X509Certificate> allCaCerts, Collection<X509Certificate> allOcspResponderCerts) {
+        List<X509Certificate> currentCaCerts = nullToEmpty(allCaCerts);
+        List<X509Certificate> currentOcspResponderCerts = nullToEmpty(allOcspResponderCerts);
+
+        // Certificate equality is an identity check until the global configuration is reloaded
+        if (!currentCaCerts.equals(caCerts) || !currentOcspResponderCerts.equals(ocspResponderCerts)) {
+            synchronized (this) {
+                if (!currentCaCerts.equals(caCerts) || !currentOcspResponderCerts.equals(ocspResponderCerts)) {
+                    log.debug("CA certificates changed, discarding verified certificate chains");
+
+                    caCerts = currentCaCerts;
+                    ocspResponderCerts = currentOcspResponderCerts;
+                    generation++;
+                    verified.invalidateAll();
+                }
+            }
+        }
+
+        return generation;
+    }
+
+    /**
+     * @return the verified certificate path or null, if the chain has not been verified for the date
+     */
+    List<X509Certificate> get(Key key, Date atDate, long keyGeneration) {
+        Entry entry = verified.getIfPresent(key);
+
+        if (entry == null || entry.getGeneration() != keyGeneration) {
+            return null;
+        }
+
+        long at = atDate.getTime();
+
+        return at >= entry.getValidFrom() && at <= entry.getValidUntil() ? entry.getCerts() : null;
+    }
+
+    /**
+     * Remembers a successful verification of the certificate path.
+     */
+    void put(Key key, List<X509Certificate> certs, List<OCSPResp> ocspResponses, long keyGeneration)
+            throws Exception {
+        long validFrom = Long.MIN_VALUE;
+        long validUntil = OcspVerifier.getValidUntil(ocspResponses, key.getOcspFreshnessSeconds(),
+                key.isVerifyOcspNextUpdate());
+
+        for (X509Certificate cert : certs) {
+            validFrom = Math.max(validFrom, cert.getNotBefore().getTime());
+            validUntil = Math.min(validUntil, cert.getNotAfter().getTime());
+        }
+
+        if (validFrom <= validUntil && keyGeneration == generation) {
+            verified.put(key, new Entry(Collections.unmodifiableList(new ArrayList<>(certs)), validFrom, validUntil,
+                    keyGeneration));
+        }
+    }
+
+    static Key createKey(CertChain chain, List<OCSPResp> ocspResponses, int ocspFreshnessSeconds,
+            boolean verifyOcspNextUpdate) throws Exception {
+        List<String> additionalCertHashes = new ArrayList<>(chain.getAdditionalCerts().size());
+
+        for (X509Certificate cert : chain.getAdditionalCerts()) {
+            additionalCertHashes.add(hash(cert.getEncoded()));
+        }
+
+        List<String> ocspResponseHashes = new ArrayList<>(ocspResponses.size());
+
+        for (OCSPResp response : ocspResponses) {
+            ocspResponseHashes.add(hash(response.getEncoded()));
+        }
+
+        return new Key(chain.getInstanceIdentifier(), hash(chain.getEndEntityCert().getEncoded()),
+                hash(chain.getTrustedRootCert().getEncoded()), additionalCertHashes, ocspResponseHashes,
+                ocspFreshnessSeconds, verifyOcspNextUpdate);
+    }
+
+    private static String hash(byte[] data) throws Exception {
+        return hexDigest(SHA256_ID, data);
+    }
+
+    private static List<X509Certificate> nullToEmpty(Collection<X509Certificate> certs) {
+        return Objects.isNull(certs) ? Collections.emptyList() : new ArrayList<>(certs);
+    }
+
+    @Value
+    static final class Key {
+        private final String instanceIdentifier;
+        private final String endEntityCertHash;
+        private final String trustAnchorHash;
+        private final List<String> additionalCertHashes;
+        private final List<String> ocspResponseHashes;
+        private final int ocspFreshnessSeconds;
+        private final boolean verifyOcspNextUpdate;
+    }
+
+    @Value
+    private static final class Entry {
+        private final List<X509Certificate> certs;
+        private final long validFrom;
+        private final long validUntil;
+        private final long generation;
+    }
+}
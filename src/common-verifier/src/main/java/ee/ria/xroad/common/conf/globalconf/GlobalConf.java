@@ -81,7 +81,7 @@ public final class GlobalConf {
         }
 
         if (instance == null) {
-            instance = instanceFactory.createInstance(true);
+            createInstance(true);
         }
 
         return instance;
@@ -91,15 +91,19 @@ public final class GlobalConf {
      * Initializes current instance of conf for the calling thread.
      * Example usage: calling this method in RequestProcessor to have
      * a copy of current config for the current message.
+     * When global configuration watching is enabled, the configuration
+     * reloads itself and is not checked for changes here.
      */
     public static void initForCurrentThread() {
         log.trace("initForCurrentThread()");
 
         if (instance == null) {
-            instance = instanceFactory.createInstance(false);
+            createInstance(false);
         }
 
-        reloadIfChanged();
+        if (!SystemProperties.isGlobalConfWatchEnabled()) {
+            reloadIfChanged();
+        }
 
         THREAD_LOCAL.set(instance);
     }
@@ -125,9 +129,22 @@ public final class GlobalConf {
      * Reloads the configuration with given configuration instance.
      * @param conf the configuration provider instance
      */
-    public static void reload(GlobalConfProvider conf) {
+    public static synchronized void reload(GlobalConfProvider conf) {
         log.trace("reload called with parameter class {}", conf.getClass());
+        GlobalConfProvider previous = instance;
         instance = conf;
+
+        if (previous != conf && previous instanceof GlobalConfImpl) {
+            // the replaced instance would otherwise keep its file watcher running
+            ((GlobalConfImpl)previous).stopWatching();
+        }
+    }
+
+    // Only one instance may be created, since a watching instance starts a file watcher thread.
+    private static synchronized void createInstance(boolean reloadIfChanged) {
+        if (instance == null) {
+            instance = instanceFactory.createInstance(reloadIfChanged);
+        }
     }
 
     /**
@@ -650,6 +667,16 @@ public final class GlobalConf {
         return getInstance().getOcspFreshnessSeconds(smallestValue);
     }
 
+    /**
+     * @return object identifying the currently loaded global settings, it is
+     * equal to a previously returned version until the settings are reloaded
+     */
+    public static Object getGlobalSettingsVersion() {
+        log.trace("getGlobalSettingsVersion()");
+
+        return getInstance().getGlobalSettingsVersion();
+    }
+
     /**
      * @return the address of the management request service
      */
@@ -25,6 +25,7 @@
 package ee.ria.xroad.common.conf.globalconf;
 
 import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.SystemProperties;
 import ee.ria.xroad.common.cert.CertChain;
 import ee.ria.xroad.common.certificateprofile.AuthCertificateProfileInfo;
 import ee.ria.xroad.common.certificateprofile.CertificateProfileInfoProvider;
@@ -35,7 +36,6 @@ import ee.ria.xroad.common.conf.globalconf.sharedparameters.v2.CentralServiceTyp
 import ee.ria.xroad.common.conf.globalconf.sharedparameters.v2.GlobalGroupType;
 import ee.ria.xroad.common.conf.globalconf.sharedparameters.v2.MemberClassType;
 import ee.ria.xroad.common.conf.globalconf.sharedparameters.v2.MemberType;
-import ee.ria.xroad.common.conf.globalconf.sharedparameters.v2.OcspInfoType;
 import ee.ria.xroad.common.conf.globalconf.sharedparameters.v2.SecurityServerType;
 import ee.ria.xroad.common.conf.globalconf.sharedparameters.v2.SubsystemType;
 import ee.ria.xroad.common.identifier.CentralServiceId;
@@ -88,8 +88,9 @@ public class GlobalConfImpl implements GlobalConfProvider {
 
     GlobalConfImpl(boolean reloadIfChanged) {
         try {
-            confDir = new CachingConfigurationDirectory(getConfigurationPath(),
-                reloadIfChanged);
+            confDir = SystemProperties.isGlobalConfWatchEnabled()
+                    ? new WatchingConfigurationDirectory(getConfigurationPath())
+                    : new CachingConfigurationDirectory(getConfigurationPath(), reloadIfChanged);
         } catch (Exception e) {
             throw translateWithPrefix(X_MALFORMED_GLOBALCONF, e);
         }
@@ -99,6 +100,16 @@ public class GlobalConfImpl implements GlobalConfProvider {
         this.confDir = confDir;
     }
 
+    /**
+     * Stops watching the configuration directory for changes, if it is watched. Called when this instance
+     * is replaced.
+     */
+    public void stopWatching() {
+        if (confDir instanceof WatchingConfigurationDirectory) {
+            ((WatchingConfigurationDirectory)confDir).stopWatching();
+        }
+    }
+
     // ------------------------------------------------------------------------
 
     @Override
@@ -192,11 +203,7 @@ public class GlobalConfImpl implements GlobalConfProvider {
             throw new CodedException(X_INTERNAL_ERROR, e);
         }
 
-        return p == null ? null : p.getMembers().stream()
-                .filter(m -> p.createMemberId(m).memberEquals(clientId))
-                .map(MemberType::getName)
-                .findFirst()
-                .orElse(null);
+        return p == null ? null : p.getMemberName(clientId);
     }
 
     @Override
@@ -235,11 +242,13 @@ public class GlobalConfImpl implements GlobalConfProvider {
             throw new CodedException(X_INTERNAL_ERROR, e);
         }
 
-        return p == null ? null : p.getGlobalGroups().stream()
-                .filter(g -> g.getGroupCode().equals(
-                        globalGroupId.getGroupCode()))
-                .map(GlobalGroupType::getDescription)
-                .findFirst().orElse(null);
+        if (p == null) {
+            return null;
+        }
+
+        GlobalGroupType group = p.findGlobalGroup(globalGroupId);
+
+        return group == null ? null : group.getDescription();
     }
 
     @Override
@@ -284,26 +293,20 @@ public class GlobalConfImpl implements GlobalConfProvider {
             throws Exception {
         List<String> responders = new ArrayList<>();
 
-        for (SharedParametersV2 p : getSharedParameters()) {
-            List<OcspInfoType> caOcspData = null;
-            X509Certificate caCert;
-            try {
-                if (!certificateIsCA) {
-                    caCert = getCaCert(null, certificate);
-                } else {
-                    caCert = certificate;
+        X509Certificate caCert = null;
+        try {
+            caCert = certificateIsCA ? certificate : getCaCert(null, certificate);
+        } catch (CodedException e) {
+            log.error("Unable to determine OCSP responders: {}", e);
+        }
+
+        if (caCert != null) {
+            for (SharedParametersV2 p : getSharedParameters()) {
+                List<String> caOcspUrls = p.getCaCertsAndOcspUrls().get(caCert);
+                if (caOcspUrls != null) {
+                    responders.addAll(caOcspUrls);
                 }
-                caOcspData = p.getCaCertsAndOcspData().get(caCert);
-            } catch (CodedException e) {
-                log.error("Unable to determine OCSP responders: {}", e);
-            }
-            if (caOcspData == null) {
-                continue;
             }
-            caOcspData.stream().map(OcspInfoType::getUrl)
-                    .filter(StringUtils::isNotBlank)
-                    .map(String::trim)
-                    .forEach(responders::add);
         }
 
         String uri = CertUtils.getOcspResponderUriFromCert(certificate);
@@ -325,12 +328,9 @@ public class GlobalConfImpl implements GlobalConfProvider {
         List<X509Certificate> responderCerts = new ArrayList<>();
         try {
             for (SharedParametersV2 p : getSharedParameters()) {
-                for (List<OcspInfoType> ocspTypes
-                        : p.getCaCertsAndOcspData().values()) {
-                    ocspTypes.stream().map(OcspInfoType::getCert)
-                            .filter(Objects::nonNull)
-                            .map(CryptoUtils::readCertificate)
-                            .forEach(responderCerts::add);
+                for (List<X509Certificate> ocspCerts
+                        : p.getCaCertsAndOcspCerts().values()) {
+                    responderCerts.addAll(ocspCerts);
                 }
             }
         } catch (Exception e) {
@@ -409,12 +409,9 @@ public class GlobalConfImpl implements GlobalConfProvider {
     public boolean isOcspResponderCert(X509Certificate ca,
             X509Certificate ocspCert) {
         return getSharedParameters().stream()
-                .map(p -> p.getCaCertsAndOcspData().get(ca))
-                .filter(Objects::nonNull).flatMap(o -> o.stream())
-                .map(OcspInfoType::getCert).filter(Objects::nonNull)
-                .map(CryptoUtils::readCertificate)
-                .filter(c -> c.equals(ocspCert))
-                .findFirst().isPresent();
+                .map(p -> p.getCaCertsAndOcspCerts().get(ca))
+                .filter(Objects::nonNull)
+                .anyMatch(c -> c.contains(ocspCert));
     }
 
     @Override
@@ -433,13 +430,9 @@ public class GlobalConfImpl implements GlobalConfProvider {
         String b64 = encodeBase64(certHash(cert));
 
         for (SharedParametersV2 p : getSharedParameters()) {
-            SecurityServerType serverType = p.getServerByAuthCert().get(b64);
-            if (serverType != null) {
-                MemberType owner = SharedParametersV2.getOwner(serverType);
-                return SecurityServerId.create(p.getInstanceIdentifier(),
-                        owner.getMemberClass().getCode(),
-                        owner.getMemberCode(),
-                        serverType.getServerCode());
+            SecurityServerId serverId = p.getServerIdByAuthCert().get(b64);
+            if (serverId != null) {
+                return serverId;
             }
         }
 
@@ -449,10 +442,9 @@ public class GlobalConfImpl implements GlobalConfProvider {
     @Override
     public ClientId getServerOwner(SecurityServerId serverId) {
         for (SharedParametersV2 p : getSharedParameters()) {
-            SecurityServerType server = p.getSecurityServersById()
-                    .get(serverId);
-            if (server != null) {
-                return p.createMemberId((MemberType) server.getOwner());
+            ClientId owner = p.getServerOwners().get(serverId);
+            if (owner != null) {
+                return owner;
             }
         }
 
@@ -462,12 +454,10 @@ public class GlobalConfImpl implements GlobalConfProvider {
     @Override
     public boolean authCertMatchesMember(X509Certificate cert,
             ClientId memberId) throws Exception {
-        byte[] inputCertHash = certHash(cert);
+        String inputCertHash = encodeBase64(certHash(cert));
         return getSharedParameters().stream()
                 .map(p -> p.getMemberAuthCerts().get(memberId))
-                .filter(Objects::nonNull).flatMap(h -> h.stream())
-                .filter(h -> Arrays.equals(inputCertHash, h)).findFirst()
-                .isPresent();
+                .anyMatch(h -> h != null && h.contains(inputCertHash));
     }
 
     @Override
@@ -564,17 +554,7 @@ public class GlobalConfImpl implements GlobalConfProvider {
             log.warn("Got exception while getting shared parameters.", e);
         }
 
-        if (p == null) {
-            return false;
-        }
-
-        GlobalGroupType group = p.findGlobalGroup(groupId);
-        if (group == null) {
-            return false;
-        }
-
-        return group.getGroupMember().stream().filter(m -> m.equals(subjectId))
-                .findFirst().isPresent();
+        return p != null && p.isGlobalGroupMember(groupId, subjectId);
     }
 
     @Override
@@ -634,6 +614,17 @@ public class GlobalConfImpl implements GlobalConfProvider {
         }
     }
 
+    @Override
+    public Object getGlobalSettingsVersion() {
+        // Global settings are unmarshalled into new objects whenever the
+        // shared parameters are reloaded, so their identities act as the version
+        List<Object> version = new ArrayList<>();
+        version.add(getInstanceIdentifier());
+        getSharedParameters().forEach(p -> version.add(p.getGlobalSettings()));
+
+        return version;
+    }
+
     @Override
     public int getTimestampingIntervalSeconds() {
         return getPrivateParameters().getTimeStampingIntervalSeconds()
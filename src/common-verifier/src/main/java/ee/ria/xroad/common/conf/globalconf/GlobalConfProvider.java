@@ -338,6 +338,16 @@ public interface GlobalConfProvider extends ConfProvider {
      */
     int getOcspFreshnessSeconds(boolean smallestValue);
 
+    /**
+     * Values that are derived from the global settings, such as the OCSP
+     * freshness, can be cached for as long as the returned version stays
+     * equal.
+     * @return object identifying the currently loaded global settings
+     */
+    default Object getGlobalSettingsVersion() {
+        return this;
+    }
+
     /**
      * @return the timestamping interval in seconds
      */
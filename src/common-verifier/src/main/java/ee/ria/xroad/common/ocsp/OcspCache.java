@@ -24,9 +24,6 @@
  */
 package ee.ria.xroad.common.ocsp;
 
-import ee.ria.xroad.common.conf.globalconf.GlobalConf;
-import ee.ria.xroad.common.conf.globalconfextension.GlobalConfExtensions;
-
 import lombok.extern.slf4j.Slf4j;
 import org.bouncycastle.cert.ocsp.OCSPResp;
 
@@ -113,8 +110,7 @@ public class OcspCache {
 
     protected static boolean isExpired(OCSPResp response, Date atDate)
             throws Exception {
-        OcspVerifier verifier = new OcspVerifier(GlobalConf.getOcspFreshnessSeconds(true),
-                new OcspVerifierOptions(GlobalConfExtensions.getInstance().shouldVerifyOcspNextUpdate()));
-        return verifier.isExpired(response, atDate);
+        return OcspVerifierSettings.getCurrent().createVerifier(true)
+                .isExpired(response, atDate);
     }
 }
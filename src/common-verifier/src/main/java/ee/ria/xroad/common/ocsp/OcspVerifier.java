@@ -27,8 +27,11 @@ package ee.ria.xroad.common.ocsp;
 import ee.ria.xroad.common.CodedException;
 import ee.ria.xroad.common.SystemProperties;
 import ee.ria.xroad.common.conf.globalconf.GlobalConf;
-import ee.ria.xroad.common.conf.globalconf.TimeBasedObjectCache;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.xml.security.algorithms.MessageDigestAlgorithm;
 import org.bouncycastle.asn1.DERBitString;
@@ -52,6 +55,8 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static ee.ria.xroad.common.ErrorCodes.X_CERT_VALIDATION;
 import static ee.ria.xroad.common.ErrorCodes.X_INCORRECT_VALIDATION_INFO;
@@ -68,7 +73,6 @@ public final class OcspVerifier {
 
     private static final String ID_KP_OCSPSIGNING = "1.3.6.1.5.5.7.3.9";
 
-    private static final String SINGLE_RESP = "single_resp";
     private static final String SIGNATURE = "signature";
     private static final String CERTIFICATE = "certificate";
 
@@ -76,8 +80,14 @@ public final class OcspVerifier {
 
     private final OcspVerifierOptions options;
 
-    private static final TimeBasedObjectCache CACHE = new TimeBasedObjectCache(SystemProperties
-            .getOcspVerifierCachePeriod());;
+    /**
+     * Verified single responses, keyed by the encoded response, subject and issuer. Reads do not lock and
+     * concurrent verifications of the same response wait for the first one to complete.
+     */
+    private static final Cache<CacheKey, SingleResp> CACHE = CacheBuilder.newBuilder()
+            .maximumSize(SystemProperties.getOcspVerifierCacheSize())
+            .expireAfterWrite(SystemProperties.getOcspVerifierCachePeriod(), TimeUnit.SECONDS)
+            .build();
 
     /**
      * Constructor
@@ -182,15 +192,15 @@ public final class OcspVerifier {
         }
     }
 
-    private synchronized SingleResp verifyResponseValidityCached(OCSPResp response, X509Certificate subject,
-                                                                 X509Certificate issuer)
-            throws Exception {
-        String key = SINGLE_RESP + response.hashCode() + subject.hashCode() + issuer.hashCode();
-        if (!CACHE.isValid(key)) {
-            CACHE.setValue(key, verifyResponseValidity(response, subject, issuer));
-        }
+    private SingleResp verifyResponseValidityCached(OCSPResp response, X509Certificate subject,
+            X509Certificate issuer) throws Exception {
+        CacheKey key = new CacheKey(response.getEncoded(), subject, issuer);
 
-        return (SingleResp) CACHE.getValue(key);
+        try {
+            return CACHE.get(key, () -> verifyResponseValidity(response, subject, issuer));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw (Exception) e.getCause();
+        }
     }
 
     private SingleResp verifyResponseValidity(OCSPResp response, X509Certificate subject, X509Certificate issuer)
@@ -304,6 +314,33 @@ public final class OcspVerifier {
         return isExpired(singleResp, atDate);
     }
 
+    /**
+     * Returns the time until which all the given OCSP responses are accepted. This is the earliest thisUpdate
+     * plus the OCSP freshness and, when nextUpdate is verified, the earliest nextUpdate.
+     * @param ocspResponses the OCSP responses
+     * @param ocspFreshnessSeconds the OCSP freshness
+     * @param verifyNextUpdate whether the nextUpdate of the responses is verified
+     * @return the time in milliseconds, Long.MAX_VALUE if there are no responses
+     * @throws Exception if a response cannot be read
+     */
+    public static long getValidUntil(List<OCSPResp> ocspResponses, int ocspFreshnessSeconds,
+            boolean verifyNextUpdate) throws Exception {
+        long validUntil = Long.MAX_VALUE;
+
+        for (OCSPResp response : ocspResponses) {
+            for (SingleResp singleResp : ((BasicOCSPResp) response.getResponseObject()).getResponses()) {
+                validUntil = Math.min(validUntil,
+                        singleResp.getThisUpdate().getTime() + TimeUnit.SECONDS.toMillis(ocspFreshnessSeconds));
+
+                if (verifyNextUpdate && singleResp.getNextUpdate() != null) {
+                    validUntil = Math.min(validUntil, singleResp.getNextUpdate().getTime());
+                }
+            }
+        }
+
+        return validUntil;
+    }
+
     /**
      * @param response the OCSP response
      * @return certificate that was used to sign the given OCSP response.
@@ -400,4 +437,11 @@ public final class OcspVerifier {
 
         return false;
     }
+
+    @Value
+    private static final class CacheKey {
+        private final byte[] encodedResponse;
+        private final X509Certificate subject;
+        private final X509Certificate issuer;
+    }
 }
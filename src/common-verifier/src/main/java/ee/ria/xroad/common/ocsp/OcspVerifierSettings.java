@@ -0,0 +1,96 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.ocsp;
+
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.conf.globalconf.GlobalConf;
+import ee.ria.xroad.common.conf.globalconfextension.GlobalConfExtensions;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapshot of the OCSP verification settings of the global configuration. The snapshot is
+ * taken again when the global settings are reloaded, or when the OCSP verifier cache period has
+ * passed, which bounds how long a changed OCSP nextUpdate extension goes unnoticed.
+ */
+@Slf4j
+@Getter
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+public final class OcspVerifierSettings {
+
+    private static volatile OcspVerifierSettings current;
+
+    @Getter(AccessLevel.NONE)
+    private final Object version;
+
+    @Getter(AccessLevel.NONE)
+    private final long expiresAt;
+
+    /** OCSP freshness of the current instance. */
+    private final int ocspFreshnessSeconds;
+
+    /** Smallest OCSP freshness of all known instances. */
+    private final int smallestOcspFreshnessSeconds;
+
+    /** Verifier options, including whether nextUpdate is verified. */
+    private final OcspVerifierOptions options;
+
+    /**
+     * @return settings of the currently loaded global configuration
+     */
+    public static OcspVerifierSettings getCurrent() {
+        Object version = GlobalConf.getGlobalSettingsVersion();
+        OcspVerifierSettings settings = current;
+
+        if (settings == null || !settings.version.equals(version) || System.nanoTime() - settings.expiresAt > 0) {
+            settings = load(version);
+            current = settings;
+        }
+
+        return settings;
+    }
+
+    /**
+     * @param smallestValue if true, the smallest OCSP freshness of all known instances is used
+     * @return OCSP verifier using these settings
+     */
+    public OcspVerifier createVerifier(boolean smallestValue) {
+        return new OcspVerifier(smallestValue ? smallestOcspFreshnessSeconds : ocspFreshnessSeconds, options);
+    }
+
+    private static OcspVerifierSettings load(Object version) {
+        log.trace("Loading OCSP verifier settings");
+
+        return new OcspVerifierSettings(version,
+                System.nanoTime() + TimeUnit.SECONDS.toNanos(SystemProperties.getOcspVerifierCachePeriod()),
+                GlobalConf.getOcspFreshnessSeconds(false), GlobalConf.getOcspFreshnessSeconds(true),
+                new OcspVerifierOptions(GlobalConfExtensions.getInstance().shouldVerifyOcspNextUpdate()));
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.cert;
+
+import ee.ria.xroad.common.OcspTestUtils;
+import ee.ria.xroad.common.TestCertUtil;
+import ee.ria.xroad.common.TestSecurityUtil;
+import ee.ria.xroad.common.ocsp.OcspVerifier;
+
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for the verified certificate chain cache.
+ */
+public class VerifiedCertChainCacheTest {
+
+    private static final int FRESHNESS_SECONDS = 600;
+
+    private X509Certificate rootCa;
+    private X509Certificate userCert;
+    private CertChain chain;
+    private Date thisUpdate;
+
+    /**
+     * Set up test data.
+     * @throws Exception if an error occurs
+     */
+    @Before
+    public void setUp() throws Exception {
+        TestSecurityUtil.initSecurity();
+
+        rootCa = TestCertUtil.getCertChainCert("root_ca.p12");
+        userCert = TestCertUtil.getCertChainCert("user_0.p12");
+        chain = new CertChain("EE", userCert, rootCa, Collections.emptyList());
+
+        // Certificate and OCSP response times have second precision
+        thisUpdate = new Date(userCert.getNotBefore().getTime() + 24 * 60 * 60 * 1000L);
+    }
+
+    /**
+     * Tests that a verification is used only within the validity of the OCSP response.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void verificationValidUntilOcspFreshnessLimit() throws Exception {
+        VerifiedCertChainCache cache = new VerifiedCertChainCache(10);
+        List<OCSPResp> ocsp = createOcspResponses(null);
+        List<X509Certificate> certs = Arrays.asList(userCert, rootCa);
+
+        long generation = getGeneration(cache, Collections.emptyList());
+        VerifiedCertChainCache.Key key = createKey(ocsp, false);
+        cache.put(key, certs, ocsp, generation);
+
+        assertEquals(certs, cache.get(key, thisUpdate, generation));
+        assertEquals(certs, cache.get(key, afterThisUpdate(FRESHNESS_SECONDS), generation));
+        assertNull(cache.get(key, afterThisUpdate(FRESHNESS_SECONDS + 1), generation));
+        assertNull(cache.get(key, new Date(userCert.getNotBefore().getTime() - 1), generation));
+        assertNull(cache.get(createKey(createOcspResponses(null), true), thisUpdate, generation));
+    }
+
+    /**
+     * Tests that the OCSP next update limits the validity when it is verified.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void verificationValidUntilOcspNextUpdate() throws Exception {
+        List<OCSPResp> ocsp = createOcspResponses(afterThisUpdate(60));
+
+        assertEquals(afterThisUpdate(FRESHNESS_SECONDS).getTime(),
+                OcspVerifier.getValidUntil(ocsp, FRESHNESS_SECONDS, false));
+        assertEquals(afterThisUpdate(60).getTime(),
+                OcspVerifier.getValidUntil(ocsp, FRESHNESS_SECONDS, true));
+    }
+
+    /**
+     * Tests that changed CA certificates discard the cached verifications.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void invalidateOnCaCertChange() throws Exception {
+        VerifiedCertChainCache cache = new VerifiedCertChainCache(10);
+        List<OCSPResp> ocsp = createOcspResponses(null);
+
+        long generation = getGeneration(cache, Collections.emptyList());
+        VerifiedCertChainCache.Key key = createKey(ocsp, false);
+        cache.put(key, Arrays.asList(userCert, rootCa), ocsp, generation);
+
+        assertEquals(generation, getGeneration(cache, Collections.emptyList()));
+
+        long newGeneration = getGeneration(cache, Collections.singletonList(rootCa));
+
+        assertNotEquals(generation, newGeneration);
+        assertNull(cache.get(key, thisUpdate, generation));
+        assertNull(cache.get(key, thisUpdate, newGeneration));
+
+        // A verification that started before the change is not stored
+        cache.put(key, Arrays.asList(userCert, rootCa), ocsp, generation);
+
+        assertNull(cache.get(key, thisUpdate, newGeneration));
+    }
+
+    /**
+     * Tests that the cache can be disabled.
+     */
+    @Test
+    public void disabledCache() {
+        assertFalse(new VerifiedCertChainCache(0).isEnabled());
+    }
+
+    private long getGeneration(VerifiedCertChainCache cache, List<X509Certificate> caCerts) throws Exception {
+        return cache.getGeneration(caCerts, Collections.singletonList(TestCertUtil.getOcspSigner().certChain[0]));
+    }
+
+    private VerifiedCertChainCache.Key createKey(List<OCSPResp> ocsp, boolean verifyNextUpdate) throws Exception {
+        return VerifiedCertChainCache.createKey(chain, ocsp, FRESHNESS_SECONDS, verifyNextUpdate);
+    }
+
+    private Date afterThisUpdate(int seconds) {
+        return new Date(thisUpdate.getTime() + seconds * 1000L);
+    }
+
+    private List<OCSPResp> createOcspResponses(Date nextUpdate) throws Exception {
+        return Collections.singletonList(OcspTestUtils.createOCSPResponse(userCert, rootCa,
+                TestCertUtil.getOcspSigner().certChain[0], TestCertUtil.getOcspSigner().key,
+                CertificateStatus.GOOD, thisUpdate, nextUpdate));
+    }
+}
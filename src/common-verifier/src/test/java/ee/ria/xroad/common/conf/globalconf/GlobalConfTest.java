@@ -143,6 +143,20 @@ public class GlobalConfTest {
         assertNull("Description", GlobalConf.getGlobalGroupDescription(GlobalGroupId.create("EE", "foo")));
     }
 
+    /**
+     * Tests checking the global group membership.
+     */
+    @Test
+    public void isSubjectInGlobalGroup() {
+        GlobalGroupId group = GlobalGroupId.create("EE", "Test group");
+
+        assertTrue(GlobalConf.isSubjectInGlobalGroup(ClientId.create("EE", "BUSINESS", "member2"), group));
+        assertTrue(GlobalConf.isSubjectInGlobalGroup(ClientId.create("EE", "BUSINESS", "member3"), group));
+        assertFalse(GlobalConf.isSubjectInGlobalGroup(ClientId.create("EE", "BUSINESS", "member1"), group));
+        assertFalse(GlobalConf.isSubjectInGlobalGroup(ClientId.create("EE", "BUSINESS", "member2"),
+                GlobalGroupId.create("EE", "foo")));
+    }
+
     /**
      * Tests getting the actual service identifier for a given identifier.
      *
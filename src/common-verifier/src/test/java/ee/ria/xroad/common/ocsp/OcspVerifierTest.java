@@ -49,7 +49,10 @@ import java.util.List;
 
 import static ee.ria.xroad.common.ErrorCodes.X_CERT_VALIDATION;
 import static ee.ria.xroad.common.ErrorCodes.X_INCORRECT_VALIDATION_INFO;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 
 /**
  * Tests the OCSP verifier.
@@ -238,6 +241,41 @@ public class OcspVerifierTest {
         verifier.verifyValidityAndStatus(ocsp, subject, issuer);
     }
 
+    /**
+     * Tests that a verified response is not reused for another certificate.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void errorCertMismatchAfterCachedVerification() throws Exception {
+        Date thisUpdate = new DateTime().plusDays(1).toDate();
+        OCSPResp ocsp = OcspTestUtils.createOCSPResponse(subject, issuer,
+                signer, signerKey, CertificateStatus.GOOD, thisUpdate, null);
+
+        OcspVerifier verifier =
+                new OcspVerifier(GlobalConf.getOcspFreshnessSeconds(true), new OcspVerifierOptions(true));
+        verifier.verifyValidityAndStatus(ocsp, subject, issuer);
+        verifier.verifyValidityAndStatus(ocsp, subject, issuer);
+
+        thrown.expectError(X_INCORRECT_VALIDATION_INFO);
+        verifier.verifyValidityAndStatus(ocsp, subject, subject);
+    }
+
+    /**
+     * Tests that the verifier settings are taken again after the global configuration is reloaded.
+     */
+    @Test
+    public void settingsReloadedWithGlobalConf() {
+        OcspVerifierSettings settings = OcspVerifierSettings.getCurrent();
+
+        assertSame(settings, OcspVerifierSettings.getCurrent());
+        assertEquals(GlobalConf.getOcspFreshnessSeconds(false), settings.getOcspFreshnessSeconds());
+        assertEquals(GlobalConf.getOcspFreshnessSeconds(true), settings.getSmallestOcspFreshnessSeconds());
+
+        GlobalConf.reload(new TestGlobalConf());
+
+        assertNotSame(settings, OcspVerifierSettings.getCurrent());
+    }
+
     /**
      * Loads the test certificates.
      * @throws Exception if an error occurs
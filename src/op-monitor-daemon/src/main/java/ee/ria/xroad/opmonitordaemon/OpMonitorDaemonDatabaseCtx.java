@@ -29,6 +29,7 @@ import ee.ria.xroad.common.db.TransactionCallback;
 
 import org.apache.commons.lang.StringUtils;
 import org.hibernate.EmptyInterceptor;
+import org.hibernate.Session;
 import org.hibernate.type.StringType;
 import org.hibernate.type.Type;
 
@@ -64,6 +65,14 @@ final class OpMonitorDaemonDatabaseCtx {
         return CTX.doInTransaction(callback);
     }
 
+    /**
+     * Opens a new session, which is not bound to the current thread.
+     * @return the session, to be closed by the caller
+     */
+    static Session openSession() {
+        return CTX.openSession();
+    }
+
     private static class StringValueTruncator extends EmptyInterceptor {
         private static final long serialVersionUID = 1L;
 
@@ -33,10 +33,13 @@ import lombok.extern.slf4j.Slf4j;
 import org.hibernate.Session;
 import org.hibernate.query.Query;
 
+import java.sql.Connection;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Function;
 
 import static ee.ria.xroad.opmonitordaemon.OpMonitorDaemonDatabaseCtx.doInTransaction;
 import static ee.ria.xroad.opmonitordaemon.OperationalDataOutputSpecFields.MONITORING_DATA_TS;
@@ -85,6 +88,46 @@ final class OperationalDataRecordManager {
         return records;
     }
 
+    /**
+     * Queries the number of the operational data records matching the search criteria. The records themselves are
+     * read from the database when the payload of the returned records is read. The records are the same as the ones
+     * returned by {@link #queryRecords(long, long, ClientId, ClientId, Set)}. The records are counted and read in a
+     * repeatable read transaction, which is ended when the returned records are closed.
+     * @param recordsFrom           records from timestamp seconds
+     * @param recordsTo             records to timestamp seconds
+     * @param clientFilter          filter records by client (if not null)
+     * @param serviceProviderFilter filter records by service provider (if not null)
+     * @param outputFields          list of the requested operational data field
+     * @return the records to be streamed
+     * @throws Exception if an error occurs
+     */
+    static StreamedOperationalDataRecords queryRecordsForStreaming(long recordsFrom, long recordsTo,
+            ClientId clientFilter, ClientId serviceProviderFilter, Set<String> outputFields) throws Exception {
+        Session session = OpMonitorDaemonDatabaseCtx.openSession();
+
+        try {
+            // The records are counted and read in one transaction, which must see the same rows for both. The
+            // connection pool resets the isolation level when the connection is returned to the pool.
+            session.doWork(connection -> connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ));
+            session.beginTransaction();
+
+            return prepareStreamingInTransaction(session, recordsFrom, recordsTo, clientFilter,
+                    serviceProviderFilter, outputFields);
+        } catch (Exception e) {
+            try {
+                if (session.getTransaction().isActive()) {
+                    session.getTransaction().rollback();
+                }
+
+                session.close();
+            } catch (Exception logIt) {
+                log.debug("Error closing session", logIt);
+            }
+
+            throw e;
+        }
+    }
+
     private static Void storeInTransaction(Session session, List<OperationalDataRecord> records, long timestamp) {
         int storedCount = 0;
         int batchSize = getConfiguredBatchSize(session);
@@ -163,6 +206,58 @@ final class OperationalDataRecordManager {
         return records;
     }
 
+    private static StreamedOperationalDataRecords prepareStreamingInTransaction(Session session, long recordsFrom,
+            long recordsTo, ClientId clientFilter, ClientId serviceProviderFilter, Set<String> outputFields) {
+        Function<Session, OperationalDataRecordQuery> records = s -> {
+            OperationalDataRecordQuery query =
+                    new OperationalDataRecordQuery(s, clientFilter, serviceProviderFilter, outputFields);
+            query.between(recordsFrom, recordsTo);
+            query.orderByAsc(MONITORING_DATA_TS);
+            return query;
+        };
+
+        long recordsCount = records.apply(session).count();
+
+        if (recordsCount < maxRecordsInPayload) {
+            return new StreamedOperationalDataRecords((int) recordsCount, null, Collections.singletonList(records),
+                    outputFields, session);
+        }
+
+        log.trace("Check possible records overflow");
+
+        // As in queryOperationalDataInTransaction, the records preceding the last record that fits into the
+        // limit are followed by the records having the same monitoringDataTs as the last record.
+        long lastMonitoringDataTs = records.apply(session).getMonitoringDataTs(maxRecordsInPayload - 1);
+
+        Function<Session, OperationalDataRecordQuery> preceding = s -> {
+            OperationalDataRecordQuery query =
+                    new OperationalDataRecordQuery(s, clientFilter, serviceProviderFilter, outputFields);
+            query.between(recordsFrom, lastMonitoringDataTs - 1);
+            query.orderByAsc(MONITORING_DATA_TS);
+            return query;
+        };
+
+        Function<Session, OperationalDataRecordQuery> overflow = s -> {
+            OperationalDataRecordQuery query =
+                    new OperationalDataRecordQuery(s, clientFilter, serviceProviderFilter, outputFields);
+            query.addOverflowCriteria(lastMonitoringDataTs);
+            return query;
+        };
+
+        recordsCount = preceding.apply(session).count() + overflow.apply(session).count();
+
+        Long nextRecordsFrom = null;
+
+        if (recordsOverflow(session, lastMonitoringDataTs, recordsTo, clientFilter, serviceProviderFilter)) {
+            log.debug("Records overflow, set nextRecordsFrom to {}", lastMonitoringDataTs + 1);
+
+            nextRecordsFrom = lastMonitoringDataTs + 1;
+        }
+
+        return new StreamedOperationalDataRecords(Math.toIntExact(recordsCount), nextRecordsFrom,
+                Arrays.asList(preceding, overflow), outputFields, session);
+    }
+
     private static void removeMonitoringDataTsIfNotSpecified(OperationalDataRecords records, Set<String> outputFields) {
         if (!outputFields.isEmpty() && !outputFields.contains(MONITORING_DATA_TS)) {
             records.getRecords().forEach(i -> i.setMonitoringDataTs(null));
@@ -28,6 +28,8 @@ import ee.ria.xroad.common.identifier.ClientId;
 
 import lombok.Setter;
 import org.apache.commons.lang3.StringUtils;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 
 import javax.persistence.Tuple;
@@ -165,6 +167,54 @@ final class OperationalDataRecordQuery {
                 .getResultList());
     }
 
+    /**
+     * @return the number of records matching the criteria
+     */
+    long count() {
+        query.multiselect(cb.count(from)).where(pred);
+
+        return (Long) session.createQuery(query).getSingleResult().get(0);
+    }
+
+    /**
+     * @param position position of the record in the records matching the criteria ordered by monitoringDataTs
+     * @return monitoringDataTs of the record at the given position or null if there are fewer records
+     */
+    Long getMonitoringDataTs(int position) {
+        query.multiselect(from.get(MONITORING_DATA_TS)).where(pred).orderBy(cb.asc(from.get(MONITORING_DATA_TS)));
+
+        List<Tuple> result = session.createQuery(query)
+                .setReadOnly(true)
+                .setFirstResult(position)
+                .setMaxResults(1)
+                .getResultList();
+
+        return result.isEmpty() ? null : (Long) result.get(0).get(0);
+    }
+
+    /**
+     * Opens a forward only cursor over the records, the rows are converted with {@link #toRecord}.
+     * @param fetchSize the number of rows fetched from the database at a time
+     * @return the cursor, to be closed by the caller
+     */
+    ScrollableResults scroll(int fetchSize) {
+        query.multiselect(projection).where(pred);
+        if (order != null) {
+            query.orderBy(order);
+        }
+        return session.createQuery(query)
+                .setReadOnly(true)
+                .setFetchSize(fetchSize)
+                .scroll(ScrollMode.FORWARD_ONLY);
+    }
+
+    /**
+     * Transforms a row of the cursor opened with {@link #scroll} to OperationalDataRecord.
+     */
+    static OperationalDataRecord toRecord(Object[] row) {
+        return toRecord((Tuple) row[0]);
+    }
+
     void between(long fromTs, long toTs) {
         pred = cb.and(pred, cb.between(from.get(MONITORING_DATA_TS), fromTs, toTs));
     }
@@ -186,20 +236,24 @@ final class OperationalDataRecordQuery {
         List<OperationalDataRecord> tmp = new ArrayList<>(result.size());
 
         for (Tuple t : result) {
-            final OperationalDataRecord record = new OperationalDataRecord();
-            for (TupleElement<?> te : t.getElements()) {
-                final Method method = SETTERS.get(te.getAlias());
-                if (method != null) {
-                    try {
-                        method.invoke(record, t.get(te));
-                    } catch (InvocationTargetException | IllegalAccessException e) {
-                        throw new IllegalArgumentException("Unable to transform", e);
-                    }
+            tmp.add(toRecord(t));
+        }
+        return tmp;
+    }
+
+    private static OperationalDataRecord toRecord(Tuple t) {
+        final OperationalDataRecord record = new OperationalDataRecord();
+        for (TupleElement<?> te : t.getElements()) {
+            final Method method = SETTERS.get(te.getAlias());
+            if (method != null) {
+                try {
+                    method.invoke(record, t.get(te));
+                } catch (InvocationTargetException | IllegalAccessException e) {
+                    throw new IllegalArgumentException("Unable to transform", e);
                 }
             }
-            tmp.add(record);
         }
-        return tmp;
+        return record;
     }
 
     /*
@@ -45,7 +45,6 @@ import lombok.extern.slf4j.Slf4j;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.Marshaller;
 
-import java.io.IOException;
 import java.io.OutputStream;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -101,13 +100,20 @@ class OperationalDataRequestHandler extends QueryRequestHandler {
                 clientId, recordsFrom, recordsTo, serviceProviderId,
                 outputFields);
 
-        GetSecurityServerOperationalDataResponseType opDataResponse =
-                buildOperationalDataResponse(
+        // The records are closed also if the response fails before the
+        // payload of the records is read.
+        try (StreamedOperationalDataRecords responseRecords =
+                getOperationalDataRecords(
                         getClientForFilter(clientId, serverId), recordsFrom,
-                        recordsTo, serviceProviderId, outputFields,
-                        recordsAvailableBefore);
+                        getRecordsToAvailable(recordsTo,
+                                recordsAvailableBefore),
+                        serviceProviderId, outputFields);
+                SoapMessageEncoder responseEncoder =
+                        new MultipartSoapMessageEncoder(out)) {
+            GetSecurityServerOperationalDataResponseType opDataResponse =
+                    buildOperationalDataResponse(responseRecords, recordsTo,
+                            recordsAvailableBefore);
 
-        try (SoapMessageEncoder responseEncoder = new MultipartSoapMessageEncoder(out)) {
             contentTypeCallback.accept(responseEncoder.getContentType());
 
             SoapEncoderAttachmentMarshaller attachmentMarshaller =
@@ -159,12 +165,15 @@ class OperationalDataRequestHandler extends QueryRequestHandler {
         }
     }
 
+    static long getRecordsToAvailable(long recordsTo,
+            long recordsAvailableBefore) {
+        return Math.min(recordsTo, recordsAvailableBefore - 1);
+    }
+
     protected GetSecurityServerOperationalDataResponseType
-            buildOperationalDataResponse(ClientId filterByClient,
-            long recordsFrom, long recordsTo, ClientId filterByServiceProvider,
-            Set<String> outputFields, long recordsAvailableBefore)
-            throws IOException {
-        OperationalDataRecords responseRecords;
+            buildOperationalDataResponse(
+            StreamedOperationalDataRecords responseRecords, long recordsTo,
+            long recordsAvailableBefore) {
         GetSecurityServerOperationalDataResponseType opDataResponse =
                 OBJECT_FACTORY
                         .createGetSecurityServerOperationalDataResponseType();
@@ -174,23 +183,16 @@ class OperationalDataRequestHandler extends QueryRequestHandler {
                             + " set nextRecordsFrom to {}", recordsTo,
                     recordsAvailableBefore, recordsAvailableBefore);
 
-            recordsTo = recordsAvailableBefore - 1;
-
             opDataResponse.setNextRecordsFrom(recordsAvailableBefore);
         }
 
-        responseRecords = getOperationalDataRecords(filterByClient,
-                recordsFrom, recordsTo, filterByServiceProvider, outputFields);
-
-        opDataResponse.setRecordsCount(responseRecords.size());
-        String payload = responseRecords.getPayload(GSON);
-
-        // Optimize memory usage: release records memory before compressing
-        // operation.
-        responseRecords.getRecords().clear();
+        opDataResponse.setRecordsCount(responseRecords.getRecordsCount());
 
-        opDataResponse.setRecords(createAttachmentDataSource(compress(payload),
-                CID, MimeTypes.GZIP));
+        // The records are read from the database and compressed while the
+        // attachment is written to the response.
+        opDataResponse.setRecords(createAttachmentDataSource(
+                () -> responseRecords.openPayload(GSON), CID,
+                MimeTypes.GZIP));
 
         if (responseRecords.getNextRecordsFrom() != null) {
             opDataResponse.setNextRecordsFrom(
@@ -206,11 +208,12 @@ class OperationalDataRequestHandler extends QueryRequestHandler {
                 opDataResponse);
     }
 
-    protected OperationalDataRecords getOperationalDataRecords(
+    protected StreamedOperationalDataRecords getOperationalDataRecords(
             ClientId filterByClient, long recordsFrom, long recordsTo,
             ClientId filterByServiceProvider, Set<String> outputFields) {
         try {
-            return OperationalDataRecordManager.queryRecords(recordsFrom,
+            return OperationalDataRecordManager.queryRecordsForStreaming(
+                    recordsFrom,
                     recordsTo, filterByClient, filterByServiceProvider,
                     outputFields);
         } catch (Exception e) {
@@ -34,15 +34,14 @@ import ee.ria.xroad.common.util.ResourceUtils;
 import ee.ria.xroad.opmonitordaemon.message.ObjectFactory;
 
 import com.google.gson.Gson;
-import com.sun.istack.ByteArrayDataSource;
 import com.sun.xml.bind.api.AccessorException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.io.output.ByteArrayOutputStream;
 import org.apache.commons.lang3.StringUtils;
 import org.xml.sax.SAXException;
 
 import javax.activation.DataHandler;
+import javax.activation.DataSource;
 import javax.xml.XMLConstants;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
@@ -56,14 +55,13 @@ import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.UUID;
 import java.util.function.Consumer;
-import java.util.zip.GZIPOutputStream;
 
 import static ee.ria.xroad.common.ErrorCodes.CLIENT_X;
 import static ee.ria.xroad.common.ErrorCodes.X_INTERNAL_ERROR;
@@ -182,26 +180,28 @@ abstract class QueryRequestHandler {
     }
 
     static DataHandler createAttachmentDataSource(
-            byte[] payload, String cid, String contentType) {
-        return new DataHandler(new ByteArrayDataSource(payload, contentType)) {
+            PayloadSource payload, String cid, String contentType) {
+        return new DataHandler(new DataSource() {
             @Override
-            public String getName() {
-                return cid;
+            public InputStream getInputStream() throws IOException {
+                return payload.open();
             }
-        };
-    }
 
-    static byte[] compress(String data) throws IOException {
-        byte[] dataBytes = data.getBytes(StandardCharsets.UTF_8);
+            @Override
+            public OutputStream getOutputStream() throws IOException {
+                throw new IOException("Attachment is read-only");
+            }
 
-        try (ByteArrayOutputStream bos = new ByteArrayOutputStream(
-                dataBytes.length)) {
-            GZIPOutputStream gzip = new GZIPOutputStream(bos);
-            gzip.write(dataBytes);
-            gzip.close();
+            @Override
+            public String getContentType() {
+                return contentType;
+            }
 
-            return bos.toByteArray();
-        }
+            @Override
+            public String getName() {
+                return cid;
+            }
+        });
     }
 
     private static Map<String, String> getAdditionalAttachmentHeaders(
@@ -214,6 +214,15 @@ abstract class QueryRequestHandler {
         return additionalHeaders;
     }
 
+    /**
+     * Source of an attachment payload, which is produced while the
+     * attachment is written.
+     */
+    @FunctionalInterface
+    interface PayloadSource {
+        InputStream open() throws IOException;
+    }
+
     @RequiredArgsConstructor
     protected static final class SoapEncoderAttachmentMarshaller
             extends AttachmentMarshaller {
@@ -225,9 +234,11 @@ abstract class QueryRequestHandler {
 
         void encodeAttachments() throws Exception {
             for (Entry<String, DataHandler> attach : attachments.entrySet()) {
-                responseEncoder.attachment(attach.getValue().getContentType(),
-                        attach.getValue().getInputStream(),
-                        getAdditionalAttachmentHeaders(attach.getKey()));
+                try (InputStream content = attach.getValue().getInputStream()) {
+                    responseEncoder.attachment(attach.getValue().getContentType(),
+                            content,
+                            getAdditionalAttachmentHeaders(attach.getKey()));
+                }
             }
         }
 
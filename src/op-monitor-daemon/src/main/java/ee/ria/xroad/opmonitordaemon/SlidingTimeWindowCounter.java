@@ -24,15 +24,18 @@
  */
 package ee.ria.xroad.opmonitordaemon;
 
+import com.codahale.metrics.Clock;
 import com.codahale.metrics.Counter;
-import com.codahale.metrics.Reservoir;
-import com.codahale.metrics.SlidingTimeWindowReservoir;
 
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * A counter metric that uses the sliding time window reservoir internally to
- * support periodic and configurable resetting.
+ * A counter metric that only counts the events of a sliding window of time,
+ * to support periodic and configurable resetting.
+ * The events are counted in per-second buckets of a ring buffer, so the memory
+ * used does not depend on the number of events and the count is computed by
+ * summing the buckets inside the window.
  * This counter does not support manually decrementing the count (the dec()
  * methods raise a runtime exception).
  * We extend Counter instead of implementing the Metric and Counting
@@ -41,7 +44,7 @@ import java.util.concurrent.TimeUnit;
  */
 class SlidingTimeWindowCounter extends Counter {
 
-    private final Reservoir reservoir;
+    private final TimeWindowBuckets<CountBucket> buckets;
 
     /**
      * Creates a counter with the given window of time.
@@ -50,27 +53,40 @@ class SlidingTimeWindowCounter extends Counter {
      * @param windowUnit the unit of {@code window}
      */
     SlidingTimeWindowCounter(long window, TimeUnit windowUnit) {
-        reservoir = new SlidingTimeWindowReservoir(window, windowUnit);
+        this(window, windowUnit, Clock.defaultClock());
     }
 
     /**
-     * @return the snapshot size of the sliding time window reservoir.
+     * Creates a counter with the given window of time and clock.
+     *
+     * @param window     the window of time
+     * @param windowUnit the unit of {@code window}
+     * @param clock      the clock used for expiring the events
+     */
+    SlidingTimeWindowCounter(long window, TimeUnit windowUnit, Clock clock) {
+        buckets = new TimeWindowBuckets<>(window, windowUnit, TimeWindowBuckets.DEFAULT_BUCKET_NANOS, clock,
+                CountBucket::new);
+    }
+
+    /**
+     * @return the number of events inside the sliding time window.
      */
     @Override
     public long getCount() {
-        return reservoir.getSnapshot().size();
+        long[] count = new long[1];
+        buckets.forEachInWindow(b -> count[0] += b.count.sum());
+
+        return count[0];
     }
 
     @Override
     public void inc() {
-        reservoir.update(1L);
+        inc(1);
     }
 
     @Override
     public void inc(long n) {
-        for (int i = 0; i < n; ++i) {
-            inc();
-        }
+        buckets.current().count.add(n);
     }
 
     @Override
@@ -83,4 +99,11 @@ class SlidingTimeWindowCounter extends Counter {
         throw new RuntimeException("This counter can be incremented only");
     }
 
+    private static final class CountBucket extends TimeWindowBuckets.Bucket {
+        private final LongAdder count = new LongAdder();
+
+        CountBucket(long tick) {
+            super(tick);
+        }
+    }
 }
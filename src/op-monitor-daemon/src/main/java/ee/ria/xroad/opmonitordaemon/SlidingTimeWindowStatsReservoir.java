@@ -0,0 +1,239 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.opmonitordaemon;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A histogram reservoir that keeps summary statistics of the values of a sliding
+ * window of time instead of the values themselves.
+ * The values are aggregated into per-second buckets of a ring buffer, each
+ * holding the count, minimum, maximum, mean and sum of squared deviations of its
+ * values, plus a power of two distribution used for estimating the quantiles.
+ * The minimum, maximum, mean and standard deviation of the snapshot are exact for
+ * the values inside the window; the quantiles are estimates.
+ */
+class SlidingTimeWindowStatsReservoir implements Reservoir {
+
+    private static final int DISTRIBUTION_BINS = Long.SIZE + 1;
+
+    private final TimeWindowBuckets<StatsBucket> buckets;
+
+    /**
+     * Creates a reservoir with the given window of time.
+     *
+     * @param window     the window of time
+     * @param windowUnit the unit of {@code window}
+     */
+    SlidingTimeWindowStatsReservoir(long window, TimeUnit windowUnit) {
+        this(window, windowUnit, Clock.defaultClock());
+    }
+
+    /**
+     * Creates a reservoir with the given window of time and clock.
+     *
+     * @param window     the window of time
+     * @param windowUnit the unit of {@code window}
+     * @param clock      the clock used for expiring the values
+     */
+    SlidingTimeWindowStatsReservoir(long window, TimeUnit windowUnit, Clock clock) {
+        buckets = new TimeWindowBuckets<>(window, windowUnit, TimeWindowBuckets.DEFAULT_BUCKET_NANOS, clock,
+                StatsBucket::new);
+    }
+
+    @Override
+    public int size() {
+        return getSnapshot().size();
+    }
+
+    @Override
+    public void update(long value) {
+        buckets.current().update(value);
+    }
+
+    @Override
+    public Snapshot getSnapshot() {
+        WindowSnapshot snapshot = new WindowSnapshot();
+        buckets.forEachInWindow(snapshot::merge);
+
+        return snapshot;
+    }
+
+    private static int bin(long value) {
+        return value <= 0 ? 0 : Long.SIZE - Long.numberOfLeadingZeros(value);
+    }
+
+    /**
+     * Summary statistics of the values of one bucket. Updated under the bucket lock,
+     * the mean and the sum of squared deviations use Welford's online algorithm.
+     */
+    private static final class StatsBucket extends TimeWindowBuckets.Bucket {
+        private final long[] distribution = new long[DISTRIBUTION_BINS];
+        private long count;
+        private long min;
+        private long max;
+        private double mean;
+        private double m2;
+
+        StatsBucket(long tick) {
+            super(tick);
+        }
+
+        synchronized void update(long value) {
+            if (count == 0 || value < min) {
+                min = value;
+            }
+
+            if (count == 0 || value > max) {
+                max = value;
+            }
+
+            count++;
+
+            double delta = value - mean;
+            mean += delta / count;
+            m2 += delta * (value - mean);
+
+            distribution[bin(value)]++;
+        }
+    }
+
+    /**
+     * Snapshot merged from the buckets of the window, the partial statistics are
+     * combined with the pairwise algorithm of Chan et al.
+     */
+    private static final class WindowSnapshot extends Snapshot {
+        private final long[] distribution = new long[DISTRIBUTION_BINS];
+        private long count;
+        private long min;
+        private long max;
+        private double mean;
+        private double m2;
+
+        void merge(StatsBucket bucket) {
+            synchronized (bucket) {
+                if (bucket.count == 0) {
+                    return;
+                }
+
+                long total = count + bucket.count;
+                double delta = bucket.mean - mean;
+
+                mean += delta * bucket.count / total;
+                m2 += bucket.m2 + delta * delta * count * bucket.count / total;
+                min = count == 0 ? bucket.min : Math.min(min, bucket.min);
+                max = count == 0 ? bucket.max : Math.max(max, bucket.max);
+                count = total;
+
+                for (int i = 0; i < DISTRIBUTION_BINS; i++) {
+                    distribution[i] += bucket.distribution[i];
+                }
+            }
+        }
+
+        /**
+         * Estimates the quantile by linear interpolation inside the power of two
+         * range that contains it, limited to the minimum and maximum.
+         */
+        @Override
+        public double getValue(double quantile) {
+            if (quantile < 0.0 || quantile > 1.0 || Double.isNaN(quantile)) {
+                throw new IllegalArgumentException(quantile + " is not in [0..1]");
+            }
+
+            if (count == 0) {
+                return 0.0;
+            }
+
+            double rank = quantile * count;
+            long seen = 0;
+
+            for (int i = 0; i < DISTRIBUTION_BINS; i++) {
+                long inBin = distribution[i];
+
+                if (inBin > 0 && seen + inBin >= rank) {
+                    double low = i == 0 ? min : Math.max(min, Math.pow(2, i - 1));
+                    double high = i == 0 ? 0 : Math.min(max, Math.pow(2, i) - 1);
+                    double estimate = low + (high - low) * (rank - seen) / inBin;
+
+                    return Math.max(min, Math.min(max, estimate));
+                }
+
+                seen += inBin;
+            }
+
+            return max;
+        }
+
+        /**
+         * @return an empty array, the individual values are not retained
+         */
+        @Override
+        public long[] getValues() {
+            return new long[0];
+        }
+
+        @Override
+        public int size() {
+            return (int) Math.min(Integer.MAX_VALUE, count);
+        }
+
+        @Override
+        public long getMax() {
+            return count == 0 ? 0 : max;
+        }
+
+        @Override
+        public double getMean() {
+            return count == 0 ? 0.0 : mean;
+        }
+
+        @Override
+        public long getMin() {
+            return count == 0 ? 0 : min;
+        }
+
+        @Override
+        public double getStdDev() {
+            return count <= 1 ? 0.0 : Math.sqrt(m2 / (count - 1));
+        }
+
+        @Override
+        public void dump(OutputStream output) {
+            try (PrintWriter out = new PrintWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8))) {
+                out.printf("count=%d min=%d max=%d mean=%f stddev=%f%n", count, getMin(), getMax(), getMean(),
+                        getStdDev());
+            }
+        }
+    }
+}
@@ -25,6 +25,7 @@
 package ee.ria.xroad.opmonitordaemon;
 
 import ee.ria.xroad.common.util.JsonUtils;
+import ee.ria.xroad.common.util.MimeUtils;
 
 import com.codahale.metrics.MetricRegistry;
 import com.google.gson.Gson;
@@ -34,8 +35,10 @@ import org.apache.commons.lang3.StringUtils;
 
 import javax.servlet.http.HttpServletRequest;
 
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
 
 import static ee.ria.xroad.common.util.TimeUtils.getEpochSecond;
 
@@ -65,8 +68,14 @@ class StoreRequestProcessor {
      * @throws Exception in case of any errors
      */
     void process() throws Exception {
-        String rawJson = IOUtils.toString(servletRequest.getInputStream(),
-                StandardCharsets.UTF_8);
+        InputStream content = servletRequest.getInputStream();
+
+        if ("gzip".equalsIgnoreCase(
+                servletRequest.getHeader(MimeUtils.HEADER_CONTENT_ENCODING))) {
+            content = new GZIPInputStream(content);
+        }
+
+        String rawJson = IOUtils.toString(content, StandardCharsets.UTF_8);
 
         log.trace("Incoming JSON: {}", rawJson);
 
@@ -0,0 +1,273 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.opmonitordaemon;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.zip.GZIPOutputStream;
+
+import static ee.ria.xroad.opmonitordaemon.OperationalDataOutputSpecFields.MONITORING_DATA_TS;
+
+/**
+ * Represents the payload of the request getSecurityServerOperationalData,
+ * which is read from the database only when the payload is read.
+ *
+ * The records are read with a forward only cursor and serialized one by one
+ * to the compressed JSON payload, so that the memory used does not depend on
+ * the number of the records. The payload is the same as the compressed
+ * payload of {@link OperationalDataRecords}.
+ *
+ * The records are read in the transaction in which the number of the records
+ * was counted, so the payload contains exactly the counted records. The
+ * transaction is ended when the records are closed.
+ */
+@Slf4j
+class StreamedOperationalDataRecords implements Closeable {
+
+    private static final int FETCH_SIZE = 100;
+
+    /**
+     * Number of the records in the payload.
+     */
+    @Getter
+    private final int recordsCount;
+
+    /**
+     * Indicates queried records overflow if not null.
+     */
+    @Getter
+    private final Long nextRecordsFrom;
+
+    private final Set<String> outputFields;
+
+    private final Iterator<Function<Session, OperationalDataRecordQuery>> pendingQueries;
+
+    private Session session;
+    private ScrollableResults results;
+
+    /**
+     * Creates the records to be read in the transaction of the given session.
+     * The cursor of the first query is opened right away, so that a failing
+     * query is reported before the response is sent.
+     * @param recordsCount the number of the records returned by the queries
+     * @param nextRecordsFrom the start of the next records if not null
+     * @param queries the queries of the records, read one after another
+     * @param outputFields the requested fields of the records
+     * @param session the session with an active transaction, which is
+     * closed when the records are closed
+     */
+    StreamedOperationalDataRecords(int recordsCount, Long nextRecordsFrom,
+            List<Function<Session, OperationalDataRecordQuery>> queries,
+            Set<String> outputFields, Session session) {
+        this.recordsCount = recordsCount;
+        this.nextRecordsFrom = nextRecordsFrom;
+        this.outputFields = outputFields;
+        this.pendingQueries = queries.iterator();
+        this.session = session;
+
+        try {
+            openNextCursor();
+        } catch (RuntimeException e) {
+            close();
+
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the compressed JSON payload. The payload can be opened once, the
+     * records are closed when the returned stream is closed.
+     * @param gson the serializer of the records
+     * @return the payload stream
+     * @throws IOException if the payload cannot be started
+     */
+    InputStream openPayload(Gson gson) throws IOException {
+        return new PayloadInputStream(gson);
+    }
+
+    /**
+     * Closes the cursor and ends the transaction of the records.
+     */
+    @Override
+    public void close() {
+        try {
+            if (results != null) {
+                results.close();
+            }
+
+            if (session != null) {
+                Transaction transaction = session.getTransaction();
+
+                if (transaction.isActive()) {
+                    transaction.rollback();
+                }
+
+                session.close();
+            }
+        } catch (Exception e) {
+            log.warn("Failed to close records session", e);
+        } finally {
+            results = null;
+            session = null;
+        }
+    }
+
+    private boolean openNextCursor() {
+        if (results != null) {
+            results.close();
+            results = null;
+        }
+
+        if (!pendingQueries.hasNext()) {
+            return false;
+        }
+
+        results = pendingQueries.next().apply(session).scroll(FETCH_SIZE);
+
+        return true;
+    }
+
+    private OperationalDataRecord nextRecord() {
+        while (results == null || !results.next()) {
+            if (!openNextCursor()) {
+                return null;
+            }
+        }
+
+        return OperationalDataRecordQuery.toRecord(results.get());
+    }
+
+    private class PayloadInputStream extends InputStream {
+
+        private final Gson gson;
+
+        private final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        private final JsonWriter json;
+
+        private byte[] buffer = new byte[0];
+        private int position;
+        private boolean finished;
+
+        PayloadInputStream(Gson gson) throws IOException {
+            this.gson = gson;
+
+            json = gson.newJsonWriter(new OutputStreamWriter(new GZIPOutputStream(compressed),
+                    StandardCharsets.UTF_8));
+            json.beginObject();
+            json.name("records");
+            json.beginArray();
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fillBuffer()) {
+                return -1;
+            }
+
+            return Byte.toUnsignedInt(buffer[position++]);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+
+            if (!fillBuffer()) {
+                return -1;
+            }
+
+            int count = Math.min(len, buffer.length - position);
+            System.arraycopy(buffer, position, b, off, count);
+            position += count;
+
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            StreamedOperationalDataRecords.this.close();
+        }
+
+        private boolean fillBuffer() throws IOException {
+            while (position >= buffer.length) {
+                if (finished) {
+                    return false;
+                }
+
+                // The compressor outputs data in blocks, serialize records
+                // until there is some output.
+                while (compressed.size() == 0 && !finished) {
+                    writeNextRecord();
+                }
+
+                buffer = compressed.toByteArray();
+                position = 0;
+
+                compressed.reset();
+            }
+
+            return true;
+        }
+
+        private void writeNextRecord() throws IOException {
+            OperationalDataRecord record = nextRecord();
+
+            if (record == null) {
+                json.endArray();
+                json.endObject();
+                json.close();
+
+                finished = true;
+
+                StreamedOperationalDataRecords.this.close();
+
+                return;
+            }
+
+            if (!outputFields.isEmpty() && !outputFields.contains(MONITORING_DATA_TS)) {
+                record.setMonitoringDataTs(null);
+            }
+
+            gson.toJson(record, OperationalDataRecord.class, json);
+        }
+    }
+}
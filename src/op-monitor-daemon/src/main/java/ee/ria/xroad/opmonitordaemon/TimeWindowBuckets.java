@@ -0,0 +1,131 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.opmonitordaemon;
+
+import com.codahale.metrics.Clock;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+
+/**
+ * A ring buffer of fixed length time buckets covering a sliding window of time. A bucket is created lazily
+ * for the tick it is first written in and replaced once the ring wraps around, so memory stays proportional
+ * to window / bucket length regardless of the number of recorded events. Reads only visit the buckets that
+ * are still inside the window, so the window boundary has the granularity of one bucket.
+ *
+ * @param <B> the bucket type
+ */
+final class TimeWindowBuckets<B extends TimeWindowBuckets.Bucket> {
+
+    /** Default length of a bucket. */
+    static final long DEFAULT_BUCKET_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Base class of the buckets, holds the tick the bucket was created for.
+     */
+    abstract static class Bucket {
+        private final long tick;
+
+        Bucket(long tick) {
+            this.tick = tick;
+        }
+
+        long getTick() {
+            return tick;
+        }
+    }
+
+    private final AtomicReferenceArray<B> buckets;
+    private final long bucketNanos;
+    private final Clock clock;
+    private final LongFunction<B> bucketFactory;
+
+    /**
+     * @param window the length of the window
+     * @param windowUnit the unit of {@code window}
+     * @param bucketNanos the length of a bucket in nanoseconds
+     * @param clock the clock used for determining the current bucket
+     * @param bucketFactory creates an empty bucket for the given tick
+     */
+    TimeWindowBuckets(long window, TimeUnit windowUnit, long bucketNanos, Clock clock,
+            LongFunction<B> bucketFactory) {
+        long windowNanos = windowUnit.toNanos(window);
+        int count = (int) Math.max(1, (windowNanos + bucketNanos - 1) / bucketNanos);
+
+        this.buckets = new AtomicReferenceArray<>(count);
+        this.bucketNanos = bucketNanos;
+        this.clock = clock;
+        this.bucketFactory = bucketFactory;
+    }
+
+    /**
+     * @return the bucket of the current tick, created if necessary
+     */
+    B current() {
+        long tick = currentTick();
+        int index = index(tick);
+
+        while (true) {
+            B bucket = buckets.get(index);
+
+            if (bucket != null && bucket.getTick() == tick) {
+                return bucket;
+            }
+
+            B created = bucketFactory.apply(tick);
+
+            if (buckets.compareAndSet(index, bucket, created)) {
+                return created;
+            }
+        }
+    }
+
+    /**
+     * Passes the buckets that are inside the window to the consumer.
+     * @param consumer the bucket consumer
+     */
+    void forEachInWindow(Consumer<B> consumer) {
+        long tick = currentTick();
+        long oldest = tick - buckets.length();
+
+        for (int i = 0; i < buckets.length(); i++) {
+            B bucket = buckets.get(i);
+
+            if (bucket != null && bucket.getTick() > oldest && bucket.getTick() <= tick) {
+                consumer.accept(bucket);
+            }
+        }
+    }
+
+    private long currentTick() {
+        return clock.getTick() / bucketNanos;
+    }
+
+    private int index(long tick) {
+        return (int) Math.floorMod(tick, (long) buckets.length());
+    }
+}
@@ -29,16 +29,24 @@ import ee.ria.xroad.common.opmonitoring.OpMonitoringData;
 import ee.ria.xroad.common.opmonitoring.OpMonitoringSystemProperties;
 
 import com.google.common.collect.Sets;
+import com.google.gson.JsonParser;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.IOUtils;
 import org.joda.time.DateTime;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import java.io.InputStream;
 import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
 
 import static ee.ria.xroad.opmonitordaemon.OpMonitorDaemonDatabaseCtx.doInTransaction;
 import static ee.ria.xroad.opmonitordaemon.OperationalDataRecordManager.queryAllRecords;
@@ -191,6 +199,96 @@ public class OperationalDataRecordManagerTest extends BaseTestUsingDB {
         assertEquals(1474968982L, result.getNextRecordsFrom().longValue());
     }
 
+    @Test
+    public void streamedRecordsEqualQueriedRecords() throws Exception {
+        ClientId client = ClientId.create(
+                "XTEE-CI-XM", "GOV", "00000001", "System1");
+
+        storeFullOperationalDataRecords(8, 1474968980L);
+        storeFullOperationalDataRecords(17, 1474968981L);
+        storeFullOperationalDataRecords(1, 1474968985L);
+        storeFullOperationalDataRecord(1474968986L, client, client);
+
+        assertStreamedRecords(1474968960L, 1474968990L, null,
+                new HashSet<>(), 100, false);
+
+        // Overflow with records left.
+        assertStreamedRecords(1474968960L, 1474968990L, null,
+                new HashSet<>(), 10, true);
+
+        assertStreamedRecords(1474968960L, 1474968990L, null,
+                Sets.newHashSet("serviceCode"), 8, true);
+
+        assertStreamedRecords(1474968980L, 1474968990L, client,
+                new HashSet<>(), 100, false);
+
+        assertStreamedRecords(1474968990L, 1474968999L, null,
+                new HashSet<>(), 100, false);
+    }
+
+    @Test
+    public void streamRecordsCountedBeforeChanges() throws Exception {
+        storeFullOperationalDataRecords(3, 1474968970L);
+        storeFullOperationalDataRecords(2, 1474968980L);
+
+        try (StreamedOperationalDataRecords streamed =
+                OperationalDataRecordManager.queryRecordsForStreaming(
+                        1474968960L, 1474968990L, null, null,
+                        new HashSet<>())) {
+            // The records stored and cleaned after the records were counted
+            // are not reflected in the payload.
+            storeFullOperationalDataRecords(4, 1474968985L);
+            assertEquals(3, OperationalDataRecordCleaner.cleanRecords(
+                    new DateTime(1474968975000L)));
+
+            assertEquals(5, streamed.getRecordsCount());
+
+            String payload;
+            try (InputStream in = new GZIPInputStream(
+                    streamed.openPayload(GSON))) {
+                payload = IOUtils.toString(in, StandardCharsets.UTF_8);
+            }
+
+            assertEquals(5, getSortedRecords(payload).size());
+        }
+
+        assertEquals(6, queryRecords(1474968960L, 1474968990L).size());
+    }
+
+    private static void assertStreamedRecords(long recordsFrom, long recordsTo,
+            ClientId client, Set<String> outputFields, int maxRecords,
+            boolean overflow) throws Exception {
+        OperationalDataRecordManager.setMaxRecordsInPayload(maxRecords);
+
+        OperationalDataRecords expected = queryRecords(recordsFrom, recordsTo,
+                client, null, outputFields);
+        StreamedOperationalDataRecords streamed =
+                OperationalDataRecordManager.queryRecordsForStreaming(
+                        recordsFrom, recordsTo, client, null, outputFields);
+
+        assertEquals(expected.size(), streamed.getRecordsCount());
+        assertEquals(expected.getNextRecordsFrom(),
+                streamed.getNextRecordsFrom());
+        assertEquals(overflow, streamed.getNextRecordsFrom() != null);
+
+        String payload;
+        try (InputStream in = new GZIPInputStream(streamed.openPayload(GSON))) {
+            payload = IOUtils.toString(in, StandardCharsets.UTF_8);
+        }
+
+        assertEquals(getSortedRecords(expected.getPayload(GSON)),
+                getSortedRecords(payload));
+    }
+
+    private static List<String> getSortedRecords(String payload) {
+        List<String> records = new ArrayList<>();
+        new JsonParser().parse(payload).getAsJsonObject().getAsJsonArray(
+                "records").forEach(r -> records.add(r.toString()));
+        Collections.sort(records);
+
+        return records;
+    }
+
     @Test
     public void storeAndQueryDataFilteringByOutputFields() throws Exception {
         ClientId client = ClientId.create(
@@ -36,6 +36,7 @@ import org.junit.rules.ExpectedException;
 
 import java.util.Collections;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
 
@@ -72,13 +73,23 @@ public class OperationalDataRequestHandlerTest extends BaseTestUsingDB {
         OperationalDataRequestHandler handler =
                 new OperationalDataRequestHandler();
         long recordsAvailableBefore = TimeUtils.getEpochSecond();
-
-        GetSecurityServerOperationalDataResponseType response = handler
-                .buildOperationalDataResponse(client, 1474968960L,
-                        recordsAvailableBefore + 10, null,
-                        Collections.emptySet(), recordsAvailableBefore);
-
-        assertNotNull(response.getNextRecordsFrom());
+        long recordsTo = recordsAvailableBefore + 10;
+
+        assertEquals(recordsAvailableBefore - 1,
+                OperationalDataRequestHandler.getRecordsToAvailable(recordsTo,
+                        recordsAvailableBefore));
+
+        try (StreamedOperationalDataRecords records =
+                handler.getOperationalDataRecords(client, 1474968960L,
+                        OperationalDataRequestHandler.getRecordsToAvailable(
+                                recordsTo, recordsAvailableBefore),
+                        null, Collections.emptySet())) {
+            GetSecurityServerOperationalDataResponseType response = handler
+                    .buildOperationalDataResponse(records, recordsTo,
+                            recordsAvailableBefore);
+
+            assertNotNull(response.getNextRecordsFrom());
+        }
     }
 
     @Test
@@ -94,11 +94,12 @@ public class QueryRequestHandlerTest {
 
         QueryRequestHandler handler = new OperationalDataRequestHandler() {
             @Override
-            protected OperationalDataRecords getOperationalDataRecords(
+            protected StreamedOperationalDataRecords getOperationalDataRecords(
                     ClientId filterByClient, long recordsFrom, long recordsTo,
                     ClientId filterByServiceProvider,
                     Set<String> outputFields) {
-                return new OperationalDataRecords(Collections.emptyList());
+                return new StreamedOperationalDataRecords(0, null,
+                        Collections.emptyList(), Collections.emptySet(), null);
             }
 
             @Override
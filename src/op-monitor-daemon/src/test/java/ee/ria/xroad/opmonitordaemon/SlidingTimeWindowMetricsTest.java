@@ -0,0 +1,152 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.opmonitordaemon;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.UniformSnapshot;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the bucketed sliding time window counter and histogram reservoir.
+ */
+public class SlidingTimeWindowMetricsTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final ManualClock clock = new ManualClock();
+
+    @Test
+    public void counterCountsEventsInsideWindow() {
+        SlidingTimeWindowCounter counter = new SlidingTimeWindowCounter(10, TimeUnit.SECONDS, clock);
+
+        counter.inc();
+        counter.inc(4);
+        assertEquals(5, counter.getCount());
+
+        clock.advance(5 * SECOND);
+        counter.inc(2);
+        assertEquals(7, counter.getCount());
+
+        // The first events fall out of the window, the later ones remain
+        clock.advance(5 * SECOND);
+        assertEquals(2, counter.getCount());
+
+        clock.advance(5 * SECOND);
+        assertEquals(0, counter.getCount());
+
+        // A bucket that is reused after the ring wraps around starts from zero
+        counter.inc();
+        assertEquals(1, counter.getCount());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void counterCannotBeDecremented() {
+        new SlidingTimeWindowCounter(10, TimeUnit.SECONDS, clock).dec();
+    }
+
+    @Test
+    public void reservoirMatchesUniformSnapshot() {
+        SlidingTimeWindowStatsReservoir reservoir = new SlidingTimeWindowStatsReservoir(60, TimeUnit.SECONDS,
+                clock);
+        Random random = new Random(1);
+        long[] values = new long[1000];
+
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextInt(5000);
+            reservoir.update(values[i]);
+
+            if (i % 100 == 0) {
+                clock.advance(SECOND);
+            }
+        }
+
+        Snapshot expected = new UniformSnapshot(values);
+        Snapshot actual = reservoir.getSnapshot();
+
+        assertEquals(values.length, reservoir.size());
+        assertEquals(expected.getMin(), actual.getMin());
+        assertEquals(expected.getMax(), actual.getMax());
+        assertEquals(expected.getMean(), actual.getMean(), 1e-6);
+        assertEquals(expected.getStdDev(), actual.getStdDev(), 1e-6);
+
+        // Quantiles are estimated inside power of two ranges
+        assertEquals(expected.getMedian(), actual.getMedian(), expected.getMedian() / 2);
+        assertEquals(expected.get99thPercentile(), actual.get99thPercentile(), expected.get99thPercentile() / 2);
+        assertEquals(expected.getMin(), actual.getValue(0.0), 0.0);
+        assertEquals(expected.getMax(), actual.getValue(1.0), 0.0);
+    }
+
+    @Test
+    public void reservoirExpiresValues() {
+        SlidingTimeWindowStatsReservoir reservoir = new SlidingTimeWindowStatsReservoir(10, TimeUnit.SECONDS,
+                clock);
+
+        reservoir.update(1000);
+        clock.advance(5 * SECOND);
+        reservoir.update(10);
+        reservoir.update(30);
+
+        Snapshot snapshot = reservoir.getSnapshot();
+        assertEquals(3, snapshot.size());
+        assertEquals(10, snapshot.getMin());
+        assertEquals(1000, snapshot.getMax());
+
+        clock.advance(5 * SECOND);
+        snapshot = reservoir.getSnapshot();
+        assertEquals(2, snapshot.size());
+        assertEquals(10, snapshot.getMin());
+        assertEquals(30, snapshot.getMax());
+        assertEquals(20.0, snapshot.getMean(), 0.0);
+        assertEquals(new UniformSnapshot(new long[] {10, 30}).getStdDev(), snapshot.getStdDev(), 1e-9);
+
+        clock.advance(10 * SECOND);
+        snapshot = reservoir.getSnapshot();
+        assertEquals(0, snapshot.size());
+        assertEquals(0, snapshot.getMin());
+        assertEquals(0, snapshot.getMax());
+        assertEquals(0.0, snapshot.getMean(), 0.0);
+        assertEquals(0.0, snapshot.getStdDev(), 0.0);
+        assertEquals(0.0, snapshot.getMedian(), 0.0);
+    }
+
+    private static final class ManualClock extends Clock {
+        private long tick = TimeUnit.DAYS.toNanos(1);
+
+        void advance(long nanos) {
+            tick += nanos;
+        }
+
+        @Override
+        public long getTick() {
+            return tick;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.signature;
+
+import ee.ria.xroad.common.OcspTestUtils;
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.TestSecurityUtil;
+import ee.ria.xroad.common.certificateprofile.SignCertificateProfileInfo;
+import ee.ria.xroad.common.certificateprofile.impl.EjbcaSignCertificateProfileInfo;
+import ee.ria.xroad.common.conf.globalconf.EmptyGlobalConf;
+import ee.ria.xroad.common.conf.globalconf.GlobalConf;
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.util.CryptoUtils;
+import ee.ria.xroad.common.util.MessageFileNames;
+
+import ch.qos.logback.classic.Logger;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for {@link SignatureVerifier#verify(ClientId, Date)} of a signature made with a freshly generated
+ * CA and member certificate, with and without the verified certificate chain cache
+ * ({@code xroad.common.cert-chain-verification-cache-size}). Every parameter combination runs in its own fork,
+ * so the cache size is read when the verifier classes are first loaded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SignatureVerifierBenchmark {
+
+    private static final String INSTANCE = "EE";
+    private static final ClientId SIGNER = ClientId.create(INSTANCE, "BUSINESS", "consumer");
+    private static final long ONE_DAY = TimeUnit.DAYS.toMillis(1);
+    private static final String SIGNATURE_ALGORITHM = "SHA256withRSA";
+
+    @Param({"2048", "4096"})
+    public int keySize;
+
+    @Param({"0", "1000"})
+    public int cacheSize;
+
+    private SignatureData signatureData;
+    private MessagePart message;
+
+    /**
+     * Generates the certificate chain, the OCSP response and the signature.
+     * @throws Exception in case of an error
+     */
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        System.setProperty(SystemProperties.CERT_CHAIN_VERIFICATION_CACHE_SIZE, String.valueOf(cacheSize));
+        TestSecurityUtil.initSecurity();
+
+        // The test logging configuration traces every global configuration lookup
+        ((Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(ch.qos.logback.classic.Level.WARN);
+        ((Logger) LoggerFactory.getLogger("ee.ria.xroad")).setLevel(ch.qos.logback.classic.Level.WARN);
+
+        Date now = new Date();
+        Date notBefore = new Date(now.getTime() - ONE_DAY);
+        Date notAfter = new Date(now.getTime() + ONE_DAY);
+
+        KeyPair caKeys = generateKeyPair();
+        KeyPair memberKeys = generateKeyPair();
+
+        X500Name caName = new X500Name("C=EE, O=Benchmark, CN=Benchmark CA");
+        X509Certificate caCert = createCert(caName, caName, caKeys.getPublic(), caKeys.getPrivate(), true,
+                notBefore, notAfter);
+        X509Certificate memberCert = createCert(caName,
+                new X500Name("C=EE, O=BUSINESS, CN=" + SIGNER.getMemberCode()), memberKeys.getPublic(),
+                caKeys.getPrivate(), false, notBefore, notAfter);
+
+        GlobalConf.reload(new BenchmarkGlobalConf(caCert));
+
+        // The CA signs its own OCSP responses
+        OCSPResp ocsp = OcspTestUtils.createOCSPResponse(memberCert, caCert, caCert, caKeys.getPrivate(),
+                CertificateStatus.GOOD, now, null);
+
+        byte[] messageBytes = "<message/>".getBytes(StandardCharsets.UTF_8);
+        message = new MessagePart(MessageFileNames.MESSAGE, CryptoUtils.SHA512_ID,
+                CryptoUtils.calculateDigest(CryptoUtils.SHA512_ID, messageBytes), messageBytes);
+
+        SignatureBuilder builder = new SignatureBuilder();
+        builder.addPart(message);
+        builder.setSigningCert(memberCert);
+        builder.addOcspResponses(Collections.singletonList(ocsp));
+
+        signatureData = builder.build(new TestSigningKey(memberKeys.getPrivate()), CryptoUtils.SHA512_ID);
+
+        // Fail early if the generated signature does not verify
+        verify();
+    }
+
+    /**
+     * Verifies the signature, the certificate chain and the OCSP response.
+     * @return the signature verifier
+     * @throws Exception in case of an error
+     */
+    @Benchmark
+    public SignatureVerifier verify() throws Exception {
+        SignatureVerifier verifier = new SignatureVerifier(signatureData);
+        verifier.addPart(message);
+        verifier.verify(SIGNER, new Date());
+
+        return verifier;
+    }
+
+    private KeyPair generateKeyPair() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(keySize);
+
+        return generator.generateKeyPair();
+    }
+
+    private static X509Certificate createCert(X500Name issuer, X500Name subject, PublicKey publicKey,
+            PrivateKey issuerKey, boolean ca, Date notBefore, Date notAfter) throws Exception {
+        JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(issuer,
+                BigInteger.valueOf(System.nanoTime()), notBefore, notAfter, subject, publicKey);
+        builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(ca));
+        builder.addExtension(Extension.keyUsage, true, new KeyUsage(ca
+                ? KeyUsage.keyCertSign | KeyUsage.cRLSign
+                : KeyUsage.nonRepudiation));
+
+        return new JcaX509CertificateConverter().getCertificate(
+                builder.build(new JcaContentSignerBuilder(SIGNATURE_ALGORITHM).build(issuerKey)));
+    }
+
+    private static final class BenchmarkGlobalConf extends EmptyGlobalConf {
+        private final X509Certificate caCert;
+
+        BenchmarkGlobalConf(X509Certificate caCert) {
+            this.caCert = caCert;
+        }
+
+        @Override
+        public String getInstanceIdentifier() {
+            return INSTANCE;
+        }
+
+        @Override
+        public X509Certificate getCaCert(String instanceIdentifier, X509Certificate orgCert) {
+            return caCert;
+        }
+
+        @Override
+        public List<X509Certificate> getAllCaCerts() {
+            return Collections.singletonList(caCert);
+        }
+
+        @Override
+        public SignCertificateProfileInfo getSignCertificateProfileInfo(
+                SignCertificateProfileInfo.Parameters parameters, X509Certificate cert) {
+            return new EjbcaSignCertificateProfileInfo(parameters) {
+                @Override
+                public ClientId getSubjectIdentifier(X509Certificate certificate) {
+                    return SIGNER;
+                }
+            };
+        }
+    }
+}
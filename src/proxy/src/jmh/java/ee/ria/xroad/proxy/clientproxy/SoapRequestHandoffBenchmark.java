@@ -0,0 +1,208 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.clientproxy;
+
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.util.CacheInputStream;
+import ee.ria.xroad.common.util.CachingStream;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.runner.IterationType;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Load test for the client proxy SOAP request handoff. Compares the piped handoff from a per-request handler
+ * thread (the default {@link ClientMessageProcessor} pipeline) with encoding the request on the request thread
+ * into a {@link CachingStream} ({@code xroad.proxy.client-soap-request-buffered}).
+ *
+ * Reports latency percentiles and, as a secondary result, the peak number of live threads. The default
+ * concurrency is modest; run with {@code -t 2000} to reproduce a 2k concurrent request load.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.SampleTime, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+@Threads(200)
+public class SoapRequestHandoffBenchmark {
+
+    private static final int CHUNK_SIZE = 4096;
+
+    @Param({"2048", "262144"})
+    public int requestSize;
+
+    private ExecutorService handlerExecutor;
+    private byte[] chunk;
+
+    /**
+     * Creates the handler executor, configured like the one in ClientMessageProcessor
+     * @throws IOException if the temporary directory can not be created
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        System.setProperty(SystemProperties.TEMP_FILES_PATH,
+                Files.createTempDirectory("handoff").toAbsolutePath().toString());
+        handlerExecutor = Executors.newCachedThreadPool();
+        chunk = new byte[CHUNK_SIZE];
+    }
+
+    /**
+     * Stops the handler executor
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        handlerExecutor.shutdownNow();
+    }
+
+    /**
+     * Reports the peak number of live threads of the measurement iterations. Event counters are summed over the
+     * benchmark threads and iterations, so only the first thread state reports the value, and only in the last
+     * measurement iteration. Auxiliary counters are not collected in sample mode, so the peak is reported with
+     * the average time results.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class ThreadCounters {
+
+        private static final AtomicBoolean REPORTER_ELECTED = new AtomicBoolean();
+
+        private final boolean reporter = REPORTER_ELECTED.compareAndSet(false, true);
+
+        private int measurementIteration;
+        private boolean lastIteration;
+
+        /**
+         * Resets the peak thread count before the first measurement iteration
+         * @param params parameters of the starting iteration
+         */
+        @Setup(Level.Iteration)
+        public void startIteration(IterationParams params) {
+            if (!reporter || params.getType() != IterationType.MEASUREMENT) {
+                return;
+            }
+
+            if (measurementIteration++ == 0) {
+                ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+            }
+
+            lastIteration = measurementIteration == params.getCount();
+        }
+
+        /**
+         * @return peak number of live threads during the measurement iterations
+         */
+        public int peakThreads() {
+            return lastIteration ? ManagementFactory.getThreadMXBean().getPeakThreadCount() : 0;
+        }
+    }
+
+    /**
+     * Request is written by a handler thread and read through a pipe by the request thread
+     * @param counters thread counters reported with the result
+     * @return number of bytes sent
+     * @throws Exception in case of an error
+     */
+    @Benchmark
+    public long piped(ThreadCounters counters) throws Exception {
+        PipedInputStream in = new PipedInputStream();
+        PipedOutputStream out = new PipedOutputStream(in);
+
+        Future<?> handler = handlerExecutor.submit(() -> {
+            try (OutputStream os = out) {
+                writeRequest(os);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        long sent = send(in);
+        handler.get();
+        return sent;
+    }
+
+    /**
+     * Request is written to a cache and read from it by the request thread
+     * @param counters thread counters reported with the result
+     * @return number of bytes sent
+     * @throws Exception in case of an error
+     */
+    @Benchmark
+    public long buffered(ThreadCounters counters) throws Exception {
+        CachingStream cache = new CachingStream();
+        try {
+            writeRequest(cache);
+            cache.close();
+
+            CacheInputStream in = cache.getCachedContents();
+            return send(in);
+        } finally {
+            cache.consume();
+        }
+    }
+
+    private void writeRequest(OutputStream out) throws IOException {
+        for (int written = 0; written < requestSize; written += CHUNK_SIZE) {
+            out.write(chunk, 0, Math.min(CHUNK_SIZE, requestSize - written));
+        }
+    }
+
+    private static long send(InputStream in) throws IOException {
+        byte[] buffer = new byte[CHUNK_SIZE];
+        long total = 0;
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            total += count;
+        }
+        return total;
+    }
+}
@@ -26,6 +26,7 @@ package ee.ria.xroad.common.signature;
 
 import ee.ria.xroad.common.CodedException;
 import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.proxy.util.ProxyMetrics;
 import ee.ria.xroad.signer.protocol.SignerClient;
 import ee.ria.xroad.signer.protocol.message.GetTokenBatchSigningEnabled;
 import ee.ria.xroad.signer.protocol.message.Sign;
@@ -33,22 +34,30 @@ import ee.ria.xroad.signer.protocol.message.SignResponse;
 
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
 import akka.actor.Props;
 import akka.actor.UntypedActor;
 import akka.actor.UntypedActorWithStash;
 import akka.pattern.Patterns;
 import akka.util.Timeout;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Timer;
 import lombok.Data;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.bouncycastle.operator.OperatorCreationException;
 import scala.concurrent.Await;
+import scala.concurrent.duration.FiniteDuration;
 
 import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.X509Certificate;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import static ee.ria.xroad.common.ErrorCodes.SIGNER_X;
@@ -70,6 +79,10 @@ import static ee.ria.xroad.common.util.CryptoUtils.getDigestAlgorithmId;
  * The batch signer is an Akka actor, it creates child actors per
  * signing certificate, which means there is essentially one batch signer
  * per signing certificate.
+ *
+ * A batch is collected while the signer is busy with the previous one. It is closed when it reaches
+ * the configured maximum size and, if a batch window is configured, an idle signer waits for the window
+ * to pass before signing a new batch. Batch sizes and signing wait times are reported in proxy metrics.
  */
 @Slf4j
 public class BatchSigner extends UntypedActor {
@@ -77,9 +90,34 @@ public class BatchSigner extends UntypedActor {
     private static final int TIMEOUT_MILLIS = SystemProperties.getSignerClientTimeout();
     private static final Timeout DEFAULT_TIMEOUT = new Timeout(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
 
+    private static final Histogram BATCH_SIZE = ProxyMetrics.getRegistry().histogram("batchSigner.batchSize");
+    private static final Timer SIGNING_WAIT = ProxyMetrics.getRegistry().timer("batchSigner.signingWait");
+
     // Holds the actor instance, which sends and receives messages.
     private static ActorRef instance;
 
+    // Signing workers by signing certificate.
+    private final Map<X509Certificate, ActorRef> workers = new HashMap<>();
+
+    // The signer the workers send their requests to, or null for the signer of the signer client.
+    private final ActorRef signer;
+
+    private final int batchMaxSize;
+    private final FiniteDuration batchWindow;
+
+    /**
+     * Creates the batch signer with the batch size and window of the system properties.
+     */
+    public BatchSigner() {
+        this(null, SystemProperties.getBatchSigningMaxSize(), SystemProperties.getBatchSigningWindow());
+    }
+
+    BatchSigner(ActorRef signer, int batchMaxSize, long batchWindowMillis) {
+        this.signer = signer;
+        this.batchMaxSize = batchMaxSize;
+        this.batchWindow = FiniteDuration.create(batchWindowMillis, TimeUnit.MILLISECONDS);
+    }
+
     /**
      * Initializes the batch signer with the given actor system.
      *
@@ -140,15 +178,20 @@ public class BatchSigner extends UntypedActor {
     }
 
     private ActorRef getWorker(SigningRequestWrapper signRequest) throws Exception {
-        // Signing worker based on cert hash.
-        String name = calculateCertHexHash(signRequest.getSigningCert());
+        // Signing worker based on cert. Certificates cache their hash code, so the
+        // cert is hashed and the worker name is calculated only when creating the worker.
+        X509Certificate cert = signRequest.getSigningCert();
 
-        ActorRef worker = getContext().getChild(name);
+        ActorRef worker = workers.get(cert);
 
         if (worker == null) {
+            String name = calculateCertHexHash(cert);
+
             log.trace("Creating new worker for cert '{}'", name);
 
-            worker = getContext().actorOf(Props.create(WorkerImpl.class), name);
+            worker = getContext().actorOf(Props.create(WorkerImpl.class, signer, batchMaxSize, batchWindow),
+                    name);
+            workers.put(cert, worker);
         }
 
         return worker;
@@ -159,17 +202,33 @@ public class BatchSigner extends UntypedActor {
      */
     private static class WorkerImpl extends UntypedActorWithStash {
 
+        private final ActorRef signer;
+        private final int batchMaxSize;
+        private final FiniteDuration batchWindow;
+
         // The currently active signing ctx.
         private BatchSignatureCtx workingSigningCtx;
 
         // The next signing ctx, if batch signing.
         private BatchSignatureCtx nextSigningCtx;
 
+        // Batches that have reached the maximum size and wait for signing.
+        private final Deque<BatchSignatureCtx> closedSigningCtxs = new ArrayDeque<>();
+
+        // Closes the next signing ctx after the batch window.
+        private Cancellable batchWindowTimer;
+
         private long signStartTime;
         private boolean workerBusy;
 
         private Boolean batchSigningEnabled;
 
+        WorkerImpl(ActorRef signer, int batchMaxSize, FiniteDuration batchWindow) {
+            this.signer = signer;
+            this.batchMaxSize = batchMaxSize;
+            this.batchWindow = batchWindow;
+        }
+
         @Override
         public void onReceive(Object message) throws Exception {
             log.trace("onReceive({})", message);
@@ -178,6 +237,8 @@ public class BatchSigner extends UntypedActor {
                 handleSignRequest((SigningRequestWrapper) message);
             } else if (message instanceof SignResponse) {
                 handleSignResponse((SignResponse) message);
+            } else if (message instanceof CloseBatch) {
+                handleCloseBatch((CloseBatch) message);
             } else if (message instanceof Exception) {
                 handleException((Exception) message);
             } else {
@@ -199,7 +260,7 @@ public class BatchSigner extends UntypedActor {
             // busy (signing, generating key, etc...) and batch signing is
             // enabled then create signing context and collect all following
             // sign requests to be signed in batch. Otherwise just sign the
-            // data straight away.
+            // data straight away, unless a batch window is configured.
             if (isWorkerBusy()) {
                 if (batchSigningEnabled) {
                     doBatchSign(signRequest);
@@ -209,14 +270,37 @@ public class BatchSigner extends UntypedActor {
                     // so stash this message for future.
                     stash();
                 }
+            } else if (Boolean.TRUE.equals(batchSigningEnabled) && batchWindow.length() > 0) {
+                doBatchSign(signRequest);
+
+                if (!closedSigningCtxs.isEmpty()) {
+                    // The batch filled up before the window passed.
+                    startNextBatchSigning();
+                } else if (batchWindowTimer == null) {
+                    batchWindowTimer = getContext().system().scheduler().scheduleOnce(batchWindow, getSelf(),
+                            new CloseBatch(nextSigningCtx), getContext().dispatcher(), ActorRef.noSender());
+                }
             } else {
                 doSign(signRequest);
             }
         }
 
+        private void handleCloseBatch(CloseBatch closeBatch) {
+            log.trace("handleCloseBatch()");
+
+            // Ignore the window of a batch that has already been started.
+            if (closeBatch.getCtx() == nextSigningCtx) {
+                batchWindowTimer = null;
+
+                if (!workerBusy) {
+                    startNextBatchSigning();
+                }
+            }
+        }
+
         private void queryBatchSigningEnabled(String keyId) {
             try {
-                batchSigningEnabled = SignerClient.execute(new GetTokenBatchSigningEnabled(keyId));
+                batchSigningEnabled = askSigner(new GetTokenBatchSigningEnabled(keyId));
             } catch (Exception e) {
                 log.error("Failed to query if batch signing is enabled for token with key {}", keyId, e);
             }
@@ -230,6 +314,21 @@ public class BatchSigner extends UntypedActor {
             }
 
             nextSigningCtx.add(getSender(), wrapper.getRequest());
+
+            if (batchMaxSize > 0 && nextSigningCtx.getClients().size() >= batchMaxSize) {
+                log.trace("Batch reached maximum size, closing it");
+
+                closedSigningCtxs.add(nextSigningCtx);
+                nextSigningCtx = null;
+                cancelBatchWindow();
+            }
+        }
+
+        private void cancelBatchWindow() {
+            if (batchWindowTimer != null) {
+                batchWindowTimer.cancel();
+                batchWindowTimer = null;
+            }
         }
 
         private void doSign(SigningRequestWrapper wrapper) throws Exception {
@@ -239,6 +338,7 @@ public class BatchSigner extends UntypedActor {
             ctx.add(getSender(), wrapper.getRequest());
 
             workingSigningCtx = ctx;
+            BATCH_SIZE.update(1);
 
             doCalculateSignature(ctx.getKeyId(), ctx.getSignatureAlgorithmId(), ctx.getDataToBeSigned());
         }
@@ -256,7 +356,7 @@ public class BatchSigner extends UntypedActor {
             // stashed messages.
             if (!batchSigningEnabled) {
                 unstashAll();
-            } else if (nextSigningCtx != null) {
+            } else {
                 // Start the next batch signing (if any).
                 startNextBatchSigning();
             }
@@ -268,22 +368,40 @@ public class BatchSigner extends UntypedActor {
             workerBusy = false;
 
             sendResponse(exception);
+
+            if (Boolean.TRUE.equals(batchSigningEnabled)) {
+                startNextBatchSigning();
+            }
         }
 
         private void startNextBatchSigning() {
-            log.trace("startNextBatchSigning()");
+            // A batch that fails before it reaches the signer is answered with the error and the next one is
+            // started, so that the remaining batches do not wait for a signature that never comes.
+            while (!workerBusy && (!closedSigningCtxs.isEmpty() || nextSigningCtx != null)) {
+                log.trace("startNextBatchSigning()");
+
+                if (closedSigningCtxs.isEmpty()) {
+                    workingSigningCtx = nextSigningCtx;
+                    nextSigningCtx = null;
+                    cancelBatchWindow();
+                } else {
+                    workingSigningCtx = closedSigningCtxs.poll();
+                }
 
-            workingSigningCtx = nextSigningCtx;
-            nextSigningCtx = null;
+                BATCH_SIZE.update(workingSigningCtx.getClients().size());
 
-            try {
-                doCalculateSignature(workingSigningCtx.getKeyId(), workingSigningCtx.getSignatureAlgorithmId(),
-                        workingSigningCtx.getDataToBeSigned());
-            } catch (Exception e) {
-                sendResponse(workingSigningCtx, translateException(e));
+                try {
+                    doCalculateSignature(workingSigningCtx.getKeyId(), workingSigningCtx.getSignatureAlgorithmId(),
+                            workingSigningCtx.getDataToBeSigned());
+                } catch (Exception e) {
+                    log.error("Failed to start signing a batch of {} requests", workingSigningCtx.getClients().size(),
+                            e);
 
-                workerBusy = true;
-                workingSigningCtx = null;
+                    workerBusy = false;
+
+                    sendResponse(workingSigningCtx, translateException(e));
+                    workingSigningCtx = null;
+                }
             }
         }
 
@@ -309,13 +427,29 @@ public class BatchSigner extends UntypedActor {
             byte[] digest = calculateDigest(getDigestAlgorithmId(signatureAlgorithmId), data);
 
             // Proxy this request to the Signer.
-            SignerClient.execute(new Sign(keyId, signatureAlgorithmId, digest), getSelf());
+            Sign sign = new Sign(keyId, signatureAlgorithmId, digest);
+            if (signer == null) {
+                SignerClient.execute(sign, getSelf());
+            } else {
+                signer.tell(sign, getSelf());
+            }
+        }
+
+        private <T> T askSigner(Object message) throws Exception {
+            if (signer == null) {
+                return SignerClient.execute(message);
+            }
+
+            return SignerClient.result(Await.result(Patterns.ask(signer, message, DEFAULT_TIMEOUT),
+                    DEFAULT_TIMEOUT.duration()));
         }
 
         private void sendResponse(Object message) {
             log.trace("sendResponse({})", message);
 
             if (workingSigningCtx != null) {
+                workingSigningCtx.updateSigningWait();
+
                 try {
                     if (message instanceof SignResponse) {
                         sendSignatureResponse(workingSigningCtx, ((SignResponse) message).getSignature());
@@ -365,7 +499,7 @@ public class BatchSigner extends UntypedActor {
      * and algorithm id.
      */
     @Data
-    private static class SigningRequestWrapper {
+    static class SigningRequestWrapper {
         private final String keyId;
         private final String signatureAlgorithmId;
         private final SigningRequest request;
@@ -375,6 +509,14 @@ public class BatchSigner extends UntypedActor {
         }
     }
 
+    /**
+     * Tells the worker that the batch window of the given batch has passed.
+     */
+    @Data
+    private static class CloseBatch {
+        private final BatchSignatureCtx ctx;
+    }
+
     /**
      * This signature context is used for batch signing where there might
      * be more than one signature receiver (client).
@@ -384,6 +526,9 @@ public class BatchSigner extends UntypedActor {
         @Getter
         private final List<ActorRef> clients = new ArrayList<>();
 
+        // Arrival times of the requests, for measuring signing wait.
+        private final List<Long> requestTimes = new ArrayList<>();
+
         @Getter
         private final String keyId;
 
@@ -395,8 +540,16 @@ public class BatchSigner extends UntypedActor {
 
         void add(ActorRef client, SigningRequest request) {
             clients.add(client);
+            requestTimes.add(System.nanoTime());
             add(request);
         }
+
+        void updateSigningWait() {
+            long now = System.nanoTime();
+            for (Long requestTime : requestTimes) {
+                SIGNING_WAIT.update(now - requestTime, TimeUnit.NANOSECONDS);
+            }
+        }
     }
 
 }
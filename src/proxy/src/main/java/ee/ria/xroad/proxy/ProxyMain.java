@@ -48,6 +48,7 @@ import ee.ria.xroad.proxy.opmonitoring.OpMonitoring;
 import ee.ria.xroad.proxy.serverproxy.ServerProxy;
 import ee.ria.xroad.proxy.util.CertHashBasedOcspResponder;
 import ee.ria.xroad.proxy.util.GlobalConfUpdater;
+import ee.ria.xroad.proxy.util.ProxyMetrics;
 import ee.ria.xroad.signer.protocol.SignerClient;
 
 import akka.actor.ActorSelection;
@@ -186,6 +187,7 @@ public final class ProxyMain {
             addOn.init(actorSystem);
         }
 
+        SERVICES.add(new ProxyMetrics());
         SERVICES.add(jobManager);
         SERVICES.add(new ClientProxy());
         SERVICES.add(new ServerProxy());
@@ -25,13 +25,18 @@
 package ee.ria.xroad.proxy.clientproxy;
 
 import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.SystemProperties;
 import ee.ria.xroad.common.cert.CertChain;
 import ee.ria.xroad.common.cert.CertHelper;
 import ee.ria.xroad.common.identifier.ClientId;
 import ee.ria.xroad.common.identifier.ServiceId;
 import ee.ria.xroad.common.util.CertUtils;
 import ee.ria.xroad.proxy.conf.KeyConf;
+import ee.ria.xroad.proxy.util.ProxyMetrics;
 
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.RatioGauge;
+import com.codahale.metrics.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.http.protocol.HttpContext;
@@ -63,12 +68,32 @@ import static ee.ria.xroad.common.util.CertHashBasedOcspResponderClient.getOcspR
  * SSL handshake takes place. We can then retrieve the provider name from
  * the HttpContext (stored there previously by the MultipartSender) and
  * the peer certificates and do the validation of the certificate.
+ *
+ * Successful verifications are remembered in a {@link VerifiedPeerCache}, so repeated
+ * connections to the same service provider security server skip the certificate
+ * chain and OCSP validation while the OCSP responses stay the same and fresh.
  */
 @Slf4j
 public final class AuthTrustVerifier {
 
     public static final String ID_PROVIDERNAME = "request.providerName";
 
+    private static final VerifiedPeerCache VERIFIED_PEERS =
+            new VerifiedPeerCache(SystemProperties.getClientProxyVerifiedPeerCacheSize());
+
+    private static final Meter CACHE_HITS = ProxyMetrics.getRegistry().meter("authTrustVerifier.cacheHits");
+    private static final Meter CACHE_MISSES = ProxyMetrics.getRegistry().meter("authTrustVerifier.cacheMisses");
+    private static final Timer VERIFICATION = ProxyMetrics.getRegistry().timer("authTrustVerifier.verification");
+
+    static {
+        ProxyMetrics.getRegistry().register("authTrustVerifier.cacheHitRatio", new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                return Ratio.of(CACHE_HITS.getCount(), CACHE_HITS.getCount() + CACHE_MISSES.getCount());
+            }
+        });
+    }
+
     private AuthTrustVerifier() {
     }
 
@@ -88,7 +113,7 @@ public final class AuthTrustVerifier {
                     "Could not get peer certificates from context");
         }
 
-        try {
+        try (Timer.Context ignored = VERIFICATION.time()) {
             verifyAuthCert(service.getClientId(), certs, selectedAddress);
         } catch (Exception e) {
             throw translateException(e);
@@ -112,7 +137,27 @@ public final class AuthTrustVerifier {
             throw e.withPrefix(X_SSL_AUTH_FAILED);
         }
 
+        if (!VERIFIED_PEERS.isEnabled()) {
+            CertHelper.verifyAuthCert(chain, ocspResponses, serviceProvider);
+
+            return;
+        }
+
+        VerifiedPeerCache.Key key = VerifiedPeerCache.createKey(serviceProvider, chain.getAllCerts(), ocspResponses);
+
+        if (VERIFIED_PEERS.isVerified(key)) {
+            log.trace("authentication certificate of {} already verified", serviceProvider);
+
+            CACHE_HITS.mark();
+
+            return;
+        }
+
+        CACHE_MISSES.mark();
+
         CertHelper.verifyAuthCert(chain, ocspResponses, serviceProvider);
+
+        VERIFIED_PEERS.setVerified(key, VerifiedPeerCache.getExpiryTime(chain.getAllCerts(), ocspResponses));
     }
 
     /**
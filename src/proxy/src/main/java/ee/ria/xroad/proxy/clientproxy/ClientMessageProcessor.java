@@ -25,6 +25,7 @@
 package ee.ria.xroad.proxy.clientproxy;
 
 import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.SystemProperties;
 import ee.ria.xroad.common.cert.CertChain;
 import ee.ria.xroad.common.conf.globalconf.GlobalConf;
 import ee.ria.xroad.common.conf.serverconf.IsAuthenticationData;
@@ -43,6 +44,8 @@ import ee.ria.xroad.common.monitoring.MessageInfo;
 import ee.ria.xroad.common.monitoring.MessageInfo.Origin;
 import ee.ria.xroad.common.monitoring.MonitorAgent;
 import ee.ria.xroad.common.opmonitoring.OpMonitoringData;
+import ee.ria.xroad.common.util.CacheInputStream;
+import ee.ria.xroad.common.util.CachingStream;
 import ee.ria.xroad.common.util.HttpSender;
 import ee.ria.xroad.common.util.MimeUtils;
 import ee.ria.xroad.proxy.conf.KeyConf;
@@ -65,6 +68,7 @@ import javax.servlet.http.HttpServletResponse;
 import javax.xml.namespace.QName;
 
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
 import java.io.Writer;
@@ -126,10 +130,17 @@ class ClientMessageProcessor extends AbstractClientMessageProcessor {
     /** If the request failed, will contain SOAP fault. */
     private volatile CodedException executionException;
 
+    /**
+     * If true, the request is read, signed and encoded on the request thread into a memory/file cache and
+     * sent to the server proxy after that. Otherwise it is streamed through a pipe from a handler thread.
+     */
+    private final boolean bufferedRequest = SystemProperties.isClientProxySoapRequestBuffered();
+
     /** Holds the proxy message output stream and associated info. */
     private PipedInputStream reqIns;
-    private volatile PipedOutputStream reqOuts;
+    private volatile OutputStream reqOuts;
     private volatile String outputContentType;
+    private CachingStream requestBody;
 
     /** Holds the request to the server proxy. */
     private ProxyMessageEncoder request;
@@ -157,8 +168,10 @@ class ClientMessageProcessor extends AbstractClientMessageProcessor {
             HttpClient httpClient, IsAuthenticationData clientCert, OpMonitoringData opMonitoringData)
             throws Exception {
         super(servletRequest, servletResponse, httpClient, clientCert, opMonitoringData);
-        this.reqIns = new PipedInputStream();
-        this.reqOuts = new PipedOutputStream(reqIns);
+        if (!bufferedRequest) {
+            this.reqIns = new PipedInputStream();
+            this.reqOuts = new PipedOutputStream(reqIns);
+        }
         this.xRequestId = UUID.randomUUID().toString();
     }
 
@@ -169,6 +182,14 @@ class ClientMessageProcessor extends AbstractClientMessageProcessor {
         opMonitoringData.setXRequestId(xRequestId);
         updateOpMonitoringClientSecurityServerAddress();
 
+        if (bufferedRequest) {
+            processBuffered();
+        } else {
+            processPiped();
+        }
+    }
+
+    private void processPiped() throws Exception {
         Future<?> soapHandler = SOAP_HANDLER_EXECUTOR.submit(this::handleSoap);
 
         try {
@@ -178,12 +199,7 @@ class ClientMessageProcessor extends AbstractClientMessageProcessor {
             // If the handler thread excepted, do not continue.
             checkError();
 
-            // Verify that the client is registered.
-            ClientId client = requestSoap.getClient();
-            verifyClientStatus(client);
-
-            // Check client authentication mode.
-            verifyClientAuthentication(client);
+            verifyClient();
 
             processRequest();
 
@@ -206,6 +222,38 @@ class ClientMessageProcessor extends AbstractClientMessageProcessor {
         }
     }
 
+    private void processBuffered() throws Exception {
+        requestBody = new CachingStream();
+        reqOuts = requestBody;
+
+        try {
+            // Parses, verifies the client, signs and encodes the request before connecting to the server proxy.
+            handleSoap();
+            checkError();
+
+            processRequest();
+
+            if (response != null) {
+                sendResponse();
+            }
+        } finally {
+            requestBody.consume();
+
+            if (response != null) {
+                response.consume();
+            }
+        }
+    }
+
+    private void verifyClient() throws Exception {
+        // Verify that the client is registered.
+        ClientId client = requestSoap.getClient();
+        verifyClientStatus(client);
+
+        // Check client authentication mode.
+        verifyClientAuthentication(client);
+    }
+
     @Override
     public boolean verifyMessageExchangeSucceeded() {
         return response != null && response.getFault() == null;
@@ -251,7 +299,12 @@ class ClientMessageProcessor extends AbstractClientMessageProcessor {
 
             try {
                 opMonitoringData.setRequestOutTs(getEpochMillisecond());
-                httpSender.doPost(getServiceAddress(addresses), reqIns, CHUNKED_LENGTH, outputContentType);
+                if (requestBody != null) {
+                    CacheInputStream content = requestBody.getCachedContents();
+                    httpSender.doPost(getServiceAddress(addresses), content, content.size(), outputContentType);
+                } else {
+                    httpSender.doPost(getServiceAddress(addresses), reqIns, CHUNKED_LENGTH, outputContentType);
+                }
                 opMonitoringData.setResponseInTs(getEpochMillisecond());
             } catch (Exception e) {
                 // Failed to connect to server proxy
@@ -476,9 +529,20 @@ class ClientMessageProcessor extends AbstractClientMessageProcessor {
                 outputContentType = request.getContentType();
             }
 
-            // We have the request SOAP message, we can start sending the
-            // request to server proxy.
-            continueProcessing();
+            if (bufferedRequest) {
+                // The request is sent only after it has been read entirely,
+                // so verify the client before encoding it.
+                try {
+                    verifyClient();
+                } catch (Exception e) {
+                    setError(e);
+                    throw e;
+                }
+            } else {
+                // We have the request SOAP message, we can start sending the
+                // request to server proxy.
+                continueProcessing();
+            }
 
             // In SSL mode, we need to send the OCSP response of our SSL cert.
             if (isSslEnabled()) {
@@ -96,6 +96,7 @@ public class ClientProxy implements StartStop {
 
     private CloseableHttpClient client;
     private IdleConnectionMonitorThread connectionMonitor;
+    private ProviderLoadBalancer loadBalancer;
 
     /**
      * Constructs and configures a new client proxy.
@@ -133,6 +134,12 @@ public class ClientProxy implements StartStop {
 
         HttpClientBuilder cb = HttpClients.custom();
 
+        if (SystemProperties.isSslEnabled() && SystemProperties.isClientProxyProviderLoadBalancingEnabled()) {
+            loadBalancer = new ProviderLoadBalancer(SystemProperties.getClientProxyProviderFailureThreshold(),
+                    SystemProperties.getClientProxyProviderProbeInterval(), timeout);
+            cb.setRequestExecutor(loadBalancer.createRequestExecutor());
+        }
+
         HttpClientConnectionManager connectionManager = getClientConnectionManager();
         cb.setConnectionManager(connectionManager);
 
@@ -175,9 +182,8 @@ public class ClientProxy implements StartStop {
         return poolingManager;
     }
 
-    private static SSLConnectionSocketFactory createSSLSocketFactory() throws Exception {
-        return new FastestConnectionSelectingSSLSocketFactory(SSLContextUtil.createXroadSSLContext()
-        );
+    private SSLConnectionSocketFactory createSSLSocketFactory() throws Exception {
+        return new FastestConnectionSelectingSSLSocketFactory(SSLContextUtil.createXroadSSLContext(), loadBalancer);
     }
 
     private void createConnectors() throws Exception {
@@ -316,6 +322,10 @@ public class ClientProxy implements StartStop {
             connectionMonitor.shutdown();
         }
 
+        if (loadBalancer != null) {
+            loadBalancer.shutdown();
+        }
+
         client.close();
         server.stop();
 
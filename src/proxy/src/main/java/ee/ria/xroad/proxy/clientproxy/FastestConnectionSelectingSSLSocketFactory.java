@@ -64,6 +64,10 @@ import static ee.ria.xroad.proxy.clientproxy.AuthTrustVerifier.verify;
  *
  * If an SSL session already exists to one of the provided addresses, then
  * that address is selected immediately without previous selection algorithm.
+ *
+ * If a {@link ProviderLoadBalancer} is given, the connections are instead
+ * spread over the healthy addresses and the fastest address is raced for only
+ * when none of the healthy addresses can be connected to.
  */
 @Slf4j
 class FastestConnectionSelectingSSLSocketFactory
@@ -85,8 +89,13 @@ class FastestConnectionSelectingSSLSocketFactory
 
     private final Cache<CacheKey, URI> selectedHosts;
     private final boolean cachingEnabled;
+    private final ProviderLoadBalancer loadBalancer;
 
     FastestConnectionSelectingSSLSocketFactory(SSLContext sslContext) {
+        this(sslContext, null);
+    }
+
+    FastestConnectionSelectingSSLSocketFactory(SSLContext sslContext, ProviderLoadBalancer loadBalancer) {
         super(sslContext, null, SystemProperties.getXroadTLSCipherSuites(), (HostnameVerifier) null);
         this.socketfactory = sslContext.getSocketFactory();
         this.selectedHosts = CacheBuilder.newBuilder()
@@ -94,6 +103,7 @@ class FastestConnectionSelectingSSLSocketFactory
                 .maximumSize(CACHE_MAXIMUM_SIZE)
                 .build();
         this.cachingEnabled = SystemProperties.getClientProxyFastestConnectingSslUriCachePeriod() > 0;
+        this.loadBalancer = loadBalancer;
     }
 
     @Override
@@ -112,6 +122,11 @@ class FastestConnectionSelectingSSLSocketFactory
 
         // Read target addresses from the context.
         final URI[] addressesFromContext = getAddressesFromContext(context);
+
+        if (loadBalancer != null && addressesFromContext.length > 1) {
+            return connectBalanced(timeout, addressesFromContext, context);
+        }
+
         final boolean useCache = (addressesFromContext.length > 1) && cachingEnabled;
 
         URI[] addresses = addressesFromContext;
@@ -179,6 +194,57 @@ class FastestConnectionSelectingSSLSocketFactory
         return sslSocket;
     }
 
+    private Socket connectBalanced(int timeout, URI[] addresses, HttpContext context) throws IOException {
+        SocketInfo selectedSocket = null;
+
+        for (URI address : loadBalancer.select(addresses)) {
+            long start = System.nanoTime();
+            selectedSocket = connect(address, context, timeout);
+
+            if (selectedSocket != null) {
+                loadBalancer.connected(address, System.nanoTime() - start);
+                break;
+            }
+
+            loadBalancer.failed(address);
+        }
+
+        if (selectedSocket == null) {
+            log.trace("No healthy provider could be connected to, racing all providers {}", (Object) addresses);
+
+            long start = System.nanoTime();
+            selectedSocket = connect(addresses, context, timeout);
+
+            if (selectedSocket == null) {
+                throw couldNotConnectException(addresses);
+            }
+
+            loadBalancer.connected(selectedSocket.getUri(), System.nanoTime() - start);
+        }
+
+        log.trace("Connected to {}", selectedSocket.getUri());
+
+        updateOpMonitoringData(context, selectedSocket);
+
+        final Socket s = selectedSocket.getSocket();
+        s.setSoTimeout(timeout);
+        s.setSoLinger(false, 0);
+        SSLSocket sslSocket = wrapToSSLSocket(s);
+
+        try {
+            prepareAndVerify(sslSocket, selectedSocket.getUri(), context);
+        } catch (IOException e) {
+            loadBalancer.failed(selectedSocket.getUri());
+
+            throw e;
+        }
+
+        sslSocket.getSession().putValue(ProviderLoadBalancer.SESSION_TARGET, selectedSocket.getUri());
+        configureSocket(sslSocket);
+
+        return sslSocket;
+    }
+
     @Override
     protected void prepareSocket(final SSLSocket socket) throws IOException {
         socket.setEnabledProtocols(new String[] {CryptoUtils.SSL_PROTOCOL});
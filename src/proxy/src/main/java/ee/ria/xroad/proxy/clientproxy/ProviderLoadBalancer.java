@@ -0,0 +1,337 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.clientproxy;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.conn.ManagedHttpClientConnection;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
+
+import javax.net.ssl.SSLSession;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Spreads new connections over the healthy addresses of the provider security servers.
+ *
+ * For every address, an exponentially weighted moving average of the connect and response latencies, the number
+ * of requests in flight and the number of consecutive failures are kept. A connection goes to the better of two
+ * randomly chosen healthy addresses (power of two choices), the other healthy addresses are used as fallbacks.
+ * After too many consecutive failures the circuit of an address opens and it is not used by requests anymore.
+ * Open addresses are probed in the background until a connection succeeds.
+ */
+@Slf4j
+class ProviderLoadBalancer {
+
+    /**
+     * The SSL session value holding the address a connection was made to.
+     */
+    static final String SESSION_TARGET = "ee.ria.xroad.serverproxy.target";
+
+    static final double EWMA_WEIGHT = 0.2;
+
+    private static final int MAXIMUM_TARGETS = 10000;
+    private static final long TARGET_IDLE_HOURS = 24;
+
+    private final Cache<URI, TargetStats> targets = CacheBuilder.newBuilder()
+            .maximumSize(MAXIMUM_TARGETS)
+            .expireAfterAccess(TARGET_IDLE_HOURS, TimeUnit.HOURS)
+            .build();
+
+    private final int failureThreshold;
+    private final int probeTimeout;
+    private final ScheduledExecutorService prober;
+
+    /**
+     * @param failureThreshold number of consecutive failures that opens the circuit of an address
+     * @param probeIntervalSeconds interval at which addresses with an open circuit are probed, if not positive,
+     * there is no probing and the circuits are never opened
+     * @param probeTimeout connect timeout of the probes in milliseconds
+     */
+    ProviderLoadBalancer(int failureThreshold, int probeIntervalSeconds, int probeTimeout) {
+        this.probeTimeout = probeTimeout;
+
+        if (probeIntervalSeconds > 0) {
+            this.failureThreshold = Math.max(1, failureThreshold);
+
+            prober = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "ProviderProber");
+                thread.setDaemon(true);
+
+                return thread;
+            });
+            prober.scheduleWithFixedDelay(this::probeOpenTargets, probeIntervalSeconds, probeIntervalSeconds,
+                    TimeUnit.SECONDS);
+        } else {
+            log.warn("Provider probe interval is {}, failing provider addresses are not taken out of use",
+                    probeIntervalSeconds);
+
+            // an open circuit would never be closed again
+            this.failureThreshold = Integer.MAX_VALUE;
+            prober = null;
+        }
+    }
+
+    /**
+     * @param addresses the provider addresses
+     * @return the healthy addresses in the order they should be tried, empty if all circuits are open
+     */
+    List<URI> select(URI[] addresses) {
+        // the scores change while requests start and end, so they are taken once for a consistent ordering
+        List<ScoredTarget> healthy = new ArrayList<>(addresses.length);
+
+        for (URI address : addresses) {
+            TargetStats stats = getStats(address);
+
+            if (!stats.isOpen()) {
+                healthy.add(new ScoredTarget(address, stats.getScore()));
+            }
+        }
+
+        List<URI> selected = new ArrayList<>(healthy.size());
+
+        if (healthy.size() > 1) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+
+            int first = random.nextInt(healthy.size());
+            int second = random.nextInt(healthy.size() - 1);
+
+            if (second >= first) {
+                second++;
+            }
+
+            ScoredTarget chosen = healthy.get(first).score <= healthy.get(second).score
+                    ? healthy.get(first) : healthy.get(second);
+
+            healthy.remove(chosen);
+            healthy.sort(Comparator.comparingDouble(target -> target.score));
+            healthy.add(0, chosen);
+        }
+
+        healthy.forEach(target -> selected.add(target.target));
+
+        return selected;
+    }
+
+    void connected(URI target, long connectNanos) {
+        TargetStats stats = getStats(target);
+
+        stats.recordConnect(TimeUnit.NANOSECONDS.toMicros(connectNanos) / 1000d);
+        stats.recordSuccess();
+    }
+
+    void failed(URI target) {
+        if (getStats(target).recordFailure(failureThreshold)) {
+            log.warn("Provider address {} failed {} times in a row, probing it in the background", target,
+                    failureThreshold);
+        }
+    }
+
+    boolean isOpen(URI target) {
+        return getStats(target).isOpen();
+    }
+
+    int getInFlight(URI target) {
+        return getStats(target).inFlight.get();
+    }
+
+    double getScore(URI target) {
+        return getStats(target).getScore();
+    }
+
+    /**
+     * Creates a request executor that records the response latencies and the requests in flight of the addresses.
+     * @return the request executor
+     */
+    HttpRequestExecutor createRequestExecutor() {
+        return new HttpRequestExecutor() {
+            @Override
+            public HttpResponse execute(HttpRequest request, HttpClientConnection conn, HttpContext context)
+                    throws IOException, HttpException {
+                URI target = getTarget(conn);
+
+                if (target == null) {
+                    return super.execute(request, conn, context);
+                }
+
+                TargetStats stats = getStats(target);
+                stats.inFlight.incrementAndGet();
+                long start = System.nanoTime();
+
+                try {
+                    HttpResponse response = super.execute(request, conn, context);
+                    stats.recordResponse(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start) / 1000d);
+
+                    return response;
+                } catch (IOException e) {
+                    failed(target);
+
+                    throw e;
+                } finally {
+                    stats.inFlight.decrementAndGet();
+                }
+            }
+        };
+    }
+
+    /**
+     * Stops the background probing.
+     */
+    void shutdown() {
+        if (prober != null) {
+            prober.shutdownNow();
+        }
+    }
+
+    void probeOpenTargets() {
+        for (TargetStats stats : targets.asMap().values()) {
+            if (stats.isOpen()) {
+                probe(stats.getTarget());
+            }
+        }
+    }
+
+    private void probe(URI target) {
+        long start = System.nanoTime();
+
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(target.getHost(), target.getPort()), probeTimeout);
+
+            log.info("Provider address {} is reachable again", target);
+            connected(target, System.nanoTime() - start);
+        } catch (Exception e) {
+            log.debug("Probing provider address {} failed", target, e);
+        }
+    }
+
+    private TargetStats getStats(URI target) {
+        try {
+            return targets.get(target, () -> new TargetStats(target));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static URI getTarget(HttpClientConnection conn) {
+        if (conn instanceof ManagedHttpClientConnection) {
+            SSLSession session = ((ManagedHttpClientConnection) conn).getSSLSession();
+
+            if (session != null && session.getValue(SESSION_TARGET) instanceof URI) {
+                return (URI) session.getValue(SESSION_TARGET);
+            }
+        }
+
+        return null;
+    }
+
+    private static final class ScoredTarget {
+        private final URI target;
+        private final double score;
+
+        ScoredTarget(URI target, double score) {
+            this.target = target;
+            this.score = score;
+        }
+    }
+
+    private static final class TargetStats {
+        private final URI target;
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        private volatile double connectMillis;
+        private volatile double responseMillis;
+        private volatile boolean open;
+        private int consecutiveFailures;
+
+        TargetStats(URI target) {
+            this.target = target;
+        }
+
+        URI getTarget() {
+            return target;
+        }
+
+        boolean isOpen() {
+            return open;
+        }
+
+        /**
+         * Lower is better. Addresses without any measurements score as the fastest ones, so that they get tried.
+         */
+        double getScore() {
+            return (1 + connectMillis + responseMillis) * (1 + inFlight.get());
+        }
+
+        synchronized void recordConnect(double millis) {
+            connectMillis = average(connectMillis, millis);
+        }
+
+        synchronized void recordResponse(double millis) {
+            responseMillis = average(responseMillis, millis);
+        }
+
+        synchronized void recordSuccess() {
+            consecutiveFailures = 0;
+            open = false;
+        }
+
+        /**
+         * @return true, if the circuit was opened by this failure
+         */
+        synchronized boolean recordFailure(int threshold) {
+            consecutiveFailures++;
+
+            if (!open && consecutiveFailures >= threshold) {
+                open = true;
+
+                return true;
+            }
+
+            return false;
+        }
+
+        private static double average(double current, double sample) {
+            return current == 0 ? sample : current + EWMA_WEIGHT * (sample - current);
+        }
+    }
+}
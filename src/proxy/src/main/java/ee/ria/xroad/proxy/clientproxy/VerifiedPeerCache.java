@@ -0,0 +1,152 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.clientproxy;
+
+import ee.ria.xroad.common.conf.globalconf.GlobalConf;
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.ocsp.OcspVerifier;
+import ee.ria.xroad.common.ocsp.OcspVerifierSettings;
+
+import com.codahale.metrics.Clock;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.Value;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static ee.ria.xroad.common.util.CryptoUtils.SHA256_ID;
+import static ee.ria.xroad.common.util.CryptoUtils.hexDigest;
+
+/**
+ * Bounded cache of successful service provider authentication certificate verifications.
+ *
+ * An entry is keyed by the certificate chain, the service provider, the OCSP responses used in the
+ * verification and the version of the loaded global configuration, so a changed OCSP response or
+ * reloaded global configuration never matches an earlier verification. An entry expires when
+ * the first certificate or OCSP response it was verified with would no longer be accepted.
+ */
+final class VerifiedPeerCache {
+
+    private final Cache<Key, Long> verified;
+    private final Clock clock;
+
+    /**
+     * @param maximumSize maximum number of remembered verifications, 0 disables the cache
+     */
+    VerifiedPeerCache(int maximumSize) {
+        this(maximumSize, Clock.defaultClock());
+    }
+
+    /**
+     * @param maximumSize maximum number of remembered verifications, 0 disables the cache
+     * @param clock the clock used for expiring the verifications
+     */
+    VerifiedPeerCache(int maximumSize, Clock clock) {
+        this.verified = maximumSize > 0 ? CacheBuilder.newBuilder().maximumSize(maximumSize).build() : null;
+        this.clock = clock;
+    }
+
+    boolean isEnabled() {
+        return verified != null;
+    }
+
+    /**
+     * @return true if the verification identified by the key has succeeded and has not expired
+     */
+    boolean isVerified(Key key) {
+        Long expiresAt = verified.getIfPresent(key);
+
+        if (expiresAt == null) {
+            return false;
+        }
+
+        if (expiresAt <= clock.getTime()) {
+            verified.invalidate(key);
+
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Remembers a successful verification until the given expiry time (in milliseconds).
+     */
+    void setVerified(Key key, long expiresAt) {
+        if (expiresAt > clock.getTime()) {
+            verified.put(key, expiresAt);
+        }
+    }
+
+    static Key createKey(ClientId serviceProvider, List<X509Certificate> certs, List<OCSPResp> ocspResponses)
+            throws Exception {
+        List<String> certHashes = new ArrayList<>(certs.size());
+
+        for (X509Certificate cert : certs) {
+            certHashes.add(hexDigest(SHA256_ID, cert.getEncoded()));
+        }
+
+        List<String> ocspResponseHashes = new ArrayList<>(ocspResponses.size());
+
+        for (OCSPResp response : ocspResponses) {
+            ocspResponseHashes.add(hexDigest(SHA256_ID, response.getEncoded()));
+        }
+
+        return new Key(serviceProvider, certHashes, ocspResponseHashes, GlobalConf.getGlobalSettingsVersion());
+    }
+
+    /**
+     * @return the time (in milliseconds) when the first of the certificates or OCSP responses would no longer be
+     * accepted with the current global configuration
+     */
+    static long getExpiryTime(List<X509Certificate> certs, List<OCSPResp> ocspResponses) throws Exception {
+        OcspVerifierSettings settings = OcspVerifierSettings.getCurrent();
+
+        return getExpiryTime(certs, ocspResponses, settings.getOcspFreshnessSeconds(),
+                settings.getOptions().isVerifyNextUpdate());
+    }
+
+    static long getExpiryTime(List<X509Certificate> certs, List<OCSPResp> ocspResponses,
+            int ocspFreshnessSeconds, boolean verifyOcspNextUpdate) throws Exception {
+        long expiresAt = OcspVerifier.getValidUntil(ocspResponses, ocspFreshnessSeconds, verifyOcspNextUpdate);
+
+        for (X509Certificate cert : certs) {
+            expiresAt = Math.min(expiresAt, cert.getNotAfter().getTime());
+        }
+
+        return expiresAt;
+    }
+
+    @Value
+    static final class Key {
+        private final ClientId serviceProvider;
+        private final List<String> certHashes;
+        private final List<String> ocspResponseHashes;
+        private final Object globalConfVersion;
+    }
+}
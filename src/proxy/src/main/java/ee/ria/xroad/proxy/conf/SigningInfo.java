@@ -25,10 +25,9 @@
 package ee.ria.xroad.proxy.conf;
 
 import ee.ria.xroad.common.conf.globalconf.GlobalConf;
-import ee.ria.xroad.common.conf.globalconfextension.GlobalConfExtensions;
 import ee.ria.xroad.common.identifier.ClientId;
 import ee.ria.xroad.common.ocsp.OcspVerifier;
-import ee.ria.xroad.common.ocsp.OcspVerifierOptions;
+import ee.ria.xroad.common.ocsp.OcspVerifierSettings;
 import ee.ria.xroad.proxy.signedmessage.SignerSigningKey;
 
 import lombok.Getter;
@@ -82,8 +81,7 @@ class SigningInfo extends AbstractDateValidatableInfo {
 
     private void verifyOcsp(Date atDate, String instanceIdentifier) throws Exception {
         X509Certificate issuer = GlobalConf.getCaCert(instanceIdentifier, cert);
-        OcspVerifier verifier = new OcspVerifier(GlobalConf.getOcspFreshnessSeconds(false),
-                new OcspVerifierOptions(GlobalConfExtensions.getInstance().shouldVerifyOcspNextUpdate()));
+        OcspVerifier verifier = OcspVerifierSettings.getCurrent().createVerifier(false);
         verifier.verifyValidityAndStatus(ocsp, cert, issuer, atDate);
     }
 }
@@ -42,14 +42,4 @@ class NullOpMonitoringBuffer extends AbstractOpMonitoringBuffer {
     protected void send() throws Exception {
         // do nothing
     }
-
-    @Override
-    protected void sendingSuccess() throws Exception {
-        // do nothing
-    }
-
-    @Override
-    protected void sendingFailure() throws Exception {
-        // do nothing
-    }
 }
@@ -0,0 +1,93 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.util;
+
+import ee.ria.xroad.common.conf.serverconf.ServerConf;
+import ee.ria.xroad.common.util.CachingStream;
+import ee.ria.xroad.common.util.StartStop;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.CacheStats;
+
+import java.util.function.ToLongFunction;
+
+/**
+ * Proxy internal metrics, reported over JMX. Server conf cache load times are in nanoseconds.
+ */
+public final class ProxyMetrics implements StartStop {
+
+    private static final MetricRegistry REGISTRY = new MetricRegistry();
+
+    static {
+        REGISTRY.register("attachmentCache.streams", (Gauge<Long>)CachingStream::getStreamCount);
+        REGISTRY.register("attachmentCache.spills", (Gauge<Long>)CachingStream::getSpillCount);
+        REGISTRY.register("attachmentCache.buffersInUse", (Gauge<Integer>)CachingStream::getBuffersInUse);
+        REGISTRY.register("attachmentCache.pooledBuffers", (Gauge<Integer>)CachingStream::getPooledBuffers);
+        REGISTRY.register("serverConfCache.hits", (Gauge<Long>)() -> serverConfCacheStat(CacheStats::hitCount));
+        REGISTRY.register("serverConfCache.misses", (Gauge<Long>)() -> serverConfCacheStat(CacheStats::missCount));
+        REGISTRY.register("serverConfCache.evictions",
+                (Gauge<Long>)() -> serverConfCacheStat(CacheStats::evictionCount));
+        REGISTRY.register("serverConfCache.loadExceptions",
+                (Gauge<Long>)() -> serverConfCacheStat(CacheStats::loadExceptionCount));
+        REGISTRY.register("serverConfCache.totalLoadTime",
+                (Gauge<Long>)() -> serverConfCacheStat(CacheStats::totalLoadTime));
+        REGISTRY.register("serverConfCache.averageLoadPenalty", (Gauge<Double>)() -> {
+            CacheStats stats = ServerConf.getCacheStats();
+            return stats != null ? stats.averageLoadPenalty() : 0.0;
+        });
+    }
+
+    private final JmxReporter reporter = JmxReporter.forRegistry(REGISTRY).inDomain("xroad.proxy").build();
+
+    /**
+     * @return the registry holding proxy metrics
+     */
+    public static MetricRegistry getRegistry() {
+        return REGISTRY;
+    }
+
+    private static long serverConfCacheStat(ToLongFunction<CacheStats> stat) {
+        CacheStats stats = ServerConf.getCacheStats();
+
+        return stats != null ? stat.applyAsLong(stats) : 0;
+    }
+
+    @Override
+    public void start() throws Exception {
+        reporter.start();
+    }
+
+    @Override
+    public void stop() throws Exception {
+        reporter.stop();
+    }
+
+    @Override
+    public void join() throws InterruptedException {
+        // NOP
+    }
+}
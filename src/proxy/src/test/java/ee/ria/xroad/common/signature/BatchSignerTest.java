@@ -0,0 +1,263 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.signature;
+
+import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.TestCertUtil;
+import ee.ria.xroad.common.TestSecurityUtil;
+import ee.ria.xroad.common.util.CryptoUtils;
+import ee.ria.xroad.common.util.MessageFileNames;
+import ee.ria.xroad.signer.protocol.message.GetTokenBatchSigningEnabled;
+import ee.ria.xroad.signer.protocol.message.Sign;
+import ee.ria.xroad.signer.protocol.message.SignResponse;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.testkit.JavaTestKit;
+import akka.testkit.TestActorRef;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import static ee.ria.xroad.common.util.CryptoUtils.SHA512_ID;
+import static ee.ria.xroad.common.util.CryptoUtils.calculateDigest;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests how the batch signer groups signing requests into batches, with a test probe in place of the signer.
+ */
+public class BatchSignerTest {
+
+    private static final ActorSystem ACTOR_SYSTEM = ActorSystem.create("BatchSignerTest");
+
+    private static final String ALGORITHM = CryptoUtils.SHA512WITHRSA_ID;
+    private static final String KEY_A = "a";
+    private static final String KEY_B = "b";
+    private static final long WINDOW_MILLIS = 300;
+    private static final SignResponse SIGN_RESPONSE = new SignResponse(new byte[] {1, 2, 3});
+
+    static {
+        TestSecurityUtil.initSecurity();
+    }
+
+    private JavaTestKit signer;
+
+    /**
+     * Creates the signer probe.
+     */
+    @Before
+    public void setUp() {
+        signer = new JavaTestKit(ACTOR_SYSTEM);
+    }
+
+    /**
+     * Stops the actor system.
+     */
+    @AfterClass
+    public static void tearDownClass() {
+        JavaTestKit.shutdownActorSystem(ACTOR_SYSTEM);
+    }
+
+    /**
+     * Tests that the requests arriving while the signer is busy are batched up to the maximum size.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void closesBatchAtMaxSize() throws Exception {
+        ActorRef batchSigner = createBatchSigner(2, 0);
+        JavaTestKit[] clients = createClients(4);
+
+        batchSigner.tell(createRequest(KEY_A, getConsumerCert(), "0"), clients[0].getRef());
+        expectSign(KEY_A);
+
+        for (int i = 1; i < clients.length; i++) {
+            batchSigner.tell(createRequest(KEY_A, getConsumerCert(), String.valueOf(i)), clients[i].getRef());
+        }
+        signer.reply(SIGN_RESPONSE);
+
+        assertNull(expectSignature(clients[0]).getHashChainResult());
+
+        expectSign(KEY_A);
+        signer.reply(SIGN_RESPONSE);
+
+        assertSameBatch(expectSignature(clients[1]), expectSignature(clients[2]));
+
+        expectSign(KEY_A);
+        signer.reply(SIGN_RESPONSE);
+
+        assertNull(expectSignature(clients[3]).getHashChainResult());
+    }
+
+    /**
+     * Tests that an idle signer collects the requests until the batch window has passed.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void closesBatchWhenWindowExpires() throws Exception {
+        ActorRef batchSigner = createBatchSigner(0, WINDOW_MILLIS);
+        JavaTestKit[] clients = createClients(2);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < clients.length; i++) {
+            batchSigner.tell(createRequest(KEY_A, getConsumerCert(), String.valueOf(i)), clients[i].getRef());
+        }
+
+        expectSign(KEY_A);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(WINDOW_MILLIS));
+        signer.reply(SIGN_RESPONSE);
+
+        assertSameBatch(expectSignature(clients[0]), expectSignature(clients[1]));
+    }
+
+    /**
+     * Tests that the requests of different signing certificates are signed in separate batches.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void groupsBatchesByCertificate() throws Exception {
+        ActorRef batchSigner = createBatchSigner(0, WINDOW_MILLIS);
+        JavaTestKit[] clients = createClients(4);
+
+        batchSigner.tell(createRequest(KEY_A, getConsumerCert(), "0"), clients[0].getRef());
+        batchSigner.tell(createRequest(KEY_B, getProducerCert(), "1"), clients[1].getRef());
+        batchSigner.tell(createRequest(KEY_A, getConsumerCert(), "2"), clients[2].getRef());
+        batchSigner.tell(createRequest(KEY_B, getProducerCert(), "3"), clients[3].getRef());
+
+        Sign first = expectSign(null);
+        signer.reply(SIGN_RESPONSE);
+        Sign second = expectSign(null);
+        signer.reply(SIGN_RESPONSE);
+
+        assertEquals(new HashSet<>(Arrays.asList(KEY_A, KEY_B)),
+                new HashSet<>(Arrays.asList(first.getKeyId(), second.getKeyId())));
+
+        SignatureData a = expectSignature(clients[0]);
+        SignatureData b = expectSignature(clients[1]);
+
+        assertSameBatch(a, expectSignature(clients[2]));
+        assertSameBatch(b, expectSignature(clients[3]));
+        assertNotEquals(a.getHashChainResult(), b.getHashChainResult());
+    }
+
+    /**
+     * Tests that a batch that cannot be sent to the signer is answered with an error and the next batch is
+     * still signed.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void failedBatchDoesNotBlockNextBatches() throws Exception {
+        ActorRef batchSigner = createBatchSigner(1, 0);
+        JavaTestKit[] clients = createClients(3);
+
+        batchSigner.tell(createRequest(KEY_A, getConsumerCert(), "0"), clients[0].getRef());
+        expectSign(KEY_A);
+
+        // the message of the request is missing, so its data to be signed can not be created
+        byte[] digest = calculateDigest(SHA512_ID, new byte[0]);
+        SigningRequest invalid = new SigningRequest(getConsumerCert(),
+                Collections.singletonList(new MessagePart(MessageFileNames.MESSAGE, SHA512_ID, digest, null)));
+
+        batchSigner.tell(new BatchSigner.SigningRequestWrapper(KEY_A, ALGORITHM, invalid), clients[1].getRef());
+        batchSigner.tell(createRequest(KEY_A, getConsumerCert(), "2"), clients[2].getRef());
+        signer.reply(SIGN_RESPONSE);
+
+        expectSignature(clients[0]);
+        clients[1].expectMsgClass(CodedException.class);
+
+        expectSign(KEY_A);
+        signer.reply(SIGN_RESPONSE);
+
+        expectSignature(clients[2]);
+    }
+
+    private ActorRef createBatchSigner(int maxSize, long windowMillis) {
+        return TestActorRef.create(ACTOR_SYSTEM, Props.create(BatchSigner.class, signer.getRef(), maxSize,
+                windowMillis));
+    }
+
+    private static JavaTestKit[] createClients(int count) {
+        JavaTestKit[] clients = new JavaTestKit[count];
+        for (int i = 0; i < count; i++) {
+            clients[i] = new JavaTestKit(ACTOR_SYSTEM);
+        }
+        return clients;
+    }
+
+    private static BatchSigner.SigningRequestWrapper createRequest(String keyId, X509Certificate cert,
+            String message) throws Exception {
+        byte[] data = message.getBytes(StandardCharsets.UTF_8);
+
+        return new BatchSigner.SigningRequestWrapper(keyId, ALGORITHM, new SigningRequest(cert,
+                Collections.singletonList(new MessagePart(MessageFileNames.MESSAGE, SHA512_ID,
+                        calculateDigest(SHA512_ID, data), data))));
+    }
+
+    /**
+     * Answers the batch signing queries of the workers and returns the next signing request.
+     */
+    private Sign expectSign(String keyId) {
+        Object message = signer.expectMsgAnyClassOf(GetTokenBatchSigningEnabled.class, Sign.class);
+        while (message instanceof GetTokenBatchSigningEnabled) {
+            signer.reply(true);
+            message = signer.expectMsgAnyClassOf(GetTokenBatchSigningEnabled.class, Sign.class);
+        }
+
+        Sign sign = (Sign)message;
+        if (keyId != null) {
+            assertEquals(keyId, sign.getKeyId());
+        }
+        return sign;
+    }
+
+    private static SignatureData expectSignature(JavaTestKit client) {
+        return client.expectMsgClass(SignatureData.class);
+    }
+
+    private static void assertSameBatch(SignatureData first, SignatureData second) {
+        assertNotNull(first.getHashChainResult());
+        assertEquals(first.getHashChainResult(), second.getHashChainResult());
+        assertNotEquals(first.getHashChain(), second.getHashChain());
+    }
+
+    private static X509Certificate getConsumerCert() {
+        return TestCertUtil.getConsumer().certChain[0];
+    }
+
+    private static X509Certificate getProducerCert() {
+        return TestCertUtil.getProducer().certChain[0];
+    }
+}
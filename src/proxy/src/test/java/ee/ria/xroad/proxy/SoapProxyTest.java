@@ -0,0 +1,175 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy;
+
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.conf.serverconf.ServerConf;
+import ee.ria.xroad.common.conf.serverconf.model.DescriptionType;
+import ee.ria.xroad.common.identifier.ServiceId;
+import ee.ria.xroad.common.message.SoapFault;
+import ee.ria.xroad.common.message.SoapMessage;
+import ee.ria.xroad.common.message.SoapMessageDecoder;
+import ee.ria.xroad.proxy.testutil.TestServerConf;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that the client proxy sends the same SOAP request to the service in the buffered
+ * ({@link SystemProperties#CLIENTPROXY_SOAP_REQUEST_BUFFERED}) and in the streaming mode.
+ */
+public class SoapProxyTest extends AbstractProxyIntegrationTest {
+
+    private static final String QUERIES = "src/test/queries";
+
+    /**
+     * Configures the test services as SOAP services
+     */
+    @Before
+    public void before() {
+        ServerConf.reload(new TestServerConf(servicePort) {
+            @Override
+            public DescriptionType getDescriptionType(ServiceId service) {
+                return DescriptionType.WSDL;
+            }
+        });
+    }
+
+    /**
+     * Restores the default request mode
+     */
+    @After
+    public void clearRequestMode() {
+        System.clearProperty(SystemProperties.CLIENTPROXY_SOAP_REQUEST_BUFFERED);
+    }
+
+    @Test
+    public void shouldSendSameRequestWhenBuffered() throws Exception {
+        String contentType = "text/xml; charset=UTF-8";
+
+        List<String> streamed = send("getstate.query", contentType, false);
+        List<String> buffered = send("getstate.query", contentType, true);
+
+        assertEquals(1, streamed.size());
+        assertEquals(streamed, buffered);
+    }
+
+    @Test
+    public void shouldSendSameRequestWithAttachmentsWhenBuffered() throws Exception {
+        String contentType = "multipart/related; charset=UTF-8; boundary=jetty771207119h3h10dty";
+
+        List<String> streamed = send("attachments.query", contentType, false);
+        List<String> buffered = send("attachments.query", contentType, true);
+
+        assertEquals(4, streamed.size());
+        assertEquals(streamed, buffered);
+    }
+
+    /**
+     * Sends the query through the client proxy and returns the parts of the request received by the service
+     */
+    private List<String> send(String queryFile, String contentType, boolean buffered) throws Exception {
+        System.setProperty(SystemProperties.CLIENTPROXY_SOAP_REQUEST_BUFFERED, String.valueOf(buffered));
+
+        List<String> received = new ArrayList<>();
+        service.setHandler((target, request, response) -> {
+            byte[] body = IOUtils.toByteArray(request.getInputStream());
+            received.addAll(decode(request.getContentType(), body));
+
+            response.setContentType(request.getContentType());
+            response.setCharacterEncoding(request.getCharacterEncoding());
+            response.getOutputStream().write(body);
+        });
+
+        HttpPost post = new HttpPost("http://127.0.0.1:" + proxyClientPort);
+        post.setEntity(new ByteArrayEntity(Files.readAllBytes(Paths.get(QUERIES, queryFile)),
+                ContentType.parse(contentType)));
+
+        try (CloseableHttpClient client = HttpClients.createDefault()) {
+            HttpResponse response = client.execute(post);
+            EntityUtils.consume(response.getEntity());
+
+            assertEquals(200, response.getStatusLine().getStatusCode());
+        }
+
+        return received;
+    }
+
+    private static List<String> decode(String contentType, byte[] body) throws Exception {
+        List<String> parts = new ArrayList<>();
+
+        SoapMessageDecoder decoder = new SoapMessageDecoder(contentType, new SoapMessageDecoder.Callback() {
+            @Override
+            public void soap(SoapMessage message, Map<String, String> headers) throws Exception {
+                parts.add(message.getXml());
+            }
+
+            @Override
+            public void attachment(String partContentType, InputStream content, Map<String, String> headers)
+                    throws Exception {
+                parts.add(partContentType + " " + new TreeMap<>(headers) + " "
+                        + IOUtils.toString(content, "UTF-8"));
+            }
+
+            @Override
+            public void fault(SoapFault fault) throws Exception {
+                throw fault.toCodedException();
+            }
+
+            @Override
+            public void onCompleted() {
+                // Nothing to do.
+            }
+
+            @Override
+            public void onError(Exception e) throws Exception {
+                throw e;
+            }
+        });
+        decoder.parse(new ByteArrayInputStream(body));
+
+        return parts;
+    }
+}
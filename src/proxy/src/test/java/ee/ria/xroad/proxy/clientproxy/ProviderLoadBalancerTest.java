@@ -0,0 +1,151 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.clientproxy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the provider selection of {@link ProviderLoadBalancer}.
+ */
+public class ProviderLoadBalancerTest {
+
+    private static final int FAILURE_THRESHOLD = 3;
+    private static final int PROBE_INTERVAL_SECONDS = 3600;
+    private static final int PROBE_TIMEOUT = 1000;
+
+    private static final URI FIRST = URI.create("https://10.0.0.1:5500");
+    private static final URI SECOND = URI.create("https://10.0.0.2:5500");
+
+    private ProviderLoadBalancer loadBalancer;
+
+    /**
+     * Creates the load balancer.
+     */
+    @Before
+    public void setUp() {
+        loadBalancer = new ProviderLoadBalancer(FAILURE_THRESHOLD, PROBE_INTERVAL_SECONDS, PROBE_TIMEOUT);
+    }
+
+    /**
+     * Stops the background probing.
+     */
+    @After
+    public void tearDown() {
+        loadBalancer.shutdown();
+    }
+
+    @Test
+    public void selectsFasterProvider() {
+        loadBalancer.connected(FIRST, TimeUnit.MILLISECONDS.toNanos(100));
+        loadBalancer.connected(SECOND, TimeUnit.MILLISECONDS.toNanos(5));
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(Arrays.asList(SECOND, FIRST), loadBalancer.select(new URI[] {FIRST, SECOND}));
+        }
+    }
+
+    @Test
+    public void averagesConnectLatency() {
+        loadBalancer.connected(FIRST, TimeUnit.MILLISECONDS.toNanos(100));
+        loadBalancer.connected(FIRST, TimeUnit.MILLISECONDS.toNanos(200));
+
+        double expected = (1 + 100 + ProviderLoadBalancer.EWMA_WEIGHT * 100);
+        assertEquals(expected, loadBalancer.getScore(FIRST), 0.001);
+    }
+
+    @Test
+    public void opensCircuitAfterConsecutiveFailures() {
+        for (int i = 0; i < FAILURE_THRESHOLD - 1; i++) {
+            loadBalancer.failed(FIRST);
+        }
+
+        loadBalancer.connected(FIRST, 0);
+        loadBalancer.failed(FIRST);
+        assertFalse(loadBalancer.isOpen(FIRST));
+
+        loadBalancer.failed(FIRST);
+        loadBalancer.failed(FIRST);
+        assertTrue(loadBalancer.isOpen(FIRST));
+
+        assertEquals(Arrays.asList(SECOND), loadBalancer.select(new URI[] {FIRST, SECOND}));
+    }
+
+    @Test
+    public void neverOpensCircuitWithoutProbing() {
+        ProviderLoadBalancer withoutProbing = new ProviderLoadBalancer(FAILURE_THRESHOLD, 0, PROBE_TIMEOUT);
+        try {
+            for (int i = 0; i < FAILURE_THRESHOLD * 2; i++) {
+                withoutProbing.failed(FIRST);
+            }
+
+            assertFalse(withoutProbing.isOpen(FIRST));
+            assertEquals(2, withoutProbing.select(new URI[] {FIRST, SECOND}).size());
+        } finally {
+            withoutProbing.shutdown();
+        }
+    }
+
+    @Test
+    public void selectsNothingWhenAllCircuitsAreOpen() {
+        for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+            loadBalancer.failed(FIRST);
+            loadBalancer.failed(SECOND);
+        }
+
+        List<URI> selected = loadBalancer.select(new URI[] {FIRST, SECOND});
+        assertTrue(selected.isEmpty());
+    }
+
+    @Test
+    public void probeClosesCircuit() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            URI reachable = URI.create("https://127.0.0.1:" + server.getLocalPort());
+
+            for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+                loadBalancer.failed(reachable);
+            }
+
+            assertTrue(loadBalancer.isOpen(reachable));
+
+            loadBalancer.probeOpenTargets();
+
+            assertFalse(loadBalancer.isOpen(reachable));
+            assertEquals(Arrays.asList(reachable), loadBalancer.select(new URI[] {reachable}));
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.clientproxy;
+
+import ee.ria.xroad.common.OcspTestUtils;
+import ee.ria.xroad.common.TestCertUtil;
+import ee.ria.xroad.common.conf.globalconf.EmptyGlobalConf;
+import ee.ria.xroad.common.conf.globalconf.GlobalConf;
+import ee.ria.xroad.common.identifier.ClientId;
+
+import com.codahale.metrics.Clock;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the verified peer cache used by {@link AuthTrustVerifier}.
+ */
+public class VerifiedPeerCacheTest {
+
+    private static final ClientId PROVIDER = ClientId.create("EE", "BUSINESS", "producer");
+    private static final ClientId OTHER_PROVIDER = ClientId.create("EE", "BUSINESS", "consumer");
+
+    private static final int FRESHNESS_SECONDS = 600;
+
+    private final ManualClock clock = new ManualClock();
+
+    private List<X509Certificate> certs;
+    private Date thisUpdate;
+    private Date nextUpdate;
+    private OCSPResp ocspResponse;
+
+    /**
+     * Creates the certificate chain and an OCSP response for the producer certificate.
+     * @throws Exception in case of any errors
+     */
+    @Before
+    public void setUp() throws Exception {
+        GlobalConf.reload(new EmptyGlobalConf());
+
+        X509Certificate producer = TestCertUtil.getProducer().certChain[0];
+        X509Certificate ca = TestCertUtil.getCaCert();
+
+        certs = Arrays.asList(producer, ca);
+        // OCSP responses have second precision
+        thisUpdate = new Date(TimeUnit.SECONDS.toMillis(TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()))
+                - TimeUnit.MINUTES.toMillis(1));
+        nextUpdate = new Date(thisUpdate.getTime() + TimeUnit.MINUTES.toMillis(5));
+        ocspResponse = createOcspResponse(producer, ca, thisUpdate, nextUpdate);
+    }
+
+    @Test
+    public void rememberVerificationUntilExpiry() throws Exception {
+        VerifiedPeerCache cache = new VerifiedPeerCache(10, clock);
+        VerifiedPeerCache.Key key = VerifiedPeerCache.createKey(PROVIDER, certs, ocspResponses());
+
+        assertFalse(cache.isVerified(key));
+
+        cache.setVerified(key, clock.getTime() + TimeUnit.MINUTES.toMillis(1));
+        assertTrue(cache.isVerified(VerifiedPeerCache.createKey(PROVIDER, certs, ocspResponses())));
+
+        cache.setVerified(key, clock.getTime() - 1);
+        assertTrue("expired verification must not replace a valid one", cache.isVerified(key));
+    }
+
+    @Test
+    public void expiredVerificationIsNotUsed() throws Exception {
+        VerifiedPeerCache cache = new VerifiedPeerCache(10, clock);
+        VerifiedPeerCache.Key key = VerifiedPeerCache.createKey(PROVIDER, certs, ocspResponses());
+
+        cache.setVerified(key, clock.getTime() + 50);
+        assertTrue(cache.isVerified(key));
+
+        clock.advance(49);
+        assertTrue(cache.isVerified(key));
+
+        clock.advance(1);
+        assertFalse(cache.isVerified(key));
+    }
+
+    @Test
+    public void keyDependsOnProviderAndOcspResponses() throws Exception {
+        VerifiedPeerCache.Key key = VerifiedPeerCache.createKey(PROVIDER, certs, ocspResponses());
+
+        assertNotEquals(key, VerifiedPeerCache.createKey(OTHER_PROVIDER, certs, ocspResponses()));
+
+        OCSPResp newerResponse = createOcspResponse(certs.get(0), certs.get(1), new Date(), null);
+        assertNotEquals(key, VerifiedPeerCache.createKey(PROVIDER, certs,
+                Collections.singletonList(newerResponse)));
+    }
+
+    @Test
+    public void keyDependsOnGlobalConfVersion() throws Exception {
+        VerifiedPeerCache.Key key = VerifiedPeerCache.createKey(PROVIDER, certs, ocspResponses());
+
+        GlobalConf.reload(new EmptyGlobalConf());
+        assertNotEquals(key, VerifiedPeerCache.createKey(PROVIDER, certs, ocspResponses()));
+    }
+
+    @Test
+    public void expiryTimeIsEarliestLimit() throws Exception {
+        long freshnessLimit = thisUpdate.getTime() + TimeUnit.SECONDS.toMillis(FRESHNESS_SECONDS);
+
+        assertEquals(freshnessLimit, VerifiedPeerCache.getExpiryTime(Collections.emptyList(), ocspResponses(),
+                FRESHNESS_SECONDS, false));
+        assertEquals(nextUpdate.getTime(), VerifiedPeerCache.getExpiryTime(Collections.emptyList(),
+                ocspResponses(), FRESHNESS_SECONDS, true));
+
+        long notAfter = Math.min(certs.get(0).getNotAfter().getTime(), certs.get(1).getNotAfter().getTime());
+        assertEquals(notAfter, VerifiedPeerCache.getExpiryTime(certs, Collections.emptyList(),
+                FRESHNESS_SECONDS, true));
+    }
+
+    @Test
+    public void disabledWhenSizeIsZero() {
+        assertFalse(new VerifiedPeerCache(0).isEnabled());
+        assertTrue(new VerifiedPeerCache(1).isEnabled());
+    }
+
+    private List<OCSPResp> ocspResponses() {
+        return Collections.singletonList(ocspResponse);
+    }
+
+    private static OCSPResp createOcspResponse(X509Certificate subject, X509Certificate issuer, Date thisUpdate,
+            Date nextUpdate) throws Exception {
+        TestCertUtil.PKCS12 signer = TestCertUtil.getOcspSigner();
+
+        return OcspTestUtils.createOCSPResponse(subject, issuer, signer.certChain[0], signer.key,
+                CertificateStatus.GOOD, thisUpdate, nextUpdate);
+    }
+
+    private static final class ManualClock extends Clock {
+        private long time = System.currentTimeMillis();
+
+        void advance(long millis) {
+            time += millis;
+        }
+
+        @Override
+        public long getTick() {
+            return TimeUnit.MILLISECONDS.toNanos(time);
+        }
+
+        @Override
+        public long getTime() {
+            return time;
+        }
+    }
+}
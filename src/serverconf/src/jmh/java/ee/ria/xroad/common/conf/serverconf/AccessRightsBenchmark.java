@@ -0,0 +1,191 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.conf.serverconf;
+
+import ee.ria.xroad.common.conf.serverconf.model.AccessRightType;
+import ee.ria.xroad.common.conf.serverconf.model.ClientType;
+import ee.ria.xroad.common.conf.serverconf.model.EndpointType;
+import ee.ria.xroad.common.conf.serverconf.model.GroupMemberType;
+import ee.ria.xroad.common.conf.serverconf.model.LocalGroupType;
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.identifier.LocalGroupId;
+import ee.ria.xroad.common.identifier.ServiceId;
+import ee.ria.xroad.common.identifier.XRoadId;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures access right evaluation for a service provider with a large ACL. Compares the linear scan done by
+ * {@link ServerConfImpl} (without the database access) with the compiled {@link AccessRightsIndex}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AccessRightsBenchmark {
+
+    private static final int SERVICES = 100;
+    private static final int CLIENTS = 50;
+    private static final String LOCAL_GROUP = "localGroup";
+
+    @Param({"10000"})
+    public int aclEntries;
+
+    private ClientType provider;
+    private AccessRightsIndex index;
+
+    private ClientId lastClient;
+    private ClientId groupMember;
+    private ServiceId lastService;
+    private ServiceId restService;
+
+    /**
+     * Creates a provider with SOAP services granted to clients and REST endpoints granted to a local group
+     */
+    @Setup
+    public void setup() {
+        provider = new ClientType();
+        provider.setIdentifier(ClientId.create("EE", "BUSINESS", "provider"));
+
+        groupMember = ClientId.create("EE", "BUSINESS", "groupMember");
+        LocalGroupType group = new LocalGroupType();
+        group.setGroupCode(LOCAL_GROUP);
+        GroupMemberType member = new GroupMemberType();
+        member.setGroupMemberId(groupMember);
+        group.getGroupMember().add(member);
+        provider.getLocalGroup().add(group);
+
+        for (int i = 0; i < aclEntries; i++) {
+            String serviceCode = "service" + (i % SERVICES);
+            ClientId client = ClientId.create("EE", "BUSINESS", "client" + (i / SERVICES % CLIENTS), "sub" + i);
+            if (i % 2 == 0) {
+                addAccessRight(new EndpointType(serviceCode, EndpointType.ANY_METHOD, EndpointType.ANY_PATH, false),
+                        client);
+            } else {
+                addAccessRight(new EndpointType("rest", "GET", "/api/" + i + "/*/items", false),
+                        LocalGroupId.create(LOCAL_GROUP));
+            }
+        }
+
+        index = AccessRightsIndex.build(provider);
+
+        int last = aclEntries - 2;
+        lastClient = ClientId.create("EE", "BUSINESS", "client" + (last / SERVICES % CLIENTS), "sub" + last);
+        lastService = ServiceId.create(provider.getIdentifier(), "service" + (last % SERVICES));
+        restService = ServiceId.create(provider.getIdentifier(), "rest");
+    }
+
+    private void addAccessRight(EndpointType endpoint, XRoadId subject) {
+        AccessRightType accessRight = new AccessRightType();
+        accessRight.setEndpoint(endpoint);
+        accessRight.setSubjectId(subject);
+        accessRight.setRightsGiven(new Date());
+        provider.getAcl().add(accessRight);
+    }
+
+    /**
+     * Linear scan, SOAP service
+     */
+    @Benchmark
+    public boolean linearScanSoap() {
+        return linearScan(lastClient, lastService, null, null);
+    }
+
+    /**
+     * Compiled index, SOAP service
+     */
+    @Benchmark
+    public boolean compiledSoap() {
+        return index.isQueryAllowed(lastClient, lastService, null, null);
+    }
+
+    /**
+     * Linear scan, REST endpoint granted to a local group
+     */
+    @Benchmark
+    public boolean linearScanRest() {
+        return linearScan(groupMember, restService, "GET", "/api/" + (aclEntries - 1) + "/x/items");
+    }
+
+    /**
+     * Compiled index, REST endpoint granted to a local group
+     */
+    @Benchmark
+    public boolean compiledRest() {
+        return index.isQueryAllowed(groupMember, restService, "GET", "/api/" + (aclEntries - 1) + "/x/items");
+    }
+
+    private boolean linearScan(ClientId client, ServiceId service, String method, String path) {
+        String normalizedPath = AccessRightsIndex.normalizePath(path);
+        for (AccessRightType accessRight : provider.getAcl()) {
+            EndpointType endpoint = accessRight.getEndpoint();
+            if (!StringUtils.equals(service.getServiceCode(), endpoint.getServiceCode())) {
+                continue;
+            }
+
+            XRoadId subjectId = accessRight.getSubjectId();
+            if (subjectId instanceof LocalGroupId) {
+                if (!isMemberInLocalGroup(client, (LocalGroupId)subjectId)) continue;
+            } else if (!client.equals(subjectId)) {
+                continue;
+            }
+
+            if (!EndpointType.ANY_METHOD.equals(endpoint.getMethod())
+                    && !endpoint.getMethod().equalsIgnoreCase(method)) {
+                continue;
+            }
+
+            if (EndpointType.ANY_PATH.equals(endpoint.getPath())
+                    || PathGlob.matches(endpoint.getPath(), normalizedPath)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isMemberInLocalGroup(ClientId member, LocalGroupId groupId) {
+        return provider.getLocalGroup().stream()
+                .filter(g -> StringUtils.equals(groupId.getGroupCode(), g.getGroupCode()))
+                .findFirst()
+                .map(g -> g.getGroupMember().stream().anyMatch(m -> m.getGroupMemberId().equals(member)))
+                .orElse(false);
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.conf.serverconf;
+
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.identifier.ServiceId;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the rate of server conf lookups made by the proxy for one request, with the configuration read
+ * from the database, from the caches of {@link CachingServerConfImpl} and from the in-memory replica of
+ * {@link ReplicatedServerConfImpl}.
+ *
+ * Runs against the server conf database configured in the database properties file (see
+ * {@code xroad.common.database-properties}), e.g. a local PostgreSQL with a copy of a security server
+ * configuration. The requests go round-robin over all services of all clients.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(8)
+@Fork(1)
+public class ServerConfRequestBenchmark {
+
+    @Param({"database", "caching", "replica"})
+    public String implementation;
+
+    private ServerConfImpl serverConf;
+
+    private ClientId sender;
+    private List<ServiceId> services;
+
+    /**
+     * Position of a benchmark thread in the services
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+    }
+
+    /**
+     * Creates the server conf and discovers the services
+     */
+    @Setup
+    public void setup() {
+        switch (implementation) {
+            case "caching":
+                serverConf = new CachingServerConfImpl();
+                break;
+            case "replica":
+                serverConf = new ReplicatedServerConfImpl(false);
+                break;
+            default:
+                serverConf = new ServerConfImpl();
+                break;
+        }
+
+        services = new ArrayList<>();
+        for (ClientId member : serverConf.getMembers()) {
+            services.addAll(serverConf.getAllServices(member));
+        }
+
+        if (services.isEmpty()) {
+            throw new IllegalStateException("Server conf database has no services");
+        }
+
+        sender = serverConf.getMembers().get(0);
+    }
+
+    /**
+     * The lookups made by the proxy for one request to a service
+     */
+    @Benchmark
+    public void request(Cursor cursor, Blackhole bh) {
+        ServiceId service = services.get(cursor.next++ % services.size());
+
+        bh.consume(serverConf.serviceExists(service));
+        bh.consume(serverConf.getDescriptionType(service));
+        bh.consume(serverConf.isQueryAllowed(sender, service, "GET", "/"));
+        bh.consume(serverConf.getDisabledNotice(service));
+        bh.consume(serverConf.getRequiredCategories(service));
+        bh.consume(serverConf.getServiceAddress(service));
+        bh.consume(serverConf.getServiceTimeout(service));
+        bh.consume(serverConf.getMemberStatus(service.getClientId()));
+    }
+}
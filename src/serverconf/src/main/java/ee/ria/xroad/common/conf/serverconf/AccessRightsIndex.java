@@ -0,0 +1,168 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.conf.serverconf;
+
+import ee.ria.xroad.common.conf.globalconf.GlobalConf;
+import ee.ria.xroad.common.conf.serverconf.model.AccessRightType;
+import ee.ria.xroad.common.conf.serverconf.model.ClientType;
+import ee.ria.xroad.common.conf.serverconf.model.GroupMemberType;
+import ee.ria.xroad.common.conf.serverconf.model.LocalGroupType;
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.identifier.GlobalGroupId;
+import ee.ria.xroad.common.identifier.LocalGroupId;
+import ee.ria.xroad.common.identifier.ServiceId;
+import ee.ria.xroad.common.identifier.XRoadId;
+import ee.ria.xroad.common.util.UriUtils;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compiled access rights of one service provider.
+ *
+ * The access rights are indexed by service code and subject. Local group memberships are resolved into
+ * hash sets when the index is built, so that evaluating a query needs neither a database transaction
+ * nor a scan over the whole ACL. The index is immutable once built and can be shared between threads.
+ */
+final class AccessRightsIndex {
+
+    static final AccessRightsIndex EMPTY = new AccessRightsIndex(Collections.emptyMap(), Collections.emptyMap());
+
+    private final Map<String, ServiceAccessRights> services;
+    private final Map<String, Set<ClientId>> localGroupMembers;
+
+    private AccessRightsIndex(Map<String, ServiceAccessRights> services,
+            Map<String, Set<ClientId>> localGroupMembers) {
+        this.services = services;
+        this.localGroupMembers = localGroupMembers;
+    }
+
+    /**
+     * Compiles the access rights of the given service provider
+     * @param provider service provider, may be null
+     * @return compiled access rights
+     */
+    static AccessRightsIndex build(ClientType provider) {
+        if (provider == null || provider.getAcl().isEmpty()) {
+            return EMPTY;
+        }
+
+        Map<String, Set<ClientId>> localGroupMembers = new HashMap<>();
+        for (LocalGroupType group : provider.getLocalGroup()) {
+            Set<ClientId> members = new HashSet<>();
+            for (GroupMemberType member : group.getGroupMember()) {
+                members.add(member.getGroupMemberId());
+            }
+            // ServerConfImpl uses the first group with a matching code
+            localGroupMembers.putIfAbsent(group.getGroupCode(), members);
+        }
+
+        Map<String, ServiceAccessRights> services = new HashMap<>();
+        for (AccessRightType accessRight : provider.getAcl()) {
+            services.computeIfAbsent(accessRight.getEndpoint().getServiceCode(), s -> new ServiceAccessRights())
+                    .add(accessRight);
+        }
+
+        return new AccessRightsIndex(services, localGroupMembers);
+    }
+
+    /**
+     * Normalizes the request path the same way for compiled and uncompiled access checks
+     * @param path request path, may be null
+     * @return normalized and percent-decoded path or null
+     */
+    static String normalizePath(String path) {
+        if (path == null) {
+            return null;
+        }
+        return UriUtils.uriPathPercentDecode(URI.create(path).normalize().getRawPath(), true);
+    }
+
+    /**
+     * @param client the client making the query
+     * @param service the service being queried, must belong to the provider of this index
+     * @param method request method or null
+     * @param path request path or null
+     * @return true if the client is allowed to query the service
+     */
+    boolean isQueryAllowed(ClientId client, ServiceId service, String method, String path) {
+        if (client == null) {
+            return false;
+        }
+
+        ServiceAccessRights rights = services.get(service.getServiceCode());
+        return rights != null && rights.isAllowed(client, method, normalizePath(path), localGroupMembers);
+    }
+
+    private static final class ServiceAccessRights {
+        private final Map<XRoadId, EndpointMatcher> clients = new HashMap<>();
+        private final Map<GlobalGroupId, EndpointMatcher> globalGroups = new HashMap<>();
+        private final Map<String, EndpointMatcher> localGroups = new HashMap<>();
+
+        void add(AccessRightType accessRight) {
+            XRoadId subjectId = accessRight.getSubjectId();
+
+            final EndpointMatcher matcher;
+            if (subjectId instanceof GlobalGroupId) {
+                matcher = globalGroups.computeIfAbsent((GlobalGroupId)subjectId, g -> new EndpointMatcher());
+            } else if (subjectId instanceof LocalGroupId) {
+                matcher = localGroups.computeIfAbsent(((LocalGroupId)subjectId).getGroupCode(),
+                        g -> new EndpointMatcher());
+            } else {
+                matcher = clients.computeIfAbsent(subjectId, c -> new EndpointMatcher());
+            }
+
+            matcher.add(accessRight.getEndpoint());
+        }
+
+        boolean isAllowed(ClientId client, String method, String normalizedPath,
+                Map<String, Set<ClientId>> localGroupMembers) {
+            EndpointMatcher matcher = clients.get(client);
+            if (matcher != null && matcher.matches(method, normalizedPath)) {
+                return true;
+            }
+
+            for (Map.Entry<String, EndpointMatcher> e : localGroups.entrySet()) {
+                Set<ClientId> members = localGroupMembers.get(e.getKey());
+                if (members != null && members.contains(client) && e.getValue().matches(method, normalizedPath)) {
+                    return true;
+                }
+            }
+
+            for (Map.Entry<GlobalGroupId, EndpointMatcher> e : globalGroups.entrySet()) {
+                if (GlobalConf.isSubjectInGlobalGroup(client, e.getKey())
+                        && e.getValue().matches(method, normalizedPath)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+}
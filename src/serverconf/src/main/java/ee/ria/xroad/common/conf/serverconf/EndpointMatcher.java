@@ -0,0 +1,138 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.conf.serverconf;
+
+import ee.ria.xroad.common.conf.serverconf.model.EndpointType;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Matches request method and path against the endpoints granted to one subject for one service.
+ *
+ * Endpoints are grouped by (upper case) method and, per method, stored in a trie keyed by path segments.
+ * The literal prefix of a path glob selects the trie node and the remaining glob is compiled with
+ * {@link PathGlob} and evaluated only for paths that share that prefix.
+ */
+final class EndpointMatcher {
+
+    private static final String SEPARATOR = "/";
+
+    private final Map<String, PathNode> methods = new HashMap<>();
+
+    /**
+     * Adds an endpoint to this matcher
+     * @param endpoint endpoint to add
+     */
+    void add(EndpointType endpoint) {
+        methods.computeIfAbsent(endpoint.getMethod().toUpperCase(Locale.ROOT), m -> new PathNode())
+                .add(endpoint.getPath());
+    }
+
+    /**
+     * @param method request method, may be null (matches only endpoints allowing any method)
+     * @param normalizedPath normalized request path, may be null (matches only endpoints allowing any path)
+     * @return true if some endpoint matches the method and path
+     */
+    boolean matches(String method, String normalizedPath) {
+        String[] segments = normalizedPath == null ? null : normalizedPath.split(SEPARATOR, -1);
+
+        PathNode any = methods.get(EndpointType.ANY_METHOD);
+        if (any != null && any.matches(normalizedPath, segments)) {
+            return true;
+        }
+
+        if (method == null || EndpointType.ANY_METHOD.equals(method)) {
+            return false;
+        }
+
+        PathNode node = methods.get(method.toUpperCase(Locale.ROOT));
+        return node != null && node.matches(normalizedPath, segments);
+    }
+
+    private static final class PathNode {
+        private final Map<String, PathNode> children = new HashMap<>();
+        private final List<Pattern> globs = new ArrayList<>();
+        private boolean anyPath;
+        private boolean terminal;
+
+        void add(String path) {
+            if (EndpointType.ANY_PATH.equals(path)) {
+                anyPath = true;
+                return;
+            }
+
+            PathNode node = this;
+            for (String segment : path.split(SEPARATOR, -1)) {
+                if (isGlob(segment)) {
+                    node.globs.add(PathGlob.compile(path));
+                    return;
+                }
+                node = node.children.computeIfAbsent(segment, s -> new PathNode());
+            }
+            node.terminal = true;
+        }
+
+        boolean matches(String path, String[] segments) {
+            if (anyPath) {
+                return true;
+            }
+
+            if (path == null) {
+                return false;
+            }
+
+            PathNode node = this;
+            for (String segment : segments) {
+                if (node.matchesGlob(path)) {
+                    return true;
+                }
+                node = node.children.get(segment);
+                if (node == null) {
+                    return false;
+                }
+            }
+
+            return node.terminal || node.matchesGlob(path);
+        }
+
+        private boolean matchesGlob(String path) {
+            for (Pattern glob : globs) {
+                if (glob.matcher(path).matches()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean isGlob(String segment) {
+            return segment.indexOf('*') >= 0 || segment.indexOf('\\') >= 0;
+        }
+    }
+}
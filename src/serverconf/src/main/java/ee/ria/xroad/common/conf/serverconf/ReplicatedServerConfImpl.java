@@ -0,0 +1,249 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.conf.serverconf;
+
+import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.conf.serverconf.ServerConfReplica.ClientReplica;
+import ee.ria.xroad.common.conf.serverconf.ServerConfReplica.ServiceReplica;
+import ee.ria.xroad.common.conf.serverconf.model.DescriptionType;
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.identifier.SecurityCategoryId;
+import ee.ria.xroad.common.identifier.SecurityServerId;
+import ee.ria.xroad.common.identifier.ServiceId;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static ee.ria.xroad.common.ErrorCodes.X_MALFORMED_SERVERCONF;
+import static ee.ria.xroad.common.ErrorCodes.X_UNKNOWN_SERVICE;
+
+/**
+ * Server conf implementation that answers the message path lookups from an in-memory replica of the
+ * configuration, without database access.
+ *
+ * A {@link ServerConfChangeListener} waits for the notifications the database triggers send when the
+ * configuration is changed and reloads the changed clients. The whole replica is reloaded after (re)connecting
+ * to the database and every {@link SystemProperties#getServerConfReplicaReloadPeriod()} seconds. The listener
+ * loads the replica when it connects. If the replica is needed before that, it is loaded by the caller.
+ *
+ * Service listings used by the metaservices are still read from the database.
+ */
+@Slf4j
+public class ReplicatedServerConfImpl extends ServerConfImpl {
+
+    private volatile ServerConfReplica replica;
+
+    private final ServerConfChangeListener listener;
+
+    /**
+     * Starts listening for configuration changes, the listener loads the replica
+     */
+    public ReplicatedServerConfImpl() {
+        this(true);
+    }
+
+    /**
+     * Loads the replica, or lets the listener load it
+     * @param listen whether to listen for configuration changes, if not, the replica is loaded now and only
+     * updated by {@link #reload()} and {@link #refresh(Collection)}
+     */
+    public ReplicatedServerConfImpl(boolean listen) {
+        if (listen) {
+            listener = new ServerConfChangeListener(this, SystemProperties.getServerConfReplicaReloadPeriod());
+            listener.start();
+        } else {
+            reload();
+
+            listener = null;
+        }
+    }
+
+    /**
+     * Reloads the whole replica from the database
+     */
+    public synchronized void reload() {
+        long start = System.currentTimeMillis();
+        replica = tx(ServerConfReplica::load);
+
+        log.info("Loaded server conf replica with {} clients in {} ms", replica.getClientCount(),
+                System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Reloads the given clients and the server level settings from the database
+     * @param clientDbIds database ids of the changed clients
+     */
+    public synchronized void refresh(Collection<Long> clientDbIds) {
+        if (replica == null) {
+            reload();
+
+            return;
+        }
+
+        ServerConfReplica current = replica;
+        replica = tx(session -> current.refresh(session, clientDbIds));
+
+        log.debug("Refreshed server conf replica clients {}", clientDbIds);
+    }
+
+    private ServerConfReplica getReplica() {
+        ServerConfReplica current = replica;
+
+        if (current == null) {
+            current = loadReplica();
+        }
+
+        return current;
+    }
+
+    private synchronized ServerConfReplica loadReplica() {
+        if (replica == null) {
+            reload();
+        }
+
+        return replica;
+    }
+
+    /**
+     * Stops listening for configuration changes
+     */
+    public void close() {
+        if (listener != null) {
+            listener.stop();
+        }
+    }
+
+    @Override
+    public SecurityServerId getIdentifier() {
+        SecurityServerId identifier = getReplica().getIdentifier();
+        if (identifier == null) {
+            throw new CodedException(X_MALFORMED_SERVERCONF, "Owner is not set");
+        }
+        return identifier;
+    }
+
+    @Override
+    public boolean serviceExists(ServiceId service) {
+        return getReplica().getService(service) != null;
+    }
+
+    @Override
+    public String getServiceAddress(ServiceId service) {
+        ServiceReplica serviceReplica = getReplica().getService(service);
+        return serviceReplica != null ? serviceReplica.getUrl() : null;
+    }
+
+    @Override
+    public int getServiceTimeout(ServiceId service) {
+        ServiceReplica serviceReplica = getReplica().getService(service);
+        return serviceReplica != null ? serviceReplica.getTimeout() : DEFAULT_SERVICE_TIMEOUT;
+    }
+
+    @Override
+    public boolean isSslAuthentication(ServiceId service) {
+        ServiceReplica serviceReplica = getReplica().getService(service);
+        if (serviceReplica == null) {
+            throw new CodedException(X_UNKNOWN_SERVICE, "Service '%s' not found", service);
+        }
+
+        Boolean sslAuthentication = serviceReplica.getSslAuthentication();
+        return sslAuthentication != null ? sslAuthentication : true;
+    }
+
+    @Override
+    public List<ClientId> getMembers() {
+        return getReplica().getMembers();
+    }
+
+    @Override
+    public String getMemberStatus(ClientId memberId) {
+        ClientReplica client = getReplica().getClient(memberId);
+        return client != null ? client.getClientStatus() : null;
+    }
+
+    @Override
+    public IsAuthentication getIsAuthentication(ClientId clientId) {
+        ClientReplica client = getReplica().getClient(clientId);
+        return client != null ? client.getIsAuthentication() : null;
+    }
+
+    @Override
+    public List<X509Certificate> getIsCerts(ClientId clientId) {
+        ClientReplica client = getReplica().getClient(clientId);
+        return client != null ? client.getIsCerts() : Collections.emptyList();
+    }
+
+    @Override
+    public String getDisabledNotice(ServiceId service) {
+        ServiceReplica serviceReplica = getReplica().getService(service);
+        if (serviceReplica != null && serviceReplica.isDisabled()) {
+            if (serviceReplica.getDisabledNotice() == null) {
+                return String.format("Service '%s' is disabled", service);
+            }
+
+            return serviceReplica.getDisabledNotice();
+        }
+
+        return null;
+    }
+
+    @Override
+    public boolean isQueryAllowed(ClientId client, ServiceId service, String method, String path) {
+        if (client == null) {
+            return false;
+        }
+
+        ClientReplica provider = getReplica().getClient(service.getClientId());
+        return provider != null && provider.getAccessRights().isQueryAllowed(client, service, method, path);
+    }
+
+    @Override
+    public List<SecurityCategoryId> getRequiredCategories(ServiceId service) {
+        ServiceReplica serviceReplica = getReplica().getService(service);
+        return serviceReplica != null ? serviceReplica.getRequiredCategories() : Collections.emptyList();
+    }
+
+    @Override
+    public List<String> getTspUrl() {
+        return getReplica().getTspUrls();
+    }
+
+    @Override
+    public DescriptionType getDescriptionType(ServiceId service) {
+        ServiceReplica serviceReplica = getReplica().getService(service);
+        return serviceReplica != null ? serviceReplica.getDescriptionType() : null;
+    }
+
+    @Override
+    public String getServiceDescriptionURL(ServiceId service) {
+        ServiceReplica serviceReplica = getReplica().getService(service);
+        return serviceReplica != null ? serviceReplica.getDescriptionUrl() : null;
+    }
+}
@@ -24,6 +24,7 @@
  */
 package ee.ria.xroad.common.conf.serverconf;
 
+import ee.ria.xroad.common.SystemProperties;
 import ee.ria.xroad.common.conf.InternalSSLKey;
 import ee.ria.xroad.common.conf.serverconf.model.DescriptionType;
 import ee.ria.xroad.common.identifier.ClientId;
@@ -31,6 +32,7 @@ import ee.ria.xroad.common.identifier.SecurityCategoryId;
 import ee.ria.xroad.common.identifier.SecurityServerId;
 import ee.ria.xroad.common.identifier.ServiceId;
 
+import com.google.common.cache.CacheStats;
 import lombok.extern.slf4j.Slf4j;
 
 import java.security.cert.X509Certificate;
@@ -53,7 +55,7 @@ public class ServerConf {
      */
     protected static ServerConfProvider getInstance() {
         if (instance == null) {
-            instance = new CachingServerConfImpl();
+            createInstance();
         }
 
         return instance;
@@ -63,10 +65,24 @@ public class ServerConf {
      * Reloads the configuration with given configuration instance.
      * @param conf the new configuration implementation
      */
-    public static void reload(ServerConfProvider conf) {
+    public static synchronized void reload(ServerConfProvider conf) {
         log.trace("reload({})", conf.getClass());
 
+        ServerConfProvider previous = instance;
         instance = conf;
+
+        if (previous != conf && previous instanceof ReplicatedServerConfImpl) {
+            // the replaced instance would otherwise keep its listener and database connection
+            ((ReplicatedServerConfImpl)previous).close();
+        }
+    }
+
+    // Only one instance may be created, since a replicated instance starts a listener thread.
+    private static synchronized void createInstance() {
+        if (instance == null) {
+            instance = SystemProperties.isServerConfReplicaEnabled()
+                    ? new ReplicatedServerConfImpl() : new CachingServerConfImpl();
+        }
     }
 
     // ------------------------------------------------------------------------
@@ -305,4 +321,14 @@ public class ServerConf {
 
         return getInstance().getServiceDescriptionURL(service);
     }
+
+    /**
+     * @return hit, miss and eviction statistics of the server conf cache, or null if the current
+     * configuration is not cached
+     */
+    public static CacheStats getCacheStats() {
+        ServerConfProvider current = instance;
+
+        return current instanceof CachingServerConfImpl ? ((CachingServerConfImpl)current).getCacheStats() : null;
+    }
 }
@@ -0,0 +1,179 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.conf.serverconf;
+
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Listens for the PostgreSQL notifications sent by the server conf database triggers and updates the
+ * replica of a {@link ReplicatedServerConfImpl}.
+ *
+ * The notification payload is the database id of the client whose configuration changed, or empty when
+ * the change does not belong to a single client. Notifications are sent when the changing transaction
+ * commits, so all notifications received in one poll are applied in one refresh.
+ *
+ * The listener holds one connection from the server conf connection pool. If the connection fails, it is
+ * replaced and the whole replica is reloaded, since notifications may have been missed in between.
+ */
+@Slf4j
+final class ServerConfChangeListener implements Runnable {
+
+    static final String CHANNEL = "serverconf_change";
+
+    private static final int POLL_TIMEOUT_SECONDS = 10;
+    private static final long RETRY_INTERVAL_MILLIS = 10000;
+
+    private final ReplicatedServerConfImpl serverConf;
+    private final long reloadPeriodMillis;
+    private final Thread thread;
+
+    private volatile boolean running = true;
+
+    ServerConfChangeListener(ReplicatedServerConfImpl serverConf, int reloadPeriodSeconds) {
+        this.serverConf = serverConf;
+        this.reloadPeriodMillis = TimeUnit.SECONDS.toMillis(reloadPeriodSeconds);
+
+        thread = new Thread(this, "ServerConfChangeListener");
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    void stop() {
+        running = false;
+        thread.interrupt();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                listen();
+            } catch (Exception e) {
+                if (running) {
+                    log.warn("Listening for server conf changes failed, retrying in {} ms",
+                            RETRY_INTERVAL_MILLIS, e);
+                }
+            }
+
+            try {
+                Thread.sleep(RETRY_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void listen() throws Exception {
+        ConnectionProvider connectionProvider = ServerConfDatabaseCtx.getSessionFactory()
+                .unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry()
+                .getService(ConnectionProvider.class);
+
+        Connection connection = connectionProvider.getConnection();
+        boolean autoCommit = connection.getAutoCommit();
+        try {
+            // notifications are only delivered between transactions
+            connection.setAutoCommit(true);
+            execute(connection, "LISTEN " + CHANNEL);
+            log.info("Listening for server conf changes");
+
+            PGConnection pgConnection = connection.unwrap(PGConnection.class);
+
+            // covers the changes made before the LISTEN took effect
+            serverConf.reload();
+            long lastReload = System.currentTimeMillis();
+
+            while (running) {
+                PGNotification[] notifications =
+                        pgConnection.getNotifications((int)TimeUnit.SECONDS.toMillis(POLL_TIMEOUT_SECONDS));
+
+                if (reloadPeriodMillis > 0 && System.currentTimeMillis() - lastReload >= reloadPeriodMillis) {
+                    serverConf.reload();
+                    lastReload = System.currentTimeMillis();
+                } else if (notifications != null && notifications.length > 0) {
+                    apply(notifications);
+                } else if (!connection.isValid(POLL_TIMEOUT_SECONDS)) {
+                    throw new SQLException("Server conf change listener connection is not valid");
+                }
+            }
+        } finally {
+            close(connectionProvider, connection, autoCommit);
+        }
+    }
+
+    private void apply(PGNotification[] notifications) {
+        Set<Long> clientDbIds = new HashSet<>();
+        for (PGNotification notification : notifications) {
+            try {
+                clientDbIds.add(Long.valueOf(notification.getParameter()));
+            } catch (NumberFormatException e) {
+                log.debug("Server conf change without a client id, reloading all");
+                serverConf.reload();
+                return;
+            }
+        }
+
+        serverConf.refresh(clientDbIds);
+    }
+
+    private static void close(ConnectionProvider connectionProvider, Connection connection, boolean autoCommit) {
+        try {
+            // the connection goes back to the pool, so it must not keep collecting notifications
+            if (!connection.isClosed()) {
+                execute(connection, "UNLISTEN *");
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            log.debug("Failed to reset the server conf change listener connection", e);
+        }
+
+        try {
+            connectionProvider.closeConnection(connection);
+        } catch (SQLException e) {
+            log.debug("Failed to release the server conf change listener connection", e);
+        }
+    }
+
+    private static void execute(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+}
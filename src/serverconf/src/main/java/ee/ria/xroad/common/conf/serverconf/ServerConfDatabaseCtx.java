@@ -25,16 +25,20 @@
 package ee.ria.xroad.common.conf.serverconf;
 
 import ee.ria.xroad.common.db.DatabaseCtx;
+import ee.ria.xroad.common.db.HibernateUtil;
 import ee.ria.xroad.common.db.TransactionCallback;
 
 import org.hibernate.Session;
+import org.hibernate.SessionFactory;
 
 /**
  * Server conf database context.
  */
 public final class ServerConfDatabaseCtx {
 
-    private static final DatabaseCtx CTX = new DatabaseCtx("serverconf");
+    private static final String SESSION_FACTORY_NAME = "serverconf";
+
+    private static final DatabaseCtx CTX = new DatabaseCtx(SESSION_FACTORY_NAME);
 
     private ServerConfDatabaseCtx() {
     }
@@ -46,6 +50,13 @@ public final class ServerConfDatabaseCtx {
         return CTX;
     }
 
+    /**
+     * @return the session factory of the server conf database
+     */
+    public static SessionFactory getSessionFactory() {
+        return HibernateUtil.getSessionFactory(SESSION_FACTORY_NAME);
+    }
+
     /**
      * @return shortcut for a session
      */
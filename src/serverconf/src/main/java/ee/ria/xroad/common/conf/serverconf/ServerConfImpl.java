@@ -48,13 +48,11 @@ import ee.ria.xroad.common.identifier.SecurityCategoryId;
 import ee.ria.xroad.common.identifier.SecurityServerId;
 import ee.ria.xroad.common.identifier.ServiceId;
 import ee.ria.xroad.common.identifier.XRoadId;
-import ee.ria.xroad.common.util.UriUtils;
 
 import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.hibernate.Session;
 
-import java.net.URI;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.List;
@@ -72,7 +70,7 @@ import static ee.ria.xroad.common.util.CryptoUtils.readCertificate;
 public class ServerConfImpl implements ServerConfProvider {
 
     // default service connection timeout in seconds
-    private static final int DEFAULT_SERVICE_TIMEOUT = 30;
+    static final int DEFAULT_SERVICE_TIMEOUT = 30;
 
     @Override
     public SecurityServerId getIdentifier() {
@@ -248,7 +246,7 @@ public class ServerConfImpl implements ServerConfProvider {
         return tx(session -> {
             ServiceType serviceType = getService(session, service);
             if (serviceType != null) {
-                return serviceType.getRequiredSecurityCategory();
+                return new ArrayList<>(serviceType.getRequiredSecurityCategory());
             }
 
             return new ArrayList<SecurityCategoryId>();
@@ -304,6 +302,15 @@ public class ServerConfImpl implements ServerConfProvider {
         return new ServiceDescriptionDAOImpl().getServiceDescription(session, service);
     }
 
+    /**
+     * Compiles the access rights of the given service provider for evaluation outside of a transaction
+     * @param serviceProvider the service provider
+     * @return compiled access rights, empty if the provider does not exist
+     */
+    AccessRightsIndex getAccessRights(ClientId serviceProvider) {
+        return tx(session -> AccessRightsIndex.build(getClient(session, serviceProvider)));
+    }
+
     private boolean internalIsQueryAllowed(Session session, ClientId client, ServiceId service, String method,
             String path) {
 
@@ -323,12 +330,7 @@ public class ServerConfImpl implements ServerConfProvider {
     private boolean checkAccessRights(ClientType clientType, Session session, ClientId client, ServiceId service,
             String method, String path) {
 
-        final String normalizedPath;
-        if (path == null) {
-            normalizedPath = null;
-        } else {
-            normalizedPath = UriUtils.uriPathPercentDecode(URI.create(path).normalize().getRawPath(), true);
-        }
+        final String normalizedPath = AccessRightsIndex.normalizePath(path);
 
         for (AccessRightType accessRight : clientType.getAcl()) {
             final EndpointType endpoint = accessRight.getEndpoint();
@@ -0,0 +1,259 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.conf.serverconf;
+
+import ee.ria.xroad.common.conf.serverconf.dao.ServerConfDAOImpl;
+import ee.ria.xroad.common.conf.serverconf.model.CertificateType;
+import ee.ria.xroad.common.conf.serverconf.model.ClientType;
+import ee.ria.xroad.common.conf.serverconf.model.DescriptionType;
+import ee.ria.xroad.common.conf.serverconf.model.ServerConfType;
+import ee.ria.xroad.common.conf.serverconf.model.ServiceDescriptionType;
+import ee.ria.xroad.common.conf.serverconf.model.ServiceType;
+import ee.ria.xroad.common.conf.serverconf.model.TspType;
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.identifier.SecurityCategoryId;
+import ee.ria.xroad.common.identifier.SecurityServerId;
+import ee.ria.xroad.common.identifier.ServiceId;
+
+import lombok.Getter;
+import lombok.Value;
+import org.apache.commons.lang3.StringUtils;
+import org.hibernate.Session;
+
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static ee.ria.xroad.common.util.CryptoUtils.readCertificate;
+
+/**
+ * Immutable in-memory copy of the server configuration: the security server identifier, the timestamping
+ * services and every client with its services, information system certificates and compiled access rights.
+ *
+ * The copy is read without locking or database access. Changes are applied by building a new copy, either from
+ * scratch or by reloading only the changed clients.
+ */
+final class ServerConfReplica {
+
+    private final SecurityServerId identifier;
+    private final List<String> tspUrls;
+
+    private final Map<Long, ClientReplica> clientsByDbId;
+    private final Map<ClientKey, ClientReplica> clients;
+
+    @Getter
+    private final List<ClientId> members;
+
+    private ServerConfReplica(ServerConfType conf, Map<Long, ClientReplica> clientsByDbId) {
+        ClientType owner = conf.getOwner();
+        this.identifier = owner != null ? SecurityServerId.create(owner.getIdentifier(), conf.getServerCode()) : null;
+
+        List<String> urls = new ArrayList<>();
+        for (TspType tsp : conf.getTsp()) {
+            if (StringUtils.isNotBlank(tsp.getUrl())) {
+                urls.add(tsp.getUrl());
+            }
+        }
+        this.tspUrls = Collections.unmodifiableList(urls);
+
+        this.clientsByDbId = clientsByDbId;
+        this.clients = new HashMap<>();
+        List<ClientId> ids = new ArrayList<>();
+        for (ClientReplica client : clientsByDbId.values()) {
+            // ClientDAOImpl returns a unique result, so identifiers do not repeat
+            clients.put(ClientKey.of(client.getId()), client);
+            ids.add(client.getId());
+        }
+        this.members = Collections.unmodifiableList(ids);
+    }
+
+    /**
+     * Loads the whole configuration
+     * @param session the session
+     * @return the configuration copy
+     */
+    static ServerConfReplica load(Session session) {
+        ServerConfType conf = new ServerConfDAOImpl().getConf(session);
+
+        Map<Long, ClientReplica> clientsByDbId = new LinkedHashMap<>();
+        for (ClientType client : conf.getClient()) {
+            clientsByDbId.put(client.getId(), ClientReplica.build(client));
+        }
+
+        return new ServerConfReplica(conf, clientsByDbId);
+    }
+
+    /**
+     * Reloads the given clients and the server level settings, keeping the other clients
+     * @param session the session
+     * @param clientDbIds database ids of the changed clients, including deleted ones
+     * @return the updated configuration copy
+     */
+    ServerConfReplica refresh(Session session, Collection<Long> clientDbIds) {
+        ServerConfType conf = new ServerConfDAOImpl().getConf(session);
+
+        Map<Long, ClientReplica> updated = new LinkedHashMap<>(clientsByDbId);
+        for (Long dbId : clientDbIds) {
+            ClientType client = session.get(ClientType.class, dbId);
+            if (client != null) {
+                updated.put(dbId, ClientReplica.build(client));
+            } else {
+                updated.remove(dbId);
+            }
+        }
+
+        return new ServerConfReplica(conf, updated);
+    }
+
+    /**
+     * @return the security server identifier or null if the owner is not set
+     */
+    SecurityServerId getIdentifier() {
+        return identifier;
+    }
+
+    List<String> getTspUrls() {
+        return tspUrls;
+    }
+
+    ClientReplica getClient(ClientId clientId) {
+        return clients.get(ClientKey.of(clientId));
+    }
+
+    ServiceReplica getService(ServiceId serviceId) {
+        ClientReplica client = clients.get(ClientKey.of(serviceId.getClientId()));
+        return client != null ? client.getServices().get(new ServiceKey(serviceId)) : null;
+    }
+
+    int getClientCount() {
+        return clientsByDbId.size();
+    }
+
+    /**
+     * Replicated client.
+     */
+    @Getter
+    static final class ClientReplica {
+        private final ClientId id;
+        private final String clientStatus;
+        private final IsAuthentication isAuthentication;
+        private final List<X509Certificate> isCerts;
+        private final Map<ServiceKey, ServiceReplica> services;
+        private final AccessRightsIndex accessRights;
+
+        private ClientReplica(ClientType client) {
+            id = client.getIdentifier();
+            clientStatus = client.getClientStatus();
+            isAuthentication = client.getIsAuthentication() != null
+                    ? IsAuthentication.valueOf(client.getIsAuthentication()) : IsAuthentication.NOSSL;
+
+            List<X509Certificate> certs = new ArrayList<>();
+            for (CertificateType cert : client.getIsCert()) {
+                certs.add(readCertificate(cert.getData()));
+            }
+            isCerts = Collections.unmodifiableList(certs);
+
+            services = new HashMap<>();
+            for (ServiceDescriptionType description : client.getServiceDescription()) {
+                for (ServiceType service : description.getService()) {
+                    // ServiceDAOImpl expects a single match
+                    services.putIfAbsent(new ServiceKey(service.getServiceCode(), service.getServiceVersion()),
+                            new ServiceReplica(service));
+                }
+            }
+
+            accessRights = AccessRightsIndex.build(client);
+        }
+
+        static ClientReplica build(ClientType client) {
+            return new ClientReplica(client);
+        }
+    }
+
+    /**
+     * Replicated service.
+     */
+    @Getter
+    static final class ServiceReplica {
+        private final String url;
+        private final int timeout;
+        private final Boolean sslAuthentication;
+        private final List<SecurityCategoryId> requiredCategories;
+        private final DescriptionType descriptionType;
+        private final String descriptionUrl;
+        private final boolean disabled;
+        private final String disabledNotice;
+
+        private ServiceReplica(ServiceType service) {
+            url = service.getUrl();
+            timeout = service.getTimeout();
+            sslAuthentication = service.getSslAuthentication();
+            requiredCategories = Collections.unmodifiableList(new ArrayList<>(service.getRequiredSecurityCategory()));
+
+            ServiceDescriptionType description = service.getServiceDescription();
+            descriptionType = description.getType();
+            descriptionUrl = description.getUrl();
+            disabled = description.isDisabled();
+            disabledNotice = description.getDisabledNotice();
+        }
+    }
+
+    /**
+     * Client lookup key, cheaper to hash than the reflective {@link ClientId#hashCode()}. The object type
+     * follows from the subsystem code, like in the database queries.
+     */
+    @Value
+    private static class ClientKey {
+        private final String xRoadInstance;
+        private final String memberClass;
+        private final String memberCode;
+        private final String subsystemCode;
+
+        static ClientKey of(ClientId id) {
+            return new ClientKey(id.getXRoadInstance(), id.getMemberClass(), id.getMemberCode(),
+                    id.getSubsystemCode());
+        }
+    }
+
+    @Value
+    private static class ServiceKey {
+        private final String serviceCode;
+        private final String serviceVersion;
+
+        ServiceKey(ServiceId id) {
+            this(id.getServiceCode(), id.getServiceVersion());
+        }
+
+        ServiceKey(String serviceCode, String serviceVersion) {
+            this.serviceCode = serviceCode;
+            this.serviceVersion = serviceVersion;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.conf;
+
+import ee.ria.xroad.common.conf.serverconf.ReplicatedServerConfImpl;
+import ee.ria.xroad.common.conf.serverconf.ServerConfImpl;
+import ee.ria.xroad.common.conf.serverconf.dao.ClientDAOImpl;
+import ee.ria.xroad.common.conf.serverconf.model.ClientType;
+import ee.ria.xroad.common.conf.serverconf.model.ServiceDescriptionType;
+import ee.ria.xroad.common.conf.serverconf.model.ServiceType;
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.identifier.ServiceId;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static ee.ria.xroad.common.conf.serverconf.ServerConfDatabaseCtx.doInTransaction;
+import static ee.ria.xroad.proxy.conf.TestUtil.CLIENT_CODE;
+import static ee.ria.xroad.proxy.conf.TestUtil.SERVICE_CODE;
+import static ee.ria.xroad.proxy.conf.TestUtil.SERVICE_URL;
+import static ee.ria.xroad.proxy.conf.TestUtil.SERVICE_VERSION;
+import static ee.ria.xroad.proxy.conf.TestUtil.client;
+import static ee.ria.xroad.proxy.conf.TestUtil.createTestClientId;
+import static ee.ria.xroad.proxy.conf.TestUtil.createTestServiceId;
+import static ee.ria.xroad.proxy.conf.TestUtil.prepareDB;
+import static ee.ria.xroad.proxy.conf.TestUtil.service;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the in-memory server conf replica answers like the database backed server conf.
+ */
+public class ReplicatedServerConfTest {
+
+    private static final String[][] REQUESTS = {
+            {null, null},
+            {"GET", "/api/foo"},
+            {"POST", "/api/test/foo/bar"}
+    };
+
+    /**
+     * Creates test database.
+     * @throws Exception if an error occurs
+     */
+    @Before
+    public void setUp() throws Exception {
+        prepareDB();
+    }
+
+    /**
+     * Tests that the replica gives the same answers as the database for all clients and services.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void replicaMatchesDatabase() throws Exception {
+        assertConsistent(new ServerConfImpl(), new ReplicatedServerConfImpl(false));
+    }
+
+    /**
+     * Tests that a listening replica, which is loaded by its listener, is loaded by the caller if it is used
+     * before the listener has connected. The test database sends no change notifications.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void listeningReplicaIsLoadedWhenUsed() throws Exception {
+        ReplicatedServerConfImpl replica = new ReplicatedServerConfImpl();
+
+        try {
+            assertConsistent(new ServerConfImpl(), replica);
+        } finally {
+            replica.close();
+        }
+    }
+
+    /**
+     * Tests that refreshing a client picks up changes made to it in the database.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void refreshChangedClient() throws Exception {
+        ReplicatedServerConfImpl replica = new ReplicatedServerConfImpl(false);
+
+        ClientId provider = createTestClientId(client(1));
+        ServiceId service = createTestServiceId(provider, service(0, 1), SERVICE_VERSION);
+        ServiceId newService = createTestServiceId(provider, SERVICE_CODE + "New", SERVICE_VERSION);
+
+        Long clientDbId = doInTransaction(session -> {
+            ClientType client = new ClientDAOImpl().getClient(session, provider);
+            ServiceDescriptionType serviceDescription = client.getServiceDescription().get(0);
+
+            for (ServiceType s : serviceDescription.getService()) {
+                if (s.getServiceCode().equals(service.getServiceCode())) {
+                    s.setUrl("changedUrl");
+                }
+            }
+
+            ServiceType added = new ServiceType();
+            added.setServiceDescription(serviceDescription);
+            added.setServiceCode(newService.getServiceCode());
+            added.setServiceVersion(SERVICE_VERSION);
+            added.setUrl(SERVICE_URL + "New");
+            serviceDescription.getService().add(added);
+
+            client.setClientStatus("changedStatus");
+            return client.getId();
+        });
+
+        // not visible until the client is refreshed
+        assertEquals(SERVICE_URL + 1, replica.getServiceAddress(service));
+        assertFalse(replica.serviceExists(newService));
+
+        replica.refresh(Collections.singleton(clientDbId));
+
+        assertEquals("changedUrl", replica.getServiceAddress(service));
+        assertTrue(replica.serviceExists(newService));
+        assertEquals(SERVICE_URL + "New", replica.getServiceAddress(newService));
+        assertEquals("changedStatus", replica.getMemberStatus(provider));
+
+        assertConsistent(new ServerConfImpl(), replica);
+    }
+
+    /**
+     * Tests that refreshing a deleted client removes it from the replica.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void refreshDeletedClient() throws Exception {
+        ReplicatedServerConfImpl replica = new ReplicatedServerConfImpl(false);
+
+        ClientId provider = createTestClientId(client(2));
+        ServiceId service = createTestServiceId(provider, service(0, 1), SERVICE_VERSION);
+
+        Long clientDbId = doInTransaction(session -> {
+            ClientType client = new ClientDAOImpl().getClient(session, provider);
+            client.getConf().getClient().remove(client);
+            session.delete(client);
+            return client.getId();
+        });
+
+        assertTrue(replica.serviceExists(service));
+
+        replica.refresh(Collections.singleton(clientDbId));
+
+        assertFalse(replica.serviceExists(service));
+        assertNull(replica.getMemberStatus(provider));
+        assertFalse(replica.getMembers().contains(provider));
+
+        assertConsistent(new ServerConfImpl(), replica);
+    }
+
+    private static void assertConsistent(ServerConfImpl expected, ReplicatedServerConfImpl actual)
+            throws Exception {
+        assertEquals(expected.getIdentifier(), actual.getIdentifier());
+        assertEquals(expected.getTspUrl(), actual.getTspUrl());
+        // member order is not defined
+        assertEquals(new HashSet<>(expected.getMembers()), new HashSet<>(actual.getMembers()));
+
+        List<ClientId> senders = Arrays.asList(createTestClientId(client(1)),
+                createTestClientId(CLIENT_CODE + "X"), ClientId.create("XX", "memberClass", "memberCode1"));
+
+        List<ClientId> providers = new ArrayList<>(expected.getMembers());
+        providers.add(createTestClientId(CLIENT_CODE + "X"));
+
+        for (ClientId provider : providers) {
+            assertEquals(expected.getMemberStatus(provider), actual.getMemberStatus(provider));
+            assertEquals(expected.getIsAuthentication(provider), actual.getIsAuthentication(provider));
+            assertEquals(expected.getIsCerts(provider), actual.getIsCerts(provider));
+
+            List<ServiceId> services = new ArrayList<>(expected.getAllServices(provider));
+            services.add(ServiceId.create(provider, "rest"));
+            services.add(ServiceId.create(provider, SERVICE_CODE + "X", SERVICE_VERSION));
+            services.add(ServiceId.create(provider, service(0, 0)));
+
+            for (ServiceId service : services) {
+                assertService(expected, actual, service, senders);
+            }
+        }
+    }
+
+    private static void assertService(ServerConfImpl expected, ReplicatedServerConfImpl actual, ServiceId service,
+            List<ClientId> senders) {
+        boolean exists = expected.serviceExists(service);
+
+        assertEquals(service.toString(), exists, actual.serviceExists(service));
+        assertEquals(expected.getServiceAddress(service), actual.getServiceAddress(service));
+        assertEquals(expected.getServiceTimeout(service), actual.getServiceTimeout(service));
+        assertEquals(expected.getDisabledNotice(service), actual.getDisabledNotice(service));
+        assertEquals(expected.getRequiredCategories(service), actual.getRequiredCategories(service));
+        assertEquals(expected.getDescriptionType(service), actual.getDescriptionType(service));
+        assertEquals(expected.getServiceDescriptionURL(service), actual.getServiceDescriptionURL(service));
+
+        if (exists) {
+            assertEquals(expected.isSslAuthentication(service), actual.isSslAuthentication(service));
+        }
+
+        for (ClientId client : senders) {
+            for (String[] request : REQUESTS) {
+                assertEquals(client + " -> " + service + " " + request[0] + " " + request[1],
+                        expected.isQueryAllowed(client, service, request[0], request[1]),
+                        actual.isQueryAllowed(client, service, request[0], request[1]));
+            }
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.conf;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the server conf change notification trigger of the 11-change-notify changelog against the PostgreSQL
+ * configured in hibernate-postgres.properties. The statements are the ones Hibernate issues for the client
+ * collections. Skipped when the database is not available.
+ */
+public class ServerConfChangeNotifyTest {
+
+    private static final String CHANGELOG =
+            "../packages/src/xroad/common/proxy/usr/share/xroad/db/serverconf/11-change-notify.xml";
+    private static final String PROPERTIES = "src/test/resources/hibernate-postgres.properties";
+    private static final String SCHEMA = "serverconf_notify_test";
+    private static final int NOTIFY_TIMEOUT_MILLIS = 1000;
+
+    private static final String[] TABLES = {
+        "serverconf (id bigint primary key)",
+        "tsp (id bigint primary key)",
+        "client (id bigint primary key)",
+        "certificate (id bigint primary key, client_id bigint)",
+        "servicedescription (id bigint primary key, client_id bigint)",
+        "service (id bigint primary key, servicedescription_id bigint)",
+        "service_securitycategories (service_id bigint, security_cat_id bigint)",
+        "endpoint (id bigint primary key, client_id bigint)",
+        "accessright (id bigint primary key, client_id bigint)",
+        "localgroup (id bigint primary key, client_id bigint)",
+        "groupmember (id bigint primary key, localgroup_id bigint)"
+    };
+
+    private Connection connection;
+    private Connection listener;
+
+    /**
+     * Creates the tables and the triggers in a schema of their own.
+     * @throws Exception if an error occurs
+     */
+    @Before
+    public void setUp() throws Exception {
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(PROPERTIES)) {
+            properties.load(in);
+        }
+
+        String url = properties.getProperty("serverconf.hibernate.connection.url");
+        String user = properties.getProperty("serverconf.hibernate.connection.username");
+        String password = properties.getProperty("serverconf.hibernate.connection.password");
+        try {
+            connection = DriverManager.getConnection(url, user, password);
+            listener = DriverManager.getConnection(url, user, password);
+        } catch (SQLException e) {
+            close();
+            Assume.assumeNoException("PostgreSQL is not available", e);
+        }
+
+        execute(connection, "DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+        execute(connection, "CREATE SCHEMA " + SCHEMA);
+        execute(connection, "SET search_path TO " + SCHEMA);
+        for (String table : TABLES) {
+            execute(connection, "CREATE TABLE " + table);
+        }
+        execute(connection, getChangeSetSql("11-change-notify-function"));
+        execute(connection, getChangeSetSql("11-change-notify-triggers"));
+
+        execute(connection, "INSERT INTO client VALUES (1), (2)");
+        execute(listener, "LISTEN serverconf_change");
+        receiveNotifications();
+
+        connection.setAutoCommit(false);
+    }
+
+    /**
+     * Drops the test schema.
+     * @throws Exception if an error occurs
+     */
+    @After
+    public void tearDown() throws Exception {
+        if (connection != null) {
+            connection.rollback();
+            connection.setAutoCommit(true);
+            execute(connection, "DROP SCHEMA " + SCHEMA + " CASCADE");
+        }
+        close();
+    }
+
+    /**
+     * Tests that adding to and removing from a client collection notifies only the client.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void clientCollectionChangesNotifyClient() throws Exception {
+        for (String table : new String[] {"certificate", "endpoint", "accessright", "localgroup"}) {
+            execute(connection, "INSERT INTO " + table + " (id, client_id) VALUES (10, NULL)");
+            execute(connection, "UPDATE " + table + " SET client_id = 1 WHERE id = 10");
+            connection.commit();
+
+            assertEquals(table, Collections.singletonList("1"), receiveNotifications());
+
+            execute(connection, "UPDATE " + table + " SET client_id = NULL WHERE client_id = 1");
+            execute(connection, "DELETE FROM " + table + " WHERE id = 10");
+            connection.commit();
+
+            assertEquals(table, Collections.singletonList("1"), receiveNotifications());
+        }
+    }
+
+    /**
+     * Tests that adding a member to a local group notifies the client of the group.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void groupMemberChangesNotifyClient() throws Exception {
+        execute(connection, "INSERT INTO localgroup VALUES (10, 2)");
+        execute(connection, "INSERT INTO groupmember VALUES (20, NULL)");
+        execute(connection, "UPDATE groupmember SET localgroup_id = 10 WHERE id = 20");
+        connection.commit();
+
+        assertEquals(Collections.singletonList("2"), receiveNotifications());
+    }
+
+    /**
+     * Tests that server level changes notify without a client.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void serverLevelChangesNotifyAll() throws Exception {
+        execute(connection, "INSERT INTO tsp VALUES (1)");
+        execute(connection, "INSERT INTO client VALUES (3)");
+        connection.commit();
+
+        assertEquals(Arrays.asList("", "3"), receiveNotifications());
+    }
+
+    private List<String> receiveNotifications() throws SQLException {
+        List<String> payloads = new ArrayList<>();
+        PGNotification[] notifications = listener.unwrap(PGConnection.class).getNotifications(NOTIFY_TIMEOUT_MILLIS);
+        while (notifications != null && notifications.length > 0) {
+            for (PGNotification notification : notifications) {
+                payloads.add(notification.getParameter());
+            }
+            notifications = listener.unwrap(PGConnection.class).getNotifications(NOTIFY_TIMEOUT_MILLIS);
+        }
+        return payloads;
+    }
+
+    private static String getChangeSetSql(String id) throws Exception {
+        NodeList changeSets = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new File(CHANGELOG))
+                .getElementsByTagName("changeSet");
+        for (int i = 0; i < changeSets.getLength(); i++) {
+            Element changeSet = (Element)changeSets.item(i);
+            if (id.equals(changeSet.getAttribute("id"))) {
+                return changeSet.getElementsByTagName("sql").item(0).getTextContent();
+            }
+        }
+        throw new IllegalArgumentException("No change set " + id + " in " + CHANGELOG);
+    }
+
+    private static void execute(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    private void close() throws SQLException {
+        if (connection != null) {
+            connection.close();
+            connection = null;
+        }
+        if (listener != null) {
+            listener.close();
+            listener = null;
+        }
+    }
+}
@@ -26,6 +26,7 @@ package ee.ria.xroad.proxy.conf;
 
 import ee.ria.xroad.common.ExpectedCodedException;
 import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.conf.serverconf.CachingServerConfImpl;
 import ee.ria.xroad.common.conf.serverconf.IsAuthentication;
 import ee.ria.xroad.common.conf.serverconf.ServerConf;
 import ee.ria.xroad.common.conf.serverconf.ServerConfDatabaseCtx;
@@ -36,6 +37,7 @@ import ee.ria.xroad.common.identifier.SecurityCategoryId;
 import ee.ria.xroad.common.identifier.SecurityServerId;
 import ee.ria.xroad.common.identifier.ServiceId;
 
+import com.google.common.cache.CacheStats;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -218,6 +220,55 @@ public class ServerConfTest {
      */
     @Test
     public void isQueryAllowed() {
+        assertQueryAllowed();
+    }
+
+    /**
+     * Tests query allowed using compiled and cached access rights.
+     */
+    @Test
+    public void isQueryAllowedCached() {
+        ServerConf.reload(new CachingServerConfImpl());
+        try {
+            assertQueryAllowed();
+            // second round is answered from the compiled access rights
+            assertQueryAllowed();
+        } finally {
+            ServerConf.reload(new ServerConfImpl());
+        }
+    }
+
+    /**
+     * Tests that per-service lookups are served from the cache.
+     */
+    @Test
+    public void cachedServiceLookups() {
+        ServerConf.reload(new CachingServerConfImpl());
+        try {
+            ServiceId service = createTestServiceId(client(1), service(1, 1), SERVICE_VERSION);
+            ServiceId nonExistingService = createTestServiceId("foo", "bar");
+
+            for (int i = 0; i < 2; i++) {
+                assertEquals(SERVICE_URL + 1, ServerConf.getServiceAddress(service));
+                assertEquals(SERVICE_TIMEOUT, ServerConf.getServiceTimeout(service));
+                assertFalse(ServerConf.isSslAuthentication(service));
+                assertEquals("disabledNotice", ServerConf.getDisabledNotice(service));
+                assertEquals(1, ServerConf.getRequiredCategories(service).size());
+                assertNull(ServerConf.getServiceAddress(nonExistingService));
+            }
+
+            CacheStats stats = ServerConf.getCacheStats();
+            assertEquals(6, stats.missCount());
+            assertEquals(6, stats.hitCount());
+
+            thrown.expectError(X_UNKNOWN_SERVICE);
+            ServerConf.isSslAuthentication(nonExistingService);
+        } finally {
+            ServerConf.reload(new ServerConfImpl());
+        }
+    }
+
+    private static void assertQueryAllowed() {
         ClientId client1 = createTestClientId(client(1));
         ClientId clientX = createTestClientId(CLIENT_CODE + "X");
         ServiceId service1 = createTestServiceId(client1.getMemberCode(),
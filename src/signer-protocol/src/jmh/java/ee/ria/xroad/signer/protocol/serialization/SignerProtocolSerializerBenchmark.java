@@ -0,0 +1,160 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.signer.protocol.serialization;
+
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.signer.protocol.dto.CertificateInfo;
+import ee.ria.xroad.signer.protocol.dto.KeyInfo;
+import ee.ria.xroad.signer.protocol.dto.KeyUsageInfo;
+import ee.ria.xroad.signer.protocol.dto.TokenInfo;
+import ee.ria.xroad.signer.protocol.dto.TokenStatusInfo;
+import ee.ria.xroad.signer.protocol.message.Sign;
+import ee.ria.xroad.signer.protocol.message.SignResponse;
+
+import akka.serialization.JavaSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a serialize + deserialize round trip of the signing request/response pair and of a
+ * token listing, using Java serialization (what {@link JavaSerializer} does) and the binary
+ * {@link SignerProtocolSerializer}. Payload sizes are printed during setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SignerProtocolSerializerBenchmark {
+
+    private final SignerProtocolSerializer serializer = new SignerProtocolSerializer();
+
+    private Sign sign;
+    private SignResponse signResponse;
+    private TokenInfo tokenInfo;
+
+    /**
+     * Creates the benchmarked messages.
+     */
+    @Setup
+    public void setup() throws IOException {
+        sign = new Sign("A0B1C2D3E4F5A0B1C2D3E4F5A0B1C2D3E4F5A0B1", "SHA256withRSA", new byte[32]);
+        signResponse = new SignResponse(new byte[256]);
+
+        ClientId member = ClientId.create("EE", "GOV", "1234", "subsystem");
+        List<KeyInfo> keys = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            List<CertificateInfo> certs = new ArrayList<>();
+            for (int j = 0; j < 3; j++) {
+                certs.add(new CertificateInfo(member, true, true, "registered", "cert" + i + j, new byte[1500],
+                        new byte[1800]));
+            }
+            keys.add(new KeyInfo(true, KeyUsageInfo.SIGNING, "key" + i, "id" + i, "label" + i, null, certs,
+                    Collections.emptyList(), "CKM_RSA_PKCS"));
+        }
+        tokenInfo = new TokenInfo("softToken", "softToken-0", "0", false, true, true, null, null, 0,
+                TokenStatusInfo.OK, keys, Collections.emptyMap());
+
+        for (Object message : new Object[] {sign, signResponse, tokenInfo}) {
+            System.out.printf("%n%s: java %d bytes, binary %d bytes%n", message.getClass().getSimpleName(),
+                    javaSerialize(message).length, serializer.toBinary(message).length);
+        }
+    }
+
+    /**
+     * Java serialization of a signing request and its response.
+     */
+    @Benchmark
+    public Object javaSign() throws Exception {
+        javaDeserialize(javaSerialize(sign));
+
+        return javaDeserialize(javaSerialize(signResponse));
+    }
+
+    /**
+     * Binary serialization of a signing request and its response.
+     */
+    @Benchmark
+    public Object binarySign() {
+        binaryRoundTrip(sign);
+
+        return binaryRoundTrip(signResponse);
+    }
+
+    /**
+     * Java serialization of a token listing.
+     */
+    @Benchmark
+    public Object javaTokenInfo() throws Exception {
+        return javaDeserialize(javaSerialize(tokenInfo));
+    }
+
+    /**
+     * Binary serialization of a token listing.
+     */
+    @Benchmark
+    public Object binaryTokenInfo() {
+        return binaryRoundTrip(tokenInfo);
+    }
+
+    private Object binaryRoundTrip(Object message) {
+        return serializer.fromBinary(serializer.toBinary(message), serializer.manifest(message));
+    }
+
+    private static byte[] javaSerialize(Object message) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+        try (ObjectOutputStream out = new ObjectOutputStream(bos)) {
+            out.writeObject(message);
+        }
+
+        return bos.toByteArray();
+    }
+
+    private static Object javaDeserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        }
+    }
+}
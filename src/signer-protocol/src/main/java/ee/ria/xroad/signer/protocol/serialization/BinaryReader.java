@@ -0,0 +1,265 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.signer.protocol.serialization;
+
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.identifier.SecurityServerId;
+import ee.ria.xroad.signer.protocol.dto.AuthKeyInfo;
+import ee.ria.xroad.signer.protocol.dto.CertRequestInfo;
+import ee.ria.xroad.signer.protocol.dto.CertificateInfo;
+import ee.ria.xroad.signer.protocol.dto.KeyInfo;
+import ee.ria.xroad.signer.protocol.dto.KeyUsageInfo;
+import ee.ria.xroad.signer.protocol.dto.MemberSigningInfo;
+import ee.ria.xroad.signer.protocol.dto.TokenInfo;
+import ee.ria.xroad.signer.protocol.dto.TokenStatusInfo;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Reads the primitive values written by {@link BinaryWriter}.
+ */
+final class BinaryReader {
+
+    private static final int VARINT_MASK = 0x7F;
+    private static final int VARINT_CONTINUE = 0x80;
+    private static final int VARINT_SHIFT = 7;
+    private static final int MAX_VARINT_SHIFT = 28;
+    private static final int BYTE_BITS = 8;
+    private static final int BYTE_MASK = 0xFF;
+    private static final int LONG_BYTES = 8;
+
+    private final byte[] buf;
+    private int pos;
+
+    BinaryReader(byte[] buf) {
+        this.buf = buf;
+    }
+
+    int readByte() {
+        if (pos >= buf.length) {
+            throw new IllegalArgumentException("Unexpected end of signer protocol message");
+        }
+        return buf[pos++] & BYTE_MASK;
+    }
+
+    boolean readBoolean() {
+        return readByte() != 0;
+    }
+
+    int readVarInt() {
+        int value = 0;
+        for (int shift = 0; shift <= MAX_VARINT_SHIFT; shift += VARINT_SHIFT) {
+            int b = readByte();
+            value |= (b & VARINT_MASK) << shift;
+            if ((b & VARINT_CONTINUE) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed variable length integer");
+    }
+
+    int readInt() {
+        return readVarInt();
+    }
+
+    long readLong() {
+        long value = 0;
+        for (int i = 0; i < LONG_BYTES; i++) {
+            value = (value << BYTE_BITS) | readByte();
+        }
+        return value;
+    }
+
+    byte[] readBytes() {
+        int length = readLength();
+        if (length < 0) {
+            return null;
+        }
+        if (length > buf.length - pos) {
+            throw new IllegalArgumentException("Unexpected end of signer protocol message");
+        }
+        byte[] value = new byte[length];
+        System.arraycopy(buf, pos, value, 0, length);
+        pos += length;
+        return value;
+    }
+
+    String readString() {
+        int length = readLength();
+        if (length < 0) {
+            return null;
+        }
+        if (length > buf.length - pos) {
+            throw new IllegalArgumentException("Unexpected end of signer protocol message");
+        }
+        String value = new String(buf, pos, length, StandardCharsets.UTF_8);
+        pos += length;
+        return value;
+    }
+
+    /**
+     * Reads characters written by {@link BinaryWriter#writeChars(char[])}, decoding them straight into a char
+     * array without creating a string. A temporary decoding buffer is cleared after copying.
+     */
+    char[] readChars() {
+        int length = readLength();
+        if (length < 0) {
+            return null;
+        }
+        if (length > buf.length - pos) {
+            throw new IllegalArgumentException("Unexpected end of signer protocol message");
+        }
+
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        // UTF-8 never decodes to more chars than there are bytes
+        char[] decoded = new char[length];
+        CharBuffer out = CharBuffer.wrap(decoded);
+        decoder.decode(ByteBuffer.wrap(buf, pos, length), out, true);
+        decoder.flush(out);
+        pos += length;
+
+        if (out.position() == decoded.length) {
+            return decoded;
+        }
+
+        char[] value = Arrays.copyOf(decoded, out.position());
+        Arrays.fill(decoded, '\0');
+        return value;
+    }
+
+    String[] readStrings() {
+        int length = readLength();
+        if (length < 0) {
+            return null;
+        }
+        String[] value = new String[length];
+        for (int i = 0; i < length; i++) {
+            value[i] = readString();
+        }
+        return value;
+    }
+
+    Date readDate() {
+        return readBoolean() ? new Date(readLong()) : null;
+    }
+
+    <E extends Enum<E>> E readEnum(Class<E> type) {
+        String name = readString();
+        return name == null ? null : Enum.valueOf(type, name);
+    }
+
+    ClientId readClientId() {
+        if (!readBoolean()) {
+            return null;
+        }
+        return ClientId.create(readString(), readString(), readString(), readString());
+    }
+
+    SecurityServerId readSecurityServerId() {
+        if (!readBoolean()) {
+            return null;
+        }
+        return SecurityServerId.create(readString(), readString(), readString(), readString());
+    }
+
+    <T> T readObject(Function<BinaryReader, T> reader) {
+        return readBoolean() ? reader.apply(this) : null;
+    }
+
+    <T> List<T> readList(Function<BinaryReader, T> reader) {
+        int size = readLength();
+        if (size < 0) {
+            return null;
+        }
+        List<T> value = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            value.add(reader.apply(this));
+        }
+        return value;
+    }
+
+    Map<String, String> readStringMap() {
+        int size = readLength();
+        if (size < 0) {
+            return null;
+        }
+        Map<String, String> value = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            value.put(readString(), readString());
+        }
+        return value;
+    }
+
+    CertificateInfo readCertificateInfo() {
+        return new CertificateInfo(readClientId(), readBoolean(), readBoolean(), readString(), readString(),
+                readBytes(), readBytes());
+    }
+
+    CertRequestInfo readCertRequestInfo() {
+        return new CertRequestInfo(readString(), readClientId(), readString());
+    }
+
+    KeyInfo readKeyInfo() {
+        return new KeyInfo(readBoolean(), readEnum(KeyUsageInfo.class), readString(), readString(), readString(),
+                readString(), readList(BinaryReader::readCertificateInfo),
+                readList(BinaryReader::readCertRequestInfo), readString());
+    }
+
+    TokenInfo readTokenInfo() {
+        return new TokenInfo(readString(), readString(), readString(), readBoolean(), readBoolean(), readBoolean(),
+                readString(), readString(), readInt(), readEnum(TokenStatusInfo.class),
+                readList(BinaryReader::readKeyInfo), readStringMap());
+    }
+
+    AuthKeyInfo readAuthKeyInfo() {
+        return new AuthKeyInfo(readString(), readString(), readChars(),
+                readObject(BinaryReader::readCertificateInfo));
+    }
+
+    MemberSigningInfo readMemberSigningInfo() {
+        return new MemberSigningInfo(readString(), readObject(BinaryReader::readCertificateInfo), readString());
+    }
+
+    boolean isFullyRead() {
+        return pos == buf.length;
+    }
+
+    private int readLength() {
+        return readVarInt() - 1;
+    }
+}
@@ -0,0 +1,278 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.signer.protocol.serialization;
+
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.identifier.SecurityServerId;
+import ee.ria.xroad.signer.protocol.dto.AuthKeyInfo;
+import ee.ria.xroad.signer.protocol.dto.CertRequestInfo;
+import ee.ria.xroad.signer.protocol.dto.CertificateInfo;
+import ee.ria.xroad.signer.protocol.dto.KeyInfo;
+import ee.ria.xroad.signer.protocol.dto.MemberSigningInfo;
+import ee.ria.xroad.signer.protocol.dto.TokenInfo;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Writes the primitive values of the signer protocol binary format into a growable byte array.
+ *
+ * Lengths are written as unsigned variable length integers. Nullable values (strings, arrays,
+ * identifiers, lists) are prefixed with their length + 1 or a presence flag, zero meaning null.
+ */
+final class BinaryWriter {
+
+    private static final int INITIAL_SIZE = 64;
+    private static final int VARINT_MASK = 0x7F;
+    private static final int VARINT_CONTINUE = 0x80;
+    private static final int VARINT_SHIFT = 7;
+    private static final int BYTE_BITS = 8;
+    private static final int LONG_BYTES = 8;
+
+    private byte[] buf;
+    private int pos;
+
+    BinaryWriter() {
+        buf = new byte[INITIAL_SIZE];
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(buf, pos);
+    }
+
+    void writeByte(int value) {
+        ensureCapacity(1);
+        buf[pos++] = (byte)value;
+    }
+
+    void writeBoolean(boolean value) {
+        writeByte(value ? 1 : 0);
+    }
+
+    void writeVarInt(int value) {
+        int v = value;
+        while ((v & ~VARINT_MASK) != 0) {
+            writeByte((v & VARINT_MASK) | VARINT_CONTINUE);
+            v >>>= VARINT_SHIFT;
+        }
+        writeByte(v);
+    }
+
+    void writeInt(int value) {
+        writeVarInt(value);
+    }
+
+    void writeLong(long value) {
+        ensureCapacity(LONG_BYTES);
+        for (int i = LONG_BYTES - 1; i >= 0; i--) {
+            buf[pos++] = (byte)(value >>> (i * BYTE_BITS));
+        }
+    }
+
+    void writeBytes(byte[] value) {
+        if (value == null) {
+            writeVarInt(0);
+            return;
+        }
+        writeVarInt(value.length + 1);
+        ensureCapacity(value.length);
+        System.arraycopy(value, 0, buf, pos, value.length);
+        pos += value.length;
+    }
+
+    void writeString(String value) {
+        writeBytes(value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes the characters as UTF-8 like {@link #writeString(String)}, without creating a string of them. The
+     * temporary encoding buffer is cleared, so that secrets such as token PINs are left only in the message.
+     */
+    void writeChars(char[] value) {
+        if (value == null) {
+            writeVarInt(0);
+            return;
+        }
+
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        byte[] encoded = new byte[(int)Math.ceil(value.length * (double)encoder.maxBytesPerChar())];
+        try {
+            ByteBuffer out = ByteBuffer.wrap(encoded);
+            encoder.encode(CharBuffer.wrap(value), out, true);
+            encoder.flush(out);
+
+            writeVarInt(out.position() + 1);
+            ensureCapacity(out.position());
+            System.arraycopy(encoded, 0, buf, pos, out.position());
+            pos += out.position();
+        } finally {
+            Arrays.fill(encoded, (byte)0);
+        }
+    }
+
+    void writeStrings(String[] value) {
+        if (value == null) {
+            writeVarInt(0);
+            return;
+        }
+        writeVarInt(value.length + 1);
+        for (String s : value) {
+            writeString(s);
+        }
+    }
+
+    void writeDate(Date value) {
+        writeBoolean(value != null);
+        if (value != null) {
+            writeLong(value.getTime());
+        }
+    }
+
+    void writeEnum(Enum<?> value) {
+        writeString(value == null ? null : value.name());
+    }
+
+    void writeClientId(ClientId value) {
+        writeBoolean(value != null);
+        if (value != null) {
+            writeString(value.getXRoadInstance());
+            writeString(value.getMemberClass());
+            writeString(value.getMemberCode());
+            writeString(value.getSubsystemCode());
+        }
+    }
+
+    void writeSecurityServerId(SecurityServerId value) {
+        writeBoolean(value != null);
+        if (value != null) {
+            writeString(value.getXRoadInstance());
+            writeString(value.getMemberClass());
+            writeString(value.getMemberCode());
+            writeString(value.getServerCode());
+        }
+    }
+
+    <T> void writeObject(T value, BiConsumer<BinaryWriter, T> writer) {
+        writeBoolean(value != null);
+        if (value != null) {
+            writer.accept(this, value);
+        }
+    }
+
+    <T> void writeList(List<T> value, BiConsumer<BinaryWriter, T> writer) {
+        if (value == null) {
+            writeVarInt(0);
+            return;
+        }
+        writeVarInt(value.size() + 1);
+        for (T item : value) {
+            writer.accept(this, item);
+        }
+    }
+
+    void writeStringMap(Map<String, String> value) {
+        if (value == null) {
+            writeVarInt(0);
+            return;
+        }
+        writeVarInt(value.size() + 1);
+        for (Map.Entry<String, String> e : value.entrySet()) {
+            writeString(e.getKey());
+            writeString(e.getValue());
+        }
+    }
+
+    void writeCertificateInfo(CertificateInfo value) {
+        writeClientId(value.getMemberId());
+        writeBoolean(value.isActive());
+        writeBoolean(value.isSavedToConfiguration());
+        writeString(value.getStatus());
+        writeString(value.getId());
+        writeBytes(value.getCertificateBytes());
+        writeBytes(value.getOcspBytes());
+    }
+
+    void writeCertRequestInfo(CertRequestInfo value) {
+        writeString(value.getId());
+        writeClientId(value.getMemberId());
+        writeString(value.getSubjectName());
+    }
+
+    void writeKeyInfo(KeyInfo value) {
+        writeBoolean(value.isAvailable());
+        writeEnum(value.getUsage());
+        writeString(value.getFriendlyName());
+        writeString(value.getId());
+        writeString(value.getLabel());
+        writeString(value.getPublicKey());
+        writeList(value.getCerts(), BinaryWriter::writeCertificateInfo);
+        writeList(value.getCertRequests(), BinaryWriter::writeCertRequestInfo);
+        writeString(value.getSignMechanismName());
+    }
+
+    void writeTokenInfo(TokenInfo value) {
+        writeString(value.getType());
+        writeString(value.getFriendlyName());
+        writeString(value.getId());
+        writeBoolean(value.isReadOnly());
+        writeBoolean(value.isAvailable());
+        writeBoolean(value.isActive());
+        writeString(value.getSerialNumber());
+        writeString(value.getLabel());
+        writeInt(value.getSlotIndex());
+        writeEnum(value.getStatus());
+        writeList(value.getKeyInfo(), BinaryWriter::writeKeyInfo);
+        writeStringMap(value.getTokenInfo());
+    }
+
+    void writeAuthKeyInfo(AuthKeyInfo value) {
+        writeString(value.getAlias());
+        writeString(value.getKeyStoreFileName());
+        writeChars(value.getPassword());
+        writeObject(value.getCert(), BinaryWriter::writeCertificateInfo);
+    }
+
+    void writeMemberSigningInfo(MemberSigningInfo value) {
+        writeString(value.getKeyId());
+        writeObject(value.getCert(), BinaryWriter::writeCertificateInfo);
+        writeString(value.getSignMechanismName());
+    }
+
+    private void ensureCapacity(int count) {
+        if (pos + count > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + count));
+        }
+    }
+}
@@ -0,0 +1,351 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.signer.protocol.serialization;
+
+import ee.ria.xroad.signer.protocol.dto.AuthKeyInfo;
+import ee.ria.xroad.signer.protocol.dto.CertRequestInfo;
+import ee.ria.xroad.signer.protocol.dto.CertificateInfo;
+import ee.ria.xroad.signer.protocol.dto.KeyInfo;
+import ee.ria.xroad.signer.protocol.dto.KeyUsageInfo;
+import ee.ria.xroad.signer.protocol.dto.MemberSigningInfo;
+import ee.ria.xroad.signer.protocol.dto.TokenInfo;
+import ee.ria.xroad.signer.protocol.message.ActivateCert;
+import ee.ria.xroad.signer.protocol.message.ActivateToken;
+import ee.ria.xroad.signer.protocol.message.ConnectionPing;
+import ee.ria.xroad.signer.protocol.message.ConnectionPong;
+import ee.ria.xroad.signer.protocol.message.DeleteCert;
+import ee.ria.xroad.signer.protocol.message.DeleteCertRequest;
+import ee.ria.xroad.signer.protocol.message.DeleteKey;
+import ee.ria.xroad.signer.protocol.message.GenerateCertRequest;
+import ee.ria.xroad.signer.protocol.message.GenerateCertRequestResponse;
+import ee.ria.xroad.signer.protocol.message.GenerateKey;
+import ee.ria.xroad.signer.protocol.message.GenerateSelfSignedCert;
+import ee.ria.xroad.signer.protocol.message.GenerateSelfSignedCertResponse;
+import ee.ria.xroad.signer.protocol.message.GetAuthKey;
+import ee.ria.xroad.signer.protocol.message.GetKeyIdForCertHash;
+import ee.ria.xroad.signer.protocol.message.GetKeyIdForCertHashResponse;
+import ee.ria.xroad.signer.protocol.message.GetMemberCerts;
+import ee.ria.xroad.signer.protocol.message.GetMemberCertsResponse;
+import ee.ria.xroad.signer.protocol.message.GetMemberSigningInfo;
+import ee.ria.xroad.signer.protocol.message.GetOcspResponses;
+import ee.ria.xroad.signer.protocol.message.GetOcspResponsesResponse;
+import ee.ria.xroad.signer.protocol.message.GetSignMechanism;
+import ee.ria.xroad.signer.protocol.message.GetSignMechanismResponse;
+import ee.ria.xroad.signer.protocol.message.GetTokenBatchSigningEnabled;
+import ee.ria.xroad.signer.protocol.message.GetTokenInfo;
+import ee.ria.xroad.signer.protocol.message.ImportCert;
+import ee.ria.xroad.signer.protocol.message.ImportCertResponse;
+import ee.ria.xroad.signer.protocol.message.InitSoftwareToken;
+import ee.ria.xroad.signer.protocol.message.ListTokens;
+import ee.ria.xroad.signer.protocol.message.SetCertStatus;
+import ee.ria.xroad.signer.protocol.message.SetKeyFriendlyName;
+import ee.ria.xroad.signer.protocol.message.SetOcspResponses;
+import ee.ria.xroad.signer.protocol.message.SetTokenFriendlyName;
+import ee.ria.xroad.signer.protocol.message.Sign;
+import ee.ria.xroad.signer.protocol.message.SignResponse;
+import ee.ria.xroad.signer.protocol.message.SuccessResponse;
+
+import akka.serialization.SerializerWithStringManifest;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Akka serializer for the signer protocol messages and DTOs.
+ *
+ * Every message type has an explicit, hand written codec, so (de)serialization does not rely on reflection
+ * and the wire format does not change when a class is recompiled. The payload starts with a schema version
+ * byte; the manifest carries the simple name of the message class. Classes without a codec are left to the
+ * default Java serializer, which Akka selects because they have no binding to this serializer.
+ *
+ * The serializer is registered for the bound classes in the signer-protocol reference.conf.
+ */
+public class SignerProtocolSerializer extends SerializerWithStringManifest {
+
+    /** Unique serializer identifier, values 0 - 40 are reserved by Akka. */
+    public static final int IDENTIFIER = 4157;
+
+    /** Version of the binary schema, written as the first byte of every payload. */
+    public static final int SCHEMA_VERSION = 1;
+
+    private static final Map<Class<?>, Codec<?>> CODECS_BY_CLASS = new HashMap<>();
+    private static final Map<String, Codec<?>> CODECS_BY_MANIFEST = new HashMap<>();
+
+    static {
+        // DTOs that can be sent as top level replies
+        register(AuthKeyInfo.class, BinaryWriter::writeAuthKeyInfo, BinaryReader::readAuthKeyInfo);
+        register(CertificateInfo.class, BinaryWriter::writeCertificateInfo, BinaryReader::readCertificateInfo);
+        register(CertRequestInfo.class, BinaryWriter::writeCertRequestInfo, BinaryReader::readCertRequestInfo);
+        register(KeyInfo.class, BinaryWriter::writeKeyInfo, BinaryReader::readKeyInfo);
+        register(MemberSigningInfo.class, BinaryWriter::writeMemberSigningInfo,
+                BinaryReader::readMemberSigningInfo);
+        register(TokenInfo.class, BinaryWriter::writeTokenInfo, BinaryReader::readTokenInfo);
+
+        // Messages
+        register(ActivateCert.class,
+                (w, m) -> {
+                    w.writeString(m.getCertIdOrHash());
+                    w.writeBoolean(m.isActive());
+                },
+                r -> new ActivateCert(r.readString(), r.readBoolean()));
+        register(ActivateToken.class,
+                (w, m) -> {
+                    w.writeString(m.getTokenId());
+                    w.writeBoolean(m.isActivate());
+                },
+                r -> new ActivateToken(r.readString(), r.readBoolean()));
+        register(ConnectionPing.class, (w, m) -> { }, r -> new ConnectionPing());
+        register(ConnectionPong.class, (w, m) -> { }, r -> new ConnectionPong());
+        register(DeleteCert.class,
+                (w, m) -> w.writeString(m.getCertId()),
+                r -> new DeleteCert(r.readString()));
+        register(DeleteCertRequest.class,
+                (w, m) -> w.writeString(m.getCertId()),
+                r -> new DeleteCertRequest(r.readString()));
+        register(DeleteKey.class,
+                (w, m) -> {
+                    w.writeString(m.getKeyId());
+                    w.writeBoolean(m.isDeleteFromDevice());
+                },
+                r -> new DeleteKey(r.readString(), r.readBoolean()));
+        register(GenerateCertRequest.class,
+                (w, m) -> {
+                    w.writeString(m.getKeyId());
+                    w.writeClientId(m.getMemberId());
+                    w.writeEnum(m.getKeyUsage());
+                    w.writeString(m.getSubjectName());
+                    w.writeEnum(m.getFormat());
+                },
+                r -> new GenerateCertRequest(r.readString(), r.readClientId(), r.readEnum(KeyUsageInfo.class),
+                        r.readString(), r.readEnum(GenerateCertRequest.RequestFormat.class)));
+        register(GenerateCertRequestResponse.class,
+                (w, m) -> {
+                    w.writeString(m.getCertReqId());
+                    w.writeBytes(m.getCertRequest());
+                    w.writeEnum(m.getFormat());
+                },
+                r -> new GenerateCertRequestResponse(r.readString(), r.readBytes(),
+                        r.readEnum(GenerateCertRequest.RequestFormat.class)));
+        register(GenerateKey.class,
+                (w, m) -> {
+                    w.writeString(m.getTokenId());
+                    w.writeString(m.getKeyLabel());
+                },
+                r -> new GenerateKey(r.readString(), r.readString()));
+        register(GenerateSelfSignedCert.class,
+                (w, m) -> {
+                    w.writeString(m.getKeyId());
+                    w.writeString(m.getCommonName());
+                    w.writeDate(m.getNotBefore());
+                    w.writeDate(m.getNotAfter());
+                    w.writeEnum(m.getKeyUsage());
+                    w.writeClientId(m.getMemberId());
+                },
+                r -> new GenerateSelfSignedCert(r.readString(), r.readString(), r.readDate(), r.readDate(),
+                        r.readEnum(KeyUsageInfo.class), r.readClientId()));
+        register(GenerateSelfSignedCertResponse.class,
+                (w, m) -> w.writeBytes(m.getCertificateBytes()),
+                r -> new GenerateSelfSignedCertResponse(r.readBytes()));
+        register(GetAuthKey.class,
+                (w, m) -> w.writeSecurityServerId(m.getSecurityServer()),
+                r -> new GetAuthKey(r.readSecurityServerId()));
+        register(GetKeyIdForCertHash.class,
+                (w, m) -> w.writeString(m.getCertHash()),
+                r -> new GetKeyIdForCertHash(r.readString()));
+        register(GetKeyIdForCertHashResponse.class,
+                (w, m) -> {
+                    w.writeString(m.getKeyId());
+                    w.writeString(m.getSignMechanismName());
+                },
+                r -> new GetKeyIdForCertHashResponse(r.readString(), r.readString()));
+        register(GetMemberCerts.class,
+                (w, m) -> w.writeClientId(m.getMemberId()),
+                r -> new GetMemberCerts(r.readClientId()));
+        register(GetMemberCertsResponse.class,
+                (w, m) -> w.writeList(m.getCerts(), BinaryWriter::writeCertificateInfo),
+                r -> new GetMemberCertsResponse(r.readList(BinaryReader::readCertificateInfo)));
+        register(GetMemberSigningInfo.class,
+                (w, m) -> w.writeClientId(m.getMemberId()),
+                r -> new GetMemberSigningInfo(r.readClientId()));
+        register(GetOcspResponses.class,
+                (w, m) -> w.writeStrings(m.getCertHash()),
+                r -> new GetOcspResponses(r.readStrings()));
+        register(GetOcspResponsesResponse.class,
+                (w, m) -> w.writeStrings(m.getBase64EncodedResponses()),
+                r -> new GetOcspResponsesResponse(r.readStrings()));
+        register(GetSignMechanism.class,
+                (w, m) -> w.writeString(m.getKeyId()),
+                r -> new GetSignMechanism(r.readString()));
+        register(GetSignMechanismResponse.class,
+                (w, m) -> w.writeString(m.getSignMechanismName()),
+                r -> new GetSignMechanismResponse(r.readString()));
+        register(GetTokenBatchSigningEnabled.class,
+                (w, m) -> w.writeString(m.getKeyId()),
+                r -> new GetTokenBatchSigningEnabled(r.readString()));
+        register(GetTokenInfo.class,
+                (w, m) -> w.writeString(m.getTokenId()),
+                r -> new GetTokenInfo(r.readString()));
+        register(ImportCert.class,
+                (w, m) -> {
+                    w.writeBytes(m.getCertData());
+                    w.writeString(m.getInitialStatus());
+                    w.writeClientId(m.getMemberId());
+                },
+                r -> new ImportCert(r.readBytes(), r.readString(), r.readClientId()));
+        register(ImportCertResponse.class,
+                (w, m) -> w.writeString(m.getKeyId()),
+                r -> new ImportCertResponse(r.readString()));
+        register(InitSoftwareToken.class,
+                (w, m) -> w.writeChars(m.getPin()),
+                r -> new InitSoftwareToken(r.readChars()));
+        register(ListTokens.class, (w, m) -> { }, r -> new ListTokens());
+        register(SetCertStatus.class,
+                (w, m) -> {
+                    w.writeString(m.getCertId());
+                    w.writeString(m.getStatus());
+                },
+                r -> new SetCertStatus(r.readString(), r.readString()));
+        register(SetKeyFriendlyName.class,
+                (w, m) -> {
+                    w.writeString(m.getKeyId());
+                    w.writeString(m.getFriendlyName());
+                },
+                r -> new SetKeyFriendlyName(r.readString(), r.readString()));
+        register(SetOcspResponses.class,
+                (w, m) -> {
+                    w.writeStrings(m.getCertHashes());
+                    w.writeStrings(m.getBase64EncodedResponses());
+                },
+                r -> new SetOcspResponses(r.readStrings(), r.readStrings()));
+        register(SetTokenFriendlyName.class,
+                (w, m) -> {
+                    w.writeString(m.getTokenId());
+                    w.writeString(m.getFriendlyName());
+                },
+                r -> new SetTokenFriendlyName(r.readString(), r.readString()));
+        register(Sign.class,
+                (w, m) -> {
+                    w.writeString(m.getKeyId());
+                    w.writeString(m.getSignatureAlgorithmId());
+                    w.writeBytes(m.getDigest());
+                },
+                r -> new Sign(r.readString(), r.readString(), r.readBytes()));
+        register(SignResponse.class,
+                (w, m) -> w.writeBytes(m.getSignature()),
+                r -> new SignResponse(r.readBytes()));
+        register(SuccessResponse.class, (w, m) -> { }, r -> new SuccessResponse());
+    }
+
+    @Override
+    public int identifier() {
+        return IDENTIFIER;
+    }
+
+    @Override
+    public String manifest(Object o) {
+        return codecFor(o.getClass()).manifest;
+    }
+
+    @Override
+    public byte[] toBinary(Object o) {
+        BinaryWriter writer = new BinaryWriter();
+        writer.writeByte(SCHEMA_VERSION);
+        codecFor(o.getClass()).write(writer, o);
+
+        return writer.toByteArray();
+    }
+
+    @Override
+    public Object fromBinary(byte[] bytes, String manifest) {
+        Codec<?> codec = CODECS_BY_MANIFEST.get(manifest);
+
+        if (codec == null) {
+            throw new IllegalArgumentException("Unknown signer protocol manifest '" + manifest + "'");
+        }
+
+        BinaryReader reader = new BinaryReader(bytes);
+        int version = reader.readByte();
+
+        if (version != SCHEMA_VERSION) {
+            throw new IllegalArgumentException("Unsupported signer protocol schema version " + version
+                    + " for '" + manifest + "'");
+        }
+
+        Object message = codec.reader.apply(reader);
+
+        if (!reader.isFullyRead()) {
+            throw new IllegalArgumentException("Trailing bytes in signer protocol message '" + manifest + "'");
+        }
+
+        return message;
+    }
+
+    /**
+     * @return the classes this serializer has a codec for
+     */
+    public static Iterable<Class<?>> getSupportedClasses() {
+        return Collections.unmodifiableSet(CODECS_BY_CLASS.keySet());
+    }
+
+    private static Codec<?> codecFor(Class<?> clazz) {
+        Codec<?> codec = CODECS_BY_CLASS.get(clazz);
+
+        if (codec == null) {
+            throw new IllegalArgumentException("No signer protocol codec for " + clazz.getName());
+        }
+
+        return codec;
+    }
+
+    private static <T> void register(Class<T> clazz, BiConsumer<BinaryWriter, T> writer,
+            Function<BinaryReader, T> reader) {
+        Codec<T> codec = new Codec<>(clazz, clazz.getSimpleName(), writer, reader);
+
+        CODECS_BY_CLASS.put(clazz, codec);
+        CODECS_BY_MANIFEST.put(codec.manifest, codec);
+    }
+
+    private static final class Codec<T> {
+        private final Class<T> clazz;
+        private final String manifest;
+        private final BiConsumer<BinaryWriter, T> writer;
+        private final Function<BinaryReader, T> reader;
+
+        private Codec(Class<T> clazz, String manifest, BiConsumer<BinaryWriter, T> writer,
+                Function<BinaryReader, T> reader) {
+            this.clazz = clazz;
+            this.manifest = manifest;
+            this.writer = writer;
+            this.reader = reader;
+        }
+
+        void write(BinaryWriter w, Object message) {
+            writer.accept(w, clazz.cast(message));
+        }
+    }
+}
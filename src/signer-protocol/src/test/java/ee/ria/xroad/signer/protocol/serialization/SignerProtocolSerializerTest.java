@@ -0,0 +1,265 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.signer.protocol.serialization;
+
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.identifier.SecurityServerId;
+import ee.ria.xroad.signer.protocol.dto.AuthKeyInfo;
+import ee.ria.xroad.signer.protocol.dto.CertRequestInfo;
+import ee.ria.xroad.signer.protocol.dto.CertificateInfo;
+import ee.ria.xroad.signer.protocol.dto.KeyInfo;
+import ee.ria.xroad.signer.protocol.dto.KeyUsageInfo;
+import ee.ria.xroad.signer.protocol.dto.MemberSigningInfo;
+import ee.ria.xroad.signer.protocol.dto.TokenInfo;
+import ee.ria.xroad.signer.protocol.dto.TokenStatusInfo;
+import ee.ria.xroad.signer.protocol.message.ActivateCert;
+import ee.ria.xroad.signer.protocol.message.ActivateToken;
+import ee.ria.xroad.signer.protocol.message.ConnectionPing;
+import ee.ria.xroad.signer.protocol.message.ConnectionPong;
+import ee.ria.xroad.signer.protocol.message.DeleteCert;
+import ee.ria.xroad.signer.protocol.message.DeleteCertRequest;
+import ee.ria.xroad.signer.protocol.message.DeleteKey;
+import ee.ria.xroad.signer.protocol.message.GenerateCertRequest;
+import ee.ria.xroad.signer.protocol.message.GenerateCertRequestResponse;
+import ee.ria.xroad.signer.protocol.message.GenerateKey;
+import ee.ria.xroad.signer.protocol.message.GenerateSelfSignedCert;
+import ee.ria.xroad.signer.protocol.message.GenerateSelfSignedCertResponse;
+import ee.ria.xroad.signer.protocol.message.GetAuthKey;
+import ee.ria.xroad.signer.protocol.message.GetKeyIdForCertHash;
+import ee.ria.xroad.signer.protocol.message.GetKeyIdForCertHashResponse;
+import ee.ria.xroad.signer.protocol.message.GetMemberCerts;
+import ee.ria.xroad.signer.protocol.message.GetMemberCertsResponse;
+import ee.ria.xroad.signer.protocol.message.GetMemberSigningInfo;
+import ee.ria.xroad.signer.protocol.message.GetOcspResponses;
+import ee.ria.xroad.signer.protocol.message.GetOcspResponsesResponse;
+import ee.ria.xroad.signer.protocol.message.GetSignMechanism;
+import ee.ria.xroad.signer.protocol.message.GetSignMechanismResponse;
+import ee.ria.xroad.signer.protocol.message.GetTokenBatchSigningEnabled;
+import ee.ria.xroad.signer.protocol.message.GetTokenInfo;
+import ee.ria.xroad.signer.protocol.message.ImportCert;
+import ee.ria.xroad.signer.protocol.message.ImportCertResponse;
+import ee.ria.xroad.signer.protocol.message.InitSoftwareToken;
+import ee.ria.xroad.signer.protocol.message.ListTokens;
+import ee.ria.xroad.signer.protocol.message.SetCertStatus;
+import ee.ria.xroad.signer.protocol.message.SetKeyFriendlyName;
+import ee.ria.xroad.signer.protocol.message.SetOcspResponses;
+import ee.ria.xroad.signer.protocol.message.SetTokenFriendlyName;
+import ee.ria.xroad.signer.protocol.message.Sign;
+import ee.ria.xroad.signer.protocol.message.SignResponse;
+import ee.ria.xroad.signer.protocol.message.SuccessResponse;
+
+import akka.actor.ActorSystem;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import akka.serialization.Serializer;
+import akka.serialization.SerializerWithStringManifest;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the binary signer protocol serializer.
+ */
+public class SignerProtocolSerializerTest {
+
+    private static final ClientId MEMBER = ClientId.create("EE", "GOV", "1234");
+    private static final ClientId SUBSYSTEM = ClientId.create("EE", "GOV", "1234", "sub");
+
+    private final SignerProtocolSerializer serializer = new SignerProtocolSerializer();
+
+    /**
+     * Test that every message and DTO survives a round trip, including null and empty values.
+     */
+    @Test
+    public void roundTripAllMessages() {
+        List<Object> messages = Arrays.asList(
+                certificateInfo(),
+                new CertificateInfo(null, false, false, null, null, null, null),
+                new CertRequestInfo("req", SUBSYSTEM, "CN=foo"),
+                keyInfo(),
+                tokenInfo(),
+                new TokenInfo(null, null, null, false, false, false, null, null, -1, null, null, null),
+                new AuthKeyInfo("alias", "file.p12", "secret".toCharArray(), certificateInfo()),
+                new AuthKeyInfo("alias", "file.p12", null, null),
+                new MemberSigningInfo("key", certificateInfo(), "CKM_RSA_PKCS"),
+                new ActivateCert("cert", true),
+                new ActivateToken("0", false),
+                new DeleteCert("cert"),
+                new DeleteCertRequest("req"),
+                new DeleteKey("key", true),
+                new GenerateCertRequest("key", MEMBER, KeyUsageInfo.SIGNING, "CN=õäöü",
+                        GenerateCertRequest.RequestFormat.DER),
+                new GenerateCertRequestResponse("req", new byte[] {1, 2, 3}, GenerateCertRequest.RequestFormat.PEM),
+                new GenerateKey("0", "label"),
+                new GenerateSelfSignedCert("key", "cn", new Date(0), new Date(), KeyUsageInfo.AUTHENTICATION,
+                        SUBSYSTEM),
+                new GenerateSelfSignedCertResponse(new byte[0]),
+                new GetAuthKey(SecurityServerId.create("EE", "GOV", "1234", "server")),
+                new GetKeyIdForCertHash("hash"),
+                new GetKeyIdForCertHashResponse("key", "CKM_RSA_PKCS"),
+                new GetMemberCerts(MEMBER),
+                new GetMemberCertsResponse(Arrays.asList(certificateInfo(), certificateInfo())),
+                new GetMemberSigningInfo(MEMBER),
+                new GetOcspResponses(new String[] {"a", null, ""}),
+                new GetOcspResponsesResponse(new String[0]),
+                new GetSignMechanism("key"),
+                new GetSignMechanismResponse("CKM_RSA_PKCS"),
+                new GetTokenBatchSigningEnabled("key"),
+                new GetTokenInfo("0"),
+                new ImportCert(new byte[] {4, 5}, "registered", null),
+                new ImportCertResponse("key"),
+                new SetCertStatus("cert", "saved"),
+                new SetKeyFriendlyName("key", "name"),
+                new SetOcspResponses(new String[] {"hash"}, null),
+                new SetTokenFriendlyName("0", "name"),
+                new Sign("key", "SHA256withRSA", new byte[] {(byte) 0xff, 0, 127}),
+                new SignResponse(new byte[256]));
+
+        for (Object message : messages) {
+            assertEquals(message, roundTrip(message));
+        }
+    }
+
+    /**
+     * Test that the messages without state and the char arrays round trip.
+     */
+    @Test
+    public void roundTripSpecialMessages() {
+        assertTrue(roundTrip(new ConnectionPing()) instanceof ConnectionPing);
+        assertTrue(roundTrip(new ConnectionPong()) instanceof ConnectionPong);
+        assertTrue(roundTrip(new ListTokens()) instanceof ListTokens);
+        assertTrue(roundTrip(new SuccessResponse()) instanceof SuccessResponse);
+
+        InitSoftwareToken init = (InitSoftwareToken) roundTrip(new InitSoftwareToken("1234".toCharArray()));
+        assertArrayEquals("1234".toCharArray(), init.getPin());
+        assertNull(((InitSoftwareToken) roundTrip(new InitSoftwareToken(null))).getPin());
+
+        char[] pin = "p\u00e4\u20ac\ud834\udd1e".toCharArray();
+        assertArrayEquals(pin, ((InitSoftwareToken) roundTrip(new InitSoftwareToken(pin))).getPin());
+        assertArrayEquals(new char[0], ((InitSoftwareToken) roundTrip(new InitSoftwareToken(new char[0]))).getPin());
+        // the pin is encoded as UTF-8 like strings are
+        assertArrayEquals(new byte[] {1, 3, (byte)0xC3, (byte)0xA4},
+                serializer.toBinary(new InitSoftwareToken(new char[] {'\u00e4'})));
+    }
+
+    /**
+     * Test that the wire format of the signing hot path stays stable across releases.
+     */
+    @Test
+    public void signingWireFormatIsStable() {
+        Sign sign = new Sign("k", "A", new byte[] {1, 2});
+
+        assertEquals("Sign", serializer.manifest(sign));
+        assertArrayEquals(new byte[] {1, 2, 'k', 2, 'A', 3, 1, 2}, serializer.toBinary(sign));
+        assertArrayEquals(new byte[] {1, 0}, serializer.toBinary(new SignResponse(null)));
+        assertEquals(sign, serializer.fromBinary(new byte[] {1, 2, 'k', 2, 'A', 3, 1, 2}, "Sign"));
+    }
+
+    /**
+     * Test that unknown manifests, schema versions and truncated payloads are rejected.
+     */
+    @Test
+    public void rejectsInvalidPayloads() {
+        assertRejected(new byte[] {1}, "NoSuchMessage");
+        assertRejected(new byte[] {2, 2, 'k', 2, 'A', 3, 1, 2}, "Sign");
+        assertRejected(new byte[] {1, 2, 'k', 2, 'A', 3, 1}, "Sign");
+        assertRejected(new byte[] {1, 2, 'k', 2, 'A', 3, 1, 2, 0}, "Sign");
+    }
+
+    /**
+     * Test that Akka picks this serializer up from reference.conf for the bound classes.
+     */
+    @Test
+    public void registeredWithAkka() throws Exception {
+        ActorSystem system = ActorSystem.create("SignerProtocolSerializerTest");
+
+        try {
+            Serialization serialization = SerializationExtension.get(system);
+
+            for (Class<?> clazz : SignerProtocolSerializer.getSupportedClasses()) {
+                Serializer found = serialization.serializerFor(clazz);
+
+                assertEquals(clazz.getName(), SignerProtocolSerializer.IDENTIFIER, found.identifier());
+            }
+
+            Sign sign = new Sign("key", "SHA256withRSA", new byte[] {1, 2, 3});
+            SerializerWithStringManifest found = (SerializerWithStringManifest) serialization.findSerializerFor(sign);
+            byte[] bytes = serialization.serialize(sign).get();
+
+            assertEquals(sign, serialization.deserialize(bytes, found.identifier(), found.manifest(sign)).get());
+        } finally {
+            system.terminate();
+        }
+    }
+
+    private Object roundTrip(Object message) {
+        byte[] bytes = serializer.toBinary(message);
+
+        return serializer.fromBinary(bytes, serializer.manifest(message));
+    }
+
+    private void assertRejected(byte[] bytes, String manifest) {
+        try {
+            serializer.fromBinary(bytes, manifest);
+        } catch (IllegalArgumentException expected) {
+            return;
+        }
+
+        throw new AssertionError("Expected " + manifest + " payload to be rejected");
+    }
+
+    private static CertificateInfo certificateInfo() {
+        return new CertificateInfo(SUBSYSTEM, true, false, "registered", "id", new byte[] {1, 2, 3},
+                new byte[] {4});
+    }
+
+    private static KeyInfo keyInfo() {
+        return new KeyInfo(true, KeyUsageInfo.SIGNING, "friendly", "id", "label", "pubkey",
+                new ArrayList<>(Arrays.asList(certificateInfo())),
+                new ArrayList<>(Arrays.asList(new CertRequestInfo("req", MEMBER, "CN=foo"))),
+                "CKM_RSA_PKCS");
+    }
+
+    private static TokenInfo tokenInfo() {
+        Map<String, String> info = new HashMap<>();
+        info.put("Manufacturer", "ACME");
+        info.put("Model", "HSM");
+
+        return new TokenInfo("softToken", "Token", "0", false, true, true, "1234", "label", 2,
+                TokenStatusInfo.USER_PIN_COUNT_LOW, new ArrayList<>(Arrays.asList(keyInfo(), keyInfo())),
+                Collections.unmodifiableMap(info));
+    }
+}
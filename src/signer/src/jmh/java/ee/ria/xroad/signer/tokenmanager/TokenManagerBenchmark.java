@@ -0,0 +1,154 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.signer.tokenmanager;
+
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.signer.protocol.dto.CertificateInfo;
+import ee.ria.xroad.signer.protocol.dto.KeyInfo;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static ee.ria.xroad.common.util.CryptoUtils.calculateCertHexHash;
+
+/**
+ * Measures {@link TokenManager} sign path lookups done by concurrent readers while a background writer keeps
+ * updating the keys and saving the key configuration, as the signer does on token status changes.
+ *
+ * In the "locked" mode every read additionally takes the class lock, which reproduces the former
+ * class-level synchronized read methods (without their per-call DTO conversion, so the baseline is
+ * optimistic). The "snapshot" mode uses the lock-free reads.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenManagerBenchmark {
+
+    private static final String KEY_CONF = "src/test/resources/mergetesting/keyconf_base_no_duplicate_keyIds.xml";
+
+    private static final String TOKEN_ID = "1";
+    private static final String PRODUCER_KEY_ID = "70726f6475636572";
+    private static final ClientId PRODUCER = ClientId.create("EE", "BUSINESS", "producer");
+
+    @Param({"snapshot", "locked"})
+    public String mode;
+
+    private boolean locked;
+    private Path keyConf;
+    private String certHash;
+    private int counter;
+
+    /**
+     * Loads the test key configuration from a temporary copy and activates the producer signing key.
+     */
+    @Setup
+    public void setup() throws Exception {
+        locked = "locked".equals(mode);
+
+        // The test logging configuration logs everything, which would dominate the measurement
+        ((Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+        ((Logger) LoggerFactory.getLogger("ee.ria.xroad")).setLevel(Level.WARN);
+
+        keyConf = Files.createTempFile("keyconf", ".xml");
+        Files.copy(Paths.get(KEY_CONF), keyConf, StandardCopyOption.REPLACE_EXISTING);
+        System.setProperty(SystemProperties.KEY_CONFIGURATION_FILE, keyConf.toString());
+
+        TokenManager.init();
+        TokenManager.setTokenAvailable(TOKEN_ID, true);
+        TokenManager.setTokenActive(TOKEN_ID, true);
+        TokenManager.setKeyAvailable(PRODUCER_KEY_ID, true);
+
+        CertificateInfo cert = TokenManager.getKeyInfo(PRODUCER_KEY_ID).getCerts().get(0);
+        certHash = calculateCertHexHash(cert.getCertificateBytes());
+    }
+
+    /**
+     * Removes the temporary key configuration.
+     */
+    @TearDown
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(keyConf);
+    }
+
+    /**
+     * Member signing info and sign request lookups.
+     */
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(7)
+    public Object reader() {
+        if (locked) {
+            synchronized (TokenManager.class) {
+                return read();
+            }
+        }
+
+        return read();
+    }
+
+    /**
+     * Key status update followed by saving the key configuration.
+     */
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public void writer() throws Exception {
+        TokenManager.setKeyFriendlyName(PRODUCER_KEY_ID, "key" + (counter++ & 0xF));
+        TokenManager.saveToConf();
+    }
+
+    private Object read() {
+        List<KeyInfo> keys = TokenManager.getKeyInfo(PRODUCER);
+        TokenManager.findTokenAndKey(keys.get(0).getId());
+
+        return TokenManager.getCertificateInfoForCertHash(certHash);
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.signer.tokenmanager.token;
+
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.util.CryptoUtils;
+import ee.ria.xroad.signer.util.SignerUtil;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+
+import java.security.PrivateKey;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Measures the software token signatures per second for different numbers of signing threads. Every
+ * invocation submits a batch of signatures like the token worker does and waits for all of them.
+ * With one signing thread the signatures are calculated by the submitting thread, as before the
+ * signing threads were added.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SoftwareTokenSignerBenchmark {
+
+    private static final int BATCH_SIZE = 256;
+
+    @Param({"1", "2", "4", "8"})
+    public int signingThreads;
+
+    private SoftwareTokenSigner signer;
+    private PrivateKey key;
+    private byte[] data;
+
+    /**
+     * Generates the signing key.
+     * @throws Exception in case of an error
+     */
+    @Setup
+    public void setup() throws Exception {
+        ((Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+
+        signer = new SoftwareTokenSigner(signingThreads, BATCH_SIZE);
+        key = SoftwareTokenUtil.generateKeyPair(SystemProperties.getSignerKeyLength()).getPrivate();
+        data = SignerUtil.createDataToSign(CryptoUtils.calculateDigest(CryptoUtils.SHA256_ID, new byte[]{1}),
+                CryptoUtils.SHA256WITHRSA_ID);
+    }
+
+    /**
+     * Stops the signing threads.
+     */
+    @TearDown
+    public void tearDown() {
+        signer.shutdown();
+    }
+
+    /**
+     * Calculates a batch of signatures.
+     * @throws Exception in case of an error
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void sign() throws Exception {
+        Executor executor = signer.getExecutor();
+
+        if (executor == null) {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                SoftwareTokenSigner.sign(key, data);
+            }
+
+            return;
+        }
+
+        CountDownLatch done = new CountDownLatch(BATCH_SIZE);
+        AtomicReference<Exception> error = new AtomicReference<>();
+
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            executor.execute(() -> {
+                try {
+                    SoftwareTokenSigner.sign(key, data);
+                } catch (Exception e) {
+                    error.set(e);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+
+        done.await();
+
+        if (error.get() != null) {
+            throw error.get();
+        }
+    }
+}
@@ -28,6 +28,7 @@ import ee.ria.xroad.common.CertificationServiceDiagnostics;
 import ee.ria.xroad.common.CertificationServiceStatus;
 import ee.ria.xroad.common.DiagnosticsErrorCodes;
 import ee.ria.xroad.common.OcspResponderStatus;
+import ee.ria.xroad.common.SystemProperties;
 import ee.ria.xroad.common.cert.CertChain;
 import ee.ria.xroad.common.conf.globalconf.GlobalConf;
 import ee.ria.xroad.common.conf.globalconfextension.GlobalConfExtensions;
@@ -45,9 +46,12 @@ import ee.ria.xroad.signer.util.SignerUtil;
 
 import akka.actor.ActorRef;
 import lombok.RequiredArgsConstructor;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
 import org.bouncycastle.cert.ocsp.OCSPException;
 import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.SingleResp;
 
 import java.io.IOException;
 import java.net.ConnectException;
@@ -56,6 +60,7 @@ import java.security.cert.X509Certificate;
 import java.time.LocalTime;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -63,6 +68,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static ee.ria.xroad.common.util.CryptoUtils.calculateCertHexHash;
 import static ee.ria.xroad.common.util.CryptoUtils.encodeBase64;
@@ -76,7 +86,13 @@ import static java.util.Collections.emptyList;
  * This class is responsible for retrieving the OCSP responses from the OCSP
  * server and providing the responses to the message signer.
  *
- * The certificate status is queried from the server at a fixed interval.
+ * The certificate status is queried from the server at a fixed interval. The
+ * responses are fetched in parallel by {@link OcspFetcher}. Certificates that
+ * already have a response are fetched at random times spread over the first
+ * half of the interval, so that the responses do not all expire at once. An
+ * execution requested while the certificates are being fetched fetches the
+ * remaining certificates at once and starts a new refresh cycle when the
+ * current one completes.
  */
 @Slf4j
 @RequiredArgsConstructor
@@ -97,13 +113,51 @@ public class OcspClientWorker extends AbstractSignerActor {
 
     private GlobalConfChangeChecker changeChecker;
 
+    // modified in the actor only, the fetcher threads report responder statuses as messages
     private CertificationServiceDiagnostics certServDiagnostics;
 
+    // the fetcher threads call back through this reference
+    private ActorRef self;
+
+    private ScheduledExecutorService fetchExecutor;
+
+    private OcspFetcher fetcher;
+
+    // maps certificate hash to the expiry time of its latest fetched response
+    private final Map<String, Long> responseExpiry = new HashMap<>();
+
+    // the refresh cycle in progress or null
+    private OcspFetcher.Fetch refresh;
+
+    // requesters of the refresh cycle to be started when the current one completes
+    private final List<ActorRef> pendingRequesters = new ArrayList<>();
+
     @Override
     public void preStart() throws Exception {
         super.preStart();
         changeChecker = new GlobalConfChangeChecker();
         certServDiagnostics = new CertificationServiceDiagnostics();
+        self = getSelf();
+
+        AtomicInteger threadNumber = new AtomicInteger();
+
+        fetchExecutor = Executors.newScheduledThreadPool(SystemProperties.getOcspFetchThreads(), r -> {
+            Thread thread = new Thread(r, "ocsp-fetcher-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+
+            return thread;
+        });
+
+        fetcher = new OcspFetcher(fetchExecutor, SystemProperties.getOcspResponderMaxConcurrentRequests());
+    }
+
+    @Override
+    public void postStop() throws Exception {
+        if (fetchExecutor != null) {
+            fetchExecutor.shutdownNow();
+        }
+
+        super.postStop();
     }
 
     @Override
@@ -114,6 +168,12 @@ public class OcspClientWorker extends AbstractSignerActor {
             handleReload();
         } else if (DIAGNOSTICS.equals(message)) {
             handleDiagnostics();
+        } else if (message instanceof ResponseFetched) {
+            handleResponseFetched((ResponseFetched) message);
+        } else if (message instanceof RefreshCompleted) {
+            handleRefreshCompleted((RefreshCompleted) message);
+        } else if (message instanceof ResponderStatusReported) {
+            handleResponderStatusReported((ResponderStatusReported) message);
         } else {
             if (message instanceof Exception) {
                 log.error("received Exception message", ((Exception) message));
@@ -124,7 +184,7 @@ public class OcspClientWorker extends AbstractSignerActor {
     }
 
     void handleDiagnostics() {
-        getSender().tell(certServDiagnostics, getSelf());
+        getSender().tell(new CertificationServiceDiagnostics(certServDiagnostics), getSelf());
     }
 
     void handleReload() {
@@ -190,12 +250,32 @@ public class OcspClientWorker extends AbstractSignerActor {
 
     void handleExecute() {
         log.trace("handleExecute()");
+
+        if (refresh != null) {
+            log.info("Previous OCSP-response refresh cycle is still in progress, fetching its remaining certificates"
+                    + " now and starting a new cycle when it completes");
+
+            refresh.expedite();
+            pendingRequesters.add(getSender());
+
+            return;
+        }
+
+        startRefresh(Collections.singletonList(getSender()), false);
+    }
+
+    /**
+     * Starts fetching the responses of the certificates that need them.
+     * @param requesters the actors to be notified when the refresh cycle completes
+     * @param immediate true if all the certificates are to be fetched now
+     */
+    private void startRefresh(List<ActorRef> requesters, boolean immediate) {
         log.info("OCSP-response refresh cycle started");
 
         if (!GlobalConf.isValid()) {
             log.debug("invalid global conf, returning");
 
-            getSender().tell(GLOBAL_CONF_INVALIDATED, getSelf());
+            requesters.forEach(requester -> requester.tell(GLOBAL_CONF_INVALIDATED, getSelf()));
 
             return;
         }
@@ -210,36 +290,100 @@ public class OcspClientWorker extends AbstractSignerActor {
 
         log.info("Fetching OCSP responses for {} certificates", certs.size());
 
-        Boolean failed = false;
-        Map<String, OCSPResp> statuses = new HashMap<>();
+        OcspVerifierOptions verifierOptions = new OcspVerifierOptions(
+                GlobalConfExtensions.getInstance().shouldVerifyOcspNextUpdate());
+
+        long now = System.currentTimeMillis();
+        List<OcspFetcher.FetchTask> tasks = new ArrayList<>(certs.size());
 
         for (X509Certificate subject : certs) {
-            try {
-                OCSPResp status = queryCertStatus(subject, new OcspVerifierOptions(
-                        GlobalConfExtensions.getInstance().shouldVerifyOcspNextUpdate()));
-                if (status != null) {
-                    String subjectHash = calculateCertHexHash(subject);
-                    statuses.put(subjectHash, status);
-                } else {
-                    failed = true;
-                }
-            } catch (Exception e) {
-                failed = true;
+            tasks.add(new OcspFetcher.FetchTask(subject, getPrimaryResponder(subject),
+                    immediate ? now : getFetchTimeMillis(subject, now)));
+        }
 
-                log.error("Error when querying certificate '{}'", subject.getSerialNumber(), e);
-            }
+        // The fetcher calls back from its own threads
+        refresh = fetcher.fetch(tasks, subject -> queryCertStatus(subject, verifierOptions),
+                (subject, response) -> self.tell(new ResponseFetched(subject, response), ActorRef.noSender()),
+                failed -> self.tell(new RefreshCompleted(requesters, failed), ActorRef.noSender()));
+    }
+
+    private void handleResponseFetched(ResponseFetched message) {
+        try {
+            String subjectHash = calculateCertHexHash(message.getSubject());
+
+            responseExpiry.put(subjectHash, getExpiryMillis(message.getResponse()));
+
+            updateCertStatuses(Collections.singletonMap(subjectHash, message.getResponse()));
+        } catch (Exception e) {
+            log.error("Error updating certificate statuses", e);
         }
+    }
 
-        if (failed) {
-            getSender().tell(FAILED, getSelf());
-        } else {
-            getSender().tell(SUCCESS, getSelf());
+    private void handleRefreshCompleted(RefreshCompleted message) {
+        refresh = null;
+
+        log.info("OCSP-response refresh cycle completed");
+
+        String result = message.isFailed() ? FAILED : SUCCESS;
+
+        message.getRequesters().forEach(requester -> requester.tell(result, getSelf()));
+
+        if (!pendingRequesters.isEmpty()) {
+            List<ActorRef> requesters = new ArrayList<>(pendingRequesters);
+            pendingRequesters.clear();
+
+            startRefresh(requesters, true);
         }
+    }
+
+    /**
+     * @return the time to fetch the certificate, now if there is no response yet or it is about to expire
+     */
+    long getFetchTimeMillis(X509Certificate subject, long now) {
+        Long expiry;
 
         try {
-            updateCertStatuses(statuses);
+            expiry = responseExpiry.get(calculateCertHexHash(subject));
         } catch (Exception e) {
-            log.error("Error updating certificate statuses", e);
+            log.error("Unable to calculate hash of certificate {}", subject.getSerialNumber(), e);
+
+            return now;
+        }
+
+        if (expiry == null) {
+            return now;
+        }
+
+        long intervalMillis = TimeUnit.SECONDS.toMillis(getNextOcspFetchIntervalSeconds());
+
+        // Leaves at least one fetch interval for retrying before the current response expires
+        long spread = Math.min(intervalMillis / 2, expiry - now - intervalMillis);
+
+        return spread > 0 ? now + ThreadLocalRandom.current().nextLong(spread) : now;
+    }
+
+    private static long getExpiryMillis(OCSPResp response) throws OCSPException {
+        SingleResp singleResp = ((BasicOCSPResp) response.getResponseObject()).getResponses()[0];
+
+        long expiry = singleResp.getThisUpdate().getTime()
+                + TimeUnit.SECONDS.toMillis(GlobalConf.getOcspFreshnessSeconds(true));
+
+        if (GlobalConfExtensions.getInstance().shouldVerifyOcspNextUpdate() && singleResp.getNextUpdate() != null) {
+            expiry = Math.min(expiry, singleResp.getNextUpdate().getTime());
+        }
+
+        return expiry;
+    }
+
+    private static String getPrimaryResponder(X509Certificate subject) {
+        try {
+            List<String> responderURIs = GlobalConf.getOcspResponderAddresses(subject);
+
+            return responderURIs.isEmpty() ? "" : responderURIs.get(0);
+        } catch (Exception e) {
+            log.error("Unable to get OCSP responders of certificate {}", subject.getSerialNumber(), e);
+
+            return "";
         }
     }
 
@@ -352,24 +496,14 @@ public class OcspClientWorker extends AbstractSignerActor {
 
     private void reportOcspDiagnostics(X509Certificate issuer, String responderURI, int statusCode,
             LocalTime prevUpdate, LocalTime nextUpdate) {
+        self.tell(new ResponderStatusReported(issuer.getSubjectDN().toString(),
+                new OcspResponderStatus(statusCode, responderURI, prevUpdate, nextUpdate)), ActorRef.noSender());
+    }
 
-        OcspResponderStatus responderStatus = new OcspResponderStatus(statusCode, responderURI, prevUpdate, nextUpdate);
-
-        String subjectName = issuer.getSubjectDN().toString();
-
-        CertificationServiceStatus serviceStatus;
-
-        Map<String, CertificationServiceStatus> serviceStatusMap =
-                certServDiagnostics.getCertificationServiceStatusMap();
-
-        if (!serviceStatusMap.containsKey(subjectName)) {
-            serviceStatus = new CertificationServiceStatus(subjectName);
-            serviceStatusMap.put(subjectName, serviceStatus);
-        } else {
-            serviceStatus = serviceStatusMap.get(subjectName);
-        }
-
-        serviceStatus.getOcspResponderStatusMap().put(responderURI, responderStatus);
+    private void handleResponderStatusReported(ResponderStatusReported message) {
+        certServDiagnostics.getCertificationServiceStatusMap()
+                .computeIfAbsent(message.getSubjectName(), CertificationServiceStatus::new)
+                .getOcspResponderStatusMap().put(message.getStatus().getUrl(), message.getStatus());
     }
 
     void updateCertStatuses(Map<String, OCSPResp> statuses) throws Exception {
@@ -502,4 +636,22 @@ public class OcspClientWorker extends AbstractSignerActor {
 
         return interval;
     }
+
+    @Value
+    private static class ResponseFetched {
+        private final X509Certificate subject;
+        private final OCSPResp response;
+    }
+
+    @Value
+    private static class ResponderStatusReported {
+        private final String subjectName;
+        private final OcspResponderStatus status;
+    }
+
+    @Value
+    private static class RefreshCompleted {
+        private final List<ActorRef> requesters;
+        private final boolean failed;
+    }
 }
@@ -0,0 +1,239 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.signer.certmanager;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+
+import java.security.cert.X509Certificate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Fetches OCSP responses for a set of certificates in parallel. The certificates are grouped by their primary
+ * OCSP responder and every group is fetched in a limited number of lanes, so that a slow responder does not
+ * delay the others and no responder receives more than the given number of requests at a time. Every
+ * certificate is fetched at its own scheduled time, unless the fetch is expedited.
+ */
+@Slf4j
+class OcspFetcher {
+
+    /**
+     * Fetches the OCSP response of a certificate.
+     */
+    @FunctionalInterface
+    interface FetchFunction {
+        /**
+         * @param subject the certificate
+         * @return the verified response or null if no valid response was received
+         * @throws Exception if fetching the response fails
+         */
+        OCSPResp fetch(X509Certificate subject) throws Exception;
+    }
+
+    /**
+     * Certificate to be fetched.
+     */
+    @Value
+    static class FetchTask {
+        private final X509Certificate subject;
+        private final String responder;
+        private final long fetchTimeMillis;
+    }
+
+    private final ScheduledExecutorService executor;
+
+    private final int maxConcurrentRequestsPerResponder;
+
+    OcspFetcher(ScheduledExecutorService executor, int maxConcurrentRequestsPerResponder) {
+        this.executor = executor;
+        this.maxConcurrentRequestsPerResponder = maxConcurrentRequestsPerResponder;
+    }
+
+    /**
+     * Starts fetching the responses.
+     * @param tasks the certificates to be fetched
+     * @param fetchFunction fetches the response of a certificate
+     * @param onResponse called with every received response
+     * @param onCompleted called when all certificates have been fetched, with true if any of them failed
+     * @return the started fetch
+     */
+    Fetch fetch(List<FetchTask> tasks, FetchFunction fetchFunction, BiConsumer<X509Certificate, OCSPResp> onResponse,
+            Consumer<Boolean> onCompleted) {
+        Fetch fetch = new Fetch();
+
+        if (tasks.isEmpty()) {
+            onCompleted.accept(false);
+
+            return fetch;
+        }
+
+        AtomicInteger remaining = new AtomicInteger(tasks.size());
+        AtomicBoolean failed = new AtomicBoolean();
+
+        Map<String, List<FetchTask>> tasksByResponder = new LinkedHashMap<>();
+
+        for (FetchTask task : tasks) {
+            tasksByResponder.computeIfAbsent(task.getResponder(), r -> new ArrayList<>()).add(task);
+        }
+
+        for (Map.Entry<String, List<FetchTask>> entry : tasksByResponder.entrySet()) {
+            List<FetchTask> responderTasks = entry.getValue();
+            responderTasks.sort(Comparator.comparingLong(FetchTask::getFetchTimeMillis));
+
+            int laneCount = Math.min(maxConcurrentRequestsPerResponder, responderTasks.size());
+
+            log.debug("Fetching {} OCSP responses from {} in {} lanes", responderTasks.size(), entry.getKey(),
+                    laneCount);
+
+            List<Lane> lanes = new ArrayList<>(laneCount);
+
+            for (int i = 0; i < laneCount; i++) {
+                lanes.add(new Lane(fetchFunction, onResponse, onCompleted, remaining, failed, fetch.expedited));
+            }
+
+            for (int i = 0; i < responderTasks.size(); i++) {
+                lanes.get(i % laneCount).tasks.add(responderTasks.get(i));
+            }
+
+            fetch.lanes.addAll(lanes);
+        }
+
+        fetch.lanes.forEach(Lane::scheduleNext);
+
+        return fetch;
+    }
+
+    /**
+     * Certificates being fetched.
+     */
+    final class Fetch {
+        private final List<Lane> lanes = new ArrayList<>();
+        private final AtomicBoolean expedited = new AtomicBoolean();
+
+        /**
+         * Fetches the remaining certificates without waiting for their scheduled times. The concurrent requests
+         * per responder are still limited.
+         */
+        void expedite() {
+            if (expedited.compareAndSet(false, true)) {
+                lanes.forEach(Lane::expedite);
+            }
+        }
+    }
+
+    /**
+     * Fetches its certificates one at a time, each at its scheduled time.
+     */
+    private final class Lane implements Runnable {
+        private final Deque<FetchTask> tasks = new ArrayDeque<>();
+
+        private final FetchFunction fetchFunction;
+        private final BiConsumer<X509Certificate, OCSPResp> onResponse;
+        private final Consumer<Boolean> onCompleted;
+        private final AtomicInteger remaining;
+        private final AtomicBoolean failed;
+        private final AtomicBoolean expedited;
+
+        private ScheduledFuture<?> scheduled;
+
+        Lane(FetchFunction fetchFunction, BiConsumer<X509Certificate, OCSPResp> onResponse,
+                Consumer<Boolean> onCompleted, AtomicInteger remaining, AtomicBoolean failed,
+                AtomicBoolean expedited) {
+            this.fetchFunction = fetchFunction;
+            this.onResponse = onResponse;
+            this.onCompleted = onCompleted;
+            this.remaining = remaining;
+            this.failed = failed;
+            this.expedited = expedited;
+        }
+
+        @Override
+        public void run() {
+            FetchTask task = tasks.poll();
+
+            try {
+                OCSPResp response = fetchFunction.fetch(task.getSubject());
+
+                if (response != null) {
+                    onResponse.accept(task.getSubject(), response);
+                } else {
+                    failed.set(true);
+                }
+            } catch (Exception e) {
+                failed.set(true);
+
+                log.error("Error when querying certificate '{}'", task.getSubject().getSerialNumber(), e);
+            } finally {
+                completed();
+            }
+
+            scheduleNext();
+        }
+
+        synchronized void scheduleNext() {
+            FetchTask next = tasks.peek();
+
+            if (next == null) {
+                return;
+            }
+
+            long delay = expedited.get() ? 0 : Math.max(0, next.getFetchTimeMillis() - System.currentTimeMillis());
+
+            try {
+                scheduled = executor.schedule(this, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                log.debug("OCSP fetcher is stopped, skipping {} certificates", tasks.size());
+            }
+        }
+
+        synchronized void expedite() {
+            // A fetch that has already started schedules the next one when it is done
+            if (scheduled != null && scheduled.cancel(false)) {
+                scheduleNext();
+            }
+        }
+
+        private void completed() {
+            if (remaining.decrementAndGet() == 0) {
+                onCompleted.accept(failed.get());
+            }
+        }
+    }
+}
@@ -42,6 +42,8 @@ import org.bouncycastle.cert.ocsp.OCSPResp;
 import java.io.Serializable;
 import java.security.cert.X509Certificate;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Map.Entry;
 
 import static ee.ria.xroad.common.util.CryptoUtils.calculateCertHexHash;
@@ -126,9 +128,12 @@ public class OcspResponseManager extends AbstractSignerActor {
         try {
             responseCache.reloadFromDisk();
 
+            Map<String, OCSPResp> responses = new HashMap<>();
             for (Entry<String, OCSPResp> e : responseCache.entrySet()) {
-                TokenManager.setOcspResponse(e.getKey(), e.getValue());
+                responses.put(e.getKey(), e.getValue());
             }
+
+            TokenManager.setOcspResponses(responses);
         } catch (Exception e) {
             log.error("Failed to load OCSP responses from disk", e);
         }
@@ -170,9 +175,19 @@ public class OcspResponseManager extends AbstractSignerActor {
     void handleSetOcspResponses(SetOcspResponses message) throws Exception {
         log.trace("handleSetOcspResponses()");
 
-        for (int i = 0; i < message.getCertHashes().length; i++) {
-            setResponse(message.getCertHashes()[i], new OCSPResp(
-                    decodeBase64(message.getBase64EncodedResponses()[i])));
+        // the token manager is updated once for all the responses
+        Map<String, OCSPResp> responses = new HashMap<>();
+        try {
+            for (int i = 0; i < message.getCertHashes().length; i++) {
+                String certHash = message.getCertHashes()[i];
+                OCSPResp response = new OCSPResp(decodeBase64(message.getBase64EncodedResponses()[i]));
+
+                log.debug("Setting a new response to cache for cert: {}", certHash);
+                responses.put(certHash, response);
+                responseCache.put(certHash, response);
+            }
+        } finally {
+            TokenManager.setOcspResponses(responses);
         }
     }
 
@@ -36,11 +36,13 @@ import ee.ria.xroad.signer.protocol.dto.KeyInfo;
 import ee.ria.xroad.signer.protocol.dto.KeyUsageInfo;
 import ee.ria.xroad.signer.protocol.dto.TokenInfo;
 import ee.ria.xroad.signer.protocol.dto.TokenStatusInfo;
+import ee.ria.xroad.signer.tokenmanager.TokenSnapshot.CertEntry;
+import ee.ria.xroad.signer.tokenmanager.TokenSnapshot.KeyEntry;
+import ee.ria.xroad.signer.tokenmanager.TokenSnapshot.TokenEntry;
 import ee.ria.xroad.signer.tokenmanager.merge.MergeOntoFileTokensStrategy;
 import ee.ria.xroad.signer.tokenmanager.merge.TokenMergeAddedCertificatesListener;
 import ee.ria.xroad.signer.tokenmanager.merge.TokenMergeStrategy;
 import ee.ria.xroad.signer.tokenmanager.merge.TokenMergeStrategy.MergeResult;
-import ee.ria.xroad.signer.tokenmanager.module.SoftwareModuleType;
 import ee.ria.xroad.signer.tokenmanager.token.TokenType;
 import ee.ria.xroad.signer.util.SignerUtil;
 import ee.ria.xroad.signer.util.TokenAndKey;
@@ -50,12 +52,14 @@ import org.bouncycastle.cert.ocsp.OCSPResp;
 
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.function.BiFunction;
 import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.function.Supplier;
 
 import static ee.ria.xroad.common.ErrorCodes.X_WRONG_CERT_USAGE;
 import static ee.ria.xroad.signer.util.ExceptionHelper.certWithIdNotFound;
@@ -65,11 +69,18 @@ import static java.util.Collections.unmodifiableList;
 
 /**
  * Manages the current state of tokens, their keys and certificates.
+ *
+ * The mutable model ({@link Token}, {@link Key}, {@link Cert}) is only touched while holding the class lock.
+ * After every change an immutable {@link TokenSnapshot} of the model is published, and all the read
+ * operations are served from the latest snapshot without locking, so lookups on the signing path do not
+ * wait behind configuration writes or token status updates.
  */
 @Slf4j
 public final class TokenManager {
 
-    private static volatile List<Token> currentTokens = new ArrayList<>();
+    private static List<Token> currentTokens = new ArrayList<>();
+
+    private static volatile TokenSnapshot snapshot = TokenSnapshot.EMPTY;
 
     private static boolean initialized;
 
@@ -91,7 +102,10 @@ public final class TokenManager {
             log.error("Failed to load token conf", e);
         }
 
-        currentTokens = new ArrayList<>(TokenConf.getInstance().getTokens());
+        synchronized (TokenManager.class) {
+            currentTokens = new ArrayList<>(TokenConf.getInstance().getTokens());
+            publish();
+        }
 
         initialized = true;
     }
@@ -132,6 +146,7 @@ public final class TokenManager {
             synchronized (TokenManager.class) {
                 result = mergeStrategy.merge(fileTokens, currentTokens);
                 currentTokens = result.getResultTokens();
+                publish();
             }
             if (listener != null) {
                 listener.mergeDone(result.getAddedCertificates());
@@ -150,11 +165,8 @@ public final class TokenManager {
     /**
      * @return list of tokens
      */
-    public static synchronized List<TokenInfo> listTokens() {
-        return unmodifiableList(
-                currentTokens.stream()
-                        .map(t -> t.toDTO())
-                        .collect(Collectors.toList()));
+    public static List<TokenInfo> listTokens() {
+        return snapshot.getTokens();
     }
 
     /**
@@ -171,7 +183,7 @@ public final class TokenManager {
      * @param tokenType the type
      * @return the new token
      */
-    public static synchronized TokenInfo createToken(TokenType tokenType) {
+    public static TokenInfo createToken(TokenType tokenType) {
         Token token = new Token(tokenType.getModuleType(), tokenType.getId(), tokenType.getSignMechanismName());
         token.setModuleId(tokenType.getModuleType());
         token.setReadOnly(tokenType.isReadOnly());
@@ -182,9 +194,11 @@ public final class TokenManager {
         token.setBatchSigningEnabled(tokenType.isBatchSigningEnabled());
         token.setAvailable(true);
 
-        currentTokens.add(token);
+        return updateAndGet(() -> {
+            currentTokens.add(token);
 
-        return token.toDTO();
+            return token.toDTO();
+        });
     }
 
     /**
@@ -205,53 +219,51 @@ public final class TokenManager {
      * @param tokenId the token id
      * @return the token info DTO for the token id or null of not found
      */
-    public static synchronized TokenInfo getTokenInfo(String tokenId) {
+    public static TokenInfo getTokenInfo(String tokenId) {
         log.trace("getTokenInfo({})", tokenId);
 
-        return currentTokens.stream()
-                .filter(t -> t.getId().equals(tokenId))
-                .map(t -> t.toDTO())
-                .findFirst().orElse(null);
+        TokenEntry token = snapshot.getToken(tokenId);
+
+        return token != null ? token.getToken() : null;
     }
 
     /**
      * @param keyId the key id
      * @return the token and key or throws exception if not found
      */
-    public static synchronized TokenAndKey findTokenAndKey(String keyId) {
+    public static TokenAndKey findTokenAndKey(String keyId) {
         log.trace("findTokenAndKey({})", keyId);
 
-        return forKey((t, k) -> k.getId().equals(keyId),
-                (t, k) -> new TokenAndKey(t.getId(), k.toDTO()))
-                .orElseThrow(() -> keyNotFound(keyId));
+        KeyEntry key = findKeyEntry(keyId);
+
+        return new TokenAndKey(key.getTokenId(), key.getKey());
     }
 
     /**
      * @param keyId the key id
      * @return the token id for the key id or throws exception if not found
      */
-    public static synchronized String findTokenIdForKeyId(String keyId) {
+    public static String findTokenIdForKeyId(String keyId) {
         log.trace("findTokenIdForKeyId({})", keyId);
 
-        return forKey((t, k) -> k.getId().equals(keyId),
-                (t, k) -> t.getId()).orElseThrow(() -> keyNotFound(keyId));
+        return findKeyEntry(keyId).getTokenId();
     }
 
     /**
      * @return the software token id
      */
-    public static synchronized String getSoftwareTokenId() {
-        return forToken(t -> t.getType().equals(SoftwareModuleType.TYPE),
-                t -> t.getId()).orElse(null);
+    public static String getSoftwareTokenId() {
+        return snapshot.getSoftwareTokenId();
     }
 
     /**
      * @param tokenId the token id
      * @return the module id for the token id or null if not found
      */
-    public static synchronized String getModuleId(String tokenId) {
-        return forToken(t -> t.getId().equals(tokenId),
-                t -> t.getModuleId()).orElse(null);
+    public static String getModuleId(String tokenId) {
+        TokenEntry token = snapshot.getToken(tokenId);
+
+        return token != null ? token.getModuleId() : null;
     }
 
     /**
@@ -271,46 +283,29 @@ public final class TokenManager {
      * @param keyId the key id
      * @return the key info for the key id or null if not found
      */
-    public static synchronized KeyInfo getKeyInfo(String keyId) {
+    public static KeyInfo getKeyInfo(String keyId) {
         log.trace("getKeyInfo({})", keyId);
 
-        return forKey((t, k) -> k.getId().equals(keyId),
-                (t, k) -> k.toDTO()).orElse(null);
+        KeyEntry key = snapshot.getKey(keyId);
+
+        return key != null ? key.getKey() : null;
     }
 
     /**
      * @param clientId the client id
      * @return the list of keys for the given client id
      */
-    public static synchronized List<KeyInfo> getKeyInfo(ClientId clientId) {
+    public static List<KeyInfo> getKeyInfo(ClientId clientId) {
         log.trace("getKeyInfo({})", clientId);
 
         List<KeyInfo> keyInfo = new ArrayList<>();
 
-        for (Token token : currentTokens) {
-            if (token.isInActive()) {
-                // Ignore inactive (not usable) tokens
-                continue;
-            }
-
-            for (Key key : token.getKeys()) {
-                if (!key.isValidForSigning()) {
-                    // Ignore authentication keys
-                    continue;
-                }
-
-                for (Cert cert : key.getCerts()) {
-                    if (cert.isInvalid()) {
-                        // Ignore inactive and invalid certificates
-                        continue;
-                    }
-
-                    if (certBelongsToMember(cert.toDTO(), clientId)) {
-                        log.debug("Found key '{}' for client '{}'",
-                                key.getId(), cert.getMemberId());
-                        keyInfo.add(key.toDTO());
-                    }
-                }
+        // Only active certificates of available signing keys on active tokens are considered
+        for (CertEntry cert : snapshot.getSigningCerts()) {
+            if (certBelongsToMember(cert.getCert(), clientId)) {
+                log.debug("Found key '{}' for client '{}'",
+                        cert.getKey().getId(), cert.getCert().getMemberId());
+                keyInfo.add(cert.getKey());
             }
         }
 
@@ -335,49 +330,48 @@ public final class TokenManager {
      * @param certId the certificate id
      * @return the certificate info for the certificate id or null if not found
      */
-    public static synchronized CertificateInfo getCertificateInfo(
+    public static CertificateInfo getCertificateInfo(
             String certId) {
         log.trace("getCertificateInfo({})", certId);
 
-        return forCert((k, c) -> c.getId().equals(certId), (k, c) -> c.toDTO())
-                .orElse(null);
+        CertEntry cert = snapshot.getCertById(certId);
+
+        return cert != null ? cert.getCert() : null;
     }
 
     /**
      * @param certHash the certificate hash
      * @return the certificate info for the certificate hash or null
      */
-    public static synchronized CertificateInfo getCertificateInfoForCertHash(
+    public static CertificateInfo getCertificateInfoForCertHash(
             String certHash) {
         log.trace("getCertificateInfoForCertHash({})", certHash);
 
-        return forCert((k, c) -> certHash.equals(c.getHash()),
-                (k, c) -> c.toDTO()).orElse(null);
+        CertEntry cert = snapshot.getCertByHash(certHash);
+
+        return cert != null ? cert.getCert() : null;
     }
 
     /**
      * @param certHash the certificate hash
      * @return the certificate for the certificate hash or null
      */
-    public static synchronized X509Certificate getCertificateForCertHash(
+    public static X509Certificate getCertificateForCertHash(
             String certHash) {
         log.trace("getCertificateForCertHash({})", certHash);
 
-        return forCert((k, c) -> certHash.equals(c.getHash()),
-                (k, c) -> c.getCertificate()).orElse(null);
+        CertEntry cert = snapshot.getCertByHash(certHash);
+
+        return cert != null ? cert.getCertificate() : null;
     }
 
     /**
      * @return all certificates
      */
-    public static synchronized List<CertificateInfo> getAllCerts() {
+    public static List<CertificateInfo> getAllCerts() {
         log.trace("getAllCerts()");
 
-        return currentTokens.stream()
-                .flatMap(t -> t.getKeys().stream())
-                .flatMap(k -> k.getCerts().stream())
-                .map(c -> c.toDTO())
-                .collect(Collectors.toList());
+        return new ArrayList<>(snapshot.getAllCerts());
     }
 
     /**
@@ -386,15 +380,45 @@ public final class TokenManager {
      * @param certHash the certificate hash
      * @param response the OCSP response
      */
-    public static synchronized void setOcspResponse(String certHash,
-                                                    OCSPResp response) {
+    public static void setOcspResponse(String certHash,
+                                       OCSPResp response) {
         log.trace("setOcspResponse({})", certHash);
 
-        forCert((k, c) -> certHash.equals(c.getHash()),
-                (k, c) -> {
-                    c.setOcspResponse(response);
-                    return null;
-                });
+        setOcspResponses(Collections.singletonMap(certHash, response));
+    }
+
+    /**
+     * Sets the OCSP responses for the certificates. Publishes at most one new snapshot for all
+     * the responses, and none if no response changed.
+     *
+     * @param responses the OCSP responses by certificate hash
+     */
+    public static synchronized void setOcspResponses(Map<String, OCSPResp> responses) {
+        log.trace("setOcspResponses({})", responses.keySet());
+
+        Map<String, OCSPResp> remaining = new HashMap<>(responses);
+        boolean changed = false;
+
+        for (Token token : currentTokens) {
+            for (Key key : token.getKeys()) {
+                for (Cert cert : key.getCerts()) {
+                    if (cert.getHash() == null || !remaining.containsKey(cert.getHash())) {
+                        continue;
+                    }
+
+                    // only the first certificate with the hash is updated
+                    OCSPResp response = remaining.remove(cert.getHash());
+                    if (response != cert.getOcspResponse()) {
+                        cert.setOcspResponse(response);
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        if (changed) {
+            publish();
+        }
     }
 
     /**
@@ -402,37 +426,39 @@ public final class TokenManager {
      * @param memberId the member id
      * @return the certificate request info or null if not found
      */
-    public static synchronized CertRequestInfo getCertRequestInfo(String keyId,
-                                                                  ClientId memberId) {
+    public static CertRequestInfo getCertRequestInfo(String keyId,
+                                                     ClientId memberId) {
         log.trace("getCertRequestInfo({}, {})", keyId, memberId);
 
-        Key key = findKey(keyId);
+        KeyInfo key = findKeyEntry(keyId).getKey();
         return key.getCertRequests().stream()
                 .filter(c -> key.getUsage() == KeyUsageInfo.AUTHENTICATION
                         || memberId.equals(c.getMemberId()))
-                .map(c -> c.toDTO()).findFirst().orElse(null);
+                .findFirst().orElse(null);
     }
 
     /**
      * @param certHash the certificate hash
      * @return key info for the certificate hash
      */
-    public static synchronized KeyInfo getKeyInfoForCertHash(String certHash) {
+    public static KeyInfo getKeyInfoForCertHash(String certHash) {
         log.trace("getKeyInfoForCertHash({})", certHash);
 
-        return forCert((k, c) -> certHash.equals(c.getHash()),
-                (k, c) -> k.toDTO()).orElse(null);
+        CertEntry cert = snapshot.getCertByHash(certHash);
+
+        return cert != null ? cert.getKey() : null;
     }
 
     /**
      * @param certId the certificate id
      * @return key info for certificate id
      */
-    public static synchronized KeyInfo getKeyInfoForCertId(String certId) {
+    public static KeyInfo getKeyInfoForCertId(String certId) {
         log.trace("getKeyInfoForCertId({})", certId);
 
-        return forCert((k, c) -> c.getId().equals(certId),
-                (k, c) -> k.toDTO()).orElse(null);
+        CertEntry cert = snapshot.getCertById(certId);
+
+        return cert != null ? cert.getKey() : null;
     }
 
     /**
@@ -450,20 +476,20 @@ public final class TokenManager {
      * @param tokenId the token id
      * @return true if token is available
      */
-    public static synchronized boolean isTokenAvailable(String tokenId) {
+    public static boolean isTokenAvailable(String tokenId) {
         log.trace("isTokenAvailable({})", tokenId);
 
-        return findToken(tokenId).isAvailable();
+        return findTokenEntry(tokenId).getToken().isAvailable();
     }
 
     /**
      * @param tokenId the token id
      * @return true if token is active (logged in)
      */
-    public static synchronized boolean isTokenActive(String tokenId) {
+    public static boolean isTokenActive(String tokenId) {
         log.trace("isTokenActive({})", tokenId);
 
-        return findToken(tokenId).isActive();
+        return findTokenEntry(tokenId).getToken().isActive();
     }
 
     /**
@@ -472,15 +498,17 @@ public final class TokenManager {
      * @param tokenType the token type
      * @param available availability flag
      */
-    public static synchronized void setTokenAvailable(TokenType tokenType,
-                                                      boolean available) {
+    public static void setTokenAvailable(TokenType tokenType,
+                                         boolean available) {
         String tokenId = tokenType.getId();
 
         log.trace("setTokenAvailable({}, {})", tokenId, available);
 
-        Token token = findToken(tokenId);
-        token.setAvailable(available);
-        token.setModuleId(tokenType.getModuleType());
+        update(() -> {
+            Token token = findToken(tokenId);
+            token.setAvailable(available);
+            token.setModuleId(tokenType.getModuleType());
+        });
     }
 
     /**
@@ -489,10 +517,10 @@ public final class TokenManager {
      * @param tokenId   the token id
      * @param available availability flag
      */
-    public static synchronized void setTokenAvailable(String tokenId, boolean available) {
+    public static void setTokenAvailable(String tokenId, boolean available) {
         log.trace("setTokenAvailable({}, {})", tokenId, available);
 
-        findToken(tokenId).setAvailable(available);
+        update(() -> findToken(tokenId).setAvailable(available));
     }
 
     /**
@@ -501,11 +529,11 @@ public final class TokenManager {
      * @param tokenId the token id
      * @param active  active flag
      */
-    public static synchronized void setTokenActive(String tokenId,
-                                                   boolean active) {
+    public static void setTokenActive(String tokenId,
+                                      boolean active) {
         log.trace("setTokenActive({}, {})", tokenId, active);
 
-        findToken(tokenId).setActive(active);
+        update(() -> findToken(tokenId).setActive(active));
     }
 
     /**
@@ -514,21 +542,21 @@ public final class TokenManager {
      * @param tokenId      token id
      * @param friendlyName the friendly name
      */
-    public static synchronized void setTokenFriendlyName(String tokenId,
-                                                         String friendlyName) {
+    public static void setTokenFriendlyName(String tokenId,
+                                            String friendlyName) {
         log.trace("setTokenFriendlyName({}, {})", tokenId, friendlyName);
 
-        findToken(tokenId).setFriendlyName(friendlyName);
+        update(() -> findToken(tokenId).setFriendlyName(friendlyName));
     }
 
     /**
      * @param tokenId the token if
      * @return the token status info
      */
-    public static synchronized TokenStatusInfo getTokenStatus(String tokenId) {
+    public static TokenStatusInfo getTokenStatus(String tokenId) {
         log.trace("getTokenStatus({})", tokenId);
 
-        return findToken(tokenId).getStatus();
+        return findTokenEntry(tokenId).getToken().getStatus();
     }
 
     /**
@@ -537,11 +565,11 @@ public final class TokenManager {
      * @param tokenId the token id
      * @param status  the status
      */
-    public static synchronized void setTokenStatus(String tokenId,
-                                                   TokenStatusInfo status) {
+    public static void setTokenStatus(String tokenId,
+                                      TokenStatusInfo status) {
         log.trace("setTokenStatus({}, {})", tokenId, status);
 
-        findToken(tokenId).setStatus(status);
+        update(() -> findToken(tokenId).setStatus(status));
     }
 
     /**
@@ -550,21 +578,21 @@ public final class TokenManager {
      * @param keyId     the key id
      * @param available true if available
      */
-    public static synchronized void setKeyAvailable(String keyId,
-                                                    boolean available) {
+    public static void setKeyAvailable(String keyId,
+                                       boolean available) {
         log.trace("setKeyAvailable({}, {})", keyId, available);
 
-        findKey(keyId).setAvailable(available);
+        update(() -> findKey(keyId).setAvailable(available));
     }
 
     /**
      * @param keyId the key id
      * @return true if key is available
      */
-    public static synchronized boolean isKeyAvailable(String keyId) {
+    public static boolean isKeyAvailable(String keyId) {
         log.trace("isKeyAvailable()");
 
-        return findKey(keyId).isAvailable();
+        return findKeyEntry(keyId).getKey().isAvailable();
     }
 
     /**
@@ -573,11 +601,11 @@ public final class TokenManager {
      * @param keyId        the key id
      * @param friendlyName the friendly name
      */
-    public static synchronized void setKeyFriendlyName(String keyId,
-                                                       String friendlyName) {
+    public static void setKeyFriendlyName(String keyId,
+                                          String friendlyName) {
         log.trace("setKeyFriendlyName({}, {})", keyId, friendlyName);
 
-        findKey(keyId).setFriendlyName(friendlyName);
+        update(() -> findKey(keyId).setFriendlyName(friendlyName));
     }
 
     /**
@@ -586,10 +614,10 @@ public final class TokenManager {
      * @param keyId the key id
      * @param label the label
      */
-    public static synchronized void setKeyLabel(String keyId, String label) {
+    public static void setKeyLabel(String keyId, String label) {
         log.trace("setKeyLabel({}, {})", keyId, label);
 
-        findKey(keyId).setLabel(label);
+        update(() -> findKey(keyId).setLabel(label));
     }
 
     /**
@@ -598,11 +626,11 @@ public final class TokenManager {
      * @param keyId    the key id
      * @param keyUsage the key usage
      */
-    public static synchronized void setKeyUsage(String keyId,
-                                                KeyUsageInfo keyUsage) {
+    public static void setKeyUsage(String keyId,
+                                   KeyUsageInfo keyUsage) {
         log.trace("setKeyUsage({}, {})", keyId, keyUsage);
 
-        findKey(keyId).setUsage(keyUsage);
+        update(() -> findKey(keyId).setUsage(keyUsage));
     }
 
     /**
@@ -613,17 +641,19 @@ public final class TokenManager {
      * @param publicKeyBase64 the public key base64
      * @return the key info or throws exception if the token cannot be found
      */
-    public static synchronized KeyInfo addKey(String tokenId, String keyId, String publicKeyBase64) {
+    public static KeyInfo addKey(String tokenId, String keyId, String publicKeyBase64) {
         log.trace("addKey({}, {})", tokenId, keyId);
 
-        Token token = findToken(tokenId);
+        return updateAndGet(() -> {
+            Token token = findToken(tokenId);
 
-        Key key = new Key(token, keyId);
-        key.setPublicKey(publicKeyBase64);
+            Key key = new Key(token, keyId);
+            key.setPublicKey(publicKeyBase64);
 
-        token.addKey(key);
+            token.addKey(key);
 
-        return key.toDTO();
+            return key.toDTO();
+        });
     }
 
     /**
@@ -632,11 +662,11 @@ public final class TokenManager {
      * @param keyId the key id
      * @return true if key was removed
      */
-    public static synchronized boolean removeKey(String keyId) {
+    public static boolean removeKey(String keyId) {
         log.trace("removeKey({})", keyId);
 
-        return forKey((t, k) -> k.getId().equals(keyId),
-                (t, k) -> t.getKeys().remove(k)).orElse(false);
+        return updateAndGet(() -> forKey((t, k) -> k.getId().equals(keyId),
+                (t, k) -> t.getKeys().remove(k)).orElse(false));
     }
 
     /**
@@ -645,11 +675,11 @@ public final class TokenManager {
      * @param keyId           the key id
      * @param publicKeyBase64 the public key base64
      */
-    public static synchronized void setPublicKey(String keyId,
-                                                 String publicKeyBase64) {
+    public static void setPublicKey(String keyId,
+                                    String publicKeyBase64) {
         log.trace("setPublicKey({}, {})", keyId, publicKeyBase64);
 
-        findKey(keyId).setPublicKey(publicKeyBase64);
+        update(() -> findKey(keyId).setPublicKey(publicKeyBase64));
     }
 
     /**
@@ -658,15 +688,17 @@ public final class TokenManager {
      * @param keyId     the key id
      * @param certBytes the certificate bytes
      */
-    public static synchronized void addCert(String keyId, byte[] certBytes) {
+    public static void addCert(String keyId, byte[] certBytes) {
         log.trace("addCert({})", keyId);
 
-        Key key = findKey(keyId);
+        update(() -> {
+            Key key = findKey(keyId);
 
-        Cert cert = new Cert(SignerUtil.randomId());
-        cert.setCertificate(certBytes);
+            Cert cert = new Cert(SignerUtil.randomId());
+            cert.setCertificate(certBytes);
 
-        key.addCert(cert);
+            key.addCert(cert);
+        });
     }
 
     /**
@@ -675,21 +707,23 @@ public final class TokenManager {
      * @param keyId    the key id
      * @param certInfo the certificate info
      */
-    public static synchronized void addCert(String keyId,
-                                            CertificateInfo certInfo) {
+    public static void addCert(String keyId,
+                               CertificateInfo certInfo) {
         log.trace("addCert({})", keyId);
 
-        Key key = findKey(keyId);
+        update(() -> {
+            Key key = findKey(keyId);
 
-        Cert cert = new Cert(certInfo.getId());
-        cert.setActive(certInfo.isActive());
-        cert.setCertificate(certInfo.getCertificateBytes());
-        cert.setOcspResponse(certInfo.getOcspBytes());
-        cert.setMemberId(certInfo.getMemberId());
-        cert.setSavedToConfiguration(certInfo.isSavedToConfiguration());
-        cert.setStatus(certInfo.getStatus());
+            Cert cert = new Cert(certInfo.getId());
+            cert.setActive(certInfo.isActive());
+            cert.setCertificate(certInfo.getCertificateBytes());
+            cert.setOcspResponse(certInfo.getOcspBytes());
+            cert.setMemberId(certInfo.getMemberId());
+            cert.setSavedToConfiguration(certInfo.isSavedToConfiguration());
+            cert.setStatus(certInfo.getStatus());
 
-        key.addCert(cert);
+            key.addCert(cert);
+        });
     }
 
     /**
@@ -698,11 +732,11 @@ public final class TokenManager {
      * @param certId the certificate id
      * @param active true if active
      */
-    public static synchronized void setCertActive(String certId,
-                                                  boolean active) {
+    public static void setCertActive(String certId,
+                                     boolean active) {
         log.trace("setCertActive({}, {})", certId, active);
 
-        findCert(certId).setActive(active);
+        update(() -> findCert(certId).setActive(active));
     }
 
     /**
@@ -711,11 +745,11 @@ public final class TokenManager {
      * @param certId the certificate id
      * @param status the status
      */
-    public static synchronized void setCertStatus(String certId,
-                                                  String status) {
+    public static void setCertStatus(String certId,
+                                     String status) {
         log.trace("setCertStatus({}, {})", certId, status);
 
-        findCert(certId).setStatus(status);
+        update(() -> findCert(certId).setStatus(status));
     }
 
     /**
@@ -724,11 +758,11 @@ public final class TokenManager {
      * @param certId the certificate id
      * @return true if certificate was removed
      */
-    public static synchronized boolean removeCert(String certId) {
+    public static boolean removeCert(String certId) {
         log.trace("removeCert({})", certId);
 
-        return forCert((k, c) -> c.getId().equals(certId),
-                (k, c) -> k.getCerts().remove(c)).orElse(false);
+        return updateAndGet(() -> forCert((k, c) -> c.getId().equals(certId),
+                (k, c) -> k.getCerts().remove(c)).orElse(false));
     }
 
     /**
@@ -740,43 +774,45 @@ public final class TokenManager {
      * @param keyUsage    the key usage
      * @return certificate id
      */
-    public static synchronized String addCertRequest(String keyId,
-                                                     ClientId memberId, String subjectName, KeyUsageInfo keyUsage) {
+    public static String addCertRequest(String keyId,
+                                        ClientId memberId, String subjectName, KeyUsageInfo keyUsage) {
         log.trace("addCertRequest({}, {})", keyId, memberId);
 
-        Key key = findKey(keyId);
+        return updateAndGet(() -> {
+            Key key = findKey(keyId);
 
-        if (key.getUsage() != null && key.getUsage() != keyUsage) {
-            throw CodedException.tr(X_WRONG_CERT_USAGE,
-                    "cert_request_wrong_usage",
-                    "Cannot add %s certificate request to %s key", keyUsage,
-                    key.getUsage());
-        }
+            if (key.getUsage() != null && key.getUsage() != keyUsage) {
+                throw CodedException.tr(X_WRONG_CERT_USAGE,
+                        "cert_request_wrong_usage",
+                        "Cannot add %s certificate request to %s key", keyUsage,
+                        key.getUsage());
+            }
 
-        key.setUsage(keyUsage);
+            key.setUsage(keyUsage);
 
-        for (CertRequest certRequest : key.getCertRequests()) {
-            ClientId crMember = certRequest.getMemberId();
-            String crSubject = certRequest.getSubjectName();
+            for (CertRequest certRequest : key.getCertRequests()) {
+                ClientId crMember = certRequest.getMemberId();
+                String crSubject = certRequest.getSubjectName();
 
-            if ((memberId == null && crSubject.equalsIgnoreCase(subjectName))
-                    || (memberId != null && memberId.equals(crMember)
-                    && crSubject.equalsIgnoreCase(subjectName))) {
-                log.warn("Certificate request (memberId: {}, "
-                                + "subjectName: {}) already exists", memberId,
-                        subjectName);
-                return certRequest.getId();
+                if ((memberId == null && crSubject.equalsIgnoreCase(subjectName))
+                        || (memberId != null && memberId.equals(crMember)
+                        && crSubject.equalsIgnoreCase(subjectName))) {
+                    log.warn("Certificate request (memberId: {}, "
+                                    + "subjectName: {}) already exists", memberId,
+                            subjectName);
+                    return certRequest.getId();
+                }
             }
-        }
 
-        String certId = SignerUtil.randomId();
-        key.addCertRequest(new CertRequest(certId, memberId, subjectName));
+            String certId = SignerUtil.randomId();
+            key.addCertRequest(new CertRequest(certId, memberId, subjectName));
 
-        log.info("Added new certificate request (memberId: {}, "
-                        + "subjectId: {}) under key {}",
-                new Object[]{memberId, subjectName, keyId});
+            log.info("Added new certificate request (memberId: {}, "
+                            + "subjectId: {}) under key {}",
+                    new Object[]{memberId, subjectName, keyId});
 
-        return certId;
+            return certId;
+        });
     }
 
     /**
@@ -785,10 +821,10 @@ public final class TokenManager {
      * @param certReqId the certificate request id
      * @return key id from which the certificate request was removed
      */
-    public static synchronized String removeCertRequest(String certReqId) {
+    public static String removeCertRequest(String certReqId) {
         log.trace("removeCertRequest({})", certReqId);
 
-        return forCertRequest((k, c) -> c.getId().equals(certReqId),
+        return updateAndGet(() -> forCertRequest((k, c) -> c.getId().equals(certReqId),
                 (k, c) -> {
                     if (k.getUsage() == KeyUsageInfo.AUTHENTICATION) {
                         // Authentication keys can only have one certificate request
@@ -800,7 +836,7 @@ public final class TokenManager {
                     }
 
                     return k.getId();
-                }).orElse(null);
+                }).orElse(null));
     }
 
     /**
@@ -809,22 +845,63 @@ public final class TokenManager {
      * @param tokenId the token id
      * @param info    the token info
      */
-    public static synchronized void setTokenInfo(String tokenId, Map<String, String> info) {
-        findToken(tokenId).setInfo(info);
+    public static void setTokenInfo(String tokenId, Map<String, String> info) {
+        update(() -> findToken(tokenId).setInfo(info));
     }
 
     /**
      * @param tokenId the token id
      * @return true if batch signing is enabled for a token
      */
-    public static synchronized boolean isBatchSigningEnabled(String tokenId) {
+    public static boolean isBatchSigningEnabled(String tokenId) {
         log.trace("isBatchSigningEnabled({})", tokenId);
 
-        return findToken(tokenId).isBatchSigningEnabled();
+        return findTokenEntry(tokenId).isBatchSigningEnabled();
     }
 
     // ------------------------------------------------------------------------
 
+    private static void update(Runnable mutation) {
+        updateAndGet(() -> {
+            mutation.run();
+
+            return null;
+        });
+    }
+
+    private static synchronized <T> T updateAndGet(Supplier<T> mutation) {
+        try {
+            return mutation.get();
+        } finally {
+            publish();
+        }
+    }
+
+    /**
+     * Publishes a new snapshot of the current model. Must be called while holding the class lock.
+     */
+    private static void publish() {
+        snapshot = new TokenSnapshot(currentTokens);
+    }
+
+    private static TokenEntry findTokenEntry(String tokenId) {
+        TokenEntry token = snapshot.getToken(tokenId);
+        if (token != null) {
+            return token;
+        }
+
+        throw tokenNotFound(tokenId);
+    }
+
+    private static KeyEntry findKeyEntry(String keyId) {
+        KeyEntry key = snapshot.getKey(keyId);
+        if (key != null) {
+            return key;
+        }
+
+        throw keyNotFound(keyId);
+    }
+
     private static <T> Optional<T> forToken(Function<Token, Boolean> tester, Function<Token, T> mapper) {
         for (Token token : currentTokens) {
             if (tester.apply(token)) {
@@ -0,0 +1,165 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.signer.tokenmanager;
+
+import ee.ria.xroad.signer.model.Cert;
+import ee.ria.xroad.signer.model.Key;
+import ee.ria.xroad.signer.model.Token;
+import ee.ria.xroad.signer.protocol.dto.CertificateInfo;
+import ee.ria.xroad.signer.protocol.dto.KeyInfo;
+import ee.ria.xroad.signer.protocol.dto.TokenInfo;
+import ee.ria.xroad.signer.tokenmanager.module.SoftwareModuleType;
+
+import lombok.Value;
+
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable, indexed view of the tokens, keys and certificates. {@link TokenManager} builds a new snapshot
+ * from the mutable model after every change and publishes it with a single volatile write, so that readers
+ * never need to take the lock.
+ */
+final class TokenSnapshot {
+
+    static final TokenSnapshot EMPTY = new TokenSnapshot(Collections.emptyList());
+
+    private final List<TokenInfo> tokens;
+    private final Map<String, TokenEntry> tokensById = new HashMap<>();
+    private final Map<String, KeyEntry> keysById = new HashMap<>();
+    private final Map<String, CertEntry> certsById = new HashMap<>();
+    private final Map<String, CertEntry> certsByHash = new HashMap<>();
+    private final List<CertEntry> signingCerts = new ArrayList<>();
+    private final List<CertificateInfo> allCerts = new ArrayList<>();
+    private final String softwareTokenId;
+
+    /**
+     * Creates the snapshot. Must be called while holding the lock that guards the model.
+     * When ids are duplicated, the first occurrence wins (the same as the former linear lookups).
+     */
+    TokenSnapshot(List<Token> model) {
+        List<TokenInfo> tokenInfos = new ArrayList<>(model.size());
+        String softTokenId = null;
+
+        for (Token token : model) {
+            TokenInfo tokenInfo = token.toDTO();
+            tokenInfos.add(tokenInfo);
+            tokensById.putIfAbsent(token.getId(), new TokenEntry(tokenInfo, token.getModuleId(),
+                    token.isBatchSigningEnabled()));
+
+            if (softTokenId == null && SoftwareModuleType.TYPE.equals(token.getType())) {
+                softTokenId = token.getId();
+            }
+
+            for (int i = 0; i < token.getKeys().size(); i++) {
+                addKey(token, token.getKeys().get(i), tokenInfo.getKeyInfo().get(i));
+            }
+        }
+
+        tokens = Collections.unmodifiableList(tokenInfos);
+        softwareTokenId = softTokenId;
+    }
+
+    private void addKey(Token token, Key key, KeyInfo keyInfo) {
+        keysById.putIfAbsent(key.getId(), new KeyEntry(token.getId(), keyInfo));
+
+        boolean signingKey = !token.isInActive() && key.isValidForSigning();
+
+        for (int i = 0; i < key.getCerts().size(); i++) {
+            Cert cert = key.getCerts().get(i);
+            CertEntry entry = new CertEntry(keyInfo, keyInfo.getCerts().get(i), cert.getCertificate());
+
+            allCerts.add(entry.getCert());
+            certsById.putIfAbsent(cert.getId(), entry);
+
+            if (cert.getHash() != null) {
+                certsByHash.putIfAbsent(cert.getHash(), entry);
+            }
+
+            if (signingKey && !cert.isInvalid()) {
+                signingCerts.add(entry);
+            }
+        }
+    }
+
+    List<TokenInfo> getTokens() {
+        return tokens;
+    }
+
+    TokenEntry getToken(String tokenId) {
+        return tokensById.get(tokenId);
+    }
+
+    KeyEntry getKey(String keyId) {
+        return keysById.get(keyId);
+    }
+
+    CertEntry getCertById(String certId) {
+        return certsById.get(certId);
+    }
+
+    CertEntry getCertByHash(String certHash) {
+        return certsByHash.get(certHash);
+    }
+
+    /**
+     * @return the active certificates of available signing keys on active tokens, in model order
+     */
+    List<CertEntry> getSigningCerts() {
+        return signingCerts;
+    }
+
+    List<CertificateInfo> getAllCerts() {
+        return allCerts;
+    }
+
+    String getSoftwareTokenId() {
+        return softwareTokenId;
+    }
+
+    @Value
+    static class TokenEntry {
+        TokenInfo token;
+        String moduleId;
+        boolean batchSigningEnabled;
+    }
+
+    @Value
+    static class KeyEntry {
+        String tokenId;
+        KeyInfo key;
+    }
+
+    @Value
+    static class CertEntry {
+        KeyInfo key;
+        CertificateInfo cert;
+        X509Certificate certificate;
+    }
+}
@@ -37,9 +37,13 @@ import ee.ria.xroad.signer.util.CalculateSignature;
 import ee.ria.xroad.signer.util.CalculatedSignature;
 import ee.ria.xroad.signer.util.SignerUtil;
 
+import akka.actor.ActorRef;
 import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
 import static ee.ria.xroad.common.ErrorCodes.X_CANNOT_SIGN;
 import static ee.ria.xroad.common.ErrorCodes.X_FAILED_TO_GENERATE_R_KEY;
 import static ee.ria.xroad.signer.tokenmanager.TokenManager.setTokenAvailable;
@@ -173,19 +177,57 @@ public abstract class AbstractTokenWorker extends AbstractUpdateableActor {
     }
 
     private void handleCalculateSignature(CalculateSignature signRequest) throws Exception {
+        Executor signExecutor = getSignExecutor();
+
+        if (signExecutor == null) {
+            sendResponse(calculateSignature(signRequest));
+
+            return;
+        }
+
+        // The response is sent from the signing thread, so the sender is captured here
+        ActorRef sender = getSender();
+        ActorRef self = getSelf();
+
+        try {
+            signExecutor.execute(() -> {
+                CalculatedSignature response = calculateSignature(signRequest);
+
+                if (sender != ActorRef.noSender()) {
+                    sender.tell(response, self);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.debug("Signing executor of token '{}' is full or stopped, signing in the token worker", getWorkerId());
+
+            sendResponse(calculateSignature(signRequest));
+        }
+    }
+
+    private CalculatedSignature calculateSignature(CalculateSignature signRequest) {
         try {
             byte data[] = SignerUtil.createDataToSign(signRequest.getDigest(), signRequest.getSignatureAlgorithmId());
 
             byte[] signature = sign(signRequest.getKeyId(), signRequest.getSignatureAlgorithmId(), data);
-            sendResponse(new CalculatedSignature(signRequest, signature, null));
+
+            return new CalculatedSignature(signRequest, signature, null);
         } catch (Exception e) { // catch-log-rethrow
             log.error("Error while signing with key '{}'", signRequest.getKeyId(), e);
 
             CodedException tr = translateError(customizeException(e)).withPrefix(X_CANNOT_SIGN);
-            sendResponse(new CalculatedSignature(signRequest, null, tr));
+
+            return new CalculatedSignature(signRequest, null, tr);
         }
     }
 
+    /**
+     * Returns the executor for calculating signatures concurrently outside of the worker actor.
+     * @return the executor or null if the signatures are calculated by the worker actor
+     */
+    protected Executor getSignExecutor() {
+        return null;
+    }
+
     // ------------------------------------------------------------------------
 
     protected abstract void activateToken(ActivateToken message) throws Exception;
@@ -195,6 +237,15 @@ public abstract class AbstractTokenWorker extends AbstractUpdateableActor {
     protected abstract void deleteKey(String keyId) throws Exception;
     protected abstract void deleteCert(String certId) throws Exception;
 
+    /**
+     * Calculates the signature. Called concurrently outside of the worker actor
+     * if {@link #getSignExecutor()} returns an executor.
+     * @param keyId the key id
+     * @param signatureAlgorithmId the signature algorithm id
+     * @param data the data to be signed
+     * @return the signature
+     * @throws Exception if an error occurs
+     */
     protected abstract byte[] sign(String keyId, String signatureAlgorithmId, byte[] data) throws Exception;
 
     // ------------------------------------------------------------------------
@@ -0,0 +1,166 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.signer.tokenmanager.token;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Calculates software token signatures, optionally on a pool of signing threads.
+ *
+ * The private keys are kept in an immutable map that is replaced on every
+ * change, so that the signing threads can use it without locking. Every signing
+ * thread has its own Signature instance. When the signing queue is full or the
+ * signing threads are stopped, the signature is rejected by the executor and
+ * calculated by the token worker, which slows down the token worker until the
+ * signing threads catch up.
+ */
+@Slf4j
+class SoftwareTokenSigner {
+
+    // Use no digesting algorithm, since the input data is already a digest
+    static final String SIGNATURE_ALGORITHM = "NONEwithRSA";
+
+    private static final ThreadLocal<Signature> SIGNATURE = ThreadLocal.withInitial(SoftwareTokenSigner::newSignature);
+
+    private final ThreadPoolExecutor executor;
+
+    // maps key id to private key
+    private volatile Map<String, PrivateKey> privateKeys = Collections.emptyMap();
+
+    // incremented when the private keys are cleared
+    private int keysGeneration;
+
+    /**
+     * @param threads the number of signing threads, if 1 the signatures are calculated by the caller
+     * @param queueSize the maximum number of signatures waiting for a signing thread
+     */
+    SoftwareTokenSigner(int threads, int queueSize) {
+        if (threads > 1) {
+            AtomicInteger threadNumber = new AtomicInteger();
+
+            executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueSize), r -> {
+                        Thread thread = new Thread(r, "softtoken-signer-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+
+                        return thread;
+                    }, new ThreadPoolExecutor.AbortPolicy());
+
+            log.info("Calculating software token signatures using {} threads", threads);
+        } else {
+            executor = null;
+        }
+    }
+
+    /**
+     * @return the executor of the signing threads or null if the signatures are calculated by the caller
+     */
+    Executor getExecutor() {
+        return executor;
+    }
+
+    PrivateKey getPrivateKey(String keyId) {
+        return privateKeys.get(keyId);
+    }
+
+    boolean hasPrivateKey(String keyId) {
+        return privateKeys.containsKey(keyId);
+    }
+
+    /**
+     * @return the generation of the private keys, to be read before the key to be put is loaded
+     */
+    synchronized int getKeysGeneration() {
+        return keysGeneration;
+    }
+
+    /**
+     * Puts the private key unless the private keys have been cleared since the given generation was read. A key
+     * loaded by a signing thread is thus not kept after the token has been deactivated.
+     * @param keyId the key id
+     * @param key the private key
+     * @param generation the generation read before the key was loaded
+     * @return true if the key was put
+     */
+    synchronized boolean putPrivateKey(String keyId, PrivateKey key, int generation) {
+        if (generation != keysGeneration) {
+            return false;
+        }
+
+        Map<String, PrivateKey> keys = new HashMap<>(privateKeys);
+        keys.put(keyId, key);
+
+        privateKeys = Collections.unmodifiableMap(keys);
+
+        return true;
+    }
+
+    synchronized void clearPrivateKeys() {
+        keysGeneration++;
+
+        privateKeys = Collections.emptyMap();
+    }
+
+    /**
+     * Signs the data in the current thread.
+     * @param key the private key
+     * @param data the data to be signed
+     * @return the signature
+     * @throws GeneralSecurityException if signing fails
+     */
+    static byte[] sign(PrivateKey key, byte[] data) throws GeneralSecurityException {
+        Signature signature = SIGNATURE.get();
+        signature.initSign(key);
+        signature.update(data);
+
+        return signature.sign();
+    }
+
+    void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    private static Signature newSignature() {
+        try {
+            return Signature.getInstance(SIGNATURE_ALGORITHM);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
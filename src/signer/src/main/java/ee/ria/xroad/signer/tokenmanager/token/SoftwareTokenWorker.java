@@ -48,9 +48,7 @@ import java.nio.file.Paths;
 import java.security.KeyPair;
 import java.security.KeyStore;
 import java.security.PrivateKey;
-import java.security.Signature;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.Executor;
 
 import static ee.ria.xroad.common.ErrorCodes.X_INTERNAL_ERROR;
 import static ee.ria.xroad.common.ErrorCodes.X_PIN_INCORRECT;
@@ -86,10 +84,8 @@ import static ee.ria.xroad.signer.util.ExceptionHelper.tokenNotInitialized;
 @Slf4j
 public class SoftwareTokenWorker extends AbstractTokenWorker {
 
-    // Use no digesting algorithm, since the input data is already a digest
-    private static final String SIGNATURE_ALGORITHM = "NONEwithRSA";
-
-    private final Map<String, PrivateKey> privateKeys = new HashMap<>();
+    private final SoftwareTokenSigner signer = new SoftwareTokenSigner(
+            SystemProperties.getSignerSoftTokenSigningThreads(), SystemProperties.getSignerSoftTokenSigningQueueSize());
 
     /**
      * Creates new worker.
@@ -117,6 +113,18 @@ public class SoftwareTokenWorker extends AbstractTokenWorker {
         }
     }
 
+    @Override
+    public void postStop() throws Exception {
+        super.postStop();
+
+        signer.shutdown();
+    }
+
+    @Override
+    protected Executor getSignExecutor() {
+        return signer.getExecutor();
+    }
+
     @Override
     protected void onMessage(Object message) throws Exception {
         if (message instanceof InitSoftwareToken) {
@@ -183,6 +191,9 @@ public class SoftwareTokenWorker extends AbstractTokenWorker {
 
         checkSignatureAlgorithm(signatureAlgorithmId);
 
+        // Read before the token is checked to be active, since the token is deactivated before the keys are cleared
+        int keysGeneration = signer.getKeysGeneration();
+
         if (!isTokenActive(tokenId)) {
             throw tokenNotActive(tokenId);
         }
@@ -191,7 +202,7 @@ public class SoftwareTokenWorker extends AbstractTokenWorker {
             throw keyNotAvailable(keyId);
         }
 
-        PrivateKey key = getPrivateKey(keyId);
+        PrivateKey key = getPrivateKey(keyId, keysGeneration);
 
         if (key == null) {
             throw keyNotFound(keyId);
@@ -199,11 +210,7 @@ public class SoftwareTokenWorker extends AbstractTokenWorker {
 
         log.debug("Signing with key '{}' and signature algorithm '{}'", keyId, signatureAlgorithmId);
 
-        Signature signature = Signature.getInstance(SIGNATURE_ALGORITHM);
-        signature.initSign(key);
-        signature.update(data);
-
-        return signature.sign();
+        return SoftwareTokenSigner.sign(key, data);
     }
 
     private static void checkSignatureAlgorithm(String signatureAlgorithmId) throws CodedException {
@@ -248,12 +255,12 @@ public class SoftwareTokenWorker extends AbstractTokenWorker {
 
             setKeyAvailable(keyId, true);
 
-            if (privateKeys.containsKey(keyId)) {
+            if (signer.hasPrivateKey(keyId)) {
                 continue;
             }
 
             try {
-                initializePrivateKey(keyId);
+                initializePrivateKey(keyId, signer.getKeysGeneration());
             } catch (Exception e) {
                 setKeyAvailable(keyId, false);
 
@@ -280,23 +287,25 @@ public class SoftwareTokenWorker extends AbstractTokenWorker {
         }
     }
 
-    private PrivateKey getPrivateKey(String keyId) throws Exception {
-        PrivateKey pkey = privateKeys.get(keyId);
+    private PrivateKey getPrivateKey(String keyId, int keysGeneration) throws Exception {
+        PrivateKey pkey = signer.getPrivateKey(keyId);
 
         if (pkey == null) {
-            initializePrivateKey(keyId);
+            initializePrivateKey(keyId, keysGeneration);
         }
 
-        return privateKeys.get(keyId);
+        return signer.getPrivateKey(keyId);
     }
 
-    private void initializePrivateKey(String keyId) throws Exception {
+    private void initializePrivateKey(String keyId, int keysGeneration) throws Exception {
         PrivateKey pkey = loadPrivateKey(keyId);
 
         if (pkey != null) {
-            log.debug("Found usable key '{}'", keyId);
-
-            privateKeys.put(keyId, pkey);
+            if (signer.putPrivateKey(keyId, pkey, keysGeneration)) {
+                log.debug("Found usable key '{}'", keyId);
+            } else {
+                log.debug("Token '{}' was deactivated while loading key '{}'", tokenId, keyId);
+            }
         }
     }
 
@@ -340,9 +349,9 @@ public class SoftwareTokenWorker extends AbstractTokenWorker {
     }
 
     private void deactivateToken() {
-        privateKeys.clear();
-
         setTokenActive(tokenId, false);
+
+        signer.clearPrivateKeys();
     }
 
     private PrivateKey loadPrivateKey(String keyId) throws Exception {
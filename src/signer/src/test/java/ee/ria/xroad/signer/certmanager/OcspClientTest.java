@@ -24,6 +24,8 @@
  */
 package ee.ria.xroad.signer.certmanager;
 
+import ee.ria.xroad.common.CertificationServiceDiagnostics;
+import ee.ria.xroad.common.DiagnosticsErrorCodes;
 import ee.ria.xroad.common.OcspTestUtils;
 import ee.ria.xroad.common.TestCertUtil;
 import ee.ria.xroad.common.conf.globalconf.GlobalConf;
@@ -33,6 +35,7 @@ import ee.ria.xroad.common.ocsp.OcspVerifierOptions;
 
 import akka.actor.ActorSystem;
 import akka.actor.Props;
+import akka.testkit.JavaTestKit;
 import akka.testkit.TestActorRef;
 import org.bouncycastle.cert.ocsp.CertificateStatus;
 import org.bouncycastle.cert.ocsp.OCSPException;
@@ -63,11 +66,16 @@ import java.security.PrivateKey;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static ee.ria.xroad.common.util.CryptoUtils.calculateCertHexHash;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
@@ -244,6 +252,76 @@ public class OcspClientTest {
         OcspClient.fetchResponse(RESPONDER_URI, subject, issuer, null, null, null);
     }
 
+    /**
+     * Test that an execution requested during a refresh cycle fetches the remaining certificates now and starts a
+     * new cycle, so that both requesters get a reply.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void executeDuringRefreshCycle() throws Exception {
+        GlobalConfProvider testConf = getTestGlobalConf();
+        when(testConf.isValid()).thenReturn(true);
+        when(testConf.getInstanceIdentifier()).thenReturn("EE");
+
+        GlobalConf.reload(testConf);
+
+        TestActorRef<StaggeredOcspClient> staggeredActor =
+                TestActorRef.create(ACTOR_SYSTEM, Props.create(StaggeredOcspClient.class));
+
+        JavaTestKit first = new JavaTestKit(ACTOR_SYSTEM);
+        JavaTestKit second = new JavaTestKit(ACTOR_SYSTEM);
+
+        try {
+            staggeredActor.tell(OcspClientWorker.EXECUTE, first.getRef());
+
+            // The certificate is scheduled to be fetched in an hour
+            first.expectNoMsg(JavaTestKit.duration("200 milliseconds"));
+
+            staggeredActor.tell(OcspClientWorker.EXECUTE, second.getRef());
+
+            first.expectMsgEquals(JavaTestKit.duration("10 seconds"), OcspClientWorker.SUCCESS);
+            second.expectMsgEquals(JavaTestKit.duration("10 seconds"), OcspClientWorker.SUCCESS);
+
+            assertEquals(2, staggeredActor.underlyingActor().fetched.get());
+        } finally {
+            staggeredActor.stop();
+        }
+    }
+
+    /**
+     * Tests that the responder statuses reported while querying are in the diagnostics, and that a diagnostics
+     * reply does not change with later reports.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void diagnosticsReplyIsSnapshot() throws Exception {
+        X509Certificate subject = getDefaultClientCert();
+
+        GlobalConf.reload(getTestGlobalConf());
+
+        String issuerName = GlobalConf.getCaCert("EE", subject).getSubjectDN().toString();
+
+        responseData = OcspTestUtils.createOCSPResponse(subject, GlobalConf.getCaCert("EE", subject), ocspResponderCert,
+                getOcspSignerKey(), CertificateStatus.GOOD).getEncoded();
+
+        queryAndUpdateCertStatus(ocspClient, subject);
+
+        JavaTestKit probe = new JavaTestKit(ACTOR_SYSTEM);
+        testActor.tell(OcspClientWorker.DIAGNOSTICS, probe.getRef());
+        CertificationServiceDiagnostics diagnostics = probe.expectMsgClass(CertificationServiceDiagnostics.class);
+
+        responseData = "abcdefgh".getBytes();
+
+        queryAndUpdateCertStatus(ocspClient, subject);
+
+        testActor.tell(OcspClientWorker.DIAGNOSTICS, probe.getRef());
+        CertificationServiceDiagnostics updated = probe.expectMsgClass(CertificationServiceDiagnostics.class);
+
+        assertEquals(DiagnosticsErrorCodes.RETURN_SUCCESS, getResponderStatus(diagnostics, issuerName));
+        assertEquals(DiagnosticsErrorCodes.ERROR_CODE_OCSP_RESPONSE_INVALID,
+                getResponderStatus(updated, issuerName));
+    }
+
     // ------------------------------------------------------------------------
 
     /**
@@ -333,6 +411,11 @@ public class OcspClientTest {
         OCSP_RESPONSES.put(subjectHash, response);
     }
 
+    private static int getResponderStatus(CertificationServiceDiagnostics diagnostics, String issuerName) {
+        return diagnostics.getCertificationServiceStatusMap().get(issuerName).getOcspResponderStatusMap()
+                .get(RESPONDER_URI).getStatus();
+    }
+
     private OCSPResp getOcspResponse(X509Certificate subject) throws Exception {
         return OCSP_RESPONSES.get(hash(subject));
     }
@@ -344,6 +427,37 @@ public class OcspClientTest {
         }
     }
 
+    private static class StaggeredOcspClient extends OcspClientWorker {
+        private final AtomicInteger fetched = new AtomicInteger();
+
+        @Override
+        List<X509Certificate> getCertsForOcsp() {
+            try {
+                return Collections.singletonList(getDefaultClientCert());
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        long getFetchTimeMillis(X509Certificate subject, long now) {
+            return now + TimeUnit.HOURS.toMillis(1);
+        }
+
+        @Override
+        OCSPResp queryCertStatus(X509Certificate subject, OcspVerifierOptions verifierOptions) throws Exception {
+            fetched.incrementAndGet();
+
+            return OcspTestUtils.createOCSPResponse(subject, GlobalConf.getCaCert("EE", subject), ocspResponderCert,
+                    getOcspSignerKey(), CertificateStatus.GOOD);
+        }
+
+        @Override
+        void updateCertStatuses(Map<String, OCSPResp> statuses) {
+            // the statuses are not needed
+        }
+    }
+
     private static class TestOCSPResponder extends AbstractHandler {
 
         private final String responseContentType = "application/ocsp-response";
@@ -0,0 +1,176 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.signer.certmanager;
+
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.junit.After;
+import org.junit.Test;
+
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests the parallel OCSP fetcher.
+ */
+public class OcspFetcherTest {
+
+    private static final int THREADS = 8;
+    private static final int MAX_CONCURRENT_REQUESTS = 2;
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(THREADS);
+
+    private final OcspFetcher fetcher = new OcspFetcher(executor, MAX_CONCURRENT_REQUESTS);
+
+    private final OCSPResp response = mock(OCSPResp.class);
+
+    /**
+     * Stops the fetcher threads.
+     */
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Test that the requests to one responder are limited and the responders are fetched in parallel.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void limitsConcurrentRequestsPerResponder() throws Exception {
+        Map<X509Certificate, String> responders = new ConcurrentHashMap<>();
+        Map<String, AtomicInteger> running = new ConcurrentHashMap<>();
+        Map<String, AtomicInteger> maxRunning = new ConcurrentHashMap<>();
+        List<OcspFetcher.FetchTask> tasks = new ArrayList<>();
+
+        long now = System.currentTimeMillis();
+
+        for (String responder : new String[] {"http://a", "http://b"}) {
+            running.put(responder, new AtomicInteger());
+            maxRunning.put(responder, new AtomicInteger());
+
+            for (int i = 0; i < 5; i++) {
+                X509Certificate subject = mock(X509Certificate.class);
+
+                responders.put(subject, responder);
+                tasks.add(new OcspFetcher.FetchTask(subject, responder, now));
+            }
+        }
+
+        Map<X509Certificate, OCSPResp> responses = new ConcurrentHashMap<>();
+        CompletableFuture<Boolean> completed = new CompletableFuture<>();
+
+        fetcher.fetch(tasks, subject -> {
+            String responder = responders.get(subject);
+            int current = running.get(responder).incrementAndGet();
+
+            maxRunning.get(responder).accumulateAndGet(current, Math::max);
+
+            Thread.sleep(20);
+
+            running.get(responder).decrementAndGet();
+
+            return response;
+        }, responses::put, completed::complete);
+
+        assertFalse(completed.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(tasks.size(), responses.size());
+
+        for (AtomicInteger max : maxRunning.values()) {
+            assertEquals(MAX_CONCURRENT_REQUESTS, max.get());
+        }
+    }
+
+    /**
+     * Test that a certificate is not fetched before its fetch time and failures are reported.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void fetchesAtScheduledTimeAndReportsFailure() throws Exception {
+        X509Certificate later = mock(X509Certificate.class);
+        X509Certificate failing = mock(X509Certificate.class);
+
+        long fetchTime = System.currentTimeMillis() + 200;
+
+        List<OcspFetcher.FetchTask> tasks = new ArrayList<>();
+        tasks.add(new OcspFetcher.FetchTask(later, "http://a", fetchTime));
+        tasks.add(new OcspFetcher.FetchTask(failing, "http://b", 0));
+
+        Map<X509Certificate, Long> fetchedAt = new ConcurrentHashMap<>();
+        CompletableFuture<Boolean> completed = new CompletableFuture<>();
+
+        fetcher.fetch(tasks, subject -> {
+            fetchedAt.put(subject, System.currentTimeMillis());
+
+            return subject == failing ? null : response;
+        }, (subject, resp) -> { }, completed::complete);
+
+        assertTrue(completed.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(fetchedAt.get(later) >= fetchTime);
+        assertTrue(fetchedAt.containsKey(failing));
+    }
+
+    /**
+     * Test that an expedited fetch does not wait for the scheduled times.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void expeditedFetchDoesNotWait() throws Exception {
+        long fetchTime = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1);
+
+        List<OcspFetcher.FetchTask> tasks = new ArrayList<>();
+
+        for (int i = 0; i < 5; i++) {
+            tasks.add(new OcspFetcher.FetchTask(mock(X509Certificate.class), "http://a", fetchTime));
+        }
+
+        Map<X509Certificate, OCSPResp> responses = new ConcurrentHashMap<>();
+        CompletableFuture<Boolean> completed = new CompletableFuture<>();
+
+        OcspFetcher.Fetch fetch = fetcher.fetch(tasks, subject -> response, responses::put, completed::complete);
+
+        Thread.sleep(100);
+
+        assertTrue(responses.isEmpty());
+
+        fetch.expedite();
+
+        assertFalse(completed.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(tasks.size(), responses.size());
+    }
+}
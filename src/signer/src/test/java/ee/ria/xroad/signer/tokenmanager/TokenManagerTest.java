@@ -0,0 +1,168 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.signer.tokenmanager;
+
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.signer.protocol.dto.CertificateInfo;
+import ee.ria.xroad.signer.protocol.dto.KeyInfo;
+import ee.ria.xroad.signer.protocol.dto.TokenInfo;
+
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.OCSPRespBuilder;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.contrib.java.lang.system.RestoreSystemProperties;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static ee.ria.xroad.common.util.CryptoUtils.calculateCertHexHash;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that {@link TokenManager} readers see the state published by the writers.
+ */
+public class TokenManagerTest {
+
+    private static final String KEY_CONF = "./build/resources/test/mergetesting/keyconf_base_no_duplicate_keyIds.xml";
+
+    private static final String TOKEN_ID = "1";
+    private static final String PRODUCER_KEY_ID = "70726f6475636572";
+    private static final ClientId PRODUCER = ClientId.create("EE", "BUSINESS", "producer");
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Rule
+    public final RestoreSystemProperties restoreSystemProperties = new RestoreSystemProperties();
+
+    /**
+     * Loads the key configuration into the token manager.
+     */
+    @Before
+    public void setUp() throws Exception {
+        File keyConf = temporaryFolder.newFile("keyconf.xml");
+        Files.copy(Paths.get(KEY_CONF), keyConf.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        System.setProperty(SystemProperties.KEY_CONFIGURATION_FILE, keyConf.getPath());
+
+        TokenManager.init();
+    }
+
+    @Test
+    public void shouldPublishWritesToReaders() {
+        assertFalse(TokenManager.isKeyAvailable(PRODUCER_KEY_ID));
+
+        TokenManager.setKeyAvailable(PRODUCER_KEY_ID, true);
+        TokenManager.setKeyFriendlyName(PRODUCER_KEY_ID, "renamed");
+
+        KeyInfo keyInfo = TokenManager.getKeyInfo(PRODUCER_KEY_ID);
+        assertTrue(keyInfo.isAvailable());
+        assertEquals("renamed", keyInfo.getFriendlyName());
+        assertEquals(TOKEN_ID, TokenManager.findTokenAndKey(PRODUCER_KEY_ID).getTokenId());
+        assertEquals(TOKEN_ID, TokenManager.findTokenIdForKeyId(PRODUCER_KEY_ID));
+
+        CertificateInfo cert = keyInfo.getCerts().get(0);
+        assertEquals(cert, TokenManager.getCertificateInfo(cert.getId()));
+        assertEquals(PRODUCER_KEY_ID, TokenManager.getKeyInfoForCertId(cert.getId()).getId());
+
+        assertTrue(TokenManager.removeCert(cert.getId()));
+        assertNull(TokenManager.getCertificateInfo(cert.getId()));
+        assertFalse(TokenManager.removeCert(cert.getId()));
+    }
+
+    @Test
+    public void shouldKeepReturnedSnapshotsUnchanged() {
+        List<TokenInfo> before = TokenManager.listTokens();
+        TokenInfo tokenBefore = TokenManager.getTokenInfo(TOKEN_ID);
+
+        assertSame(before, TokenManager.listTokens());
+
+        TokenManager.setTokenFriendlyName(TOKEN_ID, "changed");
+
+        assertEquals(tokenBefore, before.get(0));
+        assertEquals("changed", TokenManager.getTokenInfo(TOKEN_ID).getFriendlyName());
+        assertEquals("changed", TokenManager.listTokens().get(0).getFriendlyName());
+    }
+
+    @Test
+    public void shouldFindSigningKeysOnlyForActiveTokensKeysAndCerts() {
+        assertTrue(TokenManager.getKeyInfo(PRODUCER).isEmpty());
+
+        String certId = TokenManager.getKeyInfo(PRODUCER_KEY_ID).getCerts().get(0).getId();
+
+        TokenManager.setCertActive(certId, false);
+        TokenManager.setTokenAvailable(TOKEN_ID, true);
+        TokenManager.setTokenActive(TOKEN_ID, true);
+        TokenManager.setKeyAvailable(PRODUCER_KEY_ID, true);
+        assertTrue(TokenManager.getKeyInfo(PRODUCER).isEmpty());
+
+        TokenManager.setCertActive(certId, true);
+
+        List<KeyInfo> keys = TokenManager.getKeyInfo(PRODUCER);
+        assertEquals(1, keys.size());
+        assertEquals(PRODUCER_KEY_ID, keys.get(0).getId());
+
+        TokenManager.setTokenActive(TOKEN_ID, false);
+        assertTrue(TokenManager.getKeyInfo(PRODUCER).isEmpty());
+    }
+
+    @Test
+    public void shouldSetOcspResponsesWithOneSnapshot() throws Exception {
+        CertificateInfo cert = TokenManager.getKeyInfo(PRODUCER_KEY_ID).getCerts().get(0);
+        String certHash = calculateCertHexHash(cert.getCertificateBytes());
+        OCSPResp response = new OCSPRespBuilder().build(OCSPRespBuilder.TRY_LATER, null);
+
+        List<TokenInfo> before = TokenManager.listTokens();
+
+        Map<String, OCSPResp> responses = new HashMap<>();
+        responses.put(certHash, response);
+        responses.put("unknown", response);
+        TokenManager.setOcspResponses(responses);
+
+        List<TokenInfo> after = TokenManager.listTokens();
+        assertNotSame(before, after);
+        assertArrayEquals(response.getEncoded(), TokenManager.getCertificateInfo(cert.getId()).getOcspBytes());
+
+        // nothing changed, nothing published
+        TokenManager.setOcspResponses(responses);
+        TokenManager.setOcspResponses(Collections.singletonMap("unknown", response));
+        assertSame(after, TokenManager.listTokens());
+    }
+}
@@ -0,0 +1,215 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.signer.tokenmanager.token;
+
+import ee.ria.xroad.common.util.CryptoUtils;
+import ee.ria.xroad.signer.protocol.dto.TokenInfo;
+import ee.ria.xroad.signer.protocol.dto.TokenStatusInfo;
+import ee.ria.xroad.signer.protocol.message.ActivateToken;
+import ee.ria.xroad.signer.protocol.message.GenerateKey;
+import ee.ria.xroad.signer.util.CalculateSignature;
+import ee.ria.xroad.signer.util.CalculatedSignature;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.testkit.JavaTestKit;
+import akka.testkit.TestActorRef;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests where {@link AbstractTokenWorker} calculates signatures and where it sends them.
+ */
+public class AbstractTokenWorkerTest {
+
+    private static final ActorSystem ACTOR_SYSTEM = ActorSystem.create("AbstractTokenWorkerTest");
+
+    private static final byte[] SIGNATURE = {1, 2, 3};
+
+    /**
+     * Stops the actor system.
+     */
+    @AfterClass
+    public static void tearDownClass() {
+        JavaTestKit.shutdownActorSystem(ACTOR_SYSTEM);
+    }
+
+    /**
+     * Tests that signatures are calculated by the sign executor and sent to the senders of the requests, also
+     * when the worker has processed messages of other senders in between.
+     */
+    @Test
+    public void signsInExecutorAndRepliesToOriginalSender() {
+        List<Runnable> tasks = new ArrayList<>();
+        TestActorRef<TestTokenWorker> worker = createWorker(tasks::add);
+
+        JavaTestKit first = new JavaTestKit(ACTOR_SYSTEM);
+        JavaTestKit second = new JavaTestKit(ACTOR_SYSTEM);
+
+        CalculateSignature firstRequest = createRequest("first");
+        CalculateSignature secondRequest = createRequest("second");
+
+        worker.tell(firstRequest, first.getRef());
+        worker.tell(secondRequest, second.getRef());
+
+        first.expectNoMsg(JavaTestKit.duration("100 milliseconds"));
+        assertEquals(2, tasks.size());
+
+        Thread signer = new Thread(() -> tasks.forEach(Runnable::run));
+        signer.start();
+
+        assertResponse(firstRequest, first.expectMsgClass(CalculatedSignature.class));
+        assertResponse(secondRequest, second.expectMsgClass(CalculatedSignature.class));
+        assertSame(signer, worker.underlyingActor().signingThread);
+    }
+
+    /**
+     * Tests that the worker signs itself when the sign executor rejects the request.
+     */
+    @Test
+    public void signsInWorkerWhenExecutorRejects() {
+        TestActorRef<TestTokenWorker> worker = createWorker(task -> {
+            throw new RejectedExecutionException("full");
+        });
+
+        JavaTestKit probe = new JavaTestKit(ACTOR_SYSTEM);
+        CalculateSignature request = createRequest("key");
+
+        worker.tell(request, probe.getRef());
+
+        assertResponse(request, probe.expectMsgClass(CalculatedSignature.class));
+        // the test actor ref processes the messages in the calling thread
+        assertSame(Thread.currentThread(), worker.underlyingActor().signingThread);
+    }
+
+    /**
+     * Tests that the worker signs itself when it has no sign executor.
+     */
+    @Test
+    public void signsInWorkerWithoutExecutor() {
+        TestActorRef<TestTokenWorker> worker = createWorker(null);
+
+        JavaTestKit probe = new JavaTestKit(ACTOR_SYSTEM);
+        CalculateSignature request = createRequest("key");
+
+        worker.tell(request, probe.getRef());
+
+        assertResponse(request, probe.expectMsgClass(CalculatedSignature.class));
+        assertSame(Thread.currentThread(), worker.underlyingActor().signingThread);
+    }
+
+    private static TestActorRef<TestTokenWorker> createWorker(Executor executor) {
+        return TestActorRef.create(ACTOR_SYSTEM, Props.create(TestTokenWorker.class, new TestExecutor(executor)));
+    }
+
+    private static CalculateSignature createRequest(String keyId) {
+        return new CalculateSignature(ActorRef.noSender(), keyId, CryptoUtils.SHA256WITHRSA_ID, new byte[32]);
+    }
+
+    private static void assertResponse(CalculateSignature request, CalculatedSignature response) {
+        assertSame(request, response.getRequest());
+        assertNull(response.getException());
+        assertArrayEquals(SIGNATURE, response.getSignature());
+    }
+
+    /**
+     * Holder of the sign executor, which may be null.
+     */
+    private static final class TestExecutor {
+        private final Executor executor;
+
+        TestExecutor(Executor executor) {
+            this.executor = executor;
+        }
+    }
+
+    private static final class TestTokenWorker extends AbstractTokenWorker {
+
+        private final Executor signExecutor;
+
+        private volatile Thread signingThread;
+
+        TestTokenWorker(TestExecutor signExecutor) {
+            super(new TokenInfo("test", "test", "test", false, true, true, null, null, 0, TokenStatusInfo.OK,
+                    Collections.emptyList(), Collections.emptyMap()));
+
+            this.signExecutor = signExecutor.executor;
+        }
+
+        @Override
+        protected Executor getSignExecutor() {
+            return signExecutor;
+        }
+
+        @Override
+        protected byte[] sign(String keyId, String signatureAlgorithmId, byte[] data) {
+            signingThread = Thread.currentThread();
+
+            return SIGNATURE;
+        }
+
+        @Override
+        public void postStop() {
+            // the token is not known to the token manager
+        }
+
+        @Override
+        protected void onUpdate() {
+            // nothing to update
+        }
+
+        @Override
+        protected void activateToken(ActivateToken message) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected GenerateKeyResult generateKey(GenerateKey message) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected void deleteKey(String keyId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected void deleteCert(String certId) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * The MIT License
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.signer.tokenmanager.token;
+
+import org.junit.Test;
+
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests {@link SoftwareTokenSigner}.
+ */
+public class SoftwareTokenSignerTest {
+
+    private static final String KEY_ID = "key";
+
+    /**
+     * A key loaded before the keys are cleared is not kept.
+     */
+    @Test
+    public void shouldNotPutKeyLoadedBeforeClear() throws Exception {
+        SoftwareTokenSigner signer = new SoftwareTokenSigner(1, 1);
+        PrivateKey key = generatePrivateKey();
+
+        int generation = signer.getKeysGeneration();
+        signer.clearPrivateKeys();
+
+        assertFalse(signer.putPrivateKey(KEY_ID, key, generation));
+        assertNull(signer.getPrivateKey(KEY_ID));
+
+        assertTrue(signer.putPrivateKey(KEY_ID, key, signer.getKeysGeneration()));
+        assertSame(key, signer.getPrivateKey(KEY_ID));
+
+        signer.clearPrivateKeys();
+
+        assertFalse(signer.hasPrivateKey(KEY_ID));
+    }
+
+    /**
+     * The signing executor rejects signatures when the queue is full and after it has been shut down, so that the
+     * token worker signs them itself.
+     */
+    @Test
+    public void shouldRejectWhenQueueFullOrShutdown() throws Exception {
+        SoftwareTokenSigner signer = new SoftwareTokenSigner(2, 1);
+        Executor executor = signer.getExecutor();
+        CountDownLatch release = new CountDownLatch(1);
+
+        try {
+            executor.execute(() -> await(release));
+            executor.execute(() -> await(release));
+            executor.execute(() -> await(release));
+
+            assertRejected(executor);
+        } finally {
+            release.countDown();
+            signer.shutdown();
+        }
+
+        assertRejected(executor);
+    }
+
+    private static void assertRejected(Executor executor) {
+        try {
+            executor.execute(() -> fail("Executed rejected signature"));
+
+            fail("Signature was not rejected");
+        } catch (RejectedExecutionException expected) {
+            // expected
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static PrivateKey generatePrivateKey() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+
+        return generator.generateKeyPair().getPrivate();
+    }
+}